@@ -0,0 +1,70 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xml.decoder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.sax.NonBlockingXMLReader;
+import org.apache.vysper.xml.sax.impl.DefaultNonBlockingXMLReader;
+import org.xml.sax.SAXException;
+
+/**
+ * parses a batch of rendered elements in one go. the elements are concatenated and enclosed 
+ * in a single wrapper element, like stanzas in a stream.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class XMLElementBatchDecoder {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * @param batch the UTF-8 encoded wrapper element, including the batched elements
+     * @param builderFactory creates the builders for the decoded elements
+     * @param type decoded elements which are not of this type are skipped
+     * @param elements receives the batched elements in batch order. the wrapper element is not added.
+     * when decoding fails, it holds all elements decoded until then.
+     */
+    public static <T extends XMLElement> void decode(IoBuffer batch, XMLElementBuilderFactory builderFactory,
+            final Class<T> type, final List<T> elements) throws IOException, SAXException {
+        XMPPContentHandler contentHandler = new XMPPContentHandler(builderFactory);
+        contentHandler.setListener(new XMPPContentHandler.StanzaListener() {
+            private boolean wrapperElement = true;
+
+            public void stanza(XMLElement element) {
+                // the wrapper is emitted first, as soon as it is opened
+                if (wrapperElement) {
+                    wrapperElement = false;
+                    return;
+                }
+                if (type.isInstance(element)) {
+                    elements.add(type.cast(element));
+                }
+            }
+        });
+        NonBlockingXMLReader reader = new DefaultNonBlockingXMLReader();
+        reader.setContentHandler(contentHandler);
+        reader.parse(batch, UTF8.newDecoder());
+    }
+}
@@ -93,6 +93,25 @@ public class Renderer {
             }
         }
         openElementBuffer.append(">");
+
+        RenderedContentCache contentCache = element == topElement ? element.getRenderedContentCache() : null;
+        String cachedContent = contentCache == null ? null : contentCache.getContent();
+        if (cachedContent != null) {
+            elementContentBuffer.append(cachedContent);
+        } else {
+            renderInnerFragments(element, nsResolver, elementContentBuffer);
+            if (contentCache != null) contentCache.setContent(elementContentBuffer.toString());
+        }
+
+        closeElementBuffer.append("</");
+        renderElementName(closeElementBuffer, element, nsResolver);
+        closeElementBuffer.append(">");
+        // remove this element from the NS resolver stack
+        nsResolver.pop();
+    }
+
+    private void renderInnerFragments(XMLElement element, ResolverNamespaceResolver nsResolver,
+            StringBuilder elementContentBuffer) {
         for (XMLFragment xmlFragment : element.getInnerFragments()) {
             if (xmlFragment instanceof XMLElement) {
                 renderXMLElement((XMLElement) xmlFragment, nsResolver, elementContentBuffer, elementContentBuffer,
@@ -106,12 +125,6 @@ public class Renderer {
                         + xmlFragment.getClass().getName());
             }
         }
-
-        closeElementBuffer.append("</");
-        renderElementName(closeElementBuffer, element, nsResolver);
-        closeElementBuffer.append(">");
-        // remove this element from the NS resolver stack
-        nsResolver.pop();
     }
 
     private boolean hasXmlnsReservedName(Attribute attribute) {
@@ -322,6 +322,15 @@ public class XMLElement implements XMLFragment {
         return result;
     }
 
+    /**
+     * elements sharing their inner fragments with other elements can return a shared cache here, so that
+     * the Renderer renders the content only once. the content of inner elements is never cached.
+     * @return the cache for the rendered content of this element, or NULL if it is not cached (the default)
+     */
+    protected RenderedContentCache getRenderedContentCache() {
+        return null;
+    }
+
     public XMLElementVerifier getVerifier() {
         if (xmlElementVerifier == null)
             xmlElementVerifier = new XMLElementVerifier(this);
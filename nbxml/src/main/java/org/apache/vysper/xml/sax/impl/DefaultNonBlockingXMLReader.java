@@ -185,4 +185,15 @@ public class DefaultNonBlockingXMLReader implements NonBlockingXMLReader {
         parser.parse(buffer, decoder);
     }
 
+    /**
+     * Prepares the reader for parsing a new document, keeping the handlers, features and properties.
+     * This allows to reuse a reader for many short documents, instead of creating a new one for each.
+     * Unparsed bytes from the previous document must be discarded by the caller.
+     */
+    public void reset() {
+        if (parser != null) {
+            parser.reset();
+        }
+    }
+
 }
\ No newline at end of file
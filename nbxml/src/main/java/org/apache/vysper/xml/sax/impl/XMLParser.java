@@ -333,6 +333,19 @@ public class XMLParser implements TokenListener {
         sentStartDocument = false;
     }
 
+    /**
+     * discards all parsing state, including a fatal error or a completed document,
+     * so that the parser can be reused for the next document
+     */
+    public void reset() {
+        restart();
+        tokenizer.reset();
+        state = State.START;
+        qname = null;
+        attributes = null;
+        attributeName = null;
+    }
+
     private void xmlDeclaration() {
         // we got an XML declaration, should we restart stream?
         // TODO could also be a PI, if we want to support PIs, this code needs further attention
@@ -133,6 +133,14 @@ public class XMLTokenizer {
         state = State.CLOSED;
     }
 
+    /**
+     * discards the tokenizer state, the next buffer is tokenized as the beginning of a new document
+     */
+    public void reset() {
+        state = State.START;
+        lastPosition = 0;
+    }
+
     private boolean isControlChar(char c) {
         return c == '<' || c == '>' || c == '!' || c == '/' || c == '?' || c == '=';
     }
@@ -172,6 +172,29 @@ public class RendererTestCase extends TestCase {
         assertRendering("<foo>ba&lt;r</foo>", elm);
     }
 
+    public void testRenderCachedContent() {
+        final RenderedContentCache cache = new RenderedContentCache();
+        XMLElement first = new XMLElement(null, "foo", null, new Attribute[] { new Attribute("to", "a") },
+                new XMLFragment[] { new XMLText("bar") }) {
+            @Override
+            protected RenderedContentCache getRenderedContentCache() {
+                return cache;
+            }
+        };
+        assertRendering("<foo to=\"a\">bar</foo>", first);
+        assertEquals("bar", cache.getContent());
+
+        // the second element shares the cache, its own inner fragments are not rendered
+        XMLElement second = new XMLElement(null, "foo", null, new Attribute[] { new Attribute("to", "b") },
+                new XMLFragment[] { new XMLText("other") }) {
+            @Override
+            protected RenderedContentCache getRenderedContentCache() {
+                return cache;
+            }
+        };
+        assertRendering("<foo to=\"b\">bar</foo>", second);
+    }
+
     private void assertRendering(String expected, XMLElement elm) {
         assertEquals(expected, new Renderer(elm).getComplete());
     }
@@ -19,9 +19,12 @@
  */
 package org.apache.vysper.xml.sax.impl;
 
+import java.util.List;
+
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.vysper.charset.CharsetUtil;
 import org.apache.vysper.xml.sax.NonBlockingXMLReader;
+import org.apache.vysper.xml.sax.impl.TestHandler.TestEvent;
 import org.xml.sax.DTDHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
@@ -68,6 +71,41 @@ public class DefaultAsyncXMLReaderTestCase extends AbstractAsyncXMLReaderTestCas
         }
     }
 
+    public void testParseAfterReset() throws Exception {
+        TestHandler handler = new TestHandler();
+        DefaultNonBlockingXMLReader reader = new DefaultNonBlockingXMLReader();
+        reader.setContentHandler(handler);
+        reader.setErrorHandler(handler);
+
+        reader.parse(IoBuffer.wrap("<root xmlns='urn:a'></root>".getBytes("UTF-8")), CharsetUtil.UTF8_DECODER);
+        reader.reset();
+        // the namespace declaration of the previous document must not leak into this one
+        reader.parse(IoBuffer.wrap("<other/>".getBytes("UTF-8")), CharsetUtil.UTF8_DECODER);
+
+        List<TestEvent> events = handler.getEvents();
+        assertEquals(8, events.size());
+        assertStartDocument(events.get(4));
+        assertStartElement("", "other", "other", events.get(5));
+        assertEndElement("", "other", "other", events.get(6));
+        assertEndDocument(events.get(7));
+    }
+
+    public void testParseAfterFatalErrorAndReset() throws Exception {
+        TestHandler handler = new TestHandler();
+        DefaultNonBlockingXMLReader reader = new DefaultNonBlockingXMLReader();
+        reader.setContentHandler(handler);
+        reader.setErrorHandler(handler);
+
+        // causes a fatal error, in the middle of a token
+        reader.parse(IoBuffer.wrap("<root></error><unfin".getBytes("UTF-8")), CharsetUtil.UTF8_DECODER);
+        reader.reset();
+        reader.parse(IoBuffer.wrap("<root/>".getBytes("UTF-8")), CharsetUtil.UTF8_DECODER);
+
+        List<TestEvent> events = handler.getEvents();
+        assertStartElement("", "root", "root", events.get(events.size() - 3));
+        assertEndDocument(events.get(events.size() - 1));
+    }
+
     public void testSetDtdHandlerNotSupported() {
         try {
             new DefaultNonBlockingXMLReader().setDTDHandler(new DTDHandler() {
@@ -0,0 +1,73 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xml.sax.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.xml.decoder.XMLElementBatchDecoder;
+import org.apache.vysper.xml.decoder.XMLElementBuilderFactory;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.xml.sax.SAXException;
+
+/**
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class XMLElementBatchDecoderTestCase extends TestCase {
+
+    private List<XMLElement> decode(String xml) throws Exception {
+        List<XMLElement> elements = new ArrayList<XMLElement>();
+        XMLElementBatchDecoder.decode(IoBuffer.wrap(xml.getBytes("UTF-8")), new XMLElementBuilderFactory(),
+                XMLElement.class, elements);
+        return elements;
+    }
+
+    public void testDecode() throws Exception {
+        List<XMLElement> elements = decode("<batch><message><body>one</body></message><iq/><message>"
+                + "<body>two</body></message></batch>");
+
+        assertEquals(3, elements.size());
+        assertEquals("message", elements.get(0).getName());
+        assertEquals("one", elements.get(0).getSingleInnerElementsNamed("body").getInnerText().getText());
+        assertEquals("iq", elements.get(1).getName());
+        assertEquals("two", elements.get(2).getSingleInnerElementsNamed("body").getInnerText().getText());
+    }
+
+    public void testEmptyBatch() throws Exception {
+        assertTrue(decode("<batch></batch>").isEmpty());
+    }
+
+    public void testBrokenBatchKeepsDecodedElements() throws Exception {
+        List<XMLElement> elements = new ArrayList<XMLElement>();
+        String xml = "<batch><message/><iq></message></batch>";
+        try {
+            XMLElementBatchDecoder.decode(IoBuffer.wrap(xml.getBytes("UTF-8")), new XMLElementBuilderFactory(),
+                    XMLElement.class, elements);
+            fail("broken batch must not decode");
+        } catch (SAXException e) {
+            // expected
+        }
+        assertEquals(1, elements.size());
+        assertEquals("message", elements.get(0).getName());
+    }
+}
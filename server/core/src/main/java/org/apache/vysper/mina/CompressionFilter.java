@@ -0,0 +1,255 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.core.write.WriteRequestWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * zlib compresses everything written and decompresses everything read (XEP-0138). every write is flushed with
+ * Deflater.SYNC_FLUSH, so the client can decompress each stanza as soon as it arrives.
+ * one filter instance serves one session, the Deflater and Inflater are borrowed from the ZlibCompression pool
+ * when the filter is added and returned when it is removed or the session closes.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class CompressionFilter extends IoFilterAdapter {
+
+    /**
+     * session attribute, when set the next buffer written passes uncompressed. this allows the filter to be
+     * installed before &lt;compressed/&gt; is written, so no compressed bytes from the client can slip past it.
+     */
+    public static final String DISABLE_COMPRESSION_ONCE = CompressionFilter.class.getName() + ".disableOnce";
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final Logger logger = LoggerFactory.getLogger(CompressionFilter.class);
+
+    private final ZlibCompression compression;
+
+    private final CompressionStatistics statistics;
+
+    /**
+     * guards the deflater, writes must be compressed in the order they are queued
+     */
+    private final Object deflateLock = new Object();
+
+    /**
+     * guards the inflater, it must not be returned to the pool while a buffer is decompressed
+     */
+    private final Object inflateLock = new Object();
+
+    private Deflater deflater;
+
+    private Inflater inflater;
+
+    private final byte[] deflateBuffer = new byte[BUFFER_SIZE];
+
+    /**
+     * only used by the reading thread
+     */
+    private final byte[] inflateBuffer = new byte[BUFFER_SIZE];
+
+    private long plainBytesWritten = 0;
+
+    private long compressedBytesWritten = 0;
+
+    /**
+     * a compressed buffer written for a buffer encoded by the XMPP codec
+     */
+    private static class CompressedWriteRequest extends WriteRequestWrapper {
+
+        private final IoBuffer compressed;
+
+        public CompressedWriteRequest(WriteRequest parentRequest, IoBuffer compressed) {
+            super(parentRequest);
+            this.compressed = compressed;
+        }
+
+        @Override
+        public Object getMessage() {
+            return compressed;
+        }
+    }
+
+    public CompressionFilter(ZlibCompression compression) {
+        this.compression = compression;
+        this.statistics = compression.getStatistics();
+    }
+
+    @Override
+    public void onPreAdd(IoFilterChain parent, String name, NextFilter nextFilter) throws Exception {
+        synchronized (deflateLock) {
+            if (deflater != null) {
+                throw new IllegalStateException("a compression filter can only be used by one session");
+            }
+            deflater = compression.borrowDeflater();
+        }
+        synchronized (inflateLock) {
+            inflater = compression.borrowInflater();
+        }
+    }
+
+    @Override
+    public void onPostRemove(IoFilterChain parent, String name, NextFilter nextFilter) throws Exception {
+        release();
+    }
+
+    @Override
+    public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+        release();
+        nextFilter.sessionClosed(session);
+    }
+
+    @Override
+    public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+        if (!(message instanceof IoBuffer)) {
+            nextFilter.messageReceived(session, message);
+            return;
+        }
+        IoBuffer in = (IoBuffer) message;
+        int compressedBytes = in.remaining();
+        IoBuffer out = IoBuffer.allocate(compressedBytes * 4).setAutoExpand(true);
+
+        synchronized (inflateLock) {
+            if (inflater == null) {
+                // session is closed, nothing more will be read
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                setInput(inflater, in);
+                int length;
+                do {
+                    length = inflater.inflate(inflateBuffer);
+                    out.put(inflateBuffer, 0, length);
+                } while (length > 0);
+            } catch (DataFormatException e) {
+                logger.warn("closing session, failed to decompress input: {}", e.getMessage());
+                session.close(true);
+                return;
+            }
+            statistics.recordInflate(compressedBytes, out.position(), System.nanoTime() - start);
+        }
+
+        out.flip();
+        if (out.hasRemaining()) {
+            nextFilter.messageReceived(session, out);
+        }
+    }
+
+    @Override
+    public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+        Object message = writeRequest.getMessage();
+        if (!(message instanceof IoBuffer) || !((IoBuffer) message).hasRemaining()) {
+            nextFilter.filterWrite(session, writeRequest);
+            return;
+        }
+        if (session.removeAttribute(DISABLE_COMPRESSION_ONCE) != null) {
+            nextFilter.filterWrite(session, writeRequest);
+            return;
+        }
+        IoBuffer in = (IoBuffer) message;
+        int plainBytes = in.remaining();
+
+        synchronized (deflateLock) {
+            if (deflater == null) {
+                // session is closed, nothing more will be written
+                return;
+            }
+            long start = System.nanoTime();
+            setInput(deflater, in);
+            IoBuffer out = IoBuffer.allocate(plainBytes / 2 + 16).setAutoExpand(true);
+            int length;
+            do {
+                length = deflater.deflate(deflateBuffer, 0, deflateBuffer.length, Deflater.SYNC_FLUSH);
+                out.put(deflateBuffer, 0, length);
+            } while (length == deflateBuffer.length);
+            out.flip();
+            statistics.recordDeflate(plainBytes, out.remaining(), System.nanoTime() - start);
+            plainBytesWritten += plainBytes;
+            compressedBytesWritten += out.remaining();
+
+            // passed on while holding the lock, so the compressed buffers are queued in order
+            nextFilter.filterWrite(session, new CompressedWriteRequest(writeRequest, out));
+        }
+    }
+
+    @Override
+    public void messageSent(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+        if (writeRequest instanceof CompressedWriteRequest) {
+            nextFilter.messageSent(session, ((CompressedWriteRequest) writeRequest).getParentRequest());
+        } else {
+            nextFilter.messageSent(session, writeRequest);
+        }
+    }
+
+    private void setInput(Inflater inflater, IoBuffer in) {
+        if (in.hasArray()) {
+            inflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
+            in.position(in.limit());
+        } else {
+            byte[] input = new byte[in.remaining()];
+            in.get(input);
+            inflater.setInput(input);
+        }
+    }
+
+    /**
+     * leaves the buffer's position untouched, the buffer is handed back with messageSent
+     */
+    private void setInput(Deflater deflater, IoBuffer in) {
+        if (in.hasArray()) {
+            deflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
+        } else {
+            byte[] input = new byte[in.remaining()];
+            in.duplicate().get(input);
+            deflater.setInput(input);
+        }
+    }
+
+    private void release() {
+        synchronized (deflateLock) {
+            if (deflater != null) {
+                if (plainBytesWritten > 0) {
+                    logger.debug("compressed {} bytes to {} bytes", plainBytesWritten, compressedBytesWritten);
+                }
+                compression.returnDeflater(deflater);
+                deflater = null;
+            }
+        }
+        synchronized (inflateLock) {
+            if (inflater != null) {
+                compression.returnInflater(inflater);
+                inflater = null;
+            }
+        }
+    }
+}
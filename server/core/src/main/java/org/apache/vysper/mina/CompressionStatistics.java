@@ -0,0 +1,108 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * counts the bytes saved by stream compression and the time spent compressing, summed over all compressed sessions
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class CompressionStatistics {
+
+    private final AtomicLong stanzasWritten = new AtomicLong();
+
+    private final AtomicLong plainBytesWritten = new AtomicLong();
+
+    private final AtomicLong compressedBytesWritten = new AtomicLong();
+
+    private final AtomicLong deflateNanos = new AtomicLong();
+
+    private final AtomicLong compressedBytesRead = new AtomicLong();
+
+    private final AtomicLong plainBytesRead = new AtomicLong();
+
+    private final AtomicLong inflateNanos = new AtomicLong();
+
+    public void recordDeflate(int plainBytes, int compressedBytes, long nanos) {
+        stanzasWritten.incrementAndGet();
+        plainBytesWritten.addAndGet(plainBytes);
+        compressedBytesWritten.addAndGet(compressedBytes);
+        deflateNanos.addAndGet(nanos);
+    }
+
+    public void recordInflate(int compressedBytes, int plainBytes, long nanos) {
+        compressedBytesRead.addAndGet(compressedBytes);
+        plainBytesRead.addAndGet(plainBytes);
+        inflateNanos.addAndGet(nanos);
+    }
+
+    public long getStanzasWritten() {
+        return stanzasWritten.get();
+    }
+
+    public long getPlainBytesWritten() {
+        return plainBytesWritten.get();
+    }
+
+    public long getCompressedBytesWritten() {
+        return compressedBytesWritten.get();
+    }
+
+    public long getCompressedBytesRead() {
+        return compressedBytesRead.get();
+    }
+
+    public long getPlainBytesRead() {
+        return plainBytesRead.get();
+    }
+
+    /**
+     * @return the bytes not sent over the wire in both directions, thanks to compression
+     */
+    public long getBytesSaved() {
+        return plainBytesWritten.get() - compressedBytesWritten.get() + plainBytesRead.get()
+                - compressedBytesRead.get();
+    }
+
+    /**
+     * @return average time in nanoseconds spent compressing one written stanza
+     */
+    public long getDeflateNanosPerStanza() {
+        long stanzas = stanzasWritten.get();
+        return stanzas == 0 ? 0 : deflateNanos.get() / stanzas;
+    }
+
+    /**
+     * @return time in nanoseconds spent decompressing everything read
+     */
+    public long getInflateNanos() {
+        return inflateNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "compressed " + getStanzasWritten() + " stanzas from " + getPlainBytesWritten() + " to "
+                + getCompressedBytesWritten() + " bytes (" + getDeflateNanosPerStanza() + " ns/stanza), read "
+                + getCompressedBytesRead() + " compressed bytes as " + getPlainBytesRead() + " bytes ("
+                + getInflateNanos() + " ns), " + getBytesSaved() + " bytes saved";
+    }
+}
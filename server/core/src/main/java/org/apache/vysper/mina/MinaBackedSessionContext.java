@@ -19,17 +19,25 @@
  */
 package org.apache.vysper.mina;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilterChain;
 import org.apache.mina.core.future.CloseFuture;
 import org.apache.mina.core.future.IoFuture;
 import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.ssl.SslFilter;
+import org.apache.vysper.mina.codec.StanzaBatchWriteInfo;
 import org.apache.vysper.mina.codec.StanzaWriteInfo;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.server.AbstractSessionContext;
+import org.apache.vysper.xmpp.server.CompressionMethod;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.writer.BatchStanzaWriter;
 import org.apache.vysper.xmpp.writer.StanzaWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,15 +47,20 @@ import org.slf4j.LoggerFactory;
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
-public class MinaBackedSessionContext extends AbstractSessionContext implements StanzaWriter, IoFutureListener {
+public class MinaBackedSessionContext extends AbstractSessionContext implements BatchStanzaWriter, IoFutureListener {
 
     final Logger logger = LoggerFactory.getLogger(MinaBackedSessionContext.class);
 
     private IoSession minaSession;
 
-    private boolean openingStanzaWritten = false;
+    /**
+     * stanzas of one session may be written from different threads
+     */
+    private volatile boolean openingStanzaWritten = false;
+
+    private volatile boolean switchToTLS = false;
 
-    private boolean switchToTLS = false;
+    private volatile ZlibCompression switchToCompression = null;
 
     protected CloseFuture closeFuture;
 
@@ -68,6 +81,24 @@ public class MinaBackedSessionContext extends AbstractSessionContext implements
         switchToTLS = true;
     }
 
+    @Override
+    public boolean isTransportEncrypted() {
+        return minaSession.getFilterChain().contains(SslFilter.class);
+    }
+
+    @Override
+    public boolean isCompressionSupported() {
+        return switchToCompression == null && !minaSession.getFilterChain().contains(CompressionFilter.class);
+    }
+
+    @Override
+    public void switchToCompression(CompressionMethod compression) {
+        if (!(compression instanceof ZlibCompression)) {
+            throw new IllegalArgumentException("unsupported compression method: " + compression.getName());
+        }
+        switchToCompression = (ZlibCompression) compression;
+    }
+
     public void setIsReopeningXMLStream() {
         openingStanzaWritten = false;
     }
@@ -78,7 +109,8 @@ public class MinaBackedSessionContext extends AbstractSessionContext implements
             minaSession.suspendWrite();
             SslFilter filter = new SslFilter(getServerRuntimeContext().getSslContext());
             filter.setUseClientMode(false);
-            minaSession.getFilterChain().addFirst("sslFilter", filter);
+            addFirst(minaSession.getFilterChain(), "sslFilter", filter);
+            TLSHandshakeStatistics.handshakeStarted(minaSession);
             minaSession.setAttribute(SslFilter.DISABLE_ENCRYPTION_ONCE, Boolean.TRUE);
             minaSession.setAttribute(SslFilter.USE_NOTIFICATION, Boolean.TRUE);
             minaSession.resumeWrite();
@@ -86,8 +118,51 @@ public class MinaBackedSessionContext extends AbstractSessionContext implements
             switchToTLS = false;
         }
 
-        minaSession.write(new StanzaWriteInfo(stanza, !openingStanzaWritten));
+        if (switchToCompression != null) {
+            // the stanza about to be written goes out uncompressed, everything after is compressed.
+            // the filter is in place before the client can answer, even when stanzas are processed off the
+            // I/O thread. compression goes below the codec and above TLS.
+            IoFilterChain filterChain = minaSession.getFilterChain();
+            CompressionFilter filter = new CompressionFilter(switchToCompression);
+            minaSession.setAttribute(CompressionFilter.DISABLE_COMPRESSION_ONCE, Boolean.TRUE);
+            if (filterChain.contains("sslFilter")) {
+                filterChain.addAfter("sslFilter", "compressionFilter", filter);
+            } else {
+                addFirst(filterChain, "compressionFilter", filter);
+            }
+            switchToCompression = null;
+        }
+
+        // the flag must be updated before writing, the client might answer before write() returns
+        boolean opening = !openingStanzaWritten;
         openingStanzaWritten = true;
+        minaSession.write(new StanzaWriteInfo(stanza, opening));
+    }
+
+    /**
+     * writes all stanzas as one network write. while the stream is not yet opened, or a switch to TLS or
+     * compression is pending, the stanzas are written one by one.
+     */
+    public void writeBatch(List<Stanza> stanzas) {
+        if (!openingStanzaWritten || switchToTLS || switchToCompression != null || stanzas.size() < 2) {
+            for (Stanza stanza : stanzas) {
+                write(stanza);
+            }
+            return;
+        }
+        minaSession.write(new StanzaBatchWriteInfo(new ArrayList<Stanza>(stanzas)));
+    }
+
+    /**
+     * adds the filter as close to the socket as possible, but behind a TLS executor filter, which must see the
+     * raw bytes first
+     */
+    private void addFirst(IoFilterChain filterChain, String name, IoFilter filter) {
+        if (filterChain.contains(TCPEndpoint.TLS_EXECUTOR_FILTER)) {
+            filterChain.addAfter(TCPEndpoint.TLS_EXECUTOR_FILTER, name, filter);
+        } else {
+            filterChain.addFirst(name, filter);
+        }
     }
 
     public void close() {
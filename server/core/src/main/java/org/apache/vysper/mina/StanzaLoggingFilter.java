@@ -22,9 +22,11 @@ package org.apache.vysper.mina;
 import org.apache.mina.core.filterchain.IoFilterAdapter;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.core.write.WriteRequest;
+import org.apache.vysper.mina.codec.StanzaBatchWriteInfo;
 import org.apache.vysper.mina.codec.StanzaWriteInfo;
 import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.writer.DenseStanzaLogRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -83,6 +85,15 @@ public class StanzaLoggingFilter extends IoFilterAdapter {
 
                 serverLogger.info("Sent stanza: " + xml);
             }
+        } else if (message instanceof StanzaBatchWriteInfo) {
+            for (Stanza stanza : ((StanzaBatchWriteInfo) message).getStanzas()) {
+                if (serverLogger.isInfoEnabled()) {
+                    serverLogger.info(DenseStanzaLogRenderer.render(stanza));
+                }
+                if (serverLogger.isDebugEnabled()) {
+                    serverLogger.info("Sent stanza: " + toXml(stanza, true, true));
+                }
+            }
         }
 
         nextFilter.messageSent(session, request);
@@ -21,29 +21,78 @@ package org.apache.vysper.mina;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
-import org.apache.mina.transport.socket.SocketAcceptor;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
+import org.apache.mina.filter.ssl.SslFilter;
+import org.apache.mina.transport.socket.SocketSessionConfig;
 import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
 import org.apache.vysper.mina.codec.XMPPProtocolCodecFactory;
 import org.apache.vysper.xmpp.server.Endpoint;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 
 /**
+ * the filter chain is laid out as
+ * [tlsExecutorFilter] - [sslFilter] - [compressionFilter] - xmppCodec - [executorFilter] - loggingFilter.
+ * the executor after the codec takes stanza processing off the I/O threads, the optional one in front of TLS
+ * does the same for handshakes and decryption, using a separate pool so expensive handshakes cannot starve
+ * established sessions. both keep the events of one session in order.
+ * <p>
+ * every port gets its own acceptor with its own pool of I/O processors, so listening on several ports spreads
+ * accepting and reading connections over more threads.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public class TCPEndpoint implements Endpoint {
 
+    /**
+     * name of the filter in front of TLS. TLS and compression filters added later go behind it.
+     */
+    public static final String TLS_EXECUTOR_FILTER = "tlsExecutorFilter";
+
     private ServerRuntimeContext serverRuntimeContext;
 
-    private int port = 5222;
+    private int[] ports = { 5222 };
+
+    private final List<NioSocketAcceptor> acceptors = new ArrayList<NioSocketAcceptor>();
+
+    private int processorCount = Runtime.getRuntime().availableProcessors() + 1;
+
+    private int backlog = 50;
+
+    private boolean reuseAddress = true;
+
+    private boolean tcpNoDelay = true;
+
+    private int receiveBufferSize = -1;
 
-    private SocketAcceptor acceptor;
+    private int sendBufferSize = -1;
+
+    private int readBufferSize = -1;
+
+    private int minReadBufferSize = -1;
+
+    private int maxReadBufferSize = -1;
 
     private DefaultIoFilterChainBuilder filterChainBuilder;
 
+    private boolean directTLS = false;
+
+    private XmppIoHandlerAdapter adapter;
+
+    private int stanzaExecutorThreads = 16;
+
+    private int tlsExecutorThreads = 0;
+
+    private ExecutorFilter stanzaExecutorFilter;
+
+    private ExecutorFilter tlsExecutorFilter;
+
     public DefaultIoFilterChainBuilder getFilterChainBuilder() {
         return filterChainBuilder;
     }
@@ -53,29 +102,195 @@ public class TCPEndpoint implements Endpoint {
     }
 
     public void setPort(int port) {
-        this.port = port;
+        this.ports = new int[] { port };
     }
 
-    public void start() throws IOException {
-        NioSocketAcceptor acceptor = new NioSocketAcceptor();
+    /**
+     * listens on all the given ports, each with a separate acceptor and processor pool.
+     * clients have to be spread over the ports, for example by DNS SRV records or a load balancer.
+     */
+    public void setPorts(int[] ports) {
+        if (ports == null || ports.length == 0) {
+            throw new IllegalArgumentException("at least one port is required");
+        }
+        this.ports = ports.clone();
+    }
+
+    /**
+     * @param processorCount number of I/O threads per port, defaults to the number of CPUs + 1
+     */
+    public void setProcessorCount(int processorCount) {
+        this.processorCount = processorCount;
+    }
+
+    /**
+     * @param backlog maximum number of connections waiting to be accepted
+     */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * @param reuseAddress SO_REUSEADDR for the listening sockets, allows restarting while old connections linger
+     */
+    public void setReuseAddress(boolean reuseAddress) {
+        this.reuseAddress = reuseAddress;
+    }
+
+    /**
+     * @param tcpNoDelay TCP_NODELAY, enabled by default. stanzas are small and should not wait for the ACK of the
+     * previous one
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
 
+    /**
+     * @param receiveBufferSize SO_RCVBUF in bytes, -1 keeps the OS default
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * @param sendBufferSize SO_SNDBUF in bytes, -1 keeps the OS default
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * @param readBufferSize initial size of the buffer a session reads into, -1 keeps the MINA default.
+     * the buffer grows and shrinks between the min and max read buffer size, depending on how much is read.
+     */
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+    }
+
+    /**
+     * @param minReadBufferSize lower bound of the read buffer, -1 keeps the MINA default
+     */
+    public void setMinReadBufferSize(int minReadBufferSize) {
+        this.minReadBufferSize = minReadBufferSize;
+    }
+
+    /**
+     * @param maxReadBufferSize upper bound of the read buffer, -1 keeps the MINA default
+     */
+    public void setMaxReadBufferSize(int maxReadBufferSize) {
+        this.maxReadBufferSize = maxReadBufferSize;
+    }
+
+    /**
+     * secures connections with TLS right away (XEP-0368), saving the STARTTLS round trip.
+     * such an endpoint is usually added in addition to the regular one, on port 5223.
+     */
+    public void setDirectTLS(boolean directTLS) {
+        this.directTLS = directTLS;
+    }
+
+    /**
+     * @param stanzaExecutorThreads maximum number of threads processing stanzas behind the codec.
+     * 0 processes stanzas on the I/O threads, as long as a handler runs no other session is read.
+     */
+    public void setStanzaExecutorThreads(int stanzaExecutorThreads) {
+        this.stanzaExecutorThreads = stanzaExecutorThreads;
+    }
+
+    /**
+     * @param tlsExecutorThreads maximum number of threads doing TLS handshakes and decryption, in front of TLS.
+     * 0, the default, keeps this work on the I/O threads. worthwhile when many clients connect at once.
+     */
+    public void setTLSExecutorThreads(int tlsExecutorThreads) {
+        this.tlsExecutorThreads = tlsExecutorThreads;
+    }
+
+    /**
+     * @return handshake metrics, available after the endpoint has been started
+     */
+    public TLSHandshakeStatistics getHandshakeStatistics() {
+        return adapter == null ? null : adapter.getHandshakeStatistics();
+    }
+
+    public void start() throws IOException {
         DefaultIoFilterChainBuilder filterChainBuilder = new DefaultIoFilterChainBuilder();
-        //filterChainBuilder.addLast("executorFilter", new OrderedThreadPoolExecutor());
+        if (tlsExecutorThreads > 0) {
+            tlsExecutorFilter = new ExecutorFilter(new OrderedThreadPoolExecutor(tlsExecutorThreads));
+            filterChainBuilder.addLast(TLS_EXECUTOR_FILTER, tlsExecutorFilter);
+        }
+        if (directTLS) {
+            SslFilter sslFilter = new SslFilter(serverRuntimeContext.getSslContext());
+            sslFilter.setUseClientMode(false);
+            filterChainBuilder.addLast("sslFilter", sslFilter);
+        }
         filterChainBuilder.addLast("xmppCodec", new ProtocolCodecFilter(new XMPPProtocolCodecFactory()));
+        if (stanzaExecutorThreads > 0) {
+            stanzaExecutorFilter = new ExecutorFilter(new OrderedThreadPoolExecutor(stanzaExecutorThreads));
+            filterChainBuilder.addLast("executorFilter", stanzaExecutorFilter);
+        }
         filterChainBuilder.addLast("loggingFilter", new StanzaLoggingFilter());
-        acceptor.setFilterChainBuilder(filterChainBuilder);
 
         XmppIoHandlerAdapter adapter = new XmppIoHandlerAdapter();
         adapter.setServerRuntimeContext(serverRuntimeContext);
-        acceptor.setHandler(adapter);
+        adapter.setDirectTLS(directTLS);
 
-        acceptor.setReuseAddress(true);
-        acceptor.bind(new InetSocketAddress(port));
+        this.adapter = adapter;
+        this.filterChainBuilder = filterChainBuilder;
 
-        this.acceptor = acceptor;
+        try {
+            for (int port : ports) {
+                NioSocketAcceptor acceptor = new NioSocketAcceptor(processorCount);
+                acceptor.setFilterChainBuilder(filterChainBuilder);
+                acceptor.setHandler(adapter);
+                acceptor.setReuseAddress(reuseAddress);
+                acceptor.setBacklog(backlog);
+                configure(acceptor.getSessionConfig());
+                acceptors.add(acceptor);
+                acceptor.bind(new InetSocketAddress(port));
+            }
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    private void configure(SocketSessionConfig config) {
+        config.setTcpNoDelay(tcpNoDelay);
+        if (receiveBufferSize > 0) {
+            config.setReceiveBufferSize(receiveBufferSize);
+        }
+        if (sendBufferSize > 0) {
+            config.setSendBufferSize(sendBufferSize);
+        }
+        // the bounds first, MINA rejects a read buffer size outside of them
+        if (minReadBufferSize > 0) {
+            config.setMinReadBufferSize(minReadBufferSize);
+        }
+        if (maxReadBufferSize > 0) {
+            config.setMaxReadBufferSize(maxReadBufferSize);
+        }
+        if (readBufferSize > 0) {
+            config.setReadBufferSize(readBufferSize);
+        }
+    }
+
+    /*package*/List<NioSocketAcceptor> getAcceptors() {
+        return acceptors;
     }
 
     public void stop() {
-        acceptor.unbind();
+        for (NioSocketAcceptor acceptor : acceptors) {
+            acceptor.unbind();
+            acceptor.dispose();
+        }
+        acceptors.clear();
+        shutdown(stanzaExecutorFilter);
+        shutdown(tlsExecutorFilter);
+    }
+
+    private void shutdown(ExecutorFilter executorFilter) {
+        if (executorFilter != null) {
+            ((ExecutorService) executorFilter.getExecutor()).shutdown();
+        }
     }
 }
@@ -0,0 +1,106 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSession;
+
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.ssl.SslFilter;
+
+/**
+ * counts full and resumed TLS handshakes and the time they took, from adding the SslFilter to the
+ * session being secured.
+ * a handshake counts as resumed if its SSL session was created before the handshake started.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class TLSHandshakeStatistics {
+
+    /**
+     * System.nanoTime() and System.currentTimeMillis() when the handshake started
+     */
+    public static final String ATTRIBUTE_HANDSHAKE_START = "tlsHandshakeStart";
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    private final AtomicLong fullHandshakeNanos = new AtomicLong();
+
+    private final AtomicLong resumedHandshakeNanos = new AtomicLong();
+
+    /**
+     * marks the start of a handshake, to be called when the SslFilter is added
+     */
+    public static void handshakeStarted(IoSession ioSession) {
+        ioSession.setAttribute(ATTRIBUTE_HANDSHAKE_START, new long[] { System.nanoTime(),
+                System.currentTimeMillis() });
+    }
+
+    /**
+     * records the handshake of a session which has just been secured
+     */
+    public void handshakeCompleted(IoSession ioSession) {
+        long[] start = (long[]) ioSession.removeAttribute(ATTRIBUTE_HANDSHAKE_START);
+        if (start == null)
+            return;
+        long nanos = System.nanoTime() - start[0];
+
+        SSLSession sslSession = null;
+        SslFilter sslFilter = (SslFilter) ioSession.getFilterChain().get(SslFilter.class);
+        if (sslFilter != null)
+            sslSession = sslFilter.getSslSession(ioSession);
+
+        if (sslSession != null && sslSession.getCreationTime() < start[1]) {
+            resumedHandshakes.incrementAndGet();
+            resumedHandshakeNanos.addAndGet(nanos);
+        } else {
+            fullHandshakes.incrementAndGet();
+            fullHandshakeNanos.addAndGet(nanos);
+        }
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    public long getAverageFullHandshakeNanos() {
+        long count = fullHandshakes.get();
+        return count == 0 ? 0 : fullHandshakeNanos.get() / count;
+    }
+
+    public long getAverageResumedHandshakeNanos() {
+        long count = resumedHandshakes.get();
+        return count == 0 ? 0 : resumedHandshakeNanos.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return getFullHandshakes() + " full TLS handshakes (avg " + getAverageFullHandshakeNanos() / 1000
+                + " us), " + getResumedHandshakes() + " resumed (avg " + getAverageResumedHandshakeNanos() / 1000
+                + " us)";
+    }
+}
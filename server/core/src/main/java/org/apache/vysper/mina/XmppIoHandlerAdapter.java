@@ -27,6 +27,7 @@ import org.apache.vysper.xml.fragment.XMLText;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,10 +46,26 @@ public class XmppIoHandlerAdapter implements IoHandler {
 
     private ServerRuntimeContext serverRuntimeContext;
 
+    private final TLSHandshakeStatistics handshakeStatistics = new TLSHandshakeStatistics();
+
+    private boolean directTLS = false;
+
     public void setServerRuntimeContext(ServerRuntimeContext serverRuntimeContext) {
         this.serverRuntimeContext = serverRuntimeContext;
     }
 
+    /**
+     * @param directTLS TRUE, if the connections are secured by a SslFilter before the XML stream starts
+     *        (XEP-0368), instead of negotiating STARTTLS
+     */
+    public void setDirectTLS(boolean directTLS) {
+        this.directTLS = directTLS;
+    }
+
+    public TLSHandshakeStatistics getHandshakeStatistics() {
+        return handshakeStatistics;
+    }
+
     public void messageReceived(IoSession ioSession, Object message) throws Exception {
         if (!(message instanceof Stanza)) {
             if (message instanceof XMLText) {
@@ -72,6 +89,7 @@ public class XmppIoHandlerAdapter implements IoHandler {
 
     private void messageReceivedNoStanza(IoSession ioSession, Object message) {
         if (message == SslFilter.SESSION_SECURED) {
+            handshakeStatistics.handshakeCompleted(ioSession);
             SessionContext session = extractSession(ioSession);
             SessionStateHolder stateHolder = (SessionStateHolder) ioSession
                     .getAttribute(ATTRIBUTE_VYSPER_SESSIONSTATEHOLDER);
@@ -100,6 +118,12 @@ public class XmppIoHandlerAdapter implements IoHandler {
         SessionContext sessionContext = new MinaBackedSessionContext(serverRuntimeContext, stateHolder, ioSession);
         ioSession.setAttribute(ATTRIBUTE_VYSPER_SESSION, sessionContext);
         ioSession.setAttribute(ATTRIBUTE_VYSPER_SESSIONSTATEHOLDER, stateHolder);
+        if (directTLS) {
+            // the handshake is already underway, the stream starts after the session is secured
+            stateHolder.setState(SessionState.ENCRYPTION_STARTED);
+            ioSession.setAttribute(SslFilter.USE_NOTIFICATION, Boolean.TRUE);
+            TLSHandshakeStatistics.handshakeStarted(ioSession);
+        }
     }
 
     public void sessionOpened(IoSession ioSession) throws Exception {
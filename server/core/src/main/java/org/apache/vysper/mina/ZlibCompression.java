@@ -0,0 +1,111 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.vysper.xmpp.server.CompressionMethod;
+
+/**
+ * the 'zlib' compression method of XEP-0138. a Deflater allocates a few hundred KB of native memory, so instances
+ * are pooled and reused by subsequent sessions instead of being allocated and ended per session.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class ZlibCompression implements CompressionMethod {
+
+    public static final String METHOD = "zlib";
+
+    private final int level;
+
+    private final BlockingQueue<Deflater> deflaters;
+
+    private final BlockingQueue<Inflater> inflaters;
+
+    private final CompressionStatistics statistics = new CompressionStatistics();
+
+    /**
+     * @param level the compression level, 1 (fastest) to 9 (smallest), or -1 for zlib's default
+     * @param maxPooled the number of idle Deflater and Inflater instances kept for reuse
+     */
+    public ZlibCompression(int level, int maxPooled) {
+        boolean validLevel = level == Deflater.DEFAULT_COMPRESSION
+                || (level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION);
+        if (!validLevel) {
+            throw new IllegalArgumentException("compression level must be -1 or between 1 and 9: " + level);
+        }
+        this.level = level;
+        this.deflaters = new ArrayBlockingQueue<Deflater>(Math.max(1, maxPooled));
+        this.inflaters = new ArrayBlockingQueue<Inflater>(Math.max(1, maxPooled));
+    }
+
+    public String getName() {
+        return METHOD;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public CompressionStatistics getStatistics() {
+        return statistics;
+    }
+
+    public Deflater borrowDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater == null ? new Deflater(level) : deflater;
+    }
+
+    public void returnDeflater(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    public Inflater borrowInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater == null ? new Inflater() : inflater;
+    }
+
+    public void returnInflater(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * releases the native memory of all pooled instances
+     */
+    public void dispose() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+}
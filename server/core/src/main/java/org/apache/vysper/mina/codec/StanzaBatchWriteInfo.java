@@ -0,0 +1,54 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina.codec;
+
+import java.util.List;
+
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.writer.DenseStanzaLogRenderer;
+
+/**
+ * a number of complete stanzas, to be encoded into one buffer and written at once.
+ * only used after the stream has been opened.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class StanzaBatchWriteInfo {
+    private List<Stanza> stanzas;
+
+    public StanzaBatchWriteInfo(List<Stanza> stanzas) {
+        this.stanzas = stanzas;
+    }
+
+    public List<Stanza> getStanzas() {
+        return stanzas;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("[ batch=").append(stanzas.size());
+        for (Stanza stanza : stanzas) {
+            stringBuilder.append(", stanza=[").append(DenseStanzaLogRenderer.render(stanza)).append("]");
+        }
+        stringBuilder.append("]");
+        return stringBuilder.toString();
+    }
+}
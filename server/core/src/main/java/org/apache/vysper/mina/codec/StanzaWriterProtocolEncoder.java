@@ -42,6 +42,10 @@ public class StanzaWriterProtocolEncoder implements ProtocolEncoder {
     private final Logger logger = LoggerFactory.getLogger(StanzaWriterProtocolEncoder.class);
 
     public void encode(IoSession ioSession, Object o, ProtocolEncoderOutput protocolEncoderOutput) throws Exception {
+        if (o instanceof StanzaBatchWriteInfo) {
+            encodeBatch((StanzaBatchWriteInfo) o, protocolEncoderOutput);
+            return;
+        }
         if (!(o instanceof StanzaWriteInfo)) {
             throw new IllegalArgumentException("StanzaWriterProtocolEncoder only handles StanzaWriteInfo objects");
         }
@@ -64,6 +68,21 @@ public class StanzaWriterProtocolEncoder implements ProtocolEncoder {
         protocolEncoderOutput.write(byteBuffer);
     }
 
+    /**
+     * renders all complete stanzas of the batch into one buffer
+     */
+    private void encodeBatch(StanzaBatchWriteInfo batchWriteInfo, ProtocolEncoderOutput protocolEncoderOutput)
+            throws Exception {
+        IoBuffer byteBuffer = IoBuffer.allocate(256).setAutoExpand(true);
+        for (Stanza stanza : batchWriteInfo.getStanzas()) {
+            Renderer renderer = new Renderer(stanza);
+            byteBuffer.putString(renderer.getComplete(), getSessionEncoder());
+        }
+
+        byteBuffer.flip();
+        protocolEncoderOutput.write(byteBuffer);
+    }
+
     public void dispose(IoSession ioSession) throws Exception {
         logger.warn("unhandled StanzaWriterProtocolEncoder.dispose()");
     }
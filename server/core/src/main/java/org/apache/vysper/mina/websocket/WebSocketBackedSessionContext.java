@@ -0,0 +1,88 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina.websocket;
+
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.ssl.SslFilter;
+import org.apache.vysper.mina.codec.StanzaWriteInfo;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.AbstractSessionContext;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.writer.StanzaWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * connects a WebSocket connection to the vysper backend. every stanza is written as one complete element, which
+ * the {@link WebSocketFilter} sends as one text frame.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class WebSocketBackedSessionContext extends AbstractSessionContext implements StanzaWriter {
+
+    final Logger logger = LoggerFactory.getLogger(WebSocketBackedSessionContext.class);
+
+    private final IoSession minaSession;
+
+    private final WebSocketFilter webSocketFilter;
+
+    public WebSocketBackedSessionContext(ServerRuntimeContext serverRuntimeContext,
+            SessionStateHolder sessionStateHolder, IoSession minaSession, WebSocketFilter webSocketFilter) {
+        super(serverRuntimeContext, sessionStateHolder);
+        this.minaSession = minaSession;
+        this.webSocketFilter = webSocketFilter;
+        sessionStateHolder.setState(SessionState.INITIATED); // connection established
+    }
+
+    public StanzaWriter getResponseWriter() {
+        return this;
+    }
+
+    public void switchToTLS() {
+        // STARTTLS is not offered, the WebSocket connection is secured by the transport (wss:)
+        logger.warn("TLS negotiation is not supported over WebSocket");
+    }
+
+    @Override
+    public boolean isTransportEncrypted() {
+        return minaSession.getFilterChain().contains(SslFilter.class);
+    }
+
+    public void setIsReopeningXMLStream() {
+        // the client reopens the stream by sending a new <open/> element
+    }
+
+    public void write(Stanza stanza) {
+        minaSession.write(new StanzaWriteInfo(stanza, false));
+    }
+
+    public void close() {
+        if (minaSession.isClosing()) {
+            return;
+        }
+        logger.info("session will be closed now");
+        write(new StanzaBuilder("close", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_FRAMING).build());
+        webSocketFilter.close(minaSession);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.ssl.SslFilter;
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.apache.vysper.mina.StanzaLoggingFilter;
+import org.apache.vysper.mina.codec.XMPPProtocolCodecFactory;
+import org.apache.vysper.xmpp.server.Endpoint;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+
+/**
+ * XMPP over WebSocket (RFC 7395) endpoint, for browser clients. Compared with BOSH, a client keeps one
+ * connection and every stanza is sent as one frame, without HTTP requests and headers.
+ * <p>
+ * The endpoint accepts the WebSocket handshake on any path. Secure connections (wss:) use the TLS
+ * certificate of the server.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class WebSocketEndpoint implements Endpoint {
+
+    private ServerRuntimeContext serverRuntimeContext;
+
+    private int port = 5280;
+
+    private boolean isSSLEnabled = false;
+
+    private boolean insecureAllowed = false;
+
+    private int maxPayloadLength = WebSocketFilter.DEFAULT_MAX_PAYLOAD_LENGTH;
+
+    private NioSocketAcceptor acceptor;
+
+    public void setServerRuntimeContext(ServerRuntimeContext serverRuntimeContext) {
+        this.serverRuntimeContext = serverRuntimeContext;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * @param value TRUE to accept only secure WebSocket (wss:) connections
+     */
+    public void setSSLEnabled(boolean value) {
+        this.isSSLEnabled = value;
+    }
+
+    /**
+     * without SSL, clients are disconnected before authenticating, unless insecure connections are
+     * explicitly allowed, e.g. behind a proxy terminating TLS, or for testing.
+     * @param insecureAllowed TRUE to let clients authenticate on plain WebSocket (ws:) connections
+     */
+    public void setInsecureAllowed(boolean insecureAllowed) {
+        this.insecureAllowed = insecureAllowed;
+    }
+
+    /**
+     * @param maxPayloadLength the largest frame accepted from a client, in bytes
+     */
+    public void setMaxPayloadLength(int maxPayloadLength) {
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    public void start() throws IOException {
+        NioSocketAcceptor acceptor = new NioSocketAcceptor();
+
+        WebSocketFilter webSocketFilter = new WebSocketFilter(maxPayloadLength);
+        DefaultIoFilterChainBuilder filterChainBuilder = new DefaultIoFilterChainBuilder();
+        if (isSSLEnabled) {
+            SslFilter sslFilter = new SslFilter(serverRuntimeContext.getSslContext());
+            sslFilter.setUseClientMode(false);
+            filterChainBuilder.addLast("sslFilter", sslFilter);
+        }
+        filterChainBuilder.addLast("webSocket", webSocketFilter);
+        filterChainBuilder.addLast("xmppCodec", new ProtocolCodecFilter(new XMPPProtocolCodecFactory()));
+        filterChainBuilder.addLast("loggingFilter", new StanzaLoggingFilter());
+        acceptor.setFilterChainBuilder(filterChainBuilder);
+
+        WebSocketIoHandlerAdapter adapter = new WebSocketIoHandlerAdapter(webSocketFilter);
+        adapter.setServerRuntimeContext(serverRuntimeContext);
+        adapter.setInsecureAllowed(insecureAllowed);
+        acceptor.setHandler(adapter);
+
+        acceptor.setReuseAddress(true);
+        acceptor.bind(new InetSocketAddress(port));
+
+        this.acceptor = acceptor;
+    }
+
+    public void stop() {
+        acceptor.unbind();
+        acceptor.dispose();
+    }
+}
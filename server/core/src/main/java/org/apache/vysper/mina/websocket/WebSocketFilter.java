@@ -0,0 +1,380 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina.websocket;
+
+import java.nio.charset.Charset;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.core.write.WriteRequestWrapper;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WebSocket (RFC 6455) transport for XMPP (RFC 7395). Answers the opening handshake, unwraps the payload of the
+ * text frames sent by the client and wraps every buffer written by the XMPP codec into one text frame.
+ * <p>
+ * The payloads are passed on to the regular XMPP decoder, which is primed with a stream element when the
+ * handshake completes, so that the complete elements carried by the frames are decoded as stanzas by the
+ * non-blocking parser. The stream element is not sent by the client and has to be ignored by the handler.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class WebSocketFilter extends IoFilterAdapter {
+
+    public static final int DEFAULT_MAX_PAYLOAD_LENGTH = 1024 * 1024;
+
+    static final int OPCODE_CONTINUATION = 0x0;
+
+    static final int OPCODE_TEXT = 0x1;
+
+    static final int OPCODE_BINARY = 0x2;
+
+    static final int OPCODE_CLOSE = 0x8;
+
+    static final int OPCODE_PING = 0x9;
+
+    static final int OPCODE_PONG = 0xA;
+
+    static final int STATUS_NORMAL = 1000;
+
+    static final int STATUS_PROTOCOL_ERROR = 1002;
+
+    static final int STATUS_UNSUPPORTED_DATA = 1003;
+
+    static final int STATUS_MESSAGE_TOO_BIG = 1009;
+
+    private static final int MAX_HANDSHAKE_LENGTH = 8192;
+
+    private static final int MAX_CONTROL_PAYLOAD_LENGTH = 125;
+
+    private static final String ATTRIBUTE_STATE = "webSocketState";
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] STREAM_OPENER = ("<stream:stream xmlns:stream=\""
+            + NamespaceURIs.HTTP_ETHERX_JABBER_ORG_STREAMS + "\" xmlns=\"" + NamespaceURIs.JABBER_CLIENT + "\">")
+            .getBytes(ASCII);
+
+    private final Logger logger = LoggerFactory.getLogger(WebSocketFilter.class);
+
+    private final int maxPayloadLength;
+
+    /**
+     * per connection state, the buffer is only used by the reading thread
+     */
+    private static class State {
+
+        private final IoBuffer buffer = IoBuffer.allocate(256).setAutoExpand(true);
+
+        private volatile boolean open = false;
+
+        private volatile boolean closing = false;
+
+        private boolean fragmented = false;
+    }
+
+    /**
+     * a frame written for a buffer encoded by the XMPP codec
+     */
+    private static class FrameWriteRequest extends WriteRequestWrapper {
+
+        private final IoBuffer frame;
+
+        public FrameWriteRequest(WriteRequest parentRequest, IoBuffer frame) {
+            super(parentRequest);
+            this.frame = frame;
+        }
+
+        @Override
+        public Object getMessage() {
+            return frame;
+        }
+    }
+
+    /**
+     * a handshake response or control frame written by the filter itself
+     */
+    private static class ControlWriteRequest extends DefaultWriteRequest {
+
+        public ControlWriteRequest(IoBuffer buffer) {
+            super(buffer);
+        }
+    }
+
+    public WebSocketFilter() {
+        this(DEFAULT_MAX_PAYLOAD_LENGTH);
+    }
+
+    /**
+     * @param maxPayloadLength the largest frame accepted from a client, in bytes
+     */
+    public WebSocketFilter(int maxPayloadLength) {
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    @Override
+    public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+        if (!(message instanceof IoBuffer)) {
+            nextFilter.messageReceived(session, message);
+            return;
+        }
+        State state = getState(session);
+        if (state.closing) {
+            // nothing is read after the close frame
+            return;
+        }
+        state.buffer.put((IoBuffer) message);
+        state.buffer.flip();
+        try {
+            if (!state.open && !decodeHandshake(nextFilter, session, state)) {
+                return;
+            }
+            while (!state.closing && decodeFrame(nextFilter, session, state)) {
+                // decode all the complete frames
+            }
+        } finally {
+            state.buffer.compact();
+        }
+    }
+
+    @Override
+    public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+        Object message = writeRequest.getMessage();
+        State state = getState(session);
+        if (state.open && message instanceof IoBuffer && ((IoBuffer) message).hasRemaining()) {
+            if (state.closing) {
+                logger.debug("dropping data written after the close frame");
+                return;
+            }
+            nextFilter.filterWrite(session, new FrameWriteRequest(writeRequest, encodeFrame(OPCODE_TEXT,
+                    (IoBuffer) message)));
+        } else {
+            nextFilter.filterWrite(session, writeRequest);
+        }
+    }
+
+    @Override
+    public void messageSent(NextFilter nextFilter, IoSession session, WriteRequest writeRequest) throws Exception {
+        if (writeRequest instanceof FrameWriteRequest) {
+            nextFilter.messageSent(session, ((FrameWriteRequest) writeRequest).getParentRequest());
+        } else if (!(writeRequest instanceof ControlWriteRequest)) {
+            nextFilter.messageSent(session, writeRequest);
+        }
+    }
+
+    @Override
+    public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+        session.removeAttribute(ATTRIBUTE_STATE);
+        nextFilter.sessionClosed(session);
+    }
+
+    /**
+     * sends a close frame (after everything written so far) and closes the connection
+     */
+    public void close(IoSession session) {
+        State state = getState(session);
+        if (state.open) {
+            sendClose(session.getFilterChain().getNextFilter(this), session, state, STATUS_NORMAL);
+        } else {
+            session.close(false);
+        }
+    }
+
+    private State getState(IoSession session) {
+        State state = (State) session.getAttribute(ATTRIBUTE_STATE);
+        if (state == null) {
+            state = new State();
+            State existing = (State) session.setAttributeIfAbsent(ATTRIBUTE_STATE, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    private boolean decodeHandshake(NextFilter nextFilter, IoSession session, State state) {
+        IoBuffer in = state.buffer;
+        int end = -1;
+        for (int i = in.position(); i + 3 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (in.remaining() > MAX_HANDSHAKE_LENGTH) {
+                logger.info("closing connection from {}, handshake too long", session.getRemoteAddress());
+                state.closing = true;
+                session.close(true);
+            }
+            return false;
+        }
+
+        byte[] request = new byte[end - in.position()];
+        in.get(request);
+        in.skip(4);
+
+        String response;
+        boolean accepted;
+        try {
+            WebSocketHandshake handshake = new WebSocketHandshake(new String(request, ASCII));
+            response = handshake.getResponse();
+            accepted = handshake.isAccepted();
+        } catch (IllegalArgumentException e) {
+            response = "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n";
+            accepted = false;
+        }
+        nextFilter.filterWrite(session, new ControlWriteRequest(IoBuffer.wrap(response.getBytes(ASCII))));
+        if (!accepted) {
+            logger.info("rejected WebSocket handshake from {}", session.getRemoteAddress());
+            state.closing = true;
+            session.close(false);
+            return false;
+        }
+        state.open = true;
+        nextFilter.messageReceived(session, IoBuffer.wrap(STREAM_OPENER));
+        return true;
+    }
+
+    private boolean decodeFrame(NextFilter nextFilter, IoSession session, State state) {
+        IoBuffer in = state.buffer;
+        int start = in.position();
+        if (in.remaining() < 2) {
+            return false;
+        }
+        int b0 = in.get() & 0xFF;
+        int b1 = in.get() & 0xFF;
+        boolean fin = (b0 & 0x80) != 0;
+        int opcode = b0 & 0x0F;
+        long length = b1 & 0x7F;
+        if (length == 126) {
+            if (in.remaining() < 2) {
+                in.position(start);
+                return false;
+            }
+            length = in.getUnsignedShort();
+        } else if (length == 127) {
+            if (in.remaining() < 8) {
+                in.position(start);
+                return false;
+            }
+            length = in.getLong();
+        }
+
+        // reserved bits must not be set without an extension, and all the frames from the client are masked
+        if ((b0 & 0x70) != 0 || (b1 & 0x80) == 0) {
+            sendClose(nextFilter, session, state, STATUS_PROTOCOL_ERROR);
+            return false;
+        }
+        if (opcode >= OPCODE_CLOSE && (!fin || length > MAX_CONTROL_PAYLOAD_LENGTH)) {
+            sendClose(nextFilter, session, state, STATUS_PROTOCOL_ERROR);
+            return false;
+        }
+        if (length < 0 || length > maxPayloadLength) {
+            sendClose(nextFilter, session, state, STATUS_MESSAGE_TOO_BIG);
+            return false;
+        }
+        if (in.remaining() < 4 + length) {
+            in.position(start);
+            return false;
+        }
+
+        byte[] mask = new byte[4];
+        in.get(mask);
+        byte[] payload = new byte[(int) length];
+        in.get(payload);
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] ^= mask[i & 3];
+        }
+
+        switch (opcode) {
+        case OPCODE_TEXT:
+        case OPCODE_CONTINUATION:
+            if (state.fragmented != (opcode == OPCODE_CONTINUATION)) {
+                sendClose(nextFilter, session, state, STATUS_PROTOCOL_ERROR);
+                return false;
+            }
+            state.fragmented = !fin;
+            // the parser is incremental, fragments do not need to be reassembled
+            if (payload.length > 0) {
+                nextFilter.messageReceived(session, IoBuffer.wrap(payload));
+            }
+            return true;
+        case OPCODE_PING:
+            nextFilter.filterWrite(session, new ControlWriteRequest(encodeFrame(OPCODE_PONG, IoBuffer.wrap(payload))));
+            return true;
+        case OPCODE_PONG:
+            return true;
+        case OPCODE_CLOSE:
+            int status = payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : STATUS_NORMAL;
+            sendClose(nextFilter, session, state, status);
+            return false;
+        case OPCODE_BINARY:
+            // RFC 7395 only allows text frames
+            sendClose(nextFilter, session, state, STATUS_UNSUPPORTED_DATA);
+            return false;
+        default:
+            sendClose(nextFilter, session, state, STATUS_PROTOCOL_ERROR);
+            return false;
+        }
+    }
+
+    private void sendClose(NextFilter nextFilter, IoSession session, State state, int status) {
+        synchronized (state) {
+            if (state.closing) {
+                return;
+            }
+            state.closing = true;
+        }
+        logger.debug("closing WebSocket connection with status {}", status);
+        IoBuffer payload = IoBuffer.allocate(2);
+        payload.putShort((short) status);
+        payload.flip();
+        nextFilter.filterWrite(session, new ControlWriteRequest(encodeFrame(OPCODE_CLOSE, payload)));
+        session.close(false);
+    }
+
+    /**
+     * encodes an unmasked frame, as sent by the server
+     */
+    static IoBuffer encodeFrame(int opcode, IoBuffer payload) {
+        int length = payload.remaining();
+        int headerLength = length < 126 ? 2 : (length <= 0xFFFF ? 4 : 10);
+        IoBuffer frame = IoBuffer.allocate(headerLength + length);
+        frame.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            frame.put((byte) 126);
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(length);
+        }
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina.websocket;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * the opening handshake of a WebSocket connection (RFC 6455), which must request the 'xmpp' sub-protocol
+ * (RFC 7395)
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class WebSocketHandshake {
+
+    public static final String SUBPROTOCOL = "xmpp";
+
+    public static final String SUPPORTED_VERSION = "13";
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final String CRLF = "\r\n";
+
+    private final String method;
+
+    private final String path;
+
+    /**
+     * header values by lower case header names
+     */
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    /**
+     * parses the HTTP request of the handshake
+     * @param request the request line and the headers, without the terminating empty line
+     * @throws IllegalArgumentException if the request is not a HTTP request
+     */
+    public WebSocketHandshake(String request) {
+        String[] lines = request.split(CRLF);
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            throw new IllegalArgumentException("not a HTTP request: " + lines[0]);
+        }
+        method = requestLine[0];
+        path = requestLine[1];
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("invalid header: " + lines[i]);
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase();
+            String value = lines[i].substring(colon + 1).trim();
+            // repeated headers are equivalent to a comma separated list
+            String previous = headers.get(name);
+            headers.put(name, previous == null ? value : previous + ", " + value);
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    /**
+     * @return TRUE, iff this is a WebSocket upgrade request in the version supported by the server
+     */
+    public boolean isValid() {
+        return "GET".equals(method) && containsToken(getHeader("Upgrade"), "websocket")
+                && containsToken(getHeader("Connection"), "Upgrade") && getHeader("Sec-WebSocket-Key") != null
+                && SUPPORTED_VERSION.equals(getHeader("Sec-WebSocket-Version"));
+    }
+
+    /**
+     * @return TRUE, iff the client asked for the XMPP sub-protocol
+     */
+    public boolean isXmppRequested() {
+        return containsToken(getHeader("Sec-WebSocket-Protocol"), SUBPROTOCOL);
+    }
+
+    /**
+     * @return TRUE, iff the connection can be upgraded to XMPP over WebSocket
+     */
+    public boolean isAccepted() {
+        return isValid() && isXmppRequested();
+    }
+
+    /**
+     * @return the HTTP response to the handshake, either switching to the XMPP sub-protocol or rejecting the request
+     */
+    public String getResponse() {
+        StringBuilder response = new StringBuilder();
+        if (isAccepted()) {
+            response.append("HTTP/1.1 101 Switching Protocols").append(CRLF);
+            response.append("Upgrade: websocket").append(CRLF);
+            response.append("Connection: Upgrade").append(CRLF);
+            response.append("Sec-WebSocket-Accept: ").append(computeAccept(getHeader("Sec-WebSocket-Key"))).append(CRLF);
+            response.append("Sec-WebSocket-Protocol: ").append(SUBPROTOCOL).append(CRLF);
+        } else if (getHeader("Sec-WebSocket-Version") != null
+                && !SUPPORTED_VERSION.equals(getHeader("Sec-WebSocket-Version"))) {
+            response.append("HTTP/1.1 426 Upgrade Required").append(CRLF);
+            response.append("Sec-WebSocket-Version: ").append(SUPPORTED_VERSION).append(CRLF);
+            response.append("Content-Length: 0").append(CRLF);
+        } else {
+            response.append("HTTP/1.1 400 Bad Request").append(CRLF);
+            response.append("Content-Length: 0").append(CRLF);
+        }
+        response.append(CRLF);
+        return response.toString();
+    }
+
+    /**
+     * computes the value of the Sec-WebSocket-Accept header
+     * @param key the value of the Sec-WebSocket-Key header sent by the client
+     */
+    public static String computeAccept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key.trim() + ACCEPT_GUID).getBytes("US-ASCII"));
+            return new String(Base64.encodeBase64(digest), "US-ASCII");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean containsToken(String headerValue, String token) {
+        if (headerValue == null) {
+            return false;
+        }
+        for (String value : headerValue.split(",")) {
+            if (value.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
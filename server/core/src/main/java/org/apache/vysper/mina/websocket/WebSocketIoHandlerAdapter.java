@@ -0,0 +1,160 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina.websocket;
+
+import org.apache.mina.core.session.IoSession;
+import org.apache.vysper.mina.XmppIoHandlerAdapter;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.protocol.StreamErrorCondition;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.server.response.ServerErrorResponses;
+import org.apache.vysper.xmpp.server.response.ServerResponses;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * handles the XMPP framing of RFC 7395: the client opens (and after authentication reopens) the stream with
+ * an &lt;open/&gt; element and ends it with a &lt;close/&gt; element. all other elements are processed like
+ * the stanzas of a TCP connection.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class WebSocketIoHandlerAdapter extends XmppIoHandlerAdapter {
+
+    final Logger logger = LoggerFactory.getLogger(WebSocketIoHandlerAdapter.class);
+
+    private final WebSocketFilter webSocketFilter;
+
+    private ServerRuntimeContext serverRuntimeContext;
+
+    private boolean insecureAllowed = false;
+
+    public WebSocketIoHandlerAdapter(WebSocketFilter webSocketFilter) {
+        this.webSocketFilter = webSocketFilter;
+    }
+
+    /**
+     * @param insecureAllowed TRUE to let clients authenticate on connections not protected by TLS
+     */
+    public void setInsecureAllowed(boolean insecureAllowed) {
+        this.insecureAllowed = insecureAllowed;
+    }
+
+    @Override
+    public void setServerRuntimeContext(ServerRuntimeContext serverRuntimeContext) {
+        super.setServerRuntimeContext(serverRuntimeContext);
+        this.serverRuntimeContext = serverRuntimeContext;
+    }
+
+    @Override
+    public void sessionCreated(IoSession ioSession) throws Exception {
+        SessionStateHolder stateHolder = new SessionStateHolder();
+        SessionContext sessionContext = new WebSocketBackedSessionContext(serverRuntimeContext, stateHolder,
+                ioSession, webSocketFilter);
+        ioSession.setAttribute(ATTRIBUTE_VYSPER_SESSION, sessionContext);
+        ioSession.setAttribute(ATTRIBUTE_VYSPER_SESSIONSTATEHOLDER, stateHolder);
+    }
+
+    @Override
+    public void messageReceived(IoSession ioSession, Object message) throws Exception {
+        if (message instanceof Stanza) {
+            Stanza stanza = (Stanza) message;
+            if (NamespaceURIs.HTTP_ETHERX_JABBER_ORG_STREAMS.equals(stanza.getNamespaceURI())
+                    && "stream".equals(stanza.getName())) {
+                // the stream element the decoder is primed with by the WebSocketFilter
+                return;
+            }
+            if (NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_FRAMING.equals(stanza.getNamespaceURI())) {
+                if ("open".equals(stanza.getName())) {
+                    open(ioSession, stanza);
+                    return;
+                } else if ("close".equals(stanza.getName())) {
+                    getSession(ioSession).endSession(SessionContext.SessionTerminationCause.CLIENT_BYEBYE);
+                    return;
+                }
+            }
+        }
+        super.messageReceived(ioSession, message);
+    }
+
+    @Override
+    public void sessionClosed(IoSession ioSession) throws Exception {
+        SessionContext sessionContext = getSession(ioSession);
+        if (sessionContext != null && sessionContext.getState() == SessionState.CLOSED) {
+            // already ended by a <close/> element or by the server
+            logger.info("session {} has been closed", sessionContext.getSessionId());
+            return;
+        }
+        super.sessionClosed(ioSession);
+    }
+
+    private WebSocketBackedSessionContext getSession(IoSession ioSession) {
+        return (WebSocketBackedSessionContext) ioSession.getAttribute(ATTRIBUTE_VYSPER_SESSION);
+    }
+
+    private void open(IoSession ioSession, Stanza open) {
+        WebSocketBackedSessionContext session = getSession(ioSession);
+        SessionStateHolder stateHolder = (SessionStateHolder) ioSession
+                .getAttribute(ATTRIBUTE_VYSPER_SESSIONSTATEHOLDER);
+
+        String lang = open.getAttributeValue(NamespaceURIs.XML, "lang");
+        if (lang != null) {
+            session.setXMLLang(lang);
+        }
+        StanzaBuilder opener = new StanzaBuilder("open", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_FRAMING)
+                .addAttribute("from", serverRuntimeContext.getServerEnitity().getFullQualifiedName())
+                .addAttribute("id", session.getSessionId()).addAttribute("version", "1.0");
+        if (session.getXMLLang() != null) {
+            opener.addAttribute(NamespaceURIs.XML, "lang", session.getXMLLang());
+        }
+        session.write(opener.build());
+
+        String to = open.getAttributeValue("to");
+        if (to != null && !to.equals(serverRuntimeContext.getServerEnitity().getDomain())) {
+            session.write(ServerErrorResponses.getInstance().getStreamError(StreamErrorCondition.HOST_UNKNOWN,
+                    session.getXMLLang(), "unknown host " + to, null));
+            session.endSession(SessionContext.SessionTerminationCause.STREAM_ERROR);
+            return;
+        }
+
+        Stanza features;
+        if (session.getState() == SessionState.AUTHENTICATED) {
+            features = new ServerResponses().getFeaturesForSession();
+        } else {
+            // there is no STARTTLS over WebSocket, the connection has to be secured by the transport (wss:)
+            if (!session.isTransportEncrypted() && !insecureAllowed) {
+                session.write(ServerErrorResponses.getInstance().getStreamError(
+                        StreamErrorCondition.POLICY_VIOLATION, session.getXMLLang(),
+                        "connections must be protected by TLS", null));
+                session.endSession(SessionContext.SessionTerminationCause.STREAM_ERROR);
+                return;
+            }
+            stateHolder.setState(SessionState.ENCRYPTED);
+            features = new ServerResponses().getFeaturesForAuthentication(serverRuntimeContext.getServerFeatures()
+                    .getAuthenticationMethods());
+        }
+        session.write(features);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bounded pool of resources with borrow/return semantics, shared by the storage backends.
+ * resources are created lazily up to the configured maximum. borrowers block while all
+ * resources are in use, for at most the borrow timeout.
+ *
+ * @param <R> the pooled resource
+ * @param <E> the exception the storage backend reports failures with
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public abstract class ResourcePool<R, E extends Exception> {
+
+    protected final String resourceName;
+
+    protected final BlockingQueue<R> idleResources = new LinkedBlockingQueue<R>();
+
+    protected final Semaphore permits;
+
+    protected final long borrowTimeoutMillis;
+
+    protected volatile boolean closed = false;
+
+    /**
+     * @param resourceName names the resource in error messages, like "JDBC connection"
+     */
+    protected ResourcePool(String resourceName, int maxResources, long borrowTimeoutMillis) {
+        if (maxResources < 1)
+            throw new IllegalArgumentException("pool requires at least one " + resourceName);
+        this.resourceName = resourceName;
+        this.permits = new Semaphore(maxResources, true);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+    }
+
+    /**
+     * creates a new resource when no idle one is available
+     */
+    protected abstract R create() throws E;
+
+    /**
+     * @return false, if the resource is broken and must be dropped from the pool
+     */
+    protected abstract boolean isValid(R resource);
+
+    /**
+     * releases the resource for good. must not throw.
+     */
+    protected abstract void destroy(R resource);
+
+    /**
+     * creates the exception reported to the borrower when the pool cannot hand out a resource
+     */
+    protected abstract E createException(String message, Throwable cause);
+
+    /**
+     * prepares a returned resource for the next borrower.
+     * @return false, if the resource cannot be reused
+     */
+    protected boolean prepareForReuse(R resource) {
+        return true;
+    }
+
+    /**
+     * takes an idle resource from the pool or creates a new one, blocking while all resources are in use.
+     * every borrowed resource must be handed back by either {@link #release(Object)} or
+     * {@link #invalidate(Object)}.
+     */
+    protected R borrow() throws E {
+        if (closed)
+            throw createException(resourceName + " pool is closed", null);
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw createException("timed out waiting for a " + resourceName, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw createException("interrupted while waiting for a " + resourceName, e);
+        }
+        boolean borrowed = false;
+        try {
+            R resource;
+            while ((resource = idleResources.poll()) != null) {
+                if (isValid(resource)) {
+                    borrowed = true;
+                    return resource;
+                }
+            }
+            resource = create();
+            borrowed = true;
+            return resource;
+        } finally {
+            if (!borrowed)
+                permits.release();
+        }
+    }
+
+    /**
+     * hands a borrowed resource back for reuse
+     */
+    protected void release(R resource) {
+        if (resource == null)
+            return;
+        try {
+            if (closed || !isValid(resource) || !prepareForReuse(resource)) {
+                destroy(resource);
+                return;
+            }
+            idleResources.offer(resource);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * hands a borrowed resource back which must not be reused, for example after it failed
+     */
+    protected void invalidate(R resource) {
+        if (resource == null)
+            return;
+        try {
+            destroy(resource);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int getIdleCount() {
+        return idleResources.size();
+    }
+
+    /**
+     * destroys all idle resources. resources currently borrowed are destroyed when returned.
+     */
+    public void close() {
+        closed = true;
+        R resource;
+        while ((resource = idleResources.poll()) != null) {
+            destroy(resource);
+        }
+    }
+}
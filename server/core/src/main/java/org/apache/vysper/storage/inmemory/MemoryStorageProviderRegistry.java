@@ -21,6 +21,7 @@ package org.apache.vysper.storage.inmemory;
 
 import org.apache.vysper.storage.OpenStorageProviderRegistry;
 import org.apache.vysper.xmpp.authorization.SimpleUserAuthorization;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.storage.MemoryOfflineStorageProvider;
 import org.apache.vysper.xmpp.modules.roster.persistence.MemoryRosterManager;
 
 /**
@@ -33,6 +34,7 @@ public class MemoryStorageProviderRegistry extends OpenStorageProviderRegistry {
     public MemoryStorageProviderRegistry() {
         add(new SimpleUserAuthorization());
         add(new MemoryRosterManager());
+        add(new MemoryOfflineStorageProvider());
 
         // provider from external modules, low coupling, fail when modules are not present
         add("org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.LeafNodeInMemoryStorageProvider");
@@ -0,0 +1,123 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jcr;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.vysper.storage.ResourcePool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * bounded pool of logged-in JCR sessions. JCR sessions must not be shared between threads,
+ * so every storage operation borrows a session exclusively and returns it when done.
+ * sessions are created lazily up to the configured maximum. returned sessions get their
+ * unsaved changes discarded, so the next borrower always starts from a clean state.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JcrSessionPool extends ResourcePool<Session, JcrStorageException> {
+
+    final Logger logger = LoggerFactory.getLogger(JcrSessionPool.class);
+
+    public static final int DEFAULT_MAX_SESSIONS = 8;
+
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30 * 1000;
+
+    protected final Repository repository;
+
+    protected final Credentials credentials;
+
+    public JcrSessionPool(Repository repository, Credentials credentials) {
+        this(repository, credentials, DEFAULT_MAX_SESSIONS, DEFAULT_BORROW_TIMEOUT_MILLIS);
+    }
+
+    public JcrSessionPool(Repository repository, Credentials credentials, int maxSessions, long borrowTimeoutMillis) {
+        super("JCR session", maxSessions, borrowTimeoutMillis);
+        this.repository = repository;
+        this.credentials = credentials;
+    }
+
+    /**
+     * takes an idle session from the pool or logs in a new one, blocking while all sessions are in use.
+     * every borrowed session must be handed back by either {@link #returnSession(Session)} or
+     * {@link #invalidateSession(Session)}.
+     */
+    public Session borrowSession() throws JcrStorageException {
+        return borrow();
+    }
+
+    /**
+     * hands a borrowed session back for reuse. pending changes are discarded.
+     */
+    public void returnSession(Session session) {
+        release(session);
+    }
+
+    /**
+     * hands a borrowed session back which must not be reused, for example after it failed.
+     */
+    public void invalidateSession(Session session) {
+        invalidate(session);
+    }
+
+    @Override
+    protected Session create() throws JcrStorageException {
+        try {
+            return repository.login(credentials);
+        } catch (RepositoryException e) {
+            throw new JcrStorageException(e);
+        }
+    }
+
+    @Override
+    protected boolean isValid(Session session) {
+        return session.isLive();
+    }
+
+    @Override
+    protected boolean prepareForReuse(Session session) {
+        try {
+            if (session.hasPendingChanges())
+                session.refresh(false);
+            return true;
+        } catch (RepositoryException e) {
+            logger.warn("failed to discard pending changes, dropping JCR session", e);
+            return false;
+        }
+    }
+
+    @Override
+    protected void destroy(Session session) {
+        try {
+            session.logout();
+        } catch (RuntimeException e) {
+            logger.warn("failed to log out JCR session", e);
+        }
+    }
+
+    @Override
+    protected JcrStorageException createException(String message, Throwable cause) {
+        return new JcrStorageException(message, cause);
+    }
+}
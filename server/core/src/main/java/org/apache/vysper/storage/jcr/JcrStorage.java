@@ -19,7 +19,14 @@
  */
 package org.apache.vysper.storage.jcr;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -31,19 +38,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * back-end stuff for JCR, used by the semantic specific adapters
+ * back-end stuff for JCR, used by the semantic specific adapters.
+ * <p>
+ * JCR sessions are not thread-safe, so all access goes through {@link #execute(JcrStorageOperation)},
+ * which runs the operation on a session borrowed from a {@link JcrSessionPool} and saves all its
+ * changes at once. repository location, credentials and pool size are configurable until the
+ * storage is first used.
+ *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public class JcrStorage {
 
     final Logger logger = LoggerFactory.getLogger(JcrStorage.class);
 
-    protected static JcrStorage jcrStorageSingleton;
+    public static final String ACCOUNT_ENTITY_NODE = "accountentity";
 
-    protected JcrStorage() {
-        super();
-        // protected
-    }
+    private static final int ENTITY_LOCK_STRIPES = 32;
+
+    protected static JcrStorage jcrStorageSingleton;
 
     public static JcrStorage getInstance() {
         synchronized (JcrStorage.class) {
@@ -53,78 +65,214 @@ public class JcrStorage {
         }
     }
 
-    protected Session session = null;
+    protected String repositoryHome = null;
 
-    public Session getRepositorySession() throws JcrStorageException {
-        if (session != null)
-            return session;
-        try {
-            Repository repository = new TransientRepository();
-            session = repository.login(new SimpleCredentials("xmpp-admin", "adminpassword".toCharArray()));
-            return session;
-        } catch (Exception e) {
-            throw new JcrStorageException(e);
+    protected String repositoryConfig = null;
+
+    protected String username = "xmpp-admin";
+
+    protected String password = "adminpassword";
+
+    protected int maxSessions = JcrSessionPool.DEFAULT_MAX_SESSIONS;
+
+    protected JcrSessionPool sessionPool = null;
+
+    /**
+     * serializes modifications for the same entity, so concurrent first writes don't create
+     * sibling nodes with the same name
+     */
+    private final Object[] entityLocks = new Object[ENTITY_LOCK_STRIPES];
+
+    public JcrStorage() {
+        for (int i = 0; i < entityLocks.length; i++) {
+            entityLocks[i] = new Object();
         }
     }
 
-    public Node getRootNode() throws JcrStorageException {
+    /**
+     * @param repositoryHome directory holding the repository, it's created if missing
+     */
+    public JcrStorage(String repositoryHome) {
+        this();
+        this.repositoryHome = repositoryHome;
+    }
+
+    public void setRepositoryHome(String repositoryHome) {
+        assertNotStarted();
+        this.repositoryHome = repositoryHome;
+    }
+
+    /**
+     * @param repositoryConfig path to the repository.xml, defaults to the one inside the repository home
+     */
+    public void setRepositoryConfig(String repositoryConfig) {
+        assertNotStarted();
+        this.repositoryConfig = repositoryConfig;
+    }
+
+    public void setUsername(String username) {
+        assertNotStarted();
+        this.username = username;
+    }
+
+    public void setPassword(String password) {
+        assertNotStarted();
+        this.password = password;
+    }
+
+    public void setMaxSessions(int maxSessions) {
+        assertNotStarted();
+        this.maxSessions = maxSessions;
+    }
+
+    private synchronized void assertNotStarted() {
+        if (sessionPool != null)
+            throw new IllegalStateException("JCR storage already started");
+    }
+
+    protected synchronized JcrSessionPool getSessionPool() throws JcrStorageException {
+        if (sessionPool != null)
+            return sessionPool;
+        Repository repository;
         try {
-            return getRepositorySession().getRootNode();
+            repository = createRepository();
+        } catch (IOException e) {
+            throw new JcrStorageException(e);
+        }
+        JcrSessionPool pool = new JcrSessionPool(repository, new SimpleCredentials(username, password
+                .toCharArray()), maxSessions, JcrSessionPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
+        Session session = pool.borrowSession();
+        try {
+            // create the shared parent node upfront, so that concurrent operations never race for it
+            Node rootNode = session.getRootNode();
+            if (!rootNode.hasNode(ACCOUNT_ENTITY_NODE)) {
+                rootNode.addNode(ACCOUNT_ENTITY_NODE);
+                session.save();
+            }
+            pool.returnSession(session);
         } catch (RepositoryException e) {
+            pool.invalidateSession(session);
+            pool.close();
             throw new JcrStorageException(e);
         }
+        sessionPool = pool;
+        return sessionPool;
     }
 
-    public Node getEntityNode(Entity bareEntity, String namespace, boolean createIfMissing) throws JcrStorageException {
-        bareEntity = bareEntity.getBareJID(); // make it really sure
-        if (namespace != null)
-            namespace = namespace.replace(':', '_');
-        final String path = "/accountentity/" + bareEntity.getFullQualifiedName()
-                + (namespace != null ? "/" + namespace : "");
-        if (!itemExists(path)) {
-            if (!createIfMissing)
-                return null;
-            Node accountEntityNode = getOrCreate(getRootNode(), "accountentity");
-            Node entityNode = getOrCreate(accountEntityNode, bareEntity.getFullQualifiedName());
-            if (namespace != null)
-                entityNode = getOrCreate(entityNode, namespace);
-            return entityNode;
-        } else {
-            try {
-                return (Node) getRepositorySession().getItem(path);
-            } catch (RepositoryException e) {
-                throw new JcrStorageException(e);
+    protected Repository createRepository() throws IOException {
+        if (repositoryHome == null && repositoryConfig == null)
+            return new TransientRepository();
+        String home = repositoryHome != null ? repositoryHome : "repository";
+        String config = repositoryConfig != null ? repositoryConfig : new File(home, "repository.xml").getPath();
+        if (!new File(config).exists()) {
+            installDefaultConfig(new File(config));
+        }
+        return new TransientRepository(config, home);
+    }
+
+    private void installDefaultConfig(File config) throws IOException {
+        InputStream inputStream = TransientRepository.class.getResourceAsStream("repository.xml");
+        if (inputStream == null)
+            throw new IOException("default repository configuration not found");
+        if (config.getAbsoluteFile().getParentFile() != null)
+            config.getAbsoluteFile().getParentFile().mkdirs();
+        OutputStream outputStream = new FileOutputStream(config);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
             }
+        } finally {
+            outputStream.close();
+            inputStream.close();
         }
     }
 
-    private boolean itemExists(String absolutePath) throws JcrStorageException {
+    public boolean isAvailable() {
         try {
-            return getRepositorySession().itemExists(absolutePath);
-        } catch (RepositoryException e) {
-            throw new JcrStorageException(e);
+            JcrSessionPool pool = getSessionPool();
+            pool.returnSession(pool.borrowSession());
+            return true;
         } catch (JcrStorageException e) {
-            throw e;
+            return false;
         }
     }
 
-    protected Node getOrCreate(Node parent, String nodeName) throws JcrStorageException {
-        Node childNode;
+    /**
+     * runs the operation on a pooled session and saves its changes in a single batch.
+     * if the operation fails, all its changes are discarded.
+     */
+    public <T> T execute(JcrStorageOperation<T> operation) throws JcrStorageException {
+        JcrSessionPool pool = getSessionPool();
+        Session session = pool.borrowSession();
+        boolean healthy = true;
         try {
-            childNode = parent.getNode(nodeName);
+            T result = operation.execute(session);
+            if (session.hasPendingChanges())
+                session.save();
+            return result;
         } catch (RepositoryException e) {
-            childNode = null;
+            healthy = session.isLive();
+            throw new JcrStorageException(e);
+        } finally {
+            if (healthy)
+                pool.returnSession(session); // discards whatever was not saved
+            else
+                pool.invalidateSession(session);
         }
-        if (childNode == null) {
-            try {
-                childNode = parent.addNode(nodeName);
-                parent.save();
-                childNode.save();
-                logger.info("JCR node created: " + childNode);
-            } catch (RepositoryException e) {
-                throw new JcrStorageException(e);
-            }
+    }
+
+    /**
+     * like {@link #execute(JcrStorageOperation)}, but excludes concurrent modifications for the same bare entity
+     */
+    public <T> T executeForEntity(Entity entity, JcrStorageOperation<T> operation) throws JcrStorageException {
+        Entity bareEntity = entity.getBareJID();
+        Object lock = entityLocks[(bareEntity.hashCode() & 0x7fffffff) % entityLocks.length];
+        synchronized (lock) {
+            return execute(operation);
         }
+    }
+
+    /**
+     * retrieves the node for the entity (and the namespace, if given) from the session.
+     * missing nodes are added to the session if requested, but not saved.
+     */
+    public Node getEntityNode(Session session, Entity bareEntity, String namespace, boolean createIfMissing)
+            throws RepositoryException {
+        bareEntity = bareEntity.getBareJID(); // make it really sure
+        if (namespace != null)
+            namespace = namespace.replace(':', '_');
+        final String path = "/" + ACCOUNT_ENTITY_NODE + "/" + bareEntity.getFullQualifiedName()
+                + (namespace != null ? "/" + namespace : "");
+        try {
+            return (Node) session.getItem(path);
+        } catch (PathNotFoundException e) {
+            if (!createIfMissing)
+                return null;
+        }
+        Node accountEntityNode = getOrCreate(session.getRootNode(), ACCOUNT_ENTITY_NODE);
+        Node entityNode = getOrCreate(accountEntityNode, bareEntity.getFullQualifiedName());
+        if (namespace != null)
+            entityNode = getOrCreate(entityNode, namespace);
+        return entityNode;
+    }
+
+    protected Node getOrCreate(Node parent, String nodeName) throws RepositoryException {
+        if (parent.hasNode(nodeName))
+            return parent.getNode(nodeName);
+        Node childNode = parent.addNode(nodeName);
+        logger.debug("JCR node added: {}", childNode.getPath());
         return childNode;
     }
+
+    /**
+     * logs out all pooled sessions
+     */
+    public synchronized void shutdown() {
+        if (sessionPool != null) {
+            sessionPool.close();
+            sessionPool = null;
+        }
+    }
 }
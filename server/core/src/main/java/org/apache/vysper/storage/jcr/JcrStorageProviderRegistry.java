@@ -24,6 +24,7 @@ import org.apache.vysper.storage.jcr.privatedata.JcrPrivateDataPersistenceManage
 import org.apache.vysper.storage.jcr.roster.JcrRosterManager;
 import org.apache.vysper.storage.jcr.user.JcrUserManagement;
 import org.apache.vysper.storage.jcr.vcardtemp.JcrVcardTempPersistenceManager;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.storage.SegmentFileOfflineStorageProvider;
 
 /**
  *
@@ -32,10 +33,23 @@ import org.apache.vysper.storage.jcr.vcardtemp.JcrVcardTempPersistenceManager;
 public class JcrStorageProviderRegistry extends OpenStorageProviderRegistry {
 
     public JcrStorageProviderRegistry() {
-        add(new JcrUserManagement(JcrStorage.getInstance()));
-        add(new JcrRosterManager(JcrStorage.getInstance()));
-        add(new JcrVcardTempPersistenceManager(JcrStorage.getInstance()));
-        add(new JcrPrivateDataPersistenceManager(JcrStorage.getInstance()));
+        this(JcrStorage.getInstance());
+    }
+
+    /**
+     * @param repositoryHome directory of the JCR repository to use
+     */
+    public JcrStorageProviderRegistry(String repositoryHome) {
+        this(new JcrStorage(repositoryHome));
+    }
+
+    public JcrStorageProviderRegistry(JcrStorage jcrStorage) {
+        add(new JcrUserManagement(jcrStorage));
+        add(new JcrRosterManager(jcrStorage));
+        add(new JcrVcardTempPersistenceManager(jcrStorage));
+        add(new JcrPrivateDataPersistenceManager(jcrStorage));
+        // offline stanzas are kept in segment files below the working directory, not in the JCR
+        add(new SegmentFileOfflineStorageProvider());
     }
 
 }
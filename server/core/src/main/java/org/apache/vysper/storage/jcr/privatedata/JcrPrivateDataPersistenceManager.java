@@ -25,6 +25,7 @@ import javax.jcr.Session;
 
 import org.apache.vysper.storage.jcr.JcrStorage;
 import org.apache.vysper.storage.jcr.JcrStorageException;
+import org.apache.vysper.storage.jcr.JcrStorageOperation;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.modules.extension.xep0049_privatedata.PrivateDataPersistenceManager;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
@@ -45,47 +46,39 @@ public class JcrPrivateDataPersistenceManager implements PrivateDataPersistenceM
     }
 
     public boolean isAvailable() {
-        Session session = null;
-        try {
-            session = jcrStorage.getRepositorySession();
-            return session != null;
-        } catch (JcrStorageException e) {
-            return false;
-        }
+        return jcrStorage.isAvailable();
     }
 
-    public String getPrivateData(Entity entity, String key) {
-        Node entityNode = getEntityNodeSave(entity, false);
-        if (entityNode == null)
-            return null;
+    public String getPrivateData(final Entity entity, final String key) {
         try {
-            return entityNode.getProperty(key).getString();
-        } catch (RepositoryException e) {
+            return jcrStorage.execute(new JcrStorageOperation<String>() {
+                public String execute(Session session) throws RepositoryException {
+                    Node entityNode = jcrStorage.getEntityNode(session, entity.getBareJID(),
+                            NamespaceURIs.PRIVATE_DATA, false);
+                    if (entityNode == null || !entityNode.hasProperty(key))
+                        return null;
+                    return entityNode.getProperty(key).getString();
+                }
+            });
+        } catch (JcrStorageException e) {
             return null;
         }
     }
 
-    public boolean setPrivateData(Entity entity, String key, String xml) {
-        Node entityNode = getEntityNodeSave(entity, true);
+    public boolean setPrivateData(final Entity entity, final String key, final String xml) {
         try {
-            entityNode.setProperty(key, xml);
-            entityNode.save();
-            logger.info("JCR node created: " + entityNode);
+            jcrStorage.executeForEntity(entity, new JcrStorageOperation<Object>() {
+                public Object execute(Session session) throws RepositoryException {
+                    Node entityNode = jcrStorage.getEntityNode(session, entity.getBareJID(),
+                            NamespaceURIs.PRIVATE_DATA, true);
+                    entityNode.setProperty(key, xml);
+                    return null;
+                }
+            });
+            logger.debug("JCR private data stored for {}", entity);
             return true;
-        } catch (RepositoryException e) {
-            return false;
-        }
-    }
-
-    private Node getEntityNodeSave(Entity entity, boolean createIfMissing) {
-        Node entityNode;
-        try {
-            entityNode = jcrStorage.getEntityNode(entity.getBareJID(), NamespaceURIs.PRIVATE_DATA, createIfMissing);
         } catch (JcrStorageException e) {
-            return null;
+            return false;
         }
-        if (entityNode == null)
-            return null;
-        return entityNode;
     }
 }
@@ -26,9 +26,11 @@ import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 
 import org.apache.vysper.storage.jcr.JcrStorage;
 import org.apache.vysper.storage.jcr.JcrStorageException;
+import org.apache.vysper.storage.jcr.JcrStorageOperation;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityFormatException;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
@@ -62,21 +64,29 @@ public class JcrRosterManager extends AbstractRosterManager {
         this.jcrStorage = jcrStorage;
     }
 
-    /*package*/static Node retrieveRosterNode(JcrStorage jcrStorage, Entity bareJid) {
+    /*package*/static Node retrieveRosterNode(JcrStorage jcrStorage, Session session, Entity bareJid)
+            throws RepositoryException {
+        return jcrStorage.getEntityNode(session, bareJid, NamespaceURIs.JABBER_IQ_ROSTER, false);
+    }
+
+    @Override
+    protected Roster retrieveRosterInternal(final Entity bareJid) {
         try {
-            if (jcrStorage.getEntityNode(bareJid, null, false) == null)
-                return null;
-            return jcrStorage.getEntityNode(bareJid, NamespaceURIs.JABBER_IQ_ROSTER, true);
+            return jcrStorage.execute(new JcrStorageOperation<Roster>() {
+                public Roster execute(Session session) throws RepositoryException {
+                    return readRoster(retrieveRosterNode(jcrStorage, session, bareJid), bareJid);
+                }
+            });
         } catch (JcrStorageException e) {
-            return null;
+            logger.warn("failed to load roster for user " + bareJid, e);
+            return new MutableRoster(); // empty roster object
         }
     }
 
-    @Override
-    protected Roster retrieveRosterInternal(Entity bareJid) {
-        final Node rosterNode = retrieveRosterNode(jcrStorage, bareJid);
-
+    private Roster readRoster(Node rosterNode, Entity bareJid) {
         MutableRoster roster = new MutableRoster();
+        if (rosterNode == null)
+            return roster;
 
         NodeIterator nodes = null;
         try {
@@ -93,7 +103,7 @@ public class JcrRosterManager extends AbstractRosterManager {
             } catch (RepositoryException e) {
                 logger.warn("when loading roster for user {} cannot read node name for node id = " + node.toString());
             }
-            logger.warn("try now loading contact " + contactJidString + " from node " + node.toString());
+            logger.debug("try now loading contact " + contactJidString + " from node " + node.toString());
             EntityImpl contactJid = null;
             if (contactJidString != null) {
                 try {
@@ -155,30 +165,39 @@ public class JcrRosterManager extends AbstractRosterManager {
     }
 
     @Override
-    public void addContact(Entity jid, RosterItem rosterItem) throws RosterException {
+    public void addContact(final Entity jid, final RosterItem rosterItem) throws RosterException {
         if (jid == null)
             throw new RosterException("jid not provided");
         if (rosterItem.getJid() == null)
             throw new RosterException("contact jid not provided");
 
-        // TODO think about concurrent updates
-
-        Entity contactJid = rosterItem.getJid().getBareJID();
-        Node contactNode = getOrCreateContactNode(jid, contactJid);
+        final Entity contactJid = rosterItem.getJid().getBareJID();
         try {
-            setOrRemoveAttribute(contactNode, "name", rosterItem.getName());
-            String subscriptionTypeValue = rosterItem.getSubscriptionType() == null ? null : rosterItem
-                    .getSubscriptionType().value();
-            setOrRemoveAttribute(contactNode, "type", subscriptionTypeValue);
-            String askSubscriptionTypeValue = null;
-            if (rosterItem.getAskSubscriptionType() != null
-                    && rosterItem.getAskSubscriptionType() != AskSubscriptionType.NOT_SET) {
-                askSubscriptionTypeValue = rosterItem.getAskSubscriptionType().value();
-            }
-            setOrRemoveAttribute(contactNode, "askType", askSubscriptionTypeValue);
-            contactNode.save();
-            logger.info("JCR node created/updated: " + contactNode);
-        } catch (RepositoryException e) {
+            // node creation and all properties are saved at once
+            jcrStorage.executeForEntity(jid, new JcrStorageOperation<Object>() {
+                public Object execute(Session session) throws RepositoryException {
+                    Node entityNode = jcrStorage.getEntityNode(session, jid, NamespaceURIs.JABBER_IQ_ROSTER, true);
+                    Node contactNode;
+                    if (entityNode.hasNode(contactJid.getFullQualifiedName())) {
+                        contactNode = entityNode.getNode(contactJid.getFullQualifiedName());
+                    } else {
+                        contactNode = entityNode.addNode(contactJid.getFullQualifiedName());
+                    }
+                    setOrRemoveAttribute(contactNode, "name", rosterItem.getName());
+                    String subscriptionTypeValue = rosterItem.getSubscriptionType() == null ? null : rosterItem
+                            .getSubscriptionType().value();
+                    setOrRemoveAttribute(contactNode, "type", subscriptionTypeValue);
+                    String askSubscriptionTypeValue = null;
+                    if (rosterItem.getAskSubscriptionType() != null
+                            && rosterItem.getAskSubscriptionType() != AskSubscriptionType.NOT_SET) {
+                        askSubscriptionTypeValue = rosterItem.getAskSubscriptionType().value();
+                    }
+                    setOrRemoveAttribute(contactNode, "askType", askSubscriptionTypeValue);
+                    return null;
+                }
+            });
+            logger.debug("JCR roster item created/updated for {}: {}", jid, contactJid);
+        } catch (JcrStorageException e) {
             throw new RosterException("failed to add contact node to roster for user = " + jid.getFullQualifiedName()
                     + " and contact jid = " + rosterItem.getJid().getFullQualifiedName(), e);
         }
@@ -192,64 +211,28 @@ public class JcrRosterManager extends AbstractRosterManager {
             contactNode.setProperty(attributeName, (String) null);
     }
 
-    private Node getOrCreateContactNode(Entity jid, Entity contactJid) throws RosterException {
-        Node entityNode = null;
-        try {
-            entityNode = jcrStorage.getEntityNode(jid, NamespaceURIs.JABBER_IQ_ROSTER, true);
-        } catch (JcrStorageException e) {
-            throw new RosterException("failed to create roster store for " + jid.getFullQualifiedName(), e);
-        }
-        Node contactNode = null;
-        try {
-            contactNode = entityNode.getNode(contactJid.getFullQualifiedName());
-        } catch (RepositoryException e) {
-            // not exists, create
-            try {
-                contactNode = entityNode.addNode(contactJid.getFullQualifiedName());
-                entityNode.save();
-            } catch (RepositoryException addNodeEx) {
-                throw new RosterException("failed to add contact node to roster for user = "
-                        + jid.getFullQualifiedName() + " and contact jid = " + contactJid.getFullQualifiedName(),
-                        addNodeEx);
-            }
-
-        }
-        return contactNode;
-    }
-
     @Override
-    public void removeContact(Entity jidUser, Entity jidContact) throws RosterException {
+    public void removeContact(final Entity jidUser, final Entity jidContact) throws RosterException {
         if (jidUser == null)
             throw new RosterException("jid not provided");
         if (jidContact == null)
             throw new RosterException("contact jid not provided");
-        Node rosterNode = null;
+        boolean foundOne;
         try {
-            rosterNode = jcrStorage.getEntityNode(jidUser, NamespaceURIs.JABBER_IQ_ROSTER, false);
-        } catch (JcrStorageException e) {
-            throw new RosterException("failed to retrieve roster store for " + jidUser.getFullQualifiedName(), e);
-        }
-        if (rosterNode == null)
-            return; // done, no contacts anyway. oops
-
-        NodeIterator nodes = null;
-        try {
-            nodes = rosterNode.getNodes("contact");
-        } catch (RepositoryException e) {
-            return; // failed to find any contacts, done.
-        }
-        boolean foundOne = false;
-        while (nodes != null && nodes.hasNext()) {
-            Node node = nodes.nextNode();
-            String contactJidString = readAttribute(node, "jid");
-            if (contactJidString != null && contactJidString.equals(jidContact.getFullQualifiedName())) {
-                foundOne = true;
-                try {
-                    node.remove();
-                } catch (RepositoryException e) {
-                    logger.warn("failed to remove from roster for user {} the contact jid " + jidContact, jidUser, e);
+            foundOne = jcrStorage.executeForEntity(jidUser, new JcrStorageOperation<Boolean>() {
+                public Boolean execute(Session session) throws RepositoryException {
+                    Node rosterNode = retrieveRosterNode(jcrStorage, session, jidUser);
+                    if (rosterNode == null)
+                        return false; // done, no contacts anyway. oops
+                    String contactNodeName = jidContact.getBareJID().getFullQualifiedName();
+                    if (!rosterNode.hasNode(contactNodeName))
+                        return false;
+                    rosterNode.getNode(contactNodeName).remove();
+                    return true;
                 }
-            }
+            });
+        } catch (JcrStorageException e) {
+            throw new RosterException("failed to remove contact from roster for " + jidUser.getFullQualifiedName(), e);
         }
         if (!foundOne)
             logger.warn("failed to remove from roster for user " + jidUser + " the contact jid " + jidContact);
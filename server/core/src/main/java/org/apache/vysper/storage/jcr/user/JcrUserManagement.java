@@ -20,24 +20,24 @@
 package org.apache.vysper.storage.jcr.user;
 
 import javax.jcr.Node;
-import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 
 import org.apache.vysper.storage.jcr.JcrStorage;
 import org.apache.vysper.storage.jcr.JcrStorageException;
+import org.apache.vysper.storage.jcr.JcrStorageOperation;
 import org.apache.vysper.xmpp.addressing.Entity;
-import org.apache.vysper.xmpp.addressing.EntityFormatException;
-import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.authorization.AbstractUserAuthorization;
 import org.apache.vysper.xmpp.authorization.AccountCreationException;
-import org.apache.vysper.xmpp.authorization.AccountManagement;
-import org.apache.vysper.xmpp.authorization.UserAuthorization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * stores the hashed password of an account below the account's entity node
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
-public class JcrUserManagement implements UserAuthorization, AccountManagement {
+public class JcrUserManagement extends AbstractUserAuthorization {
 
     final Logger logger = LoggerFactory.getLogger(JcrUserManagement.class);
 
@@ -49,64 +49,70 @@ public class JcrUserManagement implements UserAuthorization, AccountManagement {
         this.jcrStorage = jcrStorage;
     }
 
-    public boolean verifyCredentials(Entity jid, String passwordCleartext, Object credentials) {
-        if (passwordCleartext == null)
-            return false;
+    @Override
+    protected String retrieveStoredPassword(final Entity bareJid) {
         try {
-            final Node credentialsNode = jcrStorage.getEntityNode(jid, CREDENTIALS_NAMESPACE, false);
-            if (credentialsNode == null)
-                return false;
-            final Property property = credentialsNode.getProperty("password");
-            if (property == null)
-                return false;
-            final String password = property.getValue().getString();
-            return passwordCleartext.equals(password);
-        } catch (Exception e) {
-            return false;
-        }
-    }
-
-    public boolean verifyCredentials(String username, String passwordCleartext, Object credentials) {
-        try {
-            return verifyCredentials(EntityImpl.parse(username), passwordCleartext, credentials);
-        } catch (EntityFormatException e) {
-            return false;
+            return jcrStorage.execute(new JcrStorageOperation<String>() {
+                public String execute(Session session) throws RepositoryException {
+                    final Node credentialsNode = jcrStorage.getEntityNode(session, bareJid, CREDENTIALS_NAMESPACE,
+                            false);
+                    if (credentialsNode == null || !credentialsNode.hasProperty("password"))
+                        return null;
+                    return credentialsNode.getProperty("password").getValue().getString();
+                }
+            });
+        } catch (JcrStorageException e) {
+            logger.warn("failed to retrieve credentials for " + bareJid, e);
+            return null;
         }
     }
 
-    public boolean verifyAccountExists(Entity jid) {
+    @Override
+    protected void storeNewAccount(final Entity bareJid, final String storedPassword)
+            throws AccountCreationException {
+        boolean created;
         try {
-            return jcrStorage.getEntityNode(jid, CREDENTIALS_NAMESPACE, false) != null;
+            // check and create within the same locked operation, so an account can't be created twice
+            created = jcrStorage.executeForEntity(bareJid, new JcrStorageOperation<Boolean>() {
+                public Boolean execute(Session session) throws RepositoryException {
+                    if (jcrStorage.getEntityNode(session, bareJid, CREDENTIALS_NAMESPACE, false) != null) {
+                        return false;
+                    }
+                    final Node credentialsNode = jcrStorage.getEntityNode(session, bareJid, CREDENTIALS_NAMESPACE,
+                            true);
+                    credentialsNode.setProperty("password", storedPassword);
+                    return true;
+                }
+            });
         } catch (JcrStorageException e) {
-            return false;
+            throw new AccountCreationException("failed to create the account set credentials", e);
         }
+        if (!created) {
+            throw new AccountCreationException("account already exists: " + bareJid.getFullQualifiedName());
+        }
+        logger.info("JCR account created: " + bareJid.getFullQualifiedName());
     }
 
-    public void addUser(String username, String password) throws AccountCreationException {
-        final EntityImpl entity;
-        try {
-            entity = EntityImpl.parse(username);
-        } catch (EntityFormatException e) {
-            throw new AccountCreationException("username is expected to be in proper entity format, not " + username, e); // wrap as unchecked
-        }
-        // if already existent, don't create, throw error
+    @Override
+    protected void updateStoredPassword(final Entity bareJid, final String storedPassword)
+            throws AccountCreationException {
+        boolean updated;
         try {
-            if (jcrStorage.getEntityNode(entity, CREDENTIALS_NAMESPACE, false) != null) {
-                throw new AccountCreationException("account already exists: " + entity.getFullQualifiedName());
-            }
+            updated = jcrStorage.executeForEntity(bareJid, new JcrStorageOperation<Boolean>() {
+                public Boolean execute(Session session) throws RepositoryException {
+                    final Node credentialsNode = jcrStorage.getEntityNode(session, bareJid, CREDENTIALS_NAMESPACE,
+                            false);
+                    if (credentialsNode == null)
+                        return false;
+                    credentialsNode.setProperty("password", storedPassword);
+                    return true;
+                }
+            });
         } catch (JcrStorageException e) {
-            throw new AccountCreationException("account exists check failed for " + entity.getFullQualifiedName(), e);
+            throw new AccountCreationException("failed to update credentials", e);
         }
-        // now, finally, create
-        try {
-            final Node credentialsNode = jcrStorage.getEntityNode(entity, CREDENTIALS_NAMESPACE, true);
-            credentialsNode.setProperty("password", password);
-            credentialsNode.save();
-            logger.info("JCR node created: " + credentialsNode);
-        } catch (Exception e) {
-            // TODO remove account?
-            throw new AccountCreationException("failed to create the account set credentials", e);
+        if (!updated) {
+            throw new AccountCreationException("account does not exist: " + bareJid.getFullQualifiedName());
         }
-
     }
 }
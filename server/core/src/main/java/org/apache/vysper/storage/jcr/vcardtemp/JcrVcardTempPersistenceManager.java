@@ -25,6 +25,7 @@ import javax.jcr.Session;
 
 import org.apache.vysper.storage.jcr.JcrStorage;
 import org.apache.vysper.storage.jcr.JcrStorageException;
+import org.apache.vysper.storage.jcr.JcrStorageOperation;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.modules.extension.xep0054_vcardtemp.VcardTempPersistenceManager;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
@@ -46,46 +47,38 @@ public class JcrVcardTempPersistenceManager implements VcardTempPersistenceManag
     }
 
     public boolean isAvailable() {
-        Session session = null;
-        try {
-            session = jcrStorage.getRepositorySession();
-            return session != null;
-        } catch (JcrStorageException e) {
-            return false;
-        }
-    }
-
-    public String getVcard(Entity entity) {
-        Node entityNode = getEntityNodeSave(entity, false);
-        if (entityNode == null)
-            return null;
-        try {
-            return entityNode.getProperty("content").getString();
-        } catch (RepositoryException e) {
-            return null;
-        }
+        return jcrStorage.isAvailable();
     }
 
-    private Node getEntityNodeSave(Entity entity, boolean createIfMissing) {
-        Node entityNode;
+    public String getVcard(final Entity entity) {
         try {
-            entityNode = jcrStorage.getEntityNode(entity.getBareJID(), NamespaceURIs.VCARD_TEMP, createIfMissing);
+            return jcrStorage.execute(new JcrStorageOperation<String>() {
+                public String execute(Session session) throws RepositoryException {
+                    Node entityNode = jcrStorage.getEntityNode(session, entity.getBareJID(),
+                            NamespaceURIs.VCARD_TEMP, false);
+                    if (entityNode == null || !entityNode.hasProperty("content"))
+                        return null;
+                    return entityNode.getProperty("content").getString();
+                }
+            });
         } catch (JcrStorageException e) {
             return null;
         }
-        if (entityNode == null)
-            return null;
-        return entityNode;
     }
 
-    public boolean setVcard(Entity entity, String xml) {
-        Node entityNode = getEntityNodeSave(entity, true);
+    public boolean setVcard(final Entity entity, final String xml) {
         try {
-            entityNode.setProperty("content", xml);
-            entityNode.save();
-            logger.info("JCR node created: " + entityNode);
+            jcrStorage.executeForEntity(entity, new JcrStorageOperation<Object>() {
+                public Object execute(Session session) throws RepositoryException {
+                    Node entityNode = jcrStorage.getEntityNode(session, entity.getBareJID(),
+                            NamespaceURIs.VCARD_TEMP, true);
+                    entityNode.setProperty("content", xml);
+                    return null;
+                }
+            });
+            logger.debug("JCR vcard stored for {}", entity);
             return true;
-        } catch (RepositoryException e) {
+        } catch (JcrStorageException e) {
             return false;
         }
     }
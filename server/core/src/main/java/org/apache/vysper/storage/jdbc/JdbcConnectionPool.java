@@ -0,0 +1,96 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.apache.vysper.storage.ResourcePool;
+
+/**
+ * bounded pool of JDBC connections with borrow/return semantics. connections are opened lazily
+ * up to the configured maximum and run with auto-commit turned off.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JdbcConnectionPool extends ResourcePool<PooledConnection, JdbcStorageException> {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30 * 1000;
+
+    protected final String url;
+
+    protected final Properties properties;
+
+    public JdbcConnectionPool(String url, Properties properties, int maxConnections, long borrowTimeoutMillis) {
+        super("JDBC connection", maxConnections, borrowTimeoutMillis);
+        this.url = url;
+        this.properties = properties;
+    }
+
+    /**
+     * takes an idle connection from the pool or opens a new one, blocking while all connections are in use.
+     * every borrowed connection must be handed back by either {@link #returnConnection(PooledConnection)} or
+     * {@link #invalidateConnection(PooledConnection)}.
+     */
+    public PooledConnection borrowConnection() throws JdbcStorageException {
+        return borrow();
+    }
+
+    public void returnConnection(PooledConnection connection) {
+        release(connection);
+    }
+
+    /**
+     * hands a borrowed connection back which must not be reused, for example after it failed
+     */
+    public void invalidateConnection(PooledConnection connection) {
+        invalidate(connection);
+    }
+
+    @Override
+    protected PooledConnection create() throws JdbcStorageException {
+        try {
+            Connection connection = DriverManager.getConnection(url, properties);
+            connection.setAutoCommit(false);
+            return new PooledConnection(connection);
+        } catch (SQLException e) {
+            throw new JdbcStorageException(e);
+        }
+    }
+
+    @Override
+    protected boolean isValid(PooledConnection connection) {
+        return !connection.isClosed();
+    }
+
+    @Override
+    protected void destroy(PooledConnection connection) {
+        connection.close();
+    }
+
+    @Override
+    protected JdbcStorageException createException(String message, Throwable cause) {
+        return new JdbcStorageException(message, cause);
+    }
+}
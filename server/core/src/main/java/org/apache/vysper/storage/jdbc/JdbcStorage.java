@@ -0,0 +1,260 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * back-end stuff for relational storage, used by the semantic specific adapters.
+ * <p>
+ * defaults to an embedded Derby database in the working directory. the schema is created on first use.
+ * all access goes through {@link #execute(JdbcStorageOperation)}, which runs the operation on a pooled
+ * connection and commits it as one transaction. all tables are keyed by bare JID, so lookups
+ * for an entity always hit the primary key index.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JdbcStorage {
+
+    final Logger logger = LoggerFactory.getLogger(JdbcStorage.class);
+
+    public static final String DEFAULT_DRIVER_CLASS = "org.apache.derby.jdbc.EmbeddedDriver";
+
+    public static final String DEFAULT_URL = "jdbc:derby:vysperdb;create=true";
+
+    public static final String TABLE_USER = "VYSPER_USER";
+
+    public static final String TABLE_ROSTER_ITEM = "VYSPER_ROSTER_ITEM";
+
+    public static final String TABLE_ROSTER_GROUP = "VYSPER_ROSTER_GROUP";
+
+    public static final String TABLE_VCARD = "VYSPER_VCARD";
+
+    public static final String TABLE_PRIVATE_DATA = "VYSPER_PRIVATE_DATA";
+
+    /**
+     * standard SQL state for unique constraint violations
+     */
+    public static final String SQL_STATE_DUPLICATE_KEY = "23505";
+
+    protected static final String[] SCHEMA = {
+            "CREATE TABLE " + TABLE_USER + " (jid VARCHAR(2047) NOT NULL, password VARCHAR(1024) NOT NULL, "
+                    + "PRIMARY KEY (jid))",
+            "CREATE TABLE " + TABLE_ROSTER_ITEM + " (user_jid VARCHAR(2047) NOT NULL, "
+                    + "contact_jid VARCHAR(2047) NOT NULL, name VARCHAR(1024), subscription VARCHAR(16), "
+                    + "ask VARCHAR(16), PRIMARY KEY (user_jid, contact_jid))",
+            "CREATE TABLE " + TABLE_ROSTER_GROUP + " (user_jid VARCHAR(2047) NOT NULL, "
+                    + "contact_jid VARCHAR(2047) NOT NULL, group_name VARCHAR(1024) NOT NULL)",
+            "CREATE INDEX " + TABLE_ROSTER_GROUP + "_IDX ON " + TABLE_ROSTER_GROUP + " (user_jid, contact_jid)",
+            "CREATE TABLE " + TABLE_VCARD + " (jid VARCHAR(2047) NOT NULL, content CLOB NOT NULL, "
+                    + "PRIMARY KEY (jid))",
+            "CREATE TABLE " + TABLE_PRIVATE_DATA + " (jid VARCHAR(2047) NOT NULL, data_key VARCHAR(1024) NOT NULL, "
+                    + "content CLOB NOT NULL, PRIMARY KEY (jid, data_key))" };
+
+    protected String driverClass = DEFAULT_DRIVER_CLASS;
+
+    protected String url = DEFAULT_URL;
+
+    protected String username = null;
+
+    protected String password = null;
+
+    protected int maxConnections = JdbcConnectionPool.DEFAULT_MAX_CONNECTIONS;
+
+    protected JdbcConnectionPool connectionPool = null;
+
+    public JdbcStorage() {
+        // default embedded database
+    }
+
+    public JdbcStorage(String url) {
+        this.url = url;
+    }
+
+    public JdbcStorage(String driverClass, String url) {
+        this.driverClass = driverClass;
+        this.url = url;
+    }
+
+    public void setDriverClass(String driverClass) {
+        assertNotStarted();
+        this.driverClass = driverClass;
+    }
+
+    public void setUrl(String url) {
+        assertNotStarted();
+        this.url = url;
+    }
+
+    public void setUsername(String username) {
+        assertNotStarted();
+        this.username = username;
+    }
+
+    public void setPassword(String password) {
+        assertNotStarted();
+        this.password = password;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        assertNotStarted();
+        this.maxConnections = maxConnections;
+    }
+
+    private synchronized void assertNotStarted() {
+        if (connectionPool != null)
+            throw new IllegalStateException("JDBC storage already started");
+    }
+
+    protected synchronized JdbcConnectionPool getConnectionPool() throws JdbcStorageException {
+        if (connectionPool != null)
+            return connectionPool;
+        if (driverClass != null) {
+            try {
+                Class.forName(driverClass);
+            } catch (ClassNotFoundException e) {
+                throw new JdbcStorageException("JDBC driver not found: " + driverClass, e);
+            }
+        }
+        Properties properties = new Properties();
+        if (username != null)
+            properties.setProperty("user", username);
+        if (password != null)
+            properties.setProperty("password", password);
+        JdbcConnectionPool pool = new JdbcConnectionPool(url, properties, maxConnections,
+                JdbcConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
+        try {
+            execute(pool, new JdbcStorageOperation<Object>() {
+                public Object execute(PooledConnection connection) throws SQLException {
+                    createSchema(connection);
+                    return null;
+                }
+            });
+        } catch (JdbcStorageException e) {
+            pool.close();
+            throw e;
+        }
+        connectionPool = pool;
+        return connectionPool;
+    }
+
+    protected void createSchema(PooledConnection connection) throws SQLException {
+        ResultSet tables = connection.getConnection().getMetaData().getTables(null, null, TABLE_USER, null);
+        try {
+            if (tables.next())
+                return; // schema exists
+        } finally {
+            tables.close();
+        }
+        Statement statement = connection.getConnection().createStatement();
+        try {
+            for (String ddl : SCHEMA) {
+                statement.executeUpdate(ddl);
+            }
+        } finally {
+            statement.close();
+        }
+        logger.info("created storage schema at {}", url);
+    }
+
+    public boolean isAvailable() {
+        try {
+            JdbcConnectionPool pool = getConnectionPool();
+            pool.returnConnection(pool.borrowConnection());
+            return true;
+        } catch (JdbcStorageException e) {
+            return false;
+        }
+    }
+
+    /**
+     * runs the operation on a pooled connection and commits it. if the operation fails,
+     * the transaction is rolled back.
+     */
+    public <T> T execute(JdbcStorageOperation<T> operation) throws JdbcStorageException {
+        return execute(getConnectionPool(), operation);
+    }
+
+    private <T> T execute(JdbcConnectionPool pool, JdbcStorageOperation<T> operation) throws JdbcStorageException {
+        PooledConnection connection = pool.borrowConnection();
+        boolean healthy = true;
+        try {
+            T result = operation.execute(connection);
+            connection.getConnection().commit();
+            return result;
+        } catch (SQLException e) {
+            healthy = rollback(connection);
+            throw new JdbcStorageException(e);
+        } catch (RuntimeException e) {
+            healthy = rollback(connection);
+            throw e;
+        } finally {
+            if (healthy)
+                pool.returnConnection(connection);
+            else
+                pool.invalidateConnection(connection);
+        }
+    }
+
+    /**
+     * like {@link #execute(JdbcStorageOperation)}, but repeats the operation once if it failed
+     * because a concurrent transaction inserted the same key first. meant for update-or-insert operations.
+     */
+    public <T> T executeUpsert(JdbcStorageOperation<T> operation) throws JdbcStorageException {
+        try {
+            return execute(operation);
+        } catch (JdbcStorageException e) {
+            if (!isDuplicateKey(e))
+                throw e;
+            return execute(operation);
+        }
+    }
+
+    public static boolean isDuplicateKey(JdbcStorageException e) {
+        return e.getCause() instanceof SQLException
+                && SQL_STATE_DUPLICATE_KEY.equals(((SQLException) e.getCause()).getSQLState());
+    }
+
+    private boolean rollback(PooledConnection connection) {
+        try {
+            connection.getConnection().rollback();
+            return true;
+        } catch (SQLException e) {
+            logger.warn("rollback failed, dropping JDBC connection", e);
+            return false;
+        }
+    }
+
+    /**
+     * closes all pooled connections
+     */
+    public synchronized void shutdown() {
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jdbc;
+
+import org.apache.vysper.storage.OpenStorageProviderRegistry;
+import org.apache.vysper.storage.StorageProvider;
+import org.apache.vysper.storage.jdbc.privatedata.JdbcPrivateDataPersistenceManager;
+import org.apache.vysper.storage.jdbc.roster.JdbcRosterManager;
+import org.apache.vysper.storage.jdbc.user.JdbcUserManagement;
+import org.apache.vysper.storage.jdbc.vcardtemp.JdbcVcardTempPersistenceManager;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.storage.SegmentFileOfflineStorageProvider;
+
+/**
+ * storage providers backed by a relational database, by default an embedded Derby
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JdbcStorageProviderRegistry extends OpenStorageProviderRegistry {
+
+    private static final String ROOM_STORAGE_PROVIDER = "org.apache.vysper.xmpp.modules.extension.xep0045_muc.storage.JdbcRoomStorageProvider";
+
+    public JdbcStorageProviderRegistry() {
+        this(new JdbcStorage());
+    }
+
+    /**
+     * @param url JDBC url of an embedded Derby database
+     */
+    public JdbcStorageProviderRegistry(String url) {
+        this(new JdbcStorage(url));
+    }
+
+    public JdbcStorageProviderRegistry(JdbcStorage jdbcStorage) {
+        add(new JdbcUserManagement(jdbcStorage));
+        add(new JdbcRosterManager(jdbcStorage));
+        add(new JdbcVcardTempPersistenceManager(jdbcStorage));
+        add(new JdbcPrivateDataPersistenceManager(jdbcStorage));
+        // offline stanzas are kept in segment files below the working directory, not in the database
+        add(new SegmentFileOfflineStorageProvider());
+
+        // provider from external modules, low coupling, fail when modules are not present
+        add(ROOM_STORAGE_PROVIDER, jdbcStorage);
+    }
+
+    /**
+     * adds a provider from an external module which is constructed with the JDBC storage
+     */
+    private void add(String storageProviderFQClassname, JdbcStorage jdbcStorage) {
+        Class<?> storageProviderClass;
+        try {
+            storageProviderClass = Class.forName(storageProviderFQClassname);
+        } catch (ClassNotFoundException e) {
+            System.err.println("could not load storage provider class " + storageProviderFQClassname);
+            return;
+        }
+        try {
+            add((StorageProvider) storageProviderClass.getConstructor(JdbcStorage.class).newInstance(jdbcStorage));
+        } catch (Exception e) {
+            System.err.println("failed to instantiate storage provider class " + storageProviderFQClassname);
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * a JDBC connection owned by a {@link JdbcConnectionPool}. prepared statements are cached
+ * per connection and kept open for as long as the connection lives, so every statement
+ * is parsed and planned by the database only once per connection.
+ * <p>
+ * instances are confined to the thread which borrowed them.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class PooledConnection {
+
+    final Logger logger = LoggerFactory.getLogger(PooledConnection.class);
+
+    protected final Connection connection;
+
+    protected final Map<String, PreparedStatement> statementCache = new HashMap<String, PreparedStatement>();
+
+    public PooledConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @return the cached statement for the given SQL, prepared on first use
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = statementCache.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statementCache.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public int getCachedStatementCount() {
+        return statementCache.size();
+    }
+
+    public boolean isClosed() {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    public void close() {
+        for (PreparedStatement statement : statementCache.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // ignore, connection is closed next anyway
+            }
+        }
+        statementCache.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("failed to close JDBC connection", e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jdbc.privatedata;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.vysper.storage.jdbc.JdbcStorage;
+import org.apache.vysper.storage.jdbc.JdbcStorageException;
+import org.apache.vysper.storage.jdbc.JdbcStorageOperation;
+import org.apache.vysper.storage.jdbc.PooledConnection;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.modules.extension.xep0049_privatedata.PrivateDataPersistenceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JdbcPrivateDataPersistenceManager implements PrivateDataPersistenceManager {
+
+    final Logger logger = LoggerFactory.getLogger(JdbcPrivateDataPersistenceManager.class);
+
+    private static final String SELECT_DATA = "SELECT content FROM " + JdbcStorage.TABLE_PRIVATE_DATA
+            + " WHERE jid = ? AND data_key = ?";
+
+    private static final String UPDATE_DATA = "UPDATE " + JdbcStorage.TABLE_PRIVATE_DATA
+            + " SET content = ? WHERE jid = ? AND data_key = ?";
+
+    private static final String INSERT_DATA = "INSERT INTO " + JdbcStorage.TABLE_PRIVATE_DATA
+            + " (content, jid, data_key) VALUES (?, ?, ?)";
+
+    protected JdbcStorage jdbcStorage;
+
+    public JdbcPrivateDataPersistenceManager(JdbcStorage jdbcStorage) {
+        this.jdbcStorage = jdbcStorage;
+    }
+
+    public boolean isAvailable() {
+        return jdbcStorage.isAvailable();
+    }
+
+    public String getPrivateData(Entity entity, final String key) {
+        final String bareJid = entity.getBareJID().getFullQualifiedName();
+        try {
+            return jdbcStorage.execute(new JdbcStorageOperation<String>() {
+                public String execute(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(SELECT_DATA);
+                    statement.setString(1, bareJid);
+                    statement.setString(2, key);
+                    ResultSet resultSet = statement.executeQuery();
+                    try {
+                        return resultSet.next() ? resultSet.getString(1) : null;
+                    } finally {
+                        resultSet.close();
+                    }
+                }
+            });
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to retrieve private data for " + bareJid, e);
+            return null;
+        }
+    }
+
+    public boolean setPrivateData(Entity entity, final String key, final String xml) {
+        final String bareJid = entity.getBareJID().getFullQualifiedName();
+        try {
+            jdbcStorage.executeUpsert(new JdbcStorageOperation<Object>() {
+                public Object execute(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(UPDATE_DATA);
+                    statement.setString(1, xml);
+                    statement.setString(2, bareJid);
+                    statement.setString(3, key);
+                    if (statement.executeUpdate() == 0) {
+                        statement = connection.prepareStatement(INSERT_DATA);
+                        statement.setString(1, xml);
+                        statement.setString(2, bareJid);
+                        statement.setString(3, key);
+                        statement.executeUpdate();
+                    }
+                    return null;
+                }
+            });
+            return true;
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to store private data for " + bareJid, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jdbc.roster;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.vysper.storage.jdbc.JdbcStorage;
+import org.apache.vysper.storage.jdbc.JdbcStorageException;
+import org.apache.vysper.storage.jdbc.JdbcStorageOperation;
+import org.apache.vysper.storage.jdbc.PooledConnection;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityFormatException;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.roster.AskSubscriptionType;
+import org.apache.vysper.xmpp.modules.roster.MutableRoster;
+import org.apache.vysper.xmpp.modules.roster.Roster;
+import org.apache.vysper.xmpp.modules.roster.RosterException;
+import org.apache.vysper.xmpp.modules.roster.RosterGroup;
+import org.apache.vysper.xmpp.modules.roster.RosterItem;
+import org.apache.vysper.xmpp.modules.roster.SubscriptionType;
+import org.apache.vysper.xmpp.modules.roster.persistence.AbstractRosterManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * roster items are stored as one row per user and contact, keyed by both bare JIDs.
+ * roster groups are stored in a separate table. a whole roster is loaded with two indexed queries.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JdbcRosterManager extends AbstractRosterManager {
+
+    final Logger logger = LoggerFactory.getLogger(JdbcRosterManager.class);
+
+    private static final String SELECT_ITEMS = "SELECT contact_jid, name, subscription, ask FROM "
+            + JdbcStorage.TABLE_ROSTER_ITEM + " WHERE user_jid = ?";
+
+    private static final String SELECT_GROUPS = "SELECT contact_jid, group_name FROM "
+            + JdbcStorage.TABLE_ROSTER_GROUP + " WHERE user_jid = ?";
+
+    private static final String SELECT_CONTACTS = "SELECT contact_jid FROM " + JdbcStorage.TABLE_ROSTER_ITEM
+            + " WHERE user_jid = ?";
+
+    private static final String UPDATE_ITEM = "UPDATE " + JdbcStorage.TABLE_ROSTER_ITEM
+            + " SET name = ?, subscription = ?, ask = ? WHERE user_jid = ? AND contact_jid = ?";
+
+    private static final String INSERT_ITEM = "INSERT INTO " + JdbcStorage.TABLE_ROSTER_ITEM
+            + " (name, subscription, ask, user_jid, contact_jid) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String DELETE_ITEM = "DELETE FROM " + JdbcStorage.TABLE_ROSTER_ITEM
+            + " WHERE user_jid = ? AND contact_jid = ?";
+
+    private static final String INSERT_GROUP = "INSERT INTO " + JdbcStorage.TABLE_ROSTER_GROUP
+            + " (user_jid, contact_jid, group_name) VALUES (?, ?, ?)";
+
+    private static final String DELETE_GROUPS = "DELETE FROM " + JdbcStorage.TABLE_ROSTER_GROUP
+            + " WHERE user_jid = ? AND contact_jid = ?";
+
+    protected JdbcStorage jdbcStorage;
+
+    public JdbcRosterManager(JdbcStorage jdbcStorage) {
+        this.jdbcStorage = jdbcStorage;
+    }
+
+    @Override
+    protected Roster retrieveRosterInternal(final Entity bareJid) {
+        try {
+            return jdbcStorage.execute(new JdbcStorageOperation<Roster>() {
+                public Roster execute(PooledConnection connection) throws SQLException {
+                    return readRoster(connection, bareJid);
+                }
+            });
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to load roster for user " + bareJid, e);
+            return new MutableRoster(); // empty roster object
+        }
+    }
+
+    private Roster readRoster(PooledConnection connection, Entity bareJid) throws SQLException {
+        String userJid = bareJid.getFullQualifiedName();
+
+        Map<String, List<RosterGroup>> groupsByContact = new LinkedHashMap<String, List<RosterGroup>>();
+        PreparedStatement statement = connection.prepareStatement(SELECT_GROUPS);
+        statement.setString(1, userJid);
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            while (resultSet.next()) {
+                String contactJid = resultSet.getString(1);
+                List<RosterGroup> groups = groupsByContact.get(contactJid);
+                if (groups == null) {
+                    groups = new ArrayList<RosterGroup>();
+                    groupsByContact.put(contactJid, groups);
+                }
+                groups.add(new RosterGroup(resultSet.getString(2)));
+            }
+        } finally {
+            resultSet.close();
+        }
+
+        MutableRoster roster = new MutableRoster();
+        statement = connection.prepareStatement(SELECT_ITEMS);
+        statement.setString(1, userJid);
+        resultSet = statement.executeQuery();
+        try {
+            while (resultSet.next()) {
+                String contactJidString = resultSet.getString(1);
+                EntityImpl contactJid;
+                try {
+                    contactJid = EntityImpl.parse(contactJidString);
+                } catch (EntityFormatException e) {
+                    logger.warn("when loading roster for user {}, skipping unparsable contact jid {}", bareJid,
+                            contactJidString);
+                    continue;
+                }
+                SubscriptionType subscriptionType = SubscriptionType.NONE;
+                AskSubscriptionType askSubscriptionType = AskSubscriptionType.NOT_SET;
+                try {
+                    String subscription = resultSet.getString(3);
+                    if (subscription != null)
+                        subscriptionType = SubscriptionType.valueOf(subscription);
+                    String ask = resultSet.getString(4);
+                    if (ask != null)
+                        askSubscriptionType = AskSubscriptionType.valueOf(ask);
+                } catch (IllegalArgumentException e) {
+                    logger.warn("when loading roster for user " + bareJid + ", contact " + contactJid
+                            + " has unparsable subscription states. skipping!");
+                    continue;
+                }
+                List<RosterGroup> groups = groupsByContact.get(contactJidString);
+                if (groups == null)
+                    groups = Collections.emptyList();
+                roster.addItem(new RosterItem(contactJid, resultSet.getString(2), subscriptionType,
+                        askSubscriptionType, groups));
+            }
+        } finally {
+            resultSet.close();
+        }
+        return roster;
+    }
+
+    @Override
+    protected Roster addNewRosterInternal(Entity jid) {
+        return new MutableRoster();
+    }
+
+    @Override
+    public void addContact(Entity jid, RosterItem rosterItem) throws RosterException {
+        if (jid == null)
+            throw new RosterException("jid not provided");
+        if (rosterItem.getJid() == null)
+            throw new RosterException("contact jid not provided");
+        importContacts(jid, Collections.singletonList(rosterItem));
+    }
+
+    /**
+     * adds or updates many contacts of one user at once, for example when importing a roster.
+     * all rows are written using JDBC batches in a single transaction.
+     */
+    public void importContacts(Entity jid, final Collection<RosterItem> rosterItems) throws RosterException {
+        if (jid == null)
+            throw new RosterException("jid not provided");
+        for (RosterItem rosterItem : rosterItems) {
+            if (rosterItem.getJid() == null)
+                throw new RosterException("contact jid not provided");
+        }
+        final String userJid = jid.getBareJID().getFullQualifiedName();
+        try {
+            jdbcStorage.executeUpsert(new JdbcStorageOperation<Object>() {
+                public Object execute(PooledConnection connection) throws SQLException {
+                    writeContacts(connection, userJid, rosterItems);
+                    return null;
+                }
+            });
+        } catch (JdbcStorageException e) {
+            throw new RosterException("failed to store roster items for user = " + userJid, e);
+        }
+    }
+
+    private void writeContacts(PooledConnection connection, String userJid, Collection<RosterItem> rosterItems)
+            throws SQLException {
+        Set<String> existingContacts = new HashSet<String>();
+        PreparedStatement statement = connection.prepareStatement(SELECT_CONTACTS);
+        statement.setString(1, userJid);
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            while (resultSet.next()) {
+                existingContacts.add(resultSet.getString(1));
+            }
+        } finally {
+            resultSet.close();
+        }
+
+        // the last entry for a contact wins
+        Map<String, RosterItem> itemsByContact = new LinkedHashMap<String, RosterItem>();
+        for (RosterItem rosterItem : rosterItems) {
+            itemsByContact.put(rosterItem.getJid().getBareJID().getFullQualifiedName(), rosterItem);
+        }
+
+        PreparedStatement updateItem = null;
+        PreparedStatement insertItem = null;
+        PreparedStatement deleteGroups = null;
+        PreparedStatement insertGroup = null;
+        for (Map.Entry<String, RosterItem> entry : itemsByContact.entrySet()) {
+            String contactJid = entry.getKey();
+            RosterItem rosterItem = entry.getValue();
+            String subscription = rosterItem.getSubscriptionType() == null ? null : rosterItem.getSubscriptionType()
+                    .name();
+            String ask = rosterItem.getAskSubscriptionType() == null
+                    || rosterItem.getAskSubscriptionType() == AskSubscriptionType.NOT_SET ? null : rosterItem
+                    .getAskSubscriptionType().name();
+
+            PreparedStatement itemStatement;
+            if (existingContacts.contains(contactJid)) {
+                if (updateItem == null)
+                    updateItem = connection.prepareStatement(UPDATE_ITEM);
+                itemStatement = updateItem;
+
+                if (deleteGroups == null)
+                    deleteGroups = connection.prepareStatement(DELETE_GROUPS);
+                deleteGroups.setString(1, userJid);
+                deleteGroups.setString(2, contactJid);
+                deleteGroups.addBatch();
+            } else {
+                if (insertItem == null)
+                    insertItem = connection.prepareStatement(INSERT_ITEM);
+                itemStatement = insertItem;
+            }
+            itemStatement.setString(1, rosterItem.getName());
+            itemStatement.setString(2, subscription);
+            itemStatement.setString(3, ask);
+            itemStatement.setString(4, userJid);
+            itemStatement.setString(5, contactJid);
+            itemStatement.addBatch();
+
+            for (RosterGroup group : rosterItem.getGroups()) {
+                if (insertGroup == null)
+                    insertGroup = connection.prepareStatement(INSERT_GROUP);
+                insertGroup.setString(1, userJid);
+                insertGroup.setString(2, contactJid);
+                insertGroup.setString(3, group.getName());
+                insertGroup.addBatch();
+            }
+        }
+        // groups of updated contacts must be gone before the new ones get inserted
+        if (deleteGroups != null)
+            deleteGroups.executeBatch();
+        if (updateItem != null)
+            updateItem.executeBatch();
+        if (insertItem != null)
+            insertItem.executeBatch();
+        if (insertGroup != null)
+            insertGroup.executeBatch();
+    }
+
+    @Override
+    public void removeContact(Entity jidUser, Entity jidContact) throws RosterException {
+        if (jidUser == null)
+            throw new RosterException("jid not provided");
+        if (jidContact == null)
+            throw new RosterException("contact jid not provided");
+        final String userJid = jidUser.getBareJID().getFullQualifiedName();
+        final String contactJid = jidContact.getBareJID().getFullQualifiedName();
+        int removed;
+        try {
+            removed = jdbcStorage.execute(new JdbcStorageOperation<Integer>() {
+                public Integer execute(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(DELETE_GROUPS);
+                    statement.setString(1, userJid);
+                    statement.setString(2, contactJid);
+                    statement.executeUpdate();
+                    statement = connection.prepareStatement(DELETE_ITEM);
+                    statement.setString(1, userJid);
+                    statement.setString(2, contactJid);
+                    return statement.executeUpdate();
+                }
+            });
+        } catch (JdbcStorageException e) {
+            throw new RosterException("failed to remove contact from roster for " + userJid, e);
+        }
+        if (removed == 0)
+            logger.warn("failed to remove from roster for user " + jidUser + " the contact jid " + jidContact);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jdbc.user;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.vysper.storage.jdbc.JdbcStorage;
+import org.apache.vysper.storage.jdbc.JdbcStorageException;
+import org.apache.vysper.storage.jdbc.JdbcStorageOperation;
+import org.apache.vysper.storage.jdbc.PooledConnection;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.authorization.AbstractUserAuthorization;
+import org.apache.vysper.xmpp.authorization.AccountCreationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JdbcUserManagement extends AbstractUserAuthorization {
+
+    final Logger logger = LoggerFactory.getLogger(JdbcUserManagement.class);
+
+    private static final String SELECT_PASSWORD = "SELECT password FROM " + JdbcStorage.TABLE_USER + " WHERE jid = ?";
+
+    private static final String INSERT_USER = "INSERT INTO " + JdbcStorage.TABLE_USER + " (jid, password) VALUES (?, ?)";
+
+    private static final String UPDATE_PASSWORD = "UPDATE " + JdbcStorage.TABLE_USER + " SET password = ? WHERE jid = ?";
+
+    protected JdbcStorage jdbcStorage;
+
+    public JdbcUserManagement(JdbcStorage jdbcStorage) {
+        this.jdbcStorage = jdbcStorage;
+    }
+
+    @Override
+    protected String retrieveStoredPassword(Entity bareJid) {
+        final String jid = bareJid.getFullQualifiedName();
+        try {
+            return jdbcStorage.execute(new JdbcStorageOperation<String>() {
+                public String execute(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(SELECT_PASSWORD);
+                    statement.setString(1, jid);
+                    ResultSet resultSet = statement.executeQuery();
+                    try {
+                        return resultSet.next() ? resultSet.getString(1) : null;
+                    } finally {
+                        resultSet.close();
+                    }
+                }
+            });
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to retrieve credentials for " + jid, e);
+            return null;
+        }
+    }
+
+    @Override
+    protected void storeNewAccount(Entity bareJid, final String storedPassword) throws AccountCreationException {
+        final String jid = bareJid.getFullQualifiedName();
+        try {
+            jdbcStorage.execute(new JdbcStorageOperation<Object>() {
+                public Object execute(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(INSERT_USER);
+                    statement.setString(1, jid);
+                    statement.setString(2, storedPassword);
+                    statement.executeUpdate();
+                    return null;
+                }
+            });
+        } catch (JdbcStorageException e) {
+            if (JdbcStorage.isDuplicateKey(e)) {
+                throw new AccountCreationException("account already exists: " + jid);
+            }
+            throw new AccountCreationException("failed to create the account set credentials", e);
+        }
+    }
+
+    @Override
+    protected void updateStoredPassword(Entity bareJid, final String storedPassword)
+            throws AccountCreationException {
+        final String jid = bareJid.getFullQualifiedName();
+        int updated;
+        try {
+            updated = jdbcStorage.execute(new JdbcStorageOperation<Integer>() {
+                public Integer execute(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(UPDATE_PASSWORD);
+                    statement.setString(1, storedPassword);
+                    statement.setString(2, jid);
+                    return statement.executeUpdate();
+                }
+            });
+        } catch (JdbcStorageException e) {
+            throw new AccountCreationException("failed to update credentials", e);
+        }
+        if (updated == 0) {
+            throw new AccountCreationException("account does not exist: " + jid);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jdbc.vcardtemp;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.vysper.storage.jdbc.JdbcStorage;
+import org.apache.vysper.storage.jdbc.JdbcStorageException;
+import org.apache.vysper.storage.jdbc.JdbcStorageOperation;
+import org.apache.vysper.storage.jdbc.PooledConnection;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.modules.extension.xep0054_vcardtemp.VcardTempPersistenceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JdbcVcardTempPersistenceManager implements VcardTempPersistenceManager {
+
+    final Logger logger = LoggerFactory.getLogger(JdbcVcardTempPersistenceManager.class);
+
+    private static final String SELECT_VCARD = "SELECT content FROM " + JdbcStorage.TABLE_VCARD + " WHERE jid = ?";
+
+    private static final String UPDATE_VCARD = "UPDATE " + JdbcStorage.TABLE_VCARD + " SET content = ? WHERE jid = ?";
+
+    private static final String INSERT_VCARD = "INSERT INTO " + JdbcStorage.TABLE_VCARD
+            + " (content, jid) VALUES (?, ?)";
+
+    protected JdbcStorage jdbcStorage;
+
+    public JdbcVcardTempPersistenceManager(JdbcStorage jdbcStorage) {
+        this.jdbcStorage = jdbcStorage;
+    }
+
+    public boolean isAvailable() {
+        return jdbcStorage.isAvailable();
+    }
+
+    public String getVcard(Entity entity) {
+        final String bareJid = entity.getBareJID().getFullQualifiedName();
+        try {
+            return jdbcStorage.execute(new JdbcStorageOperation<String>() {
+                public String execute(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(SELECT_VCARD);
+                    statement.setString(1, bareJid);
+                    ResultSet resultSet = statement.executeQuery();
+                    try {
+                        return resultSet.next() ? resultSet.getString(1) : null;
+                    } finally {
+                        resultSet.close();
+                    }
+                }
+            });
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to retrieve vcard for " + bareJid, e);
+            return null;
+        }
+    }
+
+    public boolean setVcard(Entity entity, final String xml) {
+        final String bareJid = entity.getBareJID().getFullQualifiedName();
+        try {
+            jdbcStorage.executeUpsert(new JdbcStorageOperation<Object>() {
+                public Object execute(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(UPDATE_VCARD);
+                    statement.setString(1, xml);
+                    statement.setString(2, bareJid);
+                    if (statement.executeUpdate() == 0) {
+                        statement = connection.prepareStatement(INSERT_VCARD);
+                        statement.setString(1, xml);
+                        statement.setString(2, bareJid);
+                        statement.executeUpdate();
+                    }
+                    return null;
+                }
+            });
+            return true;
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to store vcard for " + bareJid, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.authorization;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityFormatException;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+
+/**
+ * base class for user stores. passwords are only ever stored as {@link HashedPassword}, and successful
+ * verifications are remembered in a {@link VerificationCache}, so that subclasses only have to implement
+ * reading and writing the stored password string for an account.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public abstract class AbstractUserAuthorization implements UserAuthorization, AccountManagement,
+        HashedPasswordLookup {
+
+    protected VerificationCache verificationCache = new VerificationCache();
+
+    protected int hashIterations = HashedPassword.DEFAULT_ITERATIONS;
+
+    public void setVerificationCache(VerificationCache verificationCache) {
+        this.verificationCache = verificationCache;
+    }
+
+    public void setHashIterations(int hashIterations) {
+        this.hashIterations = hashIterations;
+    }
+
+    /**
+     * @return the stored password for the account, or NULL if there is no such account
+     */
+    protected abstract String retrieveStoredPassword(Entity bareJid);
+
+    /**
+     * creates the account
+     * @throws AccountCreationException if the account already exists or can not be stored
+     */
+    protected abstract void storeNewAccount(Entity bareJid, String storedPassword) throws AccountCreationException;
+
+    /**
+     * replaces the password of an existing account
+     * @throws AccountCreationException if the account does not exist or can not be stored
+     */
+    protected abstract void updateStoredPassword(Entity bareJid, String storedPassword)
+            throws AccountCreationException;
+
+    /**
+     * @return the value to store for the password
+     */
+    protected String hashPassword(String password) {
+        return HashedPassword.create(password, hashIterations).encode();
+    }
+
+    public void addUser(String username, String password) throws AccountCreationException {
+        final EntityImpl entity;
+        try {
+            entity = EntityImpl.parse(username);
+        } catch (EntityFormatException e) {
+            throw new AccountCreationException("username is expected to be in proper entity format, not " + username, e); // wrap as unchecked
+        }
+        storeNewAccount(entity.getBareJID(), hashPassword(password));
+    }
+
+    public void changePassword(Entity jid, String password) throws AccountCreationException {
+        Entity bareJid = jid.getBareJID();
+        updateStoredPassword(bareJid, hashPassword(password));
+        verificationCache.invalidate(bareJid.getFullQualifiedName());
+    }
+
+    public boolean verifyCredentials(Entity jid, String passwordCleartext, Object credentials) {
+        if (jid == null || passwordCleartext == null)
+            return false;
+        Entity bareJid = jid.getBareJID();
+        String username = bareJid.getFullQualifiedName();
+        if (verificationCache.isVerified(username, passwordCleartext))
+            return true;
+        long generation = verificationCache.getGeneration();
+        if (!HashedPassword.matches(retrieveStoredPassword(bareJid), passwordCleartext))
+            return false;
+        verificationCache.put(username, passwordCleartext, generation);
+        return true;
+    }
+
+    public boolean verifyCredentials(String username, String passwordCleartext, Object credentials) {
+        try {
+            return verifyCredentials(EntityImpl.parse(username), passwordCleartext, credentials);
+        } catch (EntityFormatException e) {
+            return false;
+        }
+    }
+
+    public HashedPassword retrieveHashedPassword(Entity jid) {
+        String storedPassword = retrieveStoredPassword(jid.getBareJID());
+        if (storedPassword == null)
+            return null;
+        if (HashedPassword.isEncoded(storedPassword)) {
+            try {
+                return HashedPassword.decode(storedPassword);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        // legacy cleartext password, hash it on the fly
+        return HashedPassword.create(storedPassword, hashIterations);
+    }
+
+    public boolean verifyAccountExists(Entity jid) {
+        return retrieveStoredPassword(jid.getBareJID()) != null;
+    }
+}
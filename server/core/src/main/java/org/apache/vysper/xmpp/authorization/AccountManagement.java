@@ -33,4 +33,9 @@ public interface AccountManagement extends StorageProvider {
      * checks if there is this jid is registered with the server
      */
     boolean verifyAccountExists(Entity jid);
+
+    /**
+     * sets a new password for an existing account
+     */
+    void changePassword(Entity jid, String password) throws AccountCreationException;
 }
@@ -36,6 +36,24 @@ public class AuthorizationResponses {
         return stanzaBuilder.build();
     }
 
+    /**
+     * @param additionalData mechanism specific outcome, base64 encoded
+     */
+    public Stanza getSuccess(String additionalData) {
+        StanzaBuilder stanzaBuilder = new StanzaBuilder("success", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_SASL);
+        stanzaBuilder.addText(additionalData);
+        return stanzaBuilder.build();
+    }
+
+    /**
+     * @param challenge mechanism specific challenge, base64 encoded
+     */
+    public Stanza getChallenge(String challenge) {
+        StanzaBuilder stanzaBuilder = new StanzaBuilder("challenge", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_SASL);
+        stanzaBuilder.addText(challenge);
+        return stanzaBuilder.build();
+    }
+
     public Stanza getFailureNotAuthorized() {
         return getFailure(SASLFailureType.NOT_AUTHORIZED);
     }
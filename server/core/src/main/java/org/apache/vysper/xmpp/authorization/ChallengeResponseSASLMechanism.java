@@ -0,0 +1,40 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.authorization;
+
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * SASL mechanism taking more than one round trip. {@link #started(SessionContext, SessionStateHolder, Stanza)}
+ * answers with a challenge, and the client's response-stanzas are passed on to
+ * {@link #responded(SessionContext, SessionStateHolder, Stanza)} until it returns success or failure.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public interface ChallengeResponseSASLMechanism extends SASLMechanism {
+
+    /**
+     * called by the server as the client issues a response-stanza to a challenge from this mechanism
+     */
+    Stanza responded(SessionContext sessionContext, SessionStateHolder sessionStateHolder, Stanza responseStanza);
+
+}
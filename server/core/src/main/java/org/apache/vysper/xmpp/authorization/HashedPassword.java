@@ -0,0 +1,225 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.authorization;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * salted password hash in the form SCRAM (RFC 5802) needs on the server side: per hash algorithm, the
+ * StoredKey and ServerKey derived from the PBKDF2-salted password. the cleartext password can not be
+ * recovered from it, but it can verify a cleartext password (as presented by SASL PLAIN) and serves
+ * as SCRAM credentials as well.
+ * <p>
+ * the string encoding used for storage looks like this:
+ * <pre>
+ * {SCRAM}iterations$salt$SHA-1$storedKey$serverKey$SHA-256$storedKey$serverKey
+ * </pre>
+ * with salt and keys base64 encoded.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class HashedPassword {
+
+    public static final String PREFIX = "{SCRAM}";
+
+    public static final int DEFAULT_ITERATIONS = 4096;
+
+    public static final int SALT_LENGTH = 16;
+
+    private static final String SEPARATOR = "$";
+
+    private static final byte[] CLIENT_KEY = toUTF8("Client Key");
+
+    private static final byte[] SERVER_KEY = toUTF8("Server Key");
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * StoredKey and ServerKey for one hash algorithm
+     */
+    public static class Keys {
+        private final byte[] storedKey;
+
+        private final byte[] serverKey;
+
+        public Keys(byte[] storedKey, byte[] serverKey) {
+            this.storedKey = storedKey;
+            this.serverKey = serverKey;
+        }
+
+        public byte[] getStoredKey() {
+            return storedKey.clone();
+        }
+
+        public byte[] getServerKey() {
+            return serverKey.clone();
+        }
+    }
+
+    private final int iterations;
+
+    private final byte[] salt;
+
+    private final Map<String, Keys> keys;
+
+    protected HashedPassword(int iterations, byte[] salt, Map<String, Keys> keys) {
+        this.iterations = iterations;
+        this.salt = salt;
+        this.keys = Collections.unmodifiableMap(keys);
+    }
+
+    /**
+     * hashes the password with a fresh random salt for SHA-1 and SHA-256
+     */
+    public static HashedPassword create(String password) {
+        return create(password, DEFAULT_ITERATIONS);
+    }
+
+    public static HashedPassword create(String password, int iterations) {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return create(password, salt, iterations, Pbkdf2.SHA_1, Pbkdf2.SHA_256);
+    }
+
+    public static HashedPassword create(String password, byte[] salt, int iterations, String... hashAlgorithms) {
+        Map<String, Keys> keys = new LinkedHashMap<String, Keys>();
+        for (String hashAlgorithm : hashAlgorithms) {
+            byte[] saltedPassword = Pbkdf2.hi(hashAlgorithm, toUTF8(password), salt, iterations);
+            byte[] clientKey = Pbkdf2.hmac(hashAlgorithm, saltedPassword, CLIENT_KEY);
+            keys.put(hashAlgorithm, new Keys(Pbkdf2.hash(hashAlgorithm, clientKey), Pbkdf2.hmac(hashAlgorithm,
+                    saltedPassword, SERVER_KEY)));
+        }
+        return new HashedPassword(iterations, salt.clone(), keys);
+    }
+
+    public static boolean isEncoded(String storedPassword) {
+        return storedPassword != null && storedPassword.startsWith(PREFIX);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string is not a valid encoding
+     */
+    public static HashedPassword decode(String encoded) {
+        if (!isEncoded(encoded))
+            throw new IllegalArgumentException("not a hashed password");
+        String[] parts = encoded.substring(PREFIX.length()).split("\\$");
+        if (parts.length < 5 || (parts.length - 2) % 3 != 0)
+            throw new IllegalArgumentException("malformed hashed password");
+        int iterations;
+        try {
+            iterations = Integer.parseInt(parts[0]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("malformed iteration count", e);
+        }
+        byte[] salt = decodeBase64(parts[1]);
+        Map<String, Keys> keys = new LinkedHashMap<String, Keys>();
+        for (int i = 2; i < parts.length; i += 3) {
+            keys.put(parts[i], new Keys(decodeBase64(parts[i + 1]), decodeBase64(parts[i + 2])));
+        }
+        return new HashedPassword(iterations, salt, keys);
+    }
+
+    /**
+     * checks a presented cleartext password against the stored value, which is either
+     * an encoded hashed password or, for stores not migrated yet, the password in cleartext
+     */
+    public static boolean matches(String storedPassword, String presentedPassword) {
+        if (storedPassword == null || presentedPassword == null)
+            return false;
+        if (!isEncoded(storedPassword)) {
+            return MessageDigest.isEqual(toUTF8(storedPassword), toUTF8(presentedPassword));
+        }
+        try {
+            return decode(storedPassword).verify(presentedPassword);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public String encode() {
+        StringBuilder builder = new StringBuilder(PREFIX);
+        builder.append(iterations).append(SEPARATOR).append(encodeBase64(salt));
+        for (Map.Entry<String, Keys> entry : keys.entrySet()) {
+            builder.append(SEPARATOR).append(entry.getKey());
+            builder.append(SEPARATOR).append(encodeBase64(entry.getValue().storedKey));
+            builder.append(SEPARATOR).append(encodeBase64(entry.getValue().serverKey));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * verifies a cleartext password using the strongest hash algorithm available
+     */
+    public boolean verify(String password) {
+        String hashAlgorithm = keys.containsKey(Pbkdf2.SHA_256) ? Pbkdf2.SHA_256 : Pbkdf2.SHA_1;
+        Keys expected = keys.get(hashAlgorithm);
+        if (expected == null)
+            return false;
+        byte[] saltedPassword = Pbkdf2.hi(hashAlgorithm, toUTF8(password), salt, iterations);
+        byte[] storedKey = Pbkdf2.hash(hashAlgorithm, Pbkdf2.hmac(hashAlgorithm, saltedPassword, CLIENT_KEY));
+        return MessageDigest.isEqual(storedKey, expected.storedKey);
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    /**
+     * @return the keys for the hash algorithm, or NULL if the password was not hashed with it
+     */
+    public Keys getKeys(String hashAlgorithm) {
+        return keys.get(hashAlgorithm);
+    }
+
+    private static String encodeBase64(byte[] bytes) {
+        try {
+            return new String(Base64.encodeBase64(bytes), "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] decodeBase64(String string) {
+        try {
+            return Base64.decodeBase64(string.getBytes("US-ASCII"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*package*/static byte[] toUTF8(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.authorization;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * the key derivation primitives shared by salted password storage and SCRAM (RFC 5802):
+ * HMAC, hash and PBKDF2 with HMAC as pseudo-random function, which SCRAM calls Hi().
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class Pbkdf2 {
+
+    /**
+     * hash algorithms supported, as named by {@link MessageDigest}
+     */
+    public static final String SHA_1 = "SHA-1";
+
+    public static final String SHA_256 = "SHA-256";
+
+    private Pbkdf2() {
+        // static helpers only
+    }
+
+    public static String macAlgorithm(String hashAlgorithm) {
+        if (SHA_1.equals(hashAlgorithm))
+            return "HmacSHA1";
+        if (SHA_256.equals(hashAlgorithm))
+            return "HmacSHA256";
+        throw new IllegalArgumentException("unsupported hash algorithm " + hashAlgorithm);
+    }
+
+    public static byte[] hash(String hashAlgorithm, byte[] data) {
+        try {
+            return MessageDigest.getInstance(hashAlgorithm).digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("unsupported hash algorithm " + hashAlgorithm, e);
+        }
+    }
+
+    public static byte[] hmac(String hashAlgorithm, byte[] key, byte[] data) {
+        Mac mac = createMac(hashAlgorithm, key);
+        return mac.doFinal(data);
+    }
+
+    /**
+     * PBKDF2 (RFC 2898) producing a single block, that is a key as long as the hash output
+     */
+    public static byte[] hi(String hashAlgorithm, byte[] password, byte[] salt, int iterations) {
+        if (iterations < 1)
+            throw new IllegalArgumentException("iterations must be positive");
+        Mac mac = createMac(hashAlgorithm, password);
+        mac.update(salt);
+        mac.update(new byte[] { 0, 0, 0, 1 }); // block index
+        byte[] u = mac.doFinal();
+        byte[] result = u.clone();
+        for (int i = 1; i < iterations; i++) {
+            u = mac.doFinal(u);
+            for (int j = 0; j < result.length; j++) {
+                result[j] ^= u[j];
+            }
+        }
+        return result;
+    }
+
+    public static byte[] xor(byte[] a, byte[] b) {
+        if (a.length != b.length)
+            throw new IllegalArgumentException("length mismatch");
+        byte[] result = new byte[a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i] = (byte) (a[i] ^ b[i]);
+        }
+        return result;
+    }
+
+    private static Mac createMac(String hashAlgorithm, byte[] key) {
+        String macAlgorithm = macAlgorithm(hashAlgorithm);
+        try {
+            Mac mac = Mac.getInstance(macAlgorithm);
+            // an empty password is legal, but not an empty key spec
+            mac.init(new SecretKeySpec(key.length == 0 ? new byte[1] : key, macAlgorithm));
+            return mac;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("unsupported MAC algorithm " + macAlgorithm, e);
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
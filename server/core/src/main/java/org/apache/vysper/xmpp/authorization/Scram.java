@@ -0,0 +1,366 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.authorization;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.vysper.xml.fragment.XMLText;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityFormatException;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.core.sasl.SASLFailureType;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * handles the SASL SCRAM mechanisms SCRAM-SHA-1 and SCRAM-SHA-256, as standardized in RFC5802 and RFC7677,
+ * and their channel binding variants SCRAM-SHA-1-PLUS and SCRAM-SHA-256-PLUS using 'tls-server-end-point'
+ * channel binding (RFC5929).
+ * <p>
+ * the mechanism works on the StoredKey and ServerKey kept by a {@link HashedPasswordLookup} user store,
+ * so a login costs a few HMAC operations, but no PBKDF2 run on the server.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class Scram implements ChallengeResponseSASLMechanism {
+
+    public static final String CHANNEL_BINDING_TLS_SERVER_END_POINT = "tls-server-end-point";
+
+    private static final AuthorizationResponses AUTHORIZATION_RESPONSES = new AuthorizationResponses();
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * used to derive stable fake salts for unknown users, so that they can't be told from existing ones
+     */
+    private static final byte[] FAKE_SALT_SECRET = new byte[20];
+
+    static {
+        RANDOM.nextBytes(FAKE_SALT_SECRET);
+    }
+
+    private final String hashAlgorithm;
+
+    private final byte[] channelBindingData;
+
+    private final String sessionAttribute;
+
+    /**
+     * the exchange state kept in the session between the client's first and final message
+     */
+    private static class Exchange {
+        String clientFirstMessageBare;
+
+        String serverFirstMessage;
+
+        String gs2Header;
+
+        String nonce;
+
+        Entity user;
+
+        HashedPassword.Keys keys;
+    }
+
+    /**
+     * @param hashAlgorithm {@link Pbkdf2#SHA_1} or {@link Pbkdf2#SHA_256}
+     */
+    public Scram(String hashAlgorithm) {
+        this(hashAlgorithm, null);
+    }
+
+    /**
+     * creates a -PLUS mechanism, if channel binding data is given
+     * @param tlsServerEndPoint the 'tls-server-end-point' channel binding data of the server's certificate
+     */
+    public Scram(String hashAlgorithm, byte[] tlsServerEndPoint) {
+        Pbkdf2.macAlgorithm(hashAlgorithm); // fail early for unsupported algorithms
+        this.hashAlgorithm = hashAlgorithm;
+        this.channelBindingData = tlsServerEndPoint == null ? null : tlsServerEndPoint.clone();
+        this.sessionAttribute = "sasl." + getName();
+    }
+
+    public String getName() {
+        return "SCRAM-" + hashAlgorithm + (isPlus() ? "-PLUS" : "");
+    }
+
+    public boolean isPlus() {
+        return channelBindingData != null;
+    }
+
+    public Stanza started(SessionContext sessionContext, SessionStateHolder sessionStateHolder, Stanza authStanza) {
+        sessionContext.putAttribute(sessionAttribute, null);
+
+        String clientFirstMessage;
+        try {
+            clientFirstMessage = decodePayload(authStanza);
+        } catch (IllegalArgumentException e) {
+            return AUTHORIZATION_RESPONSES.getFailure(SASLFailureType.INCORRECT_ENCODING);
+        }
+        if (clientFirstMessage == null)
+            return AUTHORIZATION_RESPONSES.getFailureMalformedRequest();
+
+        // gs2-header: channel binding flag, optional authzid
+        int flagEnd = clientFirstMessage.indexOf(',');
+        int headerEnd = flagEnd < 0 ? -1 : clientFirstMessage.indexOf(',', flagEnd + 1);
+        if (headerEnd < 0)
+            return AUTHORIZATION_RESPONSES.getFailureMalformedRequest();
+        String channelBindingFlag = clientFirstMessage.substring(0, flagEnd);
+        String authzid = clientFirstMessage.substring(flagEnd + 1, headerEnd);
+        if (!isChannelBindingFlagAcceptable(sessionContext, channelBindingFlag))
+            return AUTHORIZATION_RESPONSES.getFailureNotAuthorized();
+
+        Exchange exchange = new Exchange();
+        exchange.gs2Header = clientFirstMessage.substring(0, headerEnd + 1);
+        exchange.clientFirstMessageBare = clientFirstMessage.substring(headerEnd + 1);
+
+        String[] attributes = exchange.clientFirstMessageBare.split(",");
+        if (attributes.length < 2 || !attributes[0].startsWith("n=") || !attributes[1].startsWith("r=")) {
+            return AUTHORIZATION_RESPONSES.getFailureMalformedRequest(); // includes mandatory extensions ("m=")
+        }
+        String username = decodeSaslName(attributes[0].substring(2));
+        String clientNonce = attributes[1].substring(2);
+        if (username == null || username.length() == 0 || clientNonce.length() == 0)
+            return AUTHORIZATION_RESPONSES.getFailureMalformedRequest();
+
+        if (!username.contains("@"))
+            username = username + "@" + sessionContext.getServerJID().getDomain();
+        try {
+            exchange.user = EntityImpl.parse(username).getBareJID();
+        } catch (EntityFormatException e) {
+            return AUTHORIZATION_RESPONSES.getFailureNotAuthorized();
+        }
+        if (authzid.length() > 0) {
+            // acting as a different user is not supported
+            String authorizationIdentity = authzid.startsWith("a=") ? decodeSaslName(authzid.substring(2)) : null;
+            if (authorizationIdentity == null || !isSameUser(exchange.user, authorizationIdentity, sessionContext)) {
+                return AUTHORIZATION_RESPONSES.getFailure(SASLFailureType.INVALID_AUTHZID);
+            }
+        }
+
+        byte[] salt;
+        int iterations;
+        HashedPassword hashedPassword = retrieveHashedPassword(sessionContext, exchange.user);
+        if (hashedPassword != null && hashedPassword.getKeys(hashAlgorithm) != null) {
+            exchange.keys = hashedPassword.getKeys(hashAlgorithm);
+            salt = hashedPassword.getSalt();
+            iterations = hashedPassword.getIterations();
+        } else {
+            // unknown user, or no keys for this algorithm. continue with made-up parameters and fail at the end.
+            salt = fakeSalt(exchange.user);
+            iterations = HashedPassword.DEFAULT_ITERATIONS;
+        }
+
+        byte[] serverNonce = new byte[18];
+        RANDOM.nextBytes(serverNonce);
+        exchange.nonce = clientNonce + encodeBase64(serverNonce);
+        exchange.serverFirstMessage = "r=" + exchange.nonce + ",s=" + encodeBase64(salt) + ",i=" + iterations;
+
+        sessionContext.putAttribute(sessionAttribute, exchange);
+        return AUTHORIZATION_RESPONSES.getChallenge(encodeBase64(toUTF8(exchange.serverFirstMessage)));
+    }
+
+    public Stanza responded(SessionContext sessionContext, SessionStateHolder sessionStateHolder,
+            Stanza responseStanza) {
+        Exchange exchange = (Exchange) sessionContext.getAttribute(sessionAttribute);
+        sessionContext.putAttribute(sessionAttribute, null);
+        if (exchange == null)
+            return AUTHORIZATION_RESPONSES.getFailureMalformedRequest();
+
+        String clientFinalMessage;
+        try {
+            clientFinalMessage = decodePayload(responseStanza);
+        } catch (IllegalArgumentException e) {
+            return AUTHORIZATION_RESPONSES.getFailure(SASLFailureType.INCORRECT_ENCODING);
+        }
+        if (clientFinalMessage == null)
+            return AUTHORIZATION_RESPONSES.getFailureMalformedRequest();
+
+        int proofStart = clientFinalMessage.lastIndexOf(",p=");
+        if (proofStart < 0)
+            return AUTHORIZATION_RESPONSES.getFailureMalformedRequest();
+        String clientFinalMessageWithoutProof = clientFinalMessage.substring(0, proofStart);
+        String[] attributes = clientFinalMessageWithoutProof.split(",");
+        if (attributes.length < 2 || !attributes[0].startsWith("c=") || !attributes[1].startsWith("r=")) {
+            return AUTHORIZATION_RESPONSES.getFailureMalformedRequest();
+        }
+
+        // channel binding and nonce must match what was negotiated
+        byte[] expectedChannelBinding = toUTF8(exchange.gs2Header);
+        if (exchange.gs2Header.startsWith("p=")) {
+            expectedChannelBinding = concat(expectedChannelBinding, channelBindingData);
+        }
+        byte[] channelBinding;
+        byte[] clientProof;
+        try {
+            channelBinding = decodeBase64(attributes[0].substring(2));
+            clientProof = decodeBase64(clientFinalMessage.substring(proofStart + 3));
+        } catch (IllegalArgumentException e) {
+            return AUTHORIZATION_RESPONSES.getFailure(SASLFailureType.INCORRECT_ENCODING);
+        }
+        if (!MessageDigest.isEqual(expectedChannelBinding, channelBinding)
+                || !exchange.nonce.equals(attributes[1].substring(2)) || exchange.keys == null) {
+            return AUTHORIZATION_RESPONSES.getFailureNotAuthorized();
+        }
+
+        String authMessage = exchange.clientFirstMessageBare + "," + exchange.serverFirstMessage + ","
+                + clientFinalMessageWithoutProof;
+        byte[] storedKey = exchange.keys.getStoredKey();
+        byte[] clientSignature = Pbkdf2.hmac(hashAlgorithm, storedKey, toUTF8(authMessage));
+        if (clientProof.length != clientSignature.length)
+            return AUTHORIZATION_RESPONSES.getFailureNotAuthorized();
+        byte[] clientKey = Pbkdf2.xor(clientProof, clientSignature);
+        if (!MessageDigest.isEqual(storedKey, Pbkdf2.hash(hashAlgorithm, clientKey))) {
+            return AUTHORIZATION_RESPONSES.getFailureNotAuthorized();
+        }
+
+        byte[] serverSignature = Pbkdf2.hmac(hashAlgorithm, exchange.keys.getServerKey(), toUTF8(authMessage));
+        sessionContext.setInitiatingEntity(exchange.user);
+        sessionStateHolder.setState(SessionState.AUTHENTICATED);
+        return AUTHORIZATION_RESPONSES.getSuccess(encodeBase64(toUTF8("v=" + encodeBase64(serverSignature))));
+    }
+
+    /**
+     * RFC5802 section 6: 'y' means the client could bind, but thinks the server can't. if the server
+     * offers the -PLUS variant though, this indicates a downgrade attack.
+     * binding to the server's certificate requires the session to run over TLS.
+     */
+    private boolean isChannelBindingFlagAcceptable(SessionContext sessionContext, String channelBindingFlag) {
+        if (isPlus())
+            return sessionContext.isTransportEncrypted()
+                    && ("p=" + CHANNEL_BINDING_TLS_SERVER_END_POINT).equals(channelBindingFlag);
+        if ("n".equals(channelBindingFlag))
+            return true;
+        if ("y".equals(channelBindingFlag)) {
+            List<SASLMechanism> mechanisms = sessionContext.getServerRuntimeContext().getServerFeatures()
+                    .getAuthenticationMethods();
+            for (SASLMechanism mechanism : mechanisms) {
+                if (mechanism.getName().equals(getName() + "-PLUS"))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isSameUser(Entity user, String authorizationIdentity, SessionContext sessionContext) {
+        if (!authorizationIdentity.contains("@"))
+            authorizationIdentity = authorizationIdentity + "@" + sessionContext.getServerJID().getDomain();
+        try {
+            return user.equals(EntityImpl.parse(authorizationIdentity).getBareJID());
+        } catch (EntityFormatException e) {
+            return false;
+        }
+    }
+
+    private HashedPassword retrieveHashedPassword(SessionContext sessionContext, Entity user) {
+        Object userAuthorization = sessionContext.getServerRuntimeContext().getStorageProvider(
+                UserAuthorization.class);
+        if (!(userAuthorization instanceof HashedPasswordLookup))
+            return null;
+        return ((HashedPasswordLookup) userAuthorization).retrieveHashedPassword(user);
+    }
+
+    private byte[] fakeSalt(Entity user) {
+        byte[] salt = new byte[HashedPassword.SALT_LENGTH];
+        System.arraycopy(Pbkdf2.hmac(Pbkdf2.SHA_256, FAKE_SALT_SECRET, toUTF8(user.getFullQualifiedName())), 0,
+                salt, 0, salt.length);
+        return salt;
+    }
+
+    /**
+     * @return the decoded payload, or NULL if there is none
+     * @throws IllegalArgumentException if the payload is no valid base64
+     */
+    private String decodePayload(Stanza stanza) {
+        List<XMLText> innerTexts = stanza.getInnerTexts();
+        if (innerTexts == null || innerTexts.isEmpty())
+            return null;
+        String text = innerTexts.get(0).getText().trim();
+        if (text.length() == 0 || "=".equals(text))
+            return null;
+        byte[] decoded = decodeBase64(text);
+        try {
+            return new String(decoded, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * reverts the escaping of ',' and '=' in usernames. SASLprep normalization is not applied.
+     * @return NULL if the name is not properly escaped
+     */
+    /*package*/static String decodeSaslName(String saslName) {
+        StringBuilder builder = new StringBuilder(saslName.length());
+        for (int i = 0; i < saslName.length(); i++) {
+            char c = saslName.charAt(i);
+            if (c == '=') {
+                if (saslName.startsWith("=2C", i))
+                    builder.append(',');
+                else if (saslName.startsWith("=3D", i))
+                    builder.append('=');
+                else
+                    return null;
+                i += 2;
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static byte[] toUTF8(String string) {
+        return HashedPassword.toUTF8(string);
+    }
+
+    private static String encodeBase64(byte[] bytes) {
+        try {
+            return new String(Base64.encodeBase64(bytes), "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] decodeBase64(String string) {
+        byte[] bytes;
+        try {
+            bytes = string.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!Base64.isArrayByteBase64(bytes))
+            throw new IllegalArgumentException("not base64");
+        return Base64.decodeBase64(bytes);
+    }
+}
@@ -19,45 +19,67 @@
  */
 package org.apache.vysper.xmpp.authorization;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityFormatException;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
 
 /**
  * very simple in-memory {@link org.apache.vysper.xmpp.authorization.UserAuthorization} service
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
-public class SimpleUserAuthorization implements UserAuthorization, AccountManagement {
+public class SimpleUserAuthorization extends AbstractUserAuthorization {
 
-    private final Map<String, String> userPasswordMap = new HashMap<String, String>();
+    private final ConcurrentMap<String, String> userPasswordMap = new ConcurrentHashMap<String, String>();
 
     public SimpleUserAuthorization() {
         ; // empty
     }
 
     public SimpleUserAuthorization(Map<String, String> userPasswordMap) {
-        this.userPasswordMap.putAll(userPasswordMap);
+        for (Map.Entry<String, String> entry : userPasswordMap.entrySet()) {
+            addUser(entry.getKey(), entry.getValue());
+        }
     }
 
+    /**
+     * adds the user, or replaces the password if the user already exists
+     */
+    @Override
     public void addUser(String username, String password) {
-        userPasswordMap.put(username, password);
+        String key = toKey(username);
+        userPasswordMap.put(key, hashPassword(password));
+        verificationCache.invalidate(key);
     }
 
-    public boolean verifyCredentials(Entity jid, String passwordCleartext, Object credentials) {
-        return verify(jid.getFullQualifiedName(), passwordCleartext);
+    @Override
+    protected String retrieveStoredPassword(Entity bareJid) {
+        return userPasswordMap.get(bareJid.getFullQualifiedName());
     }
 
-    public boolean verifyCredentials(String username, String passwordCleartext, Object credentials) {
-        return verify(username, passwordCleartext);
+    @Override
+    protected void storeNewAccount(Entity bareJid, String storedPassword) throws AccountCreationException {
+        if (userPasswordMap.putIfAbsent(bareJid.getFullQualifiedName(), storedPassword) != null) {
+            throw new AccountCreationException("account already exists: " + bareJid.getFullQualifiedName());
+        }
     }
 
-    public boolean verifyAccountExists(Entity jid) {
-        return userPasswordMap.get(jid.getBareJID().getFullQualifiedName()) != null;
+    @Override
+    protected void updateStoredPassword(Entity bareJid, String storedPassword) throws AccountCreationException {
+        if (userPasswordMap.replace(bareJid.getFullQualifiedName(), storedPassword) == null) {
+            throw new AccountCreationException("account does not exist: " + bareJid.getFullQualifiedName());
+        }
     }
 
-    private boolean verify(String username, String passwordCleartext) {
-        return passwordCleartext.equals(userPasswordMap.get(username));
+    private String toKey(String username) {
+        try {
+            return EntityImpl.parse(username).getBareJID().getFullQualifiedName();
+        } catch (EntityFormatException e) {
+            return username;
+        }
     }
 }
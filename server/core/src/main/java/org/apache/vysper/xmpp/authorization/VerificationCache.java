@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.authorization;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * bounded, expiring cache of successful password verifications. it lets repeated logins, as seen
+ * when many clients reconnect at once, skip both the storage lookup and the deliberately slow
+ * password hashing.
+ * <p>
+ * entries hold a salted digest of the presented credentials only. the salt is random per cache instance,
+ * so the cache content is of no use outside this process. least recently used entries are evicted first.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class VerificationCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 10 * 60 * 1000;
+
+    private static class Entry {
+        final byte[] digest;
+
+        final long expires;
+
+        Entry(byte[] digest, long expires) {
+            this.digest = digest;
+            this.expires = expires;
+        }
+    }
+
+    private final byte[] secret = new byte[16];
+
+    private final long timeToLiveMillis;
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * incremented on every invalidation, to detect verifications which ran concurrently with a password change
+     */
+    private long generation = 0;
+
+    public VerificationCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    public VerificationCache(final int maxEntries, long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        new SecureRandom().nextBytes(secret);
+    }
+
+    /**
+     * @return TRUE, if exactly these credentials have been verified successfully before and did not expire
+     */
+    public boolean isVerified(String username, String password) {
+        byte[] digest = digest(username, password);
+        synchronized (entries) {
+            Entry entry = entries.get(username);
+            if (entry == null)
+                return false;
+            if (entry.expires < System.currentTimeMillis()) {
+                entries.remove(username);
+                return false;
+            }
+            return MessageDigest.isEqual(entry.digest, digest);
+        }
+    }
+
+    /**
+     * @return the value to pass to {@link #put(String, String, long)} after verifying against storage
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * records a successful verification, unless an invalidation happened since the given generation
+     */
+    public void put(String username, String password, long generation) {
+        byte[] digest = digest(username, password);
+        synchronized (entries) {
+            if (generation != this.generation)
+                return;
+            entries.put(username, new Entry(digest, System.currentTimeMillis() + timeToLiveMillis));
+        }
+    }
+
+    /**
+     * forgets the verification for the user, must be called whenever the password changes
+     */
+    public void invalidate(String username) {
+        synchronized (entries) {
+            generation++;
+            entries.remove(username);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private byte[] digest(String username, String password) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(Pbkdf2.SHA_256);
+            messageDigest.update(secret);
+            messageDigest.update(HashedPassword.toUTF8(username));
+            messageDigest.update((byte) 0);
+            messageDigest.update(HashedPassword.toUTF8(password));
+            return messageDigest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -23,10 +23,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.security.MessageDigest;
 import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 
 /**
  * derived from MINA's BogusSSLContextFactory.
@@ -40,6 +45,11 @@ public abstract class AbstractTLSContextFactory implements TLSContextFactory {
 
     private static final String KEY_MANAGER_FACTORY_ALGORITHM;
 
+    /**
+     * JDK 13+ system property for stateless TLS session tickets
+     */
+    private static final String SESSION_TICKET_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+
     static {
         String algorithm = Security.getProperty("ssl.KeyManagerFactory.algorithm");
         if (algorithm == null)
@@ -53,6 +63,16 @@ public abstract class AbstractTLSContextFactory implements TLSContextFactory {
 
     protected TrustManagerFactory trustManagerFactory = null;
 
+    /**
+     * number of TLS sessions cached for resumption, -1 keeps the JDK default, 0 is unlimited
+     */
+    private int sessionCacheSize = -1;
+
+    /**
+     * seconds a cached TLS session can be resumed, -1 keeps the JDK default, 0 is unlimited
+     */
+    private int sessionTimeout = -1;
+
     // NOTE: The keystore was generated using keytool:
     //   keytool -genkey -alias bogus -keysize 512 -validity 3650
     //           -keyalg RSA -dname "CN=bogus.com, OU=XXX CA,
@@ -69,14 +89,78 @@ public abstract class AbstractTLSContextFactory implements TLSContextFactory {
         this.trustManagerFactory = trustManagerFactory;
     }
 
+    /**
+     * reconnecting clients resume a cached session instead of doing a full handshake
+     * @param sessionCacheSize number of cached sessions, 0 is unlimited
+     */
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    /**
+     * @param sessionTimeout seconds a cached session can be resumed, 0 is unlimited
+     */
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    /**
+     * enables or disables stateless session tickets (RFC5077), which let clients resume sessions without a server
+     * side cache entry. only supported by JDK 13 and later.
+     * <p>
+     * NOTE: this is a global setting. it is applied through the JVM-wide system property
+     * {@value #SESSION_TICKET_PROPERTY} and therefore affects every TLS server in the JVM, not only the contexts
+     * created by this factory. set it once at server startup, before the JDK's TLS implementation is initialized -
+     * later calls have no effect. an explicitly given system property takes precedence.
+     */
+    public void setSessionTicketsEnabled(boolean sessionTicketsEnabled) {
+        if (System.getProperty(SESSION_TICKET_PROPERTY) == null) {
+            System.setProperty(SESSION_TICKET_PROPERTY, Boolean.toString(sessionTicketsEnabled));
+        }
+    }
+
     public SSLContext getSSLContext() throws GeneralSecurityException, IOException {
         if (sslContext == null)
             sslContext = createSSLContext();
         return sslContext;
     }
 
-    private SSLContext createSSLContext() throws GeneralSecurityException, IOException {
-        // Create keystore
+    /**
+     * computes the 'tls-server-end-point' channel binding data (RFC5929) for the server certificate, which is
+     * the hash of the certificate using the hash function of its signature algorithm, or SHA-256 if that
+     * is MD5 or SHA-1.
+     * @return the channel binding data, or NULL if it cannot be determined
+     */
+    public byte[] getTlsServerEndPoint() {
+        try {
+            KeyStore ks = loadKeyStore();
+            Enumeration<String> aliases = ks.aliases();
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                if (!ks.isKeyEntry(alias))
+                    continue;
+                Certificate certificate = ks.getCertificate(alias);
+                if (!(certificate instanceof X509Certificate))
+                    return null;
+                X509Certificate x509Certificate = (X509Certificate) certificate;
+                String signatureAlgorithm = x509Certificate.getSigAlgName().toUpperCase();
+                String hashAlgorithm = "SHA-256";
+                if (signatureAlgorithm.startsWith("SHA384")) {
+                    hashAlgorithm = "SHA-384";
+                } else if (signatureAlgorithm.startsWith("SHA512")) {
+                    hashAlgorithm = "SHA-512";
+                }
+                return MessageDigest.getInstance(hashAlgorithm).digest(x509Certificate.getEncoded());
+            }
+            return null;
+        } catch (GeneralSecurityException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private KeyStore loadKeyStore() throws GeneralSecurityException, IOException {
         KeyStore ks = KeyStore.getInstance("JKS");
         InputStream in = null;
         try {
@@ -91,6 +175,11 @@ public abstract class AbstractTLSContextFactory implements TLSContextFactory {
                 }
             }
         }
+        return ks;
+    }
+
+    private SSLContext createSSLContext() throws GeneralSecurityException, IOException {
+        KeyStore ks = loadKeyStore();
 
         // Set up key manager factory to use our key store
         KeyManagerFactory kmf = KeyManagerFactory.getInstance(KEY_MANAGER_FACTORY_ALGORITHM);
@@ -100,6 +189,12 @@ public abstract class AbstractTLSContextFactory implements TLSContextFactory {
         SSLContext sslContext = SSLContext.getInstance(PROTOCOL);
         sslContext.init(kmf.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
 
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        if (sessionCacheSize >= 0)
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+        if (sessionTimeout >= 0)
+            sessionContext.setSessionTimeout(sessionTimeout);
+
         return sslContext;
     }
 
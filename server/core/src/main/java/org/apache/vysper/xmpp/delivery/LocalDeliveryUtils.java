@@ -19,9 +19,15 @@
  */
 package org.apache.vysper.xmpp.delivery;
 
+import java.util.List;
+
+import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
+import org.apache.vysper.xmpp.writer.BatchStanzaWriter;
+import org.apache.vysper.xmpp.writer.StanzaWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,4 +56,62 @@ public class LocalDeliveryUtils {
         }
     }
 
+    /**
+     * writes a stanza straight to the session of a server-local receiver, bypassing the stanza relay.
+     * this only happens if the receiver is a full JID bound to an authenticated session of the same bare JID.
+     * @param registry registry to look up the session by the receiver's resource
+     * @param receiver receiving full JID
+     * @param stanza stanza to be written
+     * @return TRUE, iff the stanza was written. otherwise, the caller should fall back to the stanza relay
+     */
+    public static boolean deliverToLocalSession(ResourceRegistry registry, Entity receiver, Stanza stanza) {
+        SessionContext targetContext = getLocalSession(registry, receiver);
+        if (targetContext == null)
+            return false;
+        try {
+            targetContext.getResponseWriter().write(stanza);
+            return true;
+        } catch (RuntimeException e) {
+            logger.warn("failed to directly deliver stanza to " + receiver.getFullQualifiedName(), e);
+            return false;
+        }
+    }
+
+    /**
+     * like {@link #deliverToLocalSession(ResourceRegistry, Entity, Stanza)}, but writes all stanzas in one go,
+     * if the session's writer supports it.
+     * @return TRUE, iff the stanzas were written. otherwise, the caller should fall back to the stanza relay
+     */
+    public static boolean deliverToLocalSession(ResourceRegistry registry, Entity receiver, List<Stanza> stanzas) {
+        SessionContext targetContext = getLocalSession(registry, receiver);
+        if (targetContext == null)
+            return false;
+        try {
+            StanzaWriter writer = targetContext.getResponseWriter();
+            if (writer instanceof BatchStanzaWriter) {
+                ((BatchStanzaWriter) writer).writeBatch(stanzas);
+            } else {
+                for (Stanza stanza : stanzas) {
+                    writer.write(stanza);
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            logger.warn("failed to directly deliver stanzas to " + receiver.getFullQualifiedName(), e);
+            return false;
+        }
+    }
+
+    private static SessionContext getLocalSession(ResourceRegistry registry, Entity receiver) {
+        if (registry == null || receiver == null || !receiver.isResourceSet())
+            return null;
+        SessionContext targetContext = registry.getSessionContext(receiver.getResource());
+        if (targetContext == null || targetContext.getState() != SessionState.AUTHENTICATED)
+            return null;
+        Entity initiatingEntity = targetContext.getInitiatingEntity();
+        if (initiatingEntity == null || !receiver.getBareJID().equals(initiatingEntity.getBareJID()))
+            return null;
+        return targetContext;
+    }
+
 }
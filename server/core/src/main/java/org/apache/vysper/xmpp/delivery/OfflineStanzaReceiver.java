@@ -24,10 +24,15 @@ import org.apache.vysper.xmpp.stanza.Stanza;
 /**
  * receives stanzas addressed to receivers which are currently offline
  * handles persistency, retry and expiration
- * TODO: this is more or less a placeholder interface currently.
  */
 public interface OfflineStanzaReceiver {
 
-    public void receive(Stanza stanza);
+    /**
+     * hands over a stanza which could not be delivered because the receiver is offline
+     * @param stanza
+     * @return TRUE, if the stanza has been accepted for later delivery,
+     * FALSE if it has been rejected (e.g. not storable or the receiver's quota is exceeded)
+     */
+    public boolean receive(Stanza stanza);
 
 }
@@ -43,6 +43,7 @@ import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
 import org.apache.vysper.xmpp.delivery.failure.LocalRecipientOfflineException;
 import org.apache.vysper.xmpp.delivery.failure.NoSuchLocalUserException;
 import org.apache.vysper.xmpp.delivery.failure.ServiceNotAvailableException;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineStorageProvider;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.protocol.StanzaHandler;
 import org.apache.vysper.xmpp.protocol.StanzaProcessor;
@@ -92,6 +93,8 @@ public class DeliveringInboundStanzaRelay implements StanzaRelay {
             StorageProviderRegistry storageProviderRegistry) {
         this(serverEntity, resourceRegistry, (AccountManagement) storageProviderRegistry
                 .retrieve(AccountManagement.class));
+        setOfflineStanzaReceiver((OfflineStorageProvider) storageProviderRegistry
+                .retrieve(OfflineStorageProvider.class));
     }
 
     public DeliveringInboundStanzaRelay(Entity serverEntity, ResourceRegistry resourceRegistry,
@@ -110,6 +113,14 @@ public class DeliveringInboundStanzaRelay implements StanzaRelay {
         this.serverRuntimeContext = serverRuntimeContext;
     }
 
+    /**
+     * @param offlineStanzaReceiver receives all stanzas for existing, but currently unavailable users.
+     * if NULL, such stanzas are treated as undeliverable
+     */
+    public void setOfflineStanzaReceiver(OfflineStanzaReceiver offlineStanzaReceiver) {
+        this.offlineStanzaReceiver = offlineStanzaReceiver;
+    }
+
     public void relay(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy)
             throws DeliveryException {
         Future<RelayResult> resultFuture = executor.submit(new Relay(receiver, stanza, deliveryFailureStrategy));
@@ -215,8 +226,14 @@ public class DeliveringInboundStanzaRelay implements StanzaRelay {
                 switch (messageStanzaType) {
                 case CHAT:
                 case NORMAL:
-                    return serverRuntimeContext.getServerFeatures().isDeliveringMessageToHighestPriorityResourcesOnly() ? relayToBestSessions(false)
-                            : relayToAllSessions(0);
+                    if (serverRuntimeContext.getServerFeatures().isDeliveringMessageToHighestPriorityResourcesOnly()) {
+                        return relayToBestSessions(false);
+                    }
+                    // no available resource: let the offline receiver take the message
+                    if (resourceRegistry.getSessions(receiver, 0).isEmpty()) {
+                        return relayNotPossible();
+                    }
+                    return relayToAllSessions(0);
 
                 case ERROR:
                     // silently ignore
@@ -275,8 +292,7 @@ public class DeliveringInboundStanzaRelay implements StanzaRelay {
                 logger.warn("cannot relay to unexisting receiver {} stanza {}", receiver.getFullQualifiedName(), stanza
                         .toString());
                 return new RelayResult(new NoSuchLocalUserException());
-            } else if (offlineStanzaReceiver != null) {
-                offlineStanzaReceiver.receive(stanza);
+            } else if (offlineStanzaReceiver != null && offlineStanzaReceiver.receive(stanza)) {
                 return new RelayResult(new DeliveredToOfflineReceiverException());
             } else {
                 logger.warn("cannot relay to offline receiver {} stanza {}", receiver.getFullQualifiedName(), stanza
@@ -377,7 +393,7 @@ public class DeliveringInboundStanzaRelay implements StanzaRelay {
         }
 
         /*package*/void addProcessingError(DeliveryException processingError) {
-            if (processingError == null)
+            if (processingErrors == null)
                 processingErrors = new ArrayList<DeliveryException>();
             processingErrors.add(processingError);
         }
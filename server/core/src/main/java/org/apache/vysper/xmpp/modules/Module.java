@@ -69,4 +69,9 @@ public interface Module {
      * first one.
      */
     void initialize(ServerRuntimeContext serverRuntimeContext);
+
+    /**
+     * called when the server is stopped. the module releases the threads and other resources it holds.
+     */
+    void close();
 }
@@ -40,6 +40,7 @@ import org.apache.vysper.xmpp.addressing.EntityImpl;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.IgnoreFailureStrategy;
 import org.apache.vysper.xmpp.modules.core.base.handler.XMPPCoreStanzaHandler;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineMessageDelivery;
 import org.apache.vysper.xmpp.modules.roster.RosterException;
 import org.apache.vysper.xmpp.modules.roster.RosterItem;
 import org.apache.vysper.xmpp.modules.roster.RosterUtils;
@@ -298,6 +299,12 @@ public class PresenceAvailabilityHandler extends AbstractPresenceSpecializedHand
                 Stanza probeStanza = buildPresenceStanza(user, contact_TO, PresenceStanzaType.PROBE, null);
                 relayStanza(contact_TO, probeStanza, sessionContext);
             }
+
+            // messages stored while the user was offline go to the first available resource
+            // with non-negative priority
+            if (presenceStanza.getPrioritySafe() >= 0) {
+                OfflineMessageDelivery.deliverStoredStanzas(serverRuntimeContext, sessionContext, user.getBareJID());
+            }
         }
 
         return null;
@@ -47,7 +47,8 @@ public class AbortHandler extends AbstractSASLHandler {
         AuthorizationRetriesCounter counter = AuthorizationRetriesCounter.getFromSession(sessionContext);
         boolean moreTriesLeft = counter.countFailedTry(); // record that client aborted
 
-        // TODO do more clean-ups as mechanism requires.
+        // discard any challenge/response exchange in progress
+        sessionContext.putAttribute(SESSION_ATTRIBUTE_MECHANISM_IN_PROGRESS, null);
 
         return new ResponseStanzaContainerImpl(new ServerResponses().getAuthAborted());
     }
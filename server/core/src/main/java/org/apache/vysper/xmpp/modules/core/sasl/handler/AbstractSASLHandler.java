@@ -20,6 +20,8 @@
 package org.apache.vysper.xmpp.modules.core.sasl.handler;
 
 import org.apache.vysper.xml.fragment.XMLElementVerifier;
+import org.apache.vysper.xmpp.authorization.ChallengeResponseSASLMechanism;
+import org.apache.vysper.xmpp.authorization.SASLMechanism;
 import org.apache.vysper.xmpp.modules.core.sasl.AuthorizationRetriesCounter;
 import org.apache.vysper.xmpp.modules.core.sasl.SASLFailureType;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
@@ -40,6 +42,12 @@ import org.apache.vysper.xmpp.stanza.Stanza;
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public abstract class AbstractSASLHandler implements StanzaHandler {
+
+    /**
+     * session attribute holding the challenge/response mechanism awaiting the client's next response
+     */
+    public static final String SESSION_ATTRIBUTE_MECHANISM_IN_PROGRESS = "saslMechanismInProgress";
+
     public boolean verify(Stanza stanza) {
         if (stanza == null)
             return false;
@@ -76,6 +84,24 @@ public abstract class AbstractSASLHandler implements StanzaHandler {
                 SASLFailureType.MALFORMED_REQUEST));
     }
 
+    /**
+     * updates the session after the mechanism has responded to the client. keeps the mechanism in progress if it
+     * issued a challenge, counts a failed try if the response was a failure.
+     */
+    protected ResponseStanzaContainer respondMechanismResult(Stanza responseStanza, SASLMechanism mechanism,
+            SessionContext sessionContext, SessionStateHolder sessionStateHolder) {
+        if (sessionStateHolder.getState() == SessionState.AUTHENTICATED) {
+            sessionContext.putAttribute(SESSION_ATTRIBUTE_MECHANISM_IN_PROGRESS, null);
+            AuthorizationRetriesCounter.removeFromSession(sessionContext);
+        } else if ("challenge".equals(responseStanza.getName()) && mechanism instanceof ChallengeResponseSASLMechanism) {
+            sessionContext.putAttribute(SESSION_ATTRIBUTE_MECHANISM_IN_PROGRESS, mechanism);
+        } else {
+            sessionContext.putAttribute(SESSION_ATTRIBUTE_MECHANISM_IN_PROGRESS, null);
+            AuthorizationRetriesCounter.getFromSession(sessionContext).countFailedTry();
+        }
+        return new ResponseStanzaContainerImpl(responseStanza);
+    }
+
     protected abstract ResponseStanzaContainer executeWorker(Stanza stanza, SessionContext sessionContext,
             SessionStateHolder sessionStateHolder);
 }
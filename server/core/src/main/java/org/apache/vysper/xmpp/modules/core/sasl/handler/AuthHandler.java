@@ -22,12 +22,9 @@ package org.apache.vysper.xmpp.modules.core.sasl.handler;
 import java.util.List;
 
 import org.apache.vysper.xmpp.authorization.SASLMechanism;
-import org.apache.vysper.xmpp.modules.core.sasl.AuthorizationRetriesCounter;
 import org.apache.vysper.xmpp.protocol.ResponseStanzaContainer;
-import org.apache.vysper.xmpp.protocol.ResponseStanzaContainerImpl;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.server.SessionContext;
-import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.stanza.Stanza;
 
 /**
@@ -65,13 +62,7 @@ public class AuthHandler extends AbstractSASLHandler {
             throw new RuntimeException("return error");
 
         Stanza responseStanza = identifiedMechanism.started(sessionContext, sessionStateHolder, stanza);
-        if (sessionStateHolder.getState() == SessionState.AUTHENTICATED) {
-            AuthorizationRetriesCounter.removeFromSession(sessionContext);
-        } else {
-            AuthorizationRetriesCounter.getFromSession(sessionContext).countFailedTry();
-        }
-
-        return new ResponseStanzaContainerImpl(responseStanza);
+        return respondMechanismResult(responseStanza, identifiedMechanism, sessionContext, sessionStateHolder);
     }
 
 }
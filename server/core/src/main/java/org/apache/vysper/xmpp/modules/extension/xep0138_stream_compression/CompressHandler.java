@@ -0,0 +1,95 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0138_stream_compression;
+
+import org.apache.vysper.mina.ZlibCompression;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLText;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.ResponseStanzaContainer;
+import org.apache.vysper.xmpp.protocol.ResponseStanzaContainerImpl;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.protocol.StanzaHandler;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ * handles the &lt;compress/&gt; request, which switches the stream to compression once &lt;compressed/&gt; is
+ * written
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class CompressHandler implements StanzaHandler {
+
+    private final StreamCompressionModule module;
+
+    public CompressHandler(StreamCompressionModule module) {
+        this.module = module;
+    }
+
+    public String getName() {
+        return "compress";
+    }
+
+    public boolean verify(Stanza stanza) {
+        if (stanza == null)
+            return false;
+        if (!getName().equals(stanza.getName()))
+            return false;
+        return NamespaceURIs.XEP0138_COMPRESS.equals(stanza.getNamespaceURI());
+    }
+
+    public boolean isSessionRequired() {
+        return true;
+    }
+
+    public ResponseStanzaContainer execute(Stanza stanza, ServerRuntimeContext serverRuntimeContext,
+            boolean isOutboundStanza, SessionContext sessionContext, SessionStateHolder sessionStateHolder) {
+        if (!module.isOffered(sessionContext)) {
+            return respondFailure("setup-failed");
+        }
+        if (!isZlibRequested(stanza)) {
+            return respondFailure("unsupported-method");
+        }
+
+        sessionContext.switchToCompression(module.getCompression());
+
+        return new ResponseStanzaContainerImpl(new StanzaBuilder("compressed", NamespaceURIs.XEP0138_COMPRESS)
+                .build());
+    }
+
+    private boolean isZlibRequested(Stanza stanza) {
+        for (XMLElement method : stanza.getInnerElementsNamed("method")) {
+            XMLText text = method.getInnerText();
+            if (text != null && ZlibCompression.METHOD.equals(text.getText().trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ResponseStanzaContainer respondFailure(String condition) {
+        StanzaBuilder stanzaBuilder = new StanzaBuilder("failure", NamespaceURIs.XEP0138_COMPRESS);
+        stanzaBuilder.startInnerElement(condition, NamespaceURIs.XEP0138_COMPRESS).endInnerElement();
+        return new ResponseStanzaContainerImpl(stanzaBuilder.build());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0138_stream_compression;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.vysper.mina.CompressionStatistics;
+import org.apache.vysper.mina.ZlibCompression;
+import org.apache.vysper.xmpp.modules.DefaultModule;
+import org.apache.vysper.xmpp.modules.ServerRuntimeContextService;
+import org.apache.vysper.xmpp.protocol.HandlerDictionary;
+import org.apache.vysper.xmpp.protocol.NamespaceHandlerDictionary;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.StreamCompressionService;
+
+/**
+ * A module for <a href="http://xmpp.org/extensions/xep-0138.html">XEP-0138 Stream Compression</a>, offering
+ * the 'zlib' method to authenticated sessions on transports supporting it.
+ * 
+ * compression is only offered on TLS protected connections, unless compressBeforeTLS is set. configure the module
+ * before it is added to the server.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class StreamCompressionModule extends DefaultModule implements StreamCompressionService {
+
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private int maxPooledInstances = 64;
+
+    private boolean compressBeforeTLS = false;
+
+    private ZlibCompression compression;
+
+    @Override
+    public String getName() {
+        return "XEP-0138 Stream Compression";
+    }
+
+    @Override
+    public String getVersion() {
+        return "2.0";
+    }
+
+    public String getServiceName() {
+        return SERVICE_NAME;
+    }
+
+    /**
+     * @param compressionLevel 1 (fastest) to 9 (smallest), defaults to zlib's default level
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @param maxPooledInstances the number of idle Deflater and Inflater instances kept for reuse
+     */
+    public void setMaxPooledInstances(int maxPooledInstances) {
+        this.maxPooledInstances = maxPooledInstances;
+    }
+
+    /**
+     * @param compressBeforeTLS TRUE to also offer compression on connections not protected by TLS
+     */
+    public void setCompressBeforeTLS(boolean compressBeforeTLS) {
+        this.compressBeforeTLS = compressBeforeTLS;
+    }
+
+    public String getMethodName() {
+        return ZlibCompression.METHOD;
+    }
+
+    public ZlibCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return bytes saved and time spent compressing, for all sessions
+     */
+    public CompressionStatistics getStatistics() {
+        return compression.getStatistics();
+    }
+
+    public boolean isOffered(SessionContext sessionContext) {
+        return sessionContext.isCompressionSupported() && (compressBeforeTLS || sessionContext.isTransportEncrypted());
+    }
+
+    @Override
+    public void initialize(ServerRuntimeContext serverRuntimeContext) {
+        compression = new ZlibCompression(compressionLevel, maxPooledInstances);
+    }
+
+    @Override
+    protected void addServerServices(List<ServerRuntimeContextService> serviceList) {
+        serviceList.add(this);
+    }
+
+    @Override
+    protected void addHandlerDictionaries(List<HandlerDictionary> dictionary) {
+        dictionary.add(new NamespaceHandlerDictionary(NamespaceURIs.XEP0138_COMPRESS, new CompressHandler(this)));
+    }
+}
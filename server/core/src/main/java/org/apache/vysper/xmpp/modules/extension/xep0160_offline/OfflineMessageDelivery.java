@@ -0,0 +1,80 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline;
+
+import java.util.List;
+
+import org.apache.vysper.compliance.SpecCompliant;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.writer.BatchStanzaWriter;
+import org.apache.vysper.xmpp.writer.StanzaWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * flushes stored offline stanzas to a user's session once it becomes available
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class OfflineMessageDelivery {
+
+    final static Logger logger = LoggerFactory.getLogger(OfflineMessageDelivery.class);
+
+    /**
+     * set on sessions which retrieve their offline messages through XEP-0013. 
+     * such sessions do not get their messages flushed on initial presence.
+     */
+    public static final String SESSION_ATTRIBUTE_FLEXIBLE_RETRIEVAL = "xep0013.flexibleOfflineRetrieval";
+
+    /**
+     * writes all stanzas stored for the user straight into the session, as one batch, 
+     * bypassing the stanza relay. the stanzas are removed from the storage.
+     * 
+     * @param serverRuntimeContext
+     * @param sessionContext the session which just sent its initial presence
+     * @param user
+     * @return number of delivered stanzas
+     */
+    @SpecCompliant(spec = "xep-0160", section = "3", status = SpecCompliant.ComplianceStatus.FINISHED, coverage = SpecCompliant.ComplianceCoverage.COMPLETE)
+    public static int deliverStoredStanzas(ServerRuntimeContext serverRuntimeContext, SessionContext sessionContext,
+            Entity user) {
+        if (sessionContext == null || sessionContext.getAttribute(SESSION_ATTRIBUTE_FLEXIBLE_RETRIEVAL) != null)
+            return 0;
+        OfflineStorageProvider offlineStorageProvider = (OfflineStorageProvider) serverRuntimeContext
+                .getStorageProvider(OfflineStorageProvider.class);
+        if (offlineStorageProvider == null || offlineStorageProvider.countStanzas(user) == 0)
+            return 0;
+
+        List<Stanza> stanzas = offlineStorageProvider.takeAllStanzas(user);
+        StanzaWriter writer = sessionContext.getResponseWriter();
+        if (writer instanceof BatchStanzaWriter) {
+            ((BatchStanzaWriter) writer).writeBatch(stanzas);
+        } else {
+            for (Stanza stanza : stanzas) {
+                writer.write(stanza);
+            }
+        }
+        logger.debug("delivered {} offline stanzas to {}", stanzas.size(), user.getFullQualifiedName());
+        return stanzas.size();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.vysper.compliance.SpecCompliant;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.modules.core.base.handler.DefaultIQHandler;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.response.ServerErrorResponses;
+import org.apache.vysper.xmpp.stanza.IQStanza;
+import org.apache.vysper.xmpp.stanza.IQStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.stanza.StanzaErrorCondition;
+import org.apache.vysper.xmpp.stanza.StanzaErrorType;
+
+/**
+ * handles flexible offline message retrieval: viewing, removing, fetching and purging
+ * stored messages item by item.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+@SpecCompliant(spec = "xep-0013", status = SpecCompliant.ComplianceStatus.IN_PROGRESS, coverage = SpecCompliant.ComplianceCoverage.PARTIAL)
+public class OfflineMessageIQHandler extends DefaultIQHandler {
+
+    protected OfflineStorageProvider offlineStorageProvider;
+
+    public void setOfflineStorageProvider(OfflineStorageProvider offlineStorageProvider) {
+        this.offlineStorageProvider = offlineStorageProvider;
+    }
+
+    @Override
+    protected boolean verifyNamespace(Stanza stanza) {
+        return verifyInnerNamespace(stanza, NamespaceURIs.XEP0013_OFFLINE);
+    }
+
+    @Override
+    protected boolean verifyInnerElement(Stanza stanza) {
+        return verifyInnerElementWorker(stanza, "offline");
+    }
+
+    @Override
+    protected Stanza handleGet(IQStanza stanza, ServerRuntimeContext serverRuntimeContext, SessionContext sessionContext) {
+        if (offlineStorageProvider == null) {
+            return storageUnavailable(stanza);
+        }
+        sessionContext.putAttribute(OfflineMessageDelivery.SESSION_ATTRIBUTE_FLEXIBLE_RETRIEVAL, Boolean.TRUE);
+        Entity user = sessionContext.getInitiatingEntity().getBareJID();
+        XMLElement offlineElement = stanza.getFirstInnerElement();
+
+        Map<String, Stanza> stanzas;
+        if (!offlineElement.getInnerElementsNamed("fetch").isEmpty()) {
+            stanzas = offlineStorageProvider.getStanzas(user, null);
+        } else {
+            List<String> nodes = getItemNodes(offlineElement, "view");
+            if (nodes.isEmpty()) {
+                return badRequest(stanza);
+            }
+            stanzas = offlineStorageProvider.getStanzas(user, nodes);
+            if (stanzas.size() < nodes.size()) {
+                return ServerErrorResponses.getInstance().getStanzaError(StanzaErrorCondition.ITEM_NOT_FOUND, stanza,
+                        StanzaErrorType.CANCEL, null, null, null);
+            }
+        }
+
+        for (Map.Entry<String, Stanza> entry : stanzas.entrySet()) {
+            StanzaBuilder stanzaBuilder = StanzaBuilder.createClone(entry.getValue(), true, null);
+            stanzaBuilder.startInnerElement("offline", NamespaceURIs.XEP0013_OFFLINE);
+            stanzaBuilder.startInnerElement("item", NamespaceURIs.XEP0013_OFFLINE).addAttribute("node",
+                    entry.getKey()).endInnerElement();
+            stanzaBuilder.endInnerElement();
+            sessionContext.getResponseWriter().write(stanzaBuilder.build());
+        }
+
+        return StanzaBuilder.createIQStanza(null, stanza.getFrom(), IQStanzaType.RESULT, stanza.getID()).build();
+    }
+
+    @Override
+    protected Stanza handleSet(IQStanza stanza, ServerRuntimeContext serverRuntimeContext, SessionContext sessionContext) {
+        if (offlineStorageProvider == null) {
+            return storageUnavailable(stanza);
+        }
+        sessionContext.putAttribute(OfflineMessageDelivery.SESSION_ATTRIBUTE_FLEXIBLE_RETRIEVAL, Boolean.TRUE);
+        Entity user = sessionContext.getInitiatingEntity().getBareJID();
+        XMLElement offlineElement = stanza.getFirstInnerElement();
+
+        if (!offlineElement.getInnerElementsNamed("purge").isEmpty()) {
+            offlineStorageProvider.removeAllStanzas(user);
+        } else {
+            List<String> nodes = getItemNodes(offlineElement, "remove");
+            if (nodes.isEmpty()) {
+                return badRequest(stanza);
+            }
+            offlineStorageProvider.removeStanzas(user, nodes);
+        }
+
+        return StanzaBuilder.createIQStanza(null, stanza.getFrom(), IQStanzaType.RESULT, stanza.getID()).build();
+    }
+
+    private List<String> getItemNodes(XMLElement offlineElement, String action) {
+        List<String> nodes = new ArrayList<String>();
+        for (XMLElement item : offlineElement.getInnerElementsNamed("item")) {
+            String node = item.getAttributeValue("node");
+            if (node != null && action.equals(item.getAttributeValue("action"))) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private Stanza badRequest(IQStanza stanza) {
+        return ServerErrorResponses.getInstance().getStanzaError(StanzaErrorCondition.BAD_REQUEST, stanza,
+                StanzaErrorType.MODIFY, "no offline items given", null, null);
+    }
+
+    private Stanza storageUnavailable(IQStanza stanza) {
+        return ServerErrorResponses.getInstance().getStanzaError(StanzaErrorCondition.INTERNAL_SERVER_ERROR, stanza,
+                StanzaErrorType.WAIT, "offline storage inaccessible", null, null);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.modules.DefaultDiscoAwareModule;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.Feature;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.Identity;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.InfoDataForm;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.InfoElement;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.InfoRequest;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.Item;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.ItemRequestListener;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.ServerInfoRequestListener;
+import org.apache.vysper.xmpp.protocol.HandlerDictionary;
+import org.apache.vysper.xmpp.protocol.NamespaceHandlerDictionary;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.stanza.dataforms.DataForm;
+import org.apache.vysper.xmpp.stanza.dataforms.Field;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * offline message storage (XEP-0160) with flexible offline message retrieval (XEP-0013).
+ * <br/>
+ * storing messages and flushing them on initial presence works as soon as an OfflineStorageProvider 
+ * is registered with the storage provider registry. this module adds the retrieval protocol.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class OfflineMessageModule extends DefaultDiscoAwareModule implements ServerInfoRequestListener,
+        ItemRequestListener {
+
+    final Logger logger = LoggerFactory.getLogger(OfflineMessageModule.class);
+
+    protected OfflineMessageIQHandler iqHandler = new OfflineMessageIQHandler();
+
+    protected OfflineStorageProvider offlineStorageProvider;
+
+    protected ServerRuntimeContext serverRuntimeContext;
+
+    @Override
+    public void initialize(ServerRuntimeContext serverRuntimeContext) {
+        super.initialize(serverRuntimeContext);
+        this.serverRuntimeContext = serverRuntimeContext;
+
+        offlineStorageProvider = (OfflineStorageProvider) serverRuntimeContext
+                .getStorageProvider(OfflineStorageProvider.class);
+        if (offlineStorageProvider == null) {
+            logger.error("no OfflineStorageProvider found");
+        } else {
+            iqHandler.setOfflineStorageProvider(offlineStorageProvider);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "XEP-0013 Flexible Offline Message Retrieval";
+    }
+
+    @Override
+    public String getVersion() {
+        return "1.2";
+    }
+
+    @Override
+    protected void addServerInfoRequestListeners(List<ServerInfoRequestListener> serverInfoRequestListeners) {
+        serverInfoRequestListeners.add(this);
+    }
+
+    @Override
+    protected void addItemRequestListeners(List<ItemRequestListener> itemRequestListeners) {
+        itemRequestListeners.add(this);
+    }
+
+    public List<InfoElement> getServerInfosFor(InfoRequest request) {
+        List<InfoElement> infoElements = new ArrayList<InfoElement>();
+        if (request.getNode() == null) {
+            infoElements.add(new Feature(NamespaceURIs.XEP0013_OFFLINE));
+        } else if (NamespaceURIs.XEP0013_OFFLINE.equals(request.getNode())) {
+            infoElements.add(new Identity("automation", "message-list"));
+            infoElements.add(new Feature(NamespaceURIs.XEP0030_SERVICE_DISCOVERY_INFO));
+            if (offlineStorageProvider != null && request.getFrom() != null) {
+                DataForm dataForm = new DataForm();
+                dataForm.setType(DataForm.Type.result);
+                dataForm.addField(new Field(null, Field.Type.HIDDEN, "FORM_TYPE", NamespaceURIs.XEP0013_OFFLINE));
+                dataForm.addField(new Field(null, null, "number_of_messages", Integer
+                        .toString(offlineStorageProvider.countStanzas(request.getFrom()))));
+                infoElements.add(new InfoDataForm(dataForm));
+            }
+        }
+        return infoElements;
+    }
+
+    public List<Item> getItemsFor(InfoRequest request) {
+        if (!NamespaceURIs.XEP0013_OFFLINE.equals(request.getNode()) || offlineStorageProvider == null
+                || request.getFrom() == null) {
+            return null;
+        }
+        markFlexibleRetrieval(request.getFrom());
+        List<Item> items = new ArrayList<Item>();
+        for (OfflineStanzaHeader header : offlineStorageProvider.getHeaders(request.getFrom())) {
+            String name = header.getFrom() == null ? null : header.getFrom().getFullQualifiedName();
+            items.add(new Item(request.getFrom().getBareJID(), name, header.getId()));
+        }
+        return items;
+    }
+
+    /**
+     * a client which looks at the message headers retrieves its messages through XEP-0013,
+     * its session must not get them flushed on initial presence
+     */
+    private void markFlexibleRetrieval(Entity from) {
+        if (from.getResource() == null || serverRuntimeContext == null)
+            return;
+        SessionContext sessionContext = serverRuntimeContext.getResourceRegistry().getSessionContext(
+                from.getResource());
+        if (sessionContext != null && sessionContext.getInitiatingEntity() != null
+                && from.getBareJID().equals(sessionContext.getInitiatingEntity().getBareJID())) {
+            sessionContext.putAttribute(OfflineMessageDelivery.SESSION_ATTRIBUTE_FLEXIBLE_RETRIEVAL, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    protected void addHandlerDictionaries(List<HandlerDictionary> dictionary) {
+        dictionary.add(new NamespaceHandlerDictionary(NamespaceURIs.XEP0013_OFFLINE, iqHandler));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+
+/**
+ * lightweight description of a stored offline stanza, available without loading the stanza itself
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class OfflineStanzaHeader {
+
+    protected String id;
+
+    protected Entity from;
+
+    protected long timestamp;
+
+    public OfflineStanzaHeader(String id, Entity from, long timestamp) {
+        this.id = id;
+        this.from = from;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return the identifier under which the stanza is stored, used as node in XEP-0013
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the original sender, might be NULL
+     */
+    public Entity getFrom() {
+        return from;
+    }
+
+    /**
+     * @return reception time in millis
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
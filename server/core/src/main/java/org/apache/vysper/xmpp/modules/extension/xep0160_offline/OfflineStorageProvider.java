@@ -0,0 +1,70 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.vysper.storage.StorageProvider;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.OfflineStanzaReceiver;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * stores messages for users who are currently offline (XEP-0160) and gives access to them
+ * for later delivery, either in bulk when the user becomes available or item-wise through 
+ * flexible offline message retrieval (XEP-0013).
+ * <br/>
+ * all receivers are handled on bare JID level.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public interface OfflineStorageProvider extends StorageProvider, OfflineStanzaReceiver {
+
+    /**
+     * @return number of stanzas currently stored for the receiver
+     */
+    int countStanzas(Entity receiver);
+
+    /**
+     * @return headers of all stanzas stored for the receiver, in order of reception
+     */
+    List<OfflineStanzaHeader> getHeaders(Entity receiver);
+
+    /**
+     * retrieves stored stanzas without removing them
+     * @param receiver
+     * @param ids the stanzas to retrieve, or NULL to retrieve all stanzas
+     * @return stanzas keyed by their offline id, in order of reception. unknown ids are skipped.
+     */
+    Map<String, Stanza> getStanzas(Entity receiver, Collection<String> ids);
+
+    /**
+     * atomically retrieves and removes all stanzas stored for the receiver.
+     * this is the bulk path used when the receiver comes online.
+     * @return stanzas in order of reception
+     */
+    List<Stanza> takeAllStanzas(Entity receiver);
+
+    void removeStanzas(Entity receiver, Collection<String> ids);
+
+    void removeAllStanzas(Entity receiver);
+}
@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline.storage;
+
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import org.apache.vysper.compliance.SpecCompliant;
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.datetime.DateTimeProfile;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineStanzaHeader;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineStorageProvider;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.stanza.MessageStanza;
+import org.apache.vysper.xmpp.stanza.MessageStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.stanza.XMPPCoreStanza;
+import org.apache.vysper.xmpp.uuid.JVMBuiltinUUIDGenerator;
+import org.apache.vysper.xmpp.uuid.UUIDGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * common offline storage logic: decides which stanzas are stored, stamps them with
+ * their reception time and enforces the per-user quota.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public abstract class AbstractOfflineStorageProvider implements OfflineStorageProvider {
+
+    final Logger logger = LoggerFactory.getLogger(AbstractOfflineStorageProvider.class);
+
+    public static final int DEFAULT_MAX_STANZAS_PER_USER = 1000;
+
+    public static final long DEFAULT_MAX_BYTES_PER_USER = 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected int maxStanzasPerUser = DEFAULT_MAX_STANZAS_PER_USER;
+
+    protected long maxBytesPerUser = DEFAULT_MAX_BYTES_PER_USER;
+
+    protected UUIDGenerator idGenerator = new JVMBuiltinUUIDGenerator();
+
+    /**
+     * @param maxStanzasPerUser maximum number of stanzas stored per bare JID. 
+     * further stanzas are rejected until the user retrieves them.
+     */
+    public void setMaxStanzasPerUser(int maxStanzasPerUser) {
+        this.maxStanzasPerUser = maxStanzasPerUser;
+    }
+
+    public int getMaxStanzasPerUser() {
+        return maxStanzasPerUser;
+    }
+
+    /**
+     * @param maxBytesPerUser maximum size of all rendered stanzas stored for a single bare JID
+     */
+    public void setMaxBytesPerUser(long maxBytesPerUser) {
+        this.maxBytesPerUser = maxBytesPerUser;
+    }
+
+    public long getMaxBytesPerUser() {
+        return maxBytesPerUser;
+    }
+
+    public boolean receive(Stanza stanza) {
+        if (!isStorable(stanza))
+            return false;
+        Entity receiver = stanza.getTo().getBareJID();
+
+        long timestamp = System.currentTimeMillis();
+        OfflineStanzaHeader header = new OfflineStanzaHeader(idGenerator.create(), stanza.getFrom(), timestamp);
+        Stanza stampedStanza = addDelay(stanza, receiver, timestamp);
+        byte[] xml = new Renderer(stampedStanza).getComplete().getBytes(UTF8);
+        return store(receiver, header, stampedStanza, xml);
+    }
+
+    /**
+     * stores the stanza for the receiver, unless this exceeds the receiver's quota. checking the quota
+     * with {@link #isWithinQuota(Entity, int, long, int)} and storing must be atomic, so that concurrent
+     * senders cannot exceed it.
+     * @param receiver bare JID
+     * @param header
+     * @param stanza the stanza, already stamped with its reception time 
+     * @param xml the rendered stanza
+     * @return TRUE if stored
+     */
+    protected abstract boolean store(Entity receiver, OfflineStanzaHeader header, Stanza stanza, byte[] xml);
+
+    /**
+     * @param storedStanzas number of stanzas already stored for the receiver
+     * @param storedBytes size of the stanzas already stored for the receiver
+     * @param additionalBytes size of the stanza to store
+     * @return TRUE, if one more stanza of the given size fits into the receiver's quota
+     */
+    protected boolean isWithinQuota(Entity receiver, int storedStanzas, long storedBytes, int additionalBytes) {
+        if (storedStanzas >= maxStanzasPerUser) {
+            logger.warn("offline quota exceeded for {}, rejecting stanza", receiver.getFullQualifiedName());
+            return false;
+        }
+        if (storedBytes + additionalBytes > maxBytesPerUser) {
+            logger.warn("offline storage size quota exceeded for {}, rejecting stanza", receiver
+                    .getFullQualifiedName());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * only messages of type 'normal' or 'chat' carrying a body are worth storing,
+     * everything else is either transient or handled elsewhere
+     */
+    @SpecCompliant(spec = "xep-0160", section = "3", status = SpecCompliant.ComplianceStatus.FINISHED, coverage = SpecCompliant.ComplianceCoverage.PARTIAL)
+    protected boolean isStorable(Stanza stanza) {
+        if (stanza == null || stanza.getTo() == null || !MessageStanza.isOfType(stanza))
+            return false;
+        MessageStanza messageStanza = (MessageStanza) XMPPCoreStanza.getWrapper(stanza);
+        MessageStanzaType type = messageStanza.getMessageType();
+        if (type != MessageStanzaType.NORMAL && type != MessageStanzaType.CHAT)
+            return false;
+        return stanza.getVerifier().subElementPresent("body");
+    }
+
+    @SpecCompliant(spec = "xep-0160", section = "3", status = SpecCompliant.ComplianceStatus.FINISHED, coverage = SpecCompliant.ComplianceCoverage.COMPLETE)
+    protected Stanza addDelay(Stanza stanza, Entity receiver, long timestamp) {
+        StanzaBuilder stanzaBuilder = StanzaBuilder.createClone(stanza, true, null);
+        stanzaBuilder.startInnerElement("delay", NamespaceURIs.URN_XMPP_DELAY);
+        stanzaBuilder.addAttribute("from", receiver.getDomain());
+        stanzaBuilder.addAttribute("stamp", DateTimeProfile.getInstance().getDateTimeInUTC(new Date(timestamp)));
+        stanzaBuilder.endInnerElement();
+        return stanzaBuilder.build();
+    }
+}
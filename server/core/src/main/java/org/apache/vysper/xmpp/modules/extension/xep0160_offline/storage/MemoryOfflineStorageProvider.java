@@ -0,0 +1,201 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineStanzaHeader;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * keeps offline stanzas on the heap. they are lost when the server is restarted.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class MemoryOfflineStorageProvider extends AbstractOfflineStorageProvider {
+
+    private static class StoredStanza {
+        OfflineStanzaHeader header;
+
+        Stanza stanza;
+
+        int size;
+
+        StoredStanza(OfflineStanzaHeader header, Stanza stanza, int size) {
+            this.header = header;
+            this.stanza = stanza;
+            this.size = size;
+        }
+    }
+
+    /**
+     * the stanzas of one receiver in order of reception, and their rendered size
+     */
+    private static class Mailbox {
+        LinkedHashMap<String, StoredStanza> entries = new LinkedHashMap<String, StoredStanza>();
+
+        long bytes = 0;
+
+        /**
+         * set when the mailbox has been emptied and taken out of the map. a sender still holding it
+         * has to look up a fresh one.
+         */
+        boolean discarded = false;
+
+        void add(StoredStanza storedStanza) {
+            entries.put(storedStanza.header.getId(), storedStanza);
+            bytes += storedStanza.size;
+        }
+
+        void remove(String id) {
+            StoredStanza removed = entries.remove(id);
+            if (removed != null)
+                bytes -= removed.size;
+        }
+
+        void removeAll() {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * bare JID -> stanzas in order of reception. each mailbox is guarded by its own monitor and is
+     * removed as soon as it becomes empty.
+     */
+    private ConcurrentMap<Entity, Mailbox> mailboxes = new ConcurrentHashMap<Entity, Mailbox>();
+
+    @Override
+    protected boolean store(Entity receiver, OfflineStanzaHeader header, Stanza stanza, byte[] xml) {
+        while (true) {
+            Mailbox mailbox = mailboxes.get(receiver);
+            if (mailbox == null) {
+                Mailbox newMailbox = new Mailbox();
+                mailbox = mailboxes.putIfAbsent(receiver, newMailbox);
+                if (mailbox == null)
+                    mailbox = newMailbox;
+            }
+            synchronized (mailbox) {
+                if (mailbox.discarded)
+                    continue;
+                if (!isWithinQuota(receiver, mailbox.entries.size(), mailbox.bytes, xml.length))
+                    return false;
+                mailbox.add(new StoredStanza(header, stanza, xml.length));
+                return true;
+            }
+        }
+    }
+
+    /**
+     * takes the mailbox out of the map if it has no stanzas left. must be called holding the
+     * mailbox's monitor.
+     */
+    private void discardIfEmpty(Entity receiver, Mailbox mailbox) {
+        if (!mailbox.entries.isEmpty())
+            return;
+        mailbox.discarded = true;
+        mailboxes.remove(receiver, mailbox);
+    }
+
+    /*package*/ boolean hasMailbox(Entity receiver) {
+        return mailboxes.containsKey(receiver.getBareJID());
+    }
+
+    public int countStanzas(Entity receiver) {
+        Mailbox mailbox = mailboxes.get(receiver.getBareJID());
+        if (mailbox == null)
+            return 0;
+        synchronized (mailbox) {
+            return mailbox.entries.size();
+        }
+    }
+
+    public List<OfflineStanzaHeader> getHeaders(Entity receiver) {
+        List<OfflineStanzaHeader> headers = new ArrayList<OfflineStanzaHeader>();
+        Mailbox mailbox = mailboxes.get(receiver.getBareJID());
+        if (mailbox == null)
+            return headers;
+        synchronized (mailbox) {
+            for (StoredStanza storedStanza : mailbox.entries.values()) {
+                headers.add(storedStanza.header);
+            }
+        }
+        return headers;
+    }
+
+    public Map<String, Stanza> getStanzas(Entity receiver, Collection<String> ids) {
+        Map<String, Stanza> stanzas = new LinkedHashMap<String, Stanza>();
+        Mailbox mailbox = mailboxes.get(receiver.getBareJID());
+        if (mailbox == null)
+            return stanzas;
+        synchronized (mailbox) {
+            for (StoredStanza storedStanza : mailbox.entries.values()) {
+                if (ids == null || ids.contains(storedStanza.header.getId())) {
+                    stanzas.put(storedStanza.header.getId(), storedStanza.stanza);
+                }
+            }
+        }
+        return stanzas;
+    }
+
+    public List<Stanza> takeAllStanzas(Entity receiver) {
+        List<Stanza> stanzas = new ArrayList<Stanza>();
+        Mailbox mailbox = mailboxes.get(receiver.getBareJID());
+        if (mailbox == null)
+            return stanzas;
+        synchronized (mailbox) {
+            for (StoredStanza storedStanza : mailbox.entries.values()) {
+                stanzas.add(storedStanza.stanza);
+            }
+            mailbox.removeAll();
+            discardIfEmpty(receiver.getBareJID(), mailbox);
+        }
+        return stanzas;
+    }
+
+    public void removeStanzas(Entity receiver, Collection<String> ids) {
+        Mailbox mailbox = mailboxes.get(receiver.getBareJID());
+        if (mailbox == null)
+            return;
+        synchronized (mailbox) {
+            for (String id : ids) {
+                mailbox.remove(id);
+            }
+            discardIfEmpty(receiver.getBareJID(), mailbox);
+        }
+    }
+
+    public void removeAllStanzas(Entity receiver) {
+        Mailbox mailbox = mailboxes.get(receiver.getBareJID());
+        if (mailbox == null)
+            return;
+        synchronized (mailbox) {
+            mailbox.removeAll();
+            discardIfEmpty(receiver.getBareJID(), mailbox);
+        }
+    }
+}
@@ -0,0 +1,660 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.mina.codec.StanzaBuilderFactory;
+import org.apache.vysper.xml.decoder.XMLElementBatchDecoder;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineStanzaHeader;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * disk-backed offline storage.
+ * <br/>
+ * receivers are distributed over a fixed number of shards by their bare JID. every shard owns a single 
+ * append-only segment file, holding store records (the rendered stanza plus its header) and removal 
+ * tombstones. the segment is replayed on startup into an in-memory index per bare JID, which maps 
+ * stanza ids to file offsets, so quota checks, counting and disco queries never touch the disk.
+ * <br/>
+ * all stanzas of one receiver are read back in a single pass and decoded by one parser run over the
+ * concatenated stanza bytes.
+ * <br/>
+ * once removed records make up more than half of a segment (and exceed the compaction threshold), 
+ * the segment is rewritten with only the live records, grouped by receiver.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class SegmentFileOfflineStorageProvider extends AbstractOfflineStorageProvider {
+
+    final Logger logger = LoggerFactory.getLogger(SegmentFileOfflineStorageProvider.class);
+
+    public static final String DEFAULT_DIRECTORY = "offline";
+
+    public static final int DEFAULT_SHARD_COUNT = 16;
+
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String SEGMENT_FILE_PREFIX = "offline-";
+
+    private static final String SEGMENT_FILE_SUFFIX = ".seg";
+
+    private static final String COMPACTION_FILE_SUFFIX = ".compact";
+
+    private static final byte RECORD_STORE = 1;
+
+    private static final byte RECORD_REMOVE = 2;
+
+    private static final byte RECORD_REMOVE_ALL = 3;
+
+    private static final String BATCH_ELEMENT = "batch";
+
+    private static final byte[] BATCH_OPENING = ("<" + BATCH_ELEMENT + " xmlns=\"" + NamespaceURIs.JABBER_CLIENT + "\">")
+            .getBytes(UTF8);
+
+    private static final byte[] BATCH_CLOSING = ("</" + BATCH_ELEMENT + ">").getBytes(UTF8);
+
+    protected File directory;
+
+    protected int shardCount;
+
+    protected long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    protected boolean syncOnWrite = false;
+
+    private Segment[] segments = null;
+
+    public SegmentFileOfflineStorageProvider() {
+        this(new File(DEFAULT_DIRECTORY));
+    }
+
+    public SegmentFileOfflineStorageProvider(File directory) {
+        this(directory, DEFAULT_SHARD_COUNT);
+    }
+
+    public SegmentFileOfflineStorageProvider(File directory, int shardCount) {
+        if (shardCount < 1)
+            throw new IllegalArgumentException("at least one shard is required");
+        this.directory = directory;
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * @param compactionThreshold minimum number of bytes occupied by removed records 
+     * before a segment is considered for compaction
+     */
+    public void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * @param syncOnWrite if TRUE, every write is forced to the disk before returning
+     */
+    public void setSyncOnWrite(boolean syncOnWrite) {
+        this.syncOnWrite = syncOnWrite;
+    }
+
+    /**
+     * releases all segment files. the provider re-opens them when used again.
+     */
+    public synchronized void close() {
+        if (segments == null)
+            return;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.close();
+            }
+        }
+        segments = null;
+    }
+
+    @Override
+    protected boolean store(Entity receiver, OfflineStanzaHeader header, Stanza stanza, byte[] xml) {
+        String key = receiver.getFullQualifiedName();
+        Segment segment = getSegment(receiver);
+        synchronized (segment) {
+            Mailbox mailbox = segment.index.get(key);
+            int storedStanzas = mailbox == null ? 0 : mailbox.entries.size();
+            long storedBytes = mailbox == null ? 0 : mailbox.bytes;
+            if (!isWithinQuota(receiver, storedStanzas, storedBytes, xml.length))
+                return false;
+            try {
+                segment.appendStore(key, header, xml);
+                return true;
+            } catch (IOException e) {
+                logger.error("failed to store offline stanza for " + key, e);
+                return false;
+            }
+        }
+    }
+
+    public int countStanzas(Entity receiver) {
+        Entity bareJID = receiver.getBareJID();
+        Segment segment = getSegment(bareJID);
+        synchronized (segment) {
+            Mailbox mailbox = segment.index.get(bareJID.getFullQualifiedName());
+            return mailbox == null ? 0 : mailbox.entries.size();
+        }
+    }
+
+    public List<OfflineStanzaHeader> getHeaders(Entity receiver) {
+        Entity bareJID = receiver.getBareJID();
+        Segment segment = getSegment(bareJID);
+        List<OfflineStanzaHeader> headers = new ArrayList<OfflineStanzaHeader>();
+        synchronized (segment) {
+            Mailbox mailbox = segment.index.get(bareJID.getFullQualifiedName());
+            if (mailbox == null)
+                return headers;
+            for (IndexEntry entry : mailbox.entries.values()) {
+                headers.add(entry.header);
+            }
+        }
+        return headers;
+    }
+
+    public Map<String, Stanza> getStanzas(Entity receiver, Collection<String> ids) {
+        Entity bareJID = receiver.getBareJID();
+        Segment segment = getSegment(bareJID);
+        List<IndexEntry> entries = new ArrayList<IndexEntry>();
+        IoBuffer batch;
+        synchronized (segment) {
+            Mailbox mailbox = segment.index.get(bareJID.getFullQualifiedName());
+            if (mailbox != null) {
+                for (IndexEntry entry : mailbox.entries.values()) {
+                    if (ids == null || ids.contains(entry.header.getId()))
+                        entries.add(entry);
+                }
+            }
+            if (entries.isEmpty())
+                return Collections.emptyMap();
+            try {
+                batch = segment.readBatch(entries);
+            } catch (IOException e) {
+                logger.error("failed to read offline stanzas for " + bareJID.getFullQualifiedName(), e);
+                return Collections.emptyMap();
+            }
+        }
+
+        List<Stanza> stanzas = decode(batch);
+        Map<String, Stanza> stanzaMap = new LinkedHashMap<String, Stanza>();
+        Iterator<IndexEntry> entryIterator = entries.iterator();
+        for (Stanza stanza : stanzas) {
+            stanzaMap.put(entryIterator.next().header.getId(), stanza);
+        }
+        return stanzaMap;
+    }
+
+    public List<Stanza> takeAllStanzas(Entity receiver) {
+        Entity bareJID = receiver.getBareJID();
+        String key = bareJID.getFullQualifiedName();
+        Segment segment = getSegment(bareJID);
+        synchronized (segment) {
+            Mailbox mailbox = segment.index.get(key);
+            if (mailbox == null || mailbox.entries.isEmpty())
+                return Collections.emptyList();
+            List<IndexEntry> entries = new ArrayList<IndexEntry>(mailbox.entries.values());
+            List<Stanza> stanzas;
+            try {
+                stanzas = decode(segment.readBatch(entries));
+            } catch (IOException e) {
+                logger.error("failed to retrieve offline stanzas for " + key, e);
+                return Collections.emptyList();
+            }
+
+            // only what could be decoded is removed, the rest stays stored
+            try {
+                if (stanzas.size() == entries.size()) {
+                    segment.appendRemoveAll(key);
+                } else {
+                    List<String> decodedIds = new ArrayList<String>(stanzas.size());
+                    for (IndexEntry entry : entries.subList(0, stanzas.size())) {
+                        decodedIds.add(entry.header.getId());
+                    }
+                    segment.appendRemove(key, decodedIds);
+                }
+            } catch (IOException e) {
+                // delivering them again later is better than losing them
+                logger.error("failed to remove retrieved offline stanzas for " + key, e);
+            }
+            return stanzas;
+        }
+    }
+
+    public void removeStanzas(Entity receiver, Collection<String> ids) {
+        Entity bareJID = receiver.getBareJID();
+        String key = bareJID.getFullQualifiedName();
+        Segment segment = getSegment(bareJID);
+        synchronized (segment) {
+            try {
+                segment.appendRemove(key, ids);
+            } catch (IOException e) {
+                logger.error("failed to remove offline stanzas for " + key, e);
+            }
+        }
+    }
+
+    public void removeAllStanzas(Entity receiver) {
+        Entity bareJID = receiver.getBareJID();
+        String key = bareJID.getFullQualifiedName();
+        Segment segment = getSegment(bareJID);
+        synchronized (segment) {
+            if (!segment.index.containsKey(key))
+                return;
+            try {
+                segment.appendRemoveAll(key);
+            } catch (IOException e) {
+                logger.error("failed to remove offline stanzas for " + key, e);
+            }
+        }
+    }
+
+    protected Segment getSegment(Entity bareJID) {
+        Segment[] segments = getSegments();
+        int hash = bareJID.getFullQualifiedName().hashCode();
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    private synchronized Segment[] getSegments() {
+        if (segments != null)
+            return segments;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("cannot create offline storage directory " + directory.getAbsolutePath());
+        }
+        Segment[] openedSegments = new Segment[shardCount];
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                openedSegments[i] = new Segment(new File(directory, SEGMENT_FILE_PREFIX + i + SEGMENT_FILE_SUFFIX));
+            }
+        } catch (IOException e) {
+            for (Segment segment : openedSegments) {
+                if (segment != null)
+                    segment.close();
+            }
+            throw new IllegalStateException("cannot open offline storage in " + directory.getAbsolutePath(), e);
+        }
+        segments = openedSegments;
+        return segments;
+    }
+
+    private List<Stanza> decode(IoBuffer batch) {
+        List<Stanza> stanzas = new ArrayList<Stanza>();
+        try {
+            XMLElementBatchDecoder.decode(batch, new StanzaBuilderFactory(), Stanza.class, stanzas);
+        } catch (Exception e) {
+            logger.error("failed to decode offline stanzas, " + stanzas.size() + " recovered", e);
+        }
+        return stanzas;
+    }
+
+    private static class IndexEntry {
+        OfflineStanzaHeader header;
+
+        long recordOffset;
+
+        int recordLength;
+
+        long xmlOffset;
+
+        int xmlLength;
+
+        IndexEntry(OfflineStanzaHeader header, long recordOffset, int recordLength, long xmlOffset, int xmlLength) {
+            this.header = header;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.xmlOffset = xmlOffset;
+            this.xmlLength = xmlLength;
+        }
+    }
+
+    private static class Mailbox {
+        LinkedHashMap<String, IndexEntry> entries = new LinkedHashMap<String, IndexEntry>();
+
+        long bytes = 0;
+
+        void add(IndexEntry entry) {
+            entries.put(entry.header.getId(), entry);
+            bytes += entry.xmlLength;
+        }
+
+        IndexEntry remove(String id) {
+            IndexEntry entry = entries.remove(id);
+            if (entry != null)
+                bytes -= entry.xmlLength;
+            return entry;
+        }
+    }
+
+    /**
+     * one shard: segment file plus index. callers must hold the segment's monitor.
+     * <br/>
+     * record layout: int length (excluding itself), byte type, UTF receiver, followed by
+     * STORE: UTF id, UTF from, long timestamp, int xml length, xml bytes
+     * REMOVE: UTF id
+     * REMOVE_ALL: nothing
+     */
+    private class Segment {
+
+        private final File file;
+
+        private RandomAccessFile randomAccessFile;
+
+        private long length = 0;
+
+        /**
+         * bytes occupied by removed stanzas and tombstones
+         */
+        private long garbage = 0;
+
+        private final Map<String, Mailbox> index = new HashMap<String, Mailbox>();
+
+        Segment(File file) throws IOException {
+            this.file = file;
+            File compactionFile = getCompactionFile();
+            if (!file.exists() && compactionFile.exists()) {
+                // crashed while replacing the segment with its compacted version
+                if (!compactionFile.renameTo(file))
+                    throw new IOException("cannot recover compacted segment " + compactionFile.getAbsolutePath());
+            }
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            load();
+        }
+
+        private File getCompactionFile() {
+            return new File(file.getPath() + COMPACTION_FILE_SUFFIX);
+        }
+
+        private void load() throws IOException {
+            long fileLength = randomAccessFile.length();
+            long position = 0;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (position + 4 <= fileLength) {
+                    int recordLength = in.readInt();
+                    if (recordLength <= 0 || position + 4 + recordLength > fileLength)
+                        break;
+                    byte[] record = new byte[recordLength];
+                    in.readFully(record);
+                    replay(record, position);
+                    position += 4 + recordLength;
+                }
+            } catch (EOFException e) {
+                // incomplete last record, handled below
+            } finally {
+                in.close();
+            }
+            if (position < fileLength) {
+                logger.warn("truncating incomplete record at the end of offline segment {}", file.getAbsolutePath());
+                randomAccessFile.setLength(position);
+            }
+            length = position;
+        }
+
+        private void replay(byte[] record, long recordOffset) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            byte type = in.readByte();
+            String receiver = in.readUTF();
+            switch (type) {
+            case RECORD_STORE:
+                String id = in.readUTF();
+                String from = in.readUTF();
+                long timestamp = in.readLong();
+                int xmlLength = in.readInt();
+                OfflineStanzaHeader header = new OfflineStanzaHeader(id, from.length() == 0 ? null : EntityImpl
+                        .parseUnchecked(from), timestamp);
+                long xmlOffset = recordOffset + 4 + record.length - xmlLength;
+                getMailbox(receiver).add(new IndexEntry(header, recordOffset, 4 + record.length, xmlOffset, xmlLength));
+                break;
+            case RECORD_REMOVE:
+                Mailbox mailbox = index.get(receiver);
+                IndexEntry removed = mailbox == null ? null : mailbox.remove(in.readUTF());
+                if (removed != null)
+                    garbage += removed.recordLength;
+                if (mailbox != null && mailbox.entries.isEmpty())
+                    index.remove(receiver);
+                garbage += 4 + record.length;
+                break;
+            case RECORD_REMOVE_ALL:
+                Mailbox removedMailbox = index.remove(receiver);
+                if (removedMailbox != null) {
+                    for (IndexEntry entry : removedMailbox.entries.values()) {
+                        garbage += entry.recordLength;
+                    }
+                }
+                garbage += 4 + record.length;
+                break;
+            default:
+                throw new IOException("unknown record type " + type + " in " + file.getAbsolutePath());
+            }
+        }
+
+        private Mailbox getMailbox(String receiver) {
+            Mailbox mailbox = index.get(receiver);
+            if (mailbox == null) {
+                mailbox = new Mailbox();
+                index.put(receiver, mailbox);
+            }
+            return mailbox;
+        }
+
+        void appendStore(String receiver, OfflineStanzaHeader header, byte[] xml) throws IOException {
+            RecordWriter recordWriter = new RecordWriter(RECORD_STORE, receiver);
+            recordWriter.out.writeUTF(header.getId());
+            recordWriter.out.writeUTF(header.getFrom() == null ? "" : header.getFrom().getFullQualifiedName());
+            recordWriter.out.writeLong(header.getTimestamp());
+            recordWriter.out.writeInt(xml.length);
+            recordWriter.out.write(xml);
+            byte[] record = recordWriter.toByteArray();
+
+            long recordOffset = append(record);
+            long xmlOffset = recordOffset + record.length - xml.length;
+            getMailbox(receiver).add(new IndexEntry(header, recordOffset, record.length, xmlOffset, xml.length));
+        }
+
+        void appendRemove(String receiver, Collection<String> ids) throws IOException {
+            Mailbox mailbox = index.get(receiver);
+            if (mailbox == null)
+                return;
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            List<String> removedIds = new ArrayList<String>();
+            for (String id : ids) {
+                if (!mailbox.entries.containsKey(id))
+                    continue;
+                RecordWriter recordWriter = new RecordWriter(RECORD_REMOVE, receiver);
+                recordWriter.out.writeUTF(id);
+                records.write(recordWriter.toByteArray());
+                removedIds.add(id);
+            }
+            if (removedIds.isEmpty())
+                return;
+
+            // write all tombstones at once, then update the index
+            append(records.toByteArray());
+            garbage += records.size();
+            for (String id : removedIds) {
+                garbage += mailbox.remove(id).recordLength;
+            }
+            if (mailbox.entries.isEmpty())
+                index.remove(receiver);
+            compactIfNeeded();
+        }
+
+        void appendRemoveAll(String receiver) throws IOException {
+            byte[] record = new RecordWriter(RECORD_REMOVE_ALL, receiver).toByteArray();
+            append(record);
+            garbage += record.length;
+            Mailbox mailbox = index.remove(receiver);
+            if (mailbox != null) {
+                for (IndexEntry entry : mailbox.entries.values()) {
+                    garbage += entry.recordLength;
+                }
+            }
+            compactIfNeeded();
+        }
+
+        /**
+         * @return offset of the first byte written
+         */
+        private long append(byte[] bytes) throws IOException {
+            long offset = length;
+            randomAccessFile.seek(offset);
+            randomAccessFile.write(bytes);
+            if (syncOnWrite)
+                randomAccessFile.getChannel().force(false);
+            length += bytes.length;
+            return offset;
+        }
+
+        /**
+         * reads the xml of all entries into one buffer, enclosed by the batch element
+         */
+        IoBuffer readBatch(Collection<IndexEntry> entries) throws IOException {
+            int size = BATCH_OPENING.length + BATCH_CLOSING.length;
+            for (IndexEntry entry : entries) {
+                size += entry.xmlLength;
+            }
+            byte[] bytes = new byte[size];
+            System.arraycopy(BATCH_OPENING, 0, bytes, 0, BATCH_OPENING.length);
+            int position = BATCH_OPENING.length;
+            for (IndexEntry entry : entries) {
+                randomAccessFile.seek(entry.xmlOffset);
+                randomAccessFile.readFully(bytes, position, entry.xmlLength);
+                position += entry.xmlLength;
+            }
+            System.arraycopy(BATCH_CLOSING, 0, bytes, position, BATCH_CLOSING.length);
+            return IoBuffer.wrap(bytes);
+        }
+
+        private void compactIfNeeded() throws IOException {
+            if (garbage < compactionThreshold || garbage * 2 < length)
+                return;
+            compact();
+        }
+
+        /**
+         * rewrites all live records into a fresh segment file, grouped by receiver
+         */
+        void compact() throws IOException {
+            File compactionFile = getCompactionFile();
+            List<IndexEntry> liveEntries = new ArrayList<IndexEntry>();
+            List<Long> newOffsets = new ArrayList<Long>();
+            long position = 0;
+
+            RandomAccessFile compacted = new RandomAccessFile(compactionFile, "rw");
+            try {
+                compacted.setLength(0);
+                for (Mailbox mailbox : index.values()) {
+                    for (IndexEntry entry : mailbox.entries.values()) {
+                        byte[] record = new byte[entry.recordLength];
+                        randomAccessFile.seek(entry.recordOffset);
+                        randomAccessFile.readFully(record);
+                        compacted.write(record);
+                        liveEntries.add(entry);
+                        newOffsets.add(position);
+                        position += record.length;
+                    }
+                }
+                compacted.getChannel().force(true);
+            } finally {
+                compacted.close();
+            }
+
+            randomAccessFile.close();
+            if (!compactionFile.renameTo(file)) {
+                // some platforms do not replace existing files on rename
+                if (!file.delete() || !compactionFile.renameTo(file)) {
+                    randomAccessFile = new RandomAccessFile(file, "rw");
+                    throw new IOException("cannot replace offline segment " + file.getAbsolutePath());
+                }
+            }
+            randomAccessFile = new RandomAccessFile(file, "rw");
+
+            for (int i = 0; i < liveEntries.size(); i++) {
+                IndexEntry entry = liveEntries.get(i);
+                long delta = newOffsets.get(i) - entry.recordOffset;
+                entry.recordOffset += delta;
+                entry.xmlOffset += delta;
+            }
+            logger.debug("compacted offline segment {} from {} to {} bytes", new Object[] { file.getName(), length,
+                    position });
+            length = position;
+            garbage = 0;
+        }
+
+        void close() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                logger.warn("failed to close offline segment " + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * serializes one record, reserving space for the length prefix
+     */
+    private static class RecordWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        RecordWriter(byte type, String receiver) throws IOException {
+            out.writeInt(0);
+            out.writeByte(type);
+            out.writeUTF(receiver);
+        }
+
+        byte[] toByteArray() throws IOException {
+            out.flush();
+            byte[] record = bytes.toByteArray();
+            int length = record.length - 4;
+            record[0] = (byte) (length >>> 24);
+            record[1] = (byte) (length >>> 16);
+            record[2] = (byte) (length >>> 8);
+            record[3] = (byte) length;
+            return record;
+        }
+    }
+}
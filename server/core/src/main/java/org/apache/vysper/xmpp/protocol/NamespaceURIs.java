@@ -42,6 +42,8 @@ public class NamespaceURIs {
 
     public static final String URN_IETF_PARAMS_XML_NS_XMPP_SESSION = "urn:ietf:params:xml:ns:xmpp-session";
 
+    public static final String URN_IETF_PARAMS_XML_NS_XMPP_FRAMING = "urn:ietf:params:xml:ns:xmpp-framing";
+
     public static final String JABBER_CLIENT = "jabber:client";
 
     public static final String JABBER_SERVER = "jabber:server";
@@ -76,6 +78,8 @@ public class NamespaceURIs {
 
     public static final String XEP0030_SERVICE_DISCOVERY_INFO = "http://jabber.org/protocol/disco#info";
 
+    public static final String XEP0013_OFFLINE = "http://jabber.org/protocol/offline";
+
     public static final String XEP0045_MUC = "http://jabber.org/protocol/muc";
 
     public static final String XEP0045_MUC_ADMIN = "http://jabber.org/protocol/muc#admin";
@@ -96,5 +100,11 @@ public class NamespaceURIs {
 
     public static final String XEP0060_PUBSUB_ERRORS = "http://jabber.org/protocol/pubsub#errors";
 
+    public static final String XEP0060_PUBSUB_NODE_CONFIG = "http://jabber.org/protocol/pubsub#node_config";
+
     public static final String XEP0124_BOSH = "http://jabber.org/protocol/httpbind";
+
+    public static final String XEP0138_COMPRESS = "http://jabber.org/protocol/compress";
+
+    public static final String XEP0138_FEATURES_COMPRESS = "http://jabber.org/features/compress";
 }
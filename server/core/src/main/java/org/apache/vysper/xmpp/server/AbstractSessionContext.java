@@ -159,6 +159,23 @@ public abstract class AbstractSessionContext implements SessionContext {
         // TODO close underlying transport (TCP socket)
     }
 
+    public boolean isTransportEncrypted() {
+        return false;
+    }
+
+    public boolean isCompressionSupported() {
+        return false;
+    }
+
+    /**
+     * this transport does not support compression, see {@link #isCompressionSupported()}. the stream
+     * continues uncompressed.
+     */
+    public void switchToCompression(CompressionMethod compression) {
+        logger.warn("stream compression is not supported by this transport, ignoring switch to {}",
+                compression.getName());
+    }
+
     public Entity getServerJID() {
         return serverEntity;
     }
@@ -20,6 +20,7 @@
 
 package org.apache.vysper.xmpp.server;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -126,6 +127,11 @@ public class DefaultServerRuntimeContext implements ServerRuntimeContext, Module
      */
     protected final Map<String, Component> componentMap = new HashMap<String, Component>();
 
+    /**
+     * all modules added, in the order they were added
+     */
+    private final List<Module> modules = new ArrayList<Module>();
+
     public DefaultServerRuntimeContext(Entity serverEntity, StanzaRelay stanzaRelay) {
         this.serverEntity = serverEntity;
         this.stanzaRelay = stanzaRelay;
@@ -303,6 +309,9 @@ public class DefaultServerRuntimeContext implements ServerRuntimeContext, Module
     protected void addModuleInternal(Module module) {
 
         logger.info("adding module... {} ({})", module.getName(), module.getVersion());
+        synchronized (modules) {
+            modules.add(module);
+        }
 
         List<ServerRuntimeContextService> serviceList = module.getServerServices();
         if (serviceList != null) {
@@ -336,6 +345,25 @@ public class DefaultServerRuntimeContext implements ServerRuntimeContext, Module
         }
     }
 
+    /**
+     * closes all modules, the last added first
+     */
+    public void close() {
+        List<Module> closing;
+        synchronized (modules) {
+            closing = new ArrayList<Module>(modules);
+            modules.clear();
+        }
+        for (int i = closing.size() - 1; i >= 0; i--) {
+            Module module = closing.get(i);
+            try {
+                module.close();
+            } catch (RuntimeException e) {
+                logger.warn("failed to close module " + module.getName(), e);
+            }
+        }
+    }
+
     public void registerComponent(Component component) {
         componentMap.put(component.getSubdomain(), component);
     }
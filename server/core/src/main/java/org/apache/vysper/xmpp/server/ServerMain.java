@@ -35,6 +35,8 @@ import org.apache.vysper.xmpp.modules.extension.xep0049_privatedata.PrivateDataM
 import org.apache.vysper.xmpp.modules.extension.xep0054_vcardtemp.VcardTempModule;
 import org.apache.vysper.xmpp.modules.extension.xep0092_software_version.SoftwareVersionModule;
 import org.apache.vysper.xmpp.modules.extension.xep0119_xmppping.XmppPingModule;
+import org.apache.vysper.xmpp.modules.extension.xep0138_stream_compression.StreamCompressionModule;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineMessageModule;
 import org.apache.vysper.xmpp.modules.extension.xep0202_entity_time.EntityTimeModule;
 
 /**
@@ -64,6 +66,7 @@ public class ServerMain {
 
         // choose the storage you want to use
         //StorageProviderRegistry providerRegistry = new JcrStorageProviderRegistry();
+        //StorageProviderRegistry providerRegistry = new JdbcStorageProviderRegistry();
         StorageProviderRegistry providerRegistry = new MemoryStorageProviderRegistry();
 
         final AccountManagement accountManagement = (AccountManagement) providerRegistry
@@ -98,6 +101,8 @@ public class ServerMain {
         server.addModule(new VcardTempModule());
         server.addModule(new XmppPingModule());
         server.addModule(new PrivateDataModule());
+        server.addModule(new OfflineMessageModule());
+        server.addModule(new StreamCompressionModule());
 
         if (listOfModules != null) {
             for (Module module : listOfModules) {
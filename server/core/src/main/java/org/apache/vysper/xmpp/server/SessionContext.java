@@ -152,6 +152,23 @@ public interface SessionContext {
      */
     void switchToTLS();
 
+    /**
+     * @return TRUE, iff the underlying transport is protected by TLS
+     */
+    boolean isTransportEncrypted();
+
+    /**
+     * @return TRUE, iff the underlying transport is able to switch to stream compression and is not yet compressed
+     */
+    boolean isCompressionSupported();
+
+    /**
+     * signals the underlying transport to compress everything written after the next stanza
+     * and to decompress everything read from now on. see XEP-0138.
+     * only to be called if {@link #isCompressionSupported()} returned TRUE.
+     */
+    void switchToCompression(CompressionMethod compression);
+
     /**
      * this method signals that from now on a new <stream:stream>... xml stream
      * begins. this is used at the very beginning of the session, then again
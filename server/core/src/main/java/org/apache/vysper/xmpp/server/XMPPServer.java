@@ -26,14 +26,20 @@ import java.util.List;
 import org.apache.vysper.storage.StorageProviderRegistry;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
 import org.apache.vysper.xmpp.authorization.AccountManagement;
+import org.apache.vysper.xmpp.authorization.HashedPasswordLookup;
+import org.apache.vysper.xmpp.authorization.Pbkdf2;
 import org.apache.vysper.xmpp.authorization.Plain;
 import org.apache.vysper.xmpp.authorization.SASLMechanism;
+import org.apache.vysper.xmpp.authorization.Scram;
+import org.apache.vysper.xmpp.authorization.UserAuthorization;
+import org.apache.vysper.xmpp.cryptography.AbstractTLSContextFactory;
 import org.apache.vysper.xmpp.cryptography.BogusTrustManagerFactory;
 import org.apache.vysper.xmpp.cryptography.FileBasedTLSContextFactory;
 import org.apache.vysper.xmpp.delivery.RecordingStanzaRelay;
 import org.apache.vysper.xmpp.delivery.StanzaRelayBroker;
 import org.apache.vysper.xmpp.delivery.inbound.DeliveringInboundStanzaRelay;
 import org.apache.vysper.xmpp.modules.Module;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineStorageProvider;
 import org.apache.vysper.xmpp.modules.roster.RosterModule;
 import org.apache.vysper.xmpp.modules.servicediscovery.ServiceDiscoveryModule;
 import org.apache.vysper.xmpp.protocol.NamespaceHandlerDictionary;
@@ -67,6 +73,10 @@ public class XMPPServer {
 
     private String tlsCertificatePassword;
 
+    private int tlsSessionCacheSize = -1;
+
+    private int tlsSessionTimeout = -1;
+
     private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
 
     public XMPPServer(String domain) {
@@ -89,16 +99,53 @@ public class XMPPServer {
         tlsCertificatePassword = password;
     }
 
+    /**
+     * tunes resumption of TLS sessions, see AbstractTLSContextFactory
+     * @param cacheSize number of cached sessions, 0 is unlimited
+     * @param timeoutSeconds time a cached session can be resumed, 0 is unlimited
+     */
+    public void setTLSSessionCache(int cacheSize, int timeoutSeconds) {
+        tlsSessionCacheSize = cacheSize;
+        tlsSessionTimeout = timeoutSeconds;
+    }
+
     public void addEndpoint(Endpoint endpoint) {
         endpoints.add(endpoint);
     }
 
+    /**
+     * SCRAM needs the salted keys, so it is only offered in front of the configured mechanisms if the
+     * user store provides them. the -PLUS variants are added if the certificate allows channel binding.
+     */
+    private List<SASLMechanism> addScramMechanisms(List<SASLMechanism> configuredMechanisms,
+            AbstractTLSContextFactory tlsContextFactory) {
+        Object userAuthorization = storageProviderRegistry.retrieve(UserAuthorization.class);
+        if (!(userAuthorization instanceof HashedPasswordLookup))
+            return configuredMechanisms;
+        for (SASLMechanism mechanism : configuredMechanisms) {
+            if (mechanism instanceof Scram)
+                return configuredMechanisms; // explicitly configured
+        }
+
+        byte[] tlsServerEndPoint = tlsCertificateFile == null ? null : tlsContextFactory.getTlsServerEndPoint();
+        List<SASLMechanism> mechanisms = new ArrayList<SASLMechanism>();
+        for (String hashAlgorithm : new String[] { Pbkdf2.SHA_256, Pbkdf2.SHA_1 }) {
+            if (tlsServerEndPoint != null)
+                mechanisms.add(new Scram(hashAlgorithm, tlsServerEndPoint));
+            mechanisms.add(new Scram(hashAlgorithm));
+        }
+        mechanisms.addAll(configuredMechanisms);
+        return mechanisms;
+    }
+
     public void start() throws Exception {
 
         BogusTrustManagerFactory bogusTrustManagerFactory = new BogusTrustManagerFactory();
         FileBasedTLSContextFactory tlsContextFactory = new FileBasedTLSContextFactory(tlsCertificateFile);
         tlsContextFactory.setPassword(tlsCertificatePassword);
         tlsContextFactory.setTrustManagerFactory(bogusTrustManagerFactory);
+        tlsContextFactory.setSessionCacheSize(tlsSessionCacheSize);
+        tlsContextFactory.setSessionTimeout(tlsSessionTimeout);
 
         List<NamespaceHandlerDictionary> dictionaries = new ArrayList<NamespaceHandlerDictionary>();
         addCoreDictionaries(dictionaries);
@@ -111,6 +158,8 @@ public class XMPPServer {
                 .retrieve(AccountManagement.class);
         DeliveringInboundStanzaRelay internalStanzaRelay = new DeliveringInboundStanzaRelay(serverEntity,
                 resourceRegistry, accountManagement);
+        internalStanzaRelay.setOfflineStanzaReceiver((OfflineStorageProvider) storageProviderRegistry
+                .retrieve(OfflineStorageProvider.class));
         RecordingStanzaRelay externalStanzaRelay = new RecordingStanzaRelay();
 
         StanzaRelayBroker stanzaRelayBroker = new StanzaRelayBroker();
@@ -118,7 +167,7 @@ public class XMPPServer {
         stanzaRelayBroker.setExternalRelay(externalStanzaRelay);
 
         ServerFeatures serverFeatures = new ServerFeatures();
-        serverFeatures.setAuthenticationMethods(saslMechanisms);
+        serverFeatures.setAuthenticationMethods(addScramMechanisms(saslMechanisms, tlsContextFactory));
 
         serverRuntimeContext = new DefaultServerRuntimeContext(serverEntity, stanzaRelayBroker, serverFeatures,
                 dictionaries, resourceRegistry);
@@ -143,6 +192,9 @@ public class XMPPServer {
         for (Endpoint endpoint : endpoints) {
             endpoint.stop();
         }
+        if (serverRuntimeContext != null) {
+            serverRuntimeContext.close();
+        }
     }
 
     public void addModule(Module module) {
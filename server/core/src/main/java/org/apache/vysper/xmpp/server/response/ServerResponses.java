@@ -24,9 +24,11 @@ import java.util.List;
 
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.authorization.SASLMechanism;
+import org.apache.vysper.xmpp.modules.ServerRuntimeContextService;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.server.SessionContext;
 import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.server.StreamCompressionService;
 import org.apache.vysper.xmpp.server.XMPPVersion;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
@@ -50,7 +52,7 @@ public class ServerResponses {
                     .getServerFeatures().getAuthenticationMethods());
         else if (sessionContext.getState() == SessionState.AUTHENTICATED) {
             sessionContext.setIsReopeningXMLStream();
-            innerFeatureStanza = getFeaturesForSession();
+            innerFeatureStanza = getFeaturesForSession(sessionContext);
         } else {
             throw new IllegalStateException("unsupported state for responding with stream opener");
         }
@@ -110,7 +112,32 @@ public class ServerResponses {
 
     public Stanza getFeaturesForSession() {
         StanzaBuilder stanzaBuilder = startFeatureStanza();
+        addSessionFeatures(stanzaBuilder);
+        return stanzaBuilder.build();
+    }
+
+    /**
+     * the session features, plus stream compression if offered to this session
+     */
+    public Stanza getFeaturesForSession(SessionContext sessionContext) {
+        StanzaBuilder stanzaBuilder = startFeatureStanza();
+
+        ServerRuntimeContextService service = sessionContext.getServerRuntimeContext()
+                .getServerRuntimeContextService(StreamCompressionService.SERVICE_NAME);
+        if (service instanceof StreamCompressionService
+                && ((StreamCompressionService) service).isOffered(sessionContext)) {
+            String method = ((StreamCompressionService) service).getMethodName();
+            stanzaBuilder.startInnerElement("compression", NamespaceURIs.XEP0138_FEATURES_COMPRESS);
+            stanzaBuilder.startInnerElement("method", NamespaceURIs.XEP0138_FEATURES_COMPRESS).addText(
+                    method).endInnerElement();
+            stanzaBuilder.endInnerElement();
+        }
 
+        addSessionFeatures(stanzaBuilder);
+        return stanzaBuilder.build();
+    }
+
+    private void addSessionFeatures(StanzaBuilder stanzaBuilder) {
         stanzaBuilder.startInnerElement("bind", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_BIND).startInnerElement(
                 "required", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_BIND).endInnerElement();
         stanzaBuilder.endInnerElement();
@@ -119,8 +146,6 @@ public class ServerResponses {
         stanzaBuilder.startInnerElement("session", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_SESSION)
                 .startInnerElement("required", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_SESSION).endInnerElement();
         stanzaBuilder.endInnerElement();
-
-        return stanzaBuilder.build();
     }
 
     protected StanzaBuilder startFeatureStanza() {
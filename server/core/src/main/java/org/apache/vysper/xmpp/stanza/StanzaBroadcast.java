@@ -0,0 +1,101 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.stanza;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.RenderedContentCache;
+import org.apache.vysper.xmpp.addressing.Entity;
+
+/**
+ * one stanza sent to many receivers, like a groupchat message sent to all occupants of a room.
+ * instead of cloning the stanza for every receiver, all copies share the inner fragments of the original
+ * stanza and only differ in their 'to' attribute. the content is also rendered only once for all copies.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class StanzaBroadcast {
+
+    private final Stanza original;
+
+    private final List<Attribute> attributes = new ArrayList<Attribute>();
+
+    private int toIndex = -1;
+
+    private final RenderedContentCache contentCache = new RenderedContentCache();
+
+    /**
+     * @param original the stanza to be broadcasted
+     * @param from the sender all copies are sent from, replacing the original 'from', if not NULL
+     */
+    public StanzaBroadcast(Stanza original, Entity from) {
+        this.original = original;
+
+        boolean fromSet = false;
+        for (Attribute attribute : original.getAttributes()) {
+            if (attribute.getNamespaceUri().length() == 0 && attribute.getName().equals("to")) {
+                toIndex = attributes.size();
+            } else if (from != null && attribute.getNamespaceUri().length() == 0
+                    && attribute.getName().equals("from")) {
+                attribute = new Attribute("from", from.getFullQualifiedName());
+                fromSet = true;
+            }
+            attributes.add(attribute);
+        }
+        if (from != null && !fromSet) {
+            attributes.add(new Attribute("from", from.getFullQualifiedName()));
+        }
+        if (toIndex == -1) {
+            toIndex = attributes.size();
+            attributes.add(null);
+        }
+    }
+
+    /**
+     * @param to the receiver
+     * @return a copy of the stanza addressed to the receiver
+     */
+    public Stanza addressTo(Entity to) {
+        List<Attribute> copyAttributes = new ArrayList<Attribute>(attributes);
+        copyAttributes.set(toIndex, new Attribute("to", to.getFullQualifiedName()));
+        return new BroadcastedStanza(original, copyAttributes, contentCache);
+    }
+
+    /**
+     * a copy of the broadcasted stanza, sharing the inner fragments and their rendering with all other copies
+     */
+    private static class BroadcastedStanza extends Stanza {
+
+        private final RenderedContentCache contentCache;
+
+        public BroadcastedStanza(Stanza original, List<Attribute> attributes, RenderedContentCache contentCache) {
+            super(original.getNamespaceURI(), original.getName(), original.getNamespacePrefix(), attributes,
+                    original.getInnerFragments(), original.getDeclaredNamespaces());
+            this.contentCache = contentCache;
+        }
+
+        @Override
+        protected RenderedContentCache getRenderedContentCache() {
+            return contentCache;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.RecordingStanzaRelay;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class CompressionFilterTestCase extends TestCase {
+
+    private static final String STANZA = "<message xmlns=\"jabber:client\" from=\"user1@vysper.org/resource\" "
+            + "to=\"user2@vysper.org/resource\" type=\"chat\"><body>hello</body></message>";
+
+    private final ZlibCompression compression = new ZlibCompression(Deflater.DEFAULT_COMPRESSION, 4);
+
+    private final DummySession session = new DummySession();
+
+    /**
+     * what went over the wire
+     */
+    private final List<IoBuffer> written = new ArrayList<IoBuffer>();
+
+    /**
+     * what arrived at the codec
+     */
+    private final List<Object> received = new ArrayList<Object>();
+
+    private final List<Object> sent = new ArrayList<Object>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        session.getFilterChain().addLast("wire", new IoFilterAdapter() {
+            @Override
+            public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest)
+                    throws Exception {
+                written.add((IoBuffer) writeRequest.getMessage());
+                nextFilter.filterWrite(session, writeRequest);
+            }
+        });
+        session.getFilterChain().addLast("compressionFilter", new CompressionFilter(compression));
+        session.getFilterChain().addLast("codec", new IoFilterAdapter() {
+            @Override
+            public void messageReceived(NextFilter nextFilter, IoSession session, Object message) throws Exception {
+                received.add(message);
+            }
+
+            @Override
+            public void messageSent(NextFilter nextFilter, IoSession session, WriteRequest writeRequest)
+                    throws Exception {
+                sent.add(writeRequest.getMessage());
+            }
+        });
+    }
+
+    private static String toString(IoBuffer buffer) throws Exception {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static byte[] toBytes(IoBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    public void testWrite() throws Exception {
+        Inflater client = new Inflater();
+        byte[] inflated = new byte[1024];
+        CompressionStatistics statistics = compression.getStatistics();
+        for (int i = 0; i < 10; i++) {
+            IoBuffer stanza = IoBuffer.wrap(STANZA.getBytes("UTF-8"));
+            session.write(stanza);
+
+            // every write can be decompressed right away
+            assertEquals(i + 1, written.size());
+            client.setInput(toBytes(written.get(i)));
+            int length = client.inflate(inflated);
+            assertEquals(STANZA, new String(inflated, 0, length, "UTF-8"));
+
+            // the codec is notified with its own buffer
+            assertSame(stanza, sent.get(i));
+        }
+
+        assertEquals(10, statistics.getStanzasWritten());
+        assertEquals(10 * STANZA.length(), statistics.getPlainBytesWritten());
+        assertTrue(statistics.toString(), statistics.getBytesSaved() > 5 * STANZA.length());
+        assertTrue(statistics.getDeflateNanosPerStanza() > 0);
+    }
+
+    public void testRead() throws Exception {
+        Deflater client = new Deflater();
+        client.setInput((STANZA + STANZA).getBytes("UTF-8"));
+        byte[] deflated = new byte[1024];
+        int length = client.deflate(deflated, 0, deflated.length, Deflater.SYNC_FLUSH);
+
+        // split in two reads
+        int half = length / 2;
+        session.getFilterChain().fireMessageReceived(IoBuffer.wrap(deflated, 0, half));
+        session.getFilterChain().fireMessageReceived(IoBuffer.wrap(deflated, half, length - half));
+
+        StringBuilder plain = new StringBuilder();
+        for (Object message : received) {
+            plain.append(toString((IoBuffer) message));
+        }
+        assertEquals(STANZA + STANZA, plain.toString());
+        assertEquals(length, compression.getStatistics().getCompressedBytesRead());
+        assertEquals(2 * STANZA.length(), compression.getStatistics().getPlainBytesRead());
+    }
+
+    public void testCorruptInputClosesSession() throws Exception {
+        session.getFilterChain().fireMessageReceived(IoBuffer.wrap("<message/>".getBytes("UTF-8")));
+        assertTrue(received.isEmpty());
+        assertTrue(session.isClosing());
+    }
+
+    public void testReadAfterSessionClosed() throws Exception {
+        CompressionFilter filter = (CompressionFilter) session.getFilterChain().get("compressionFilter");
+        IoFilter.NextFilter nextFilter = session.getFilterChain().getNextFilter(filter);
+        filter.sessionClosed(nextFilter, session);
+
+        // a read racing the close is dropped, the inflater is back in the pool already
+        filter.messageReceived(nextFilter, session, IoBuffer.wrap(STANZA.getBytes("UTF-8")));
+        assertTrue(received.isEmpty());
+    }
+
+    public void testSwitchToCompression() {
+        DummySession session = new DummySession();
+        MinaBackedSessionContext sessionContext = new MinaBackedSessionContext(new DefaultServerRuntimeContext(
+                new EntityImpl(null, "vysper.org", null), new RecordingStanzaRelay()), new SessionStateHolder(),
+                session);
+        assertFalse(sessionContext.isTransportEncrypted());
+        assertTrue(sessionContext.isCompressionSupported());
+
+        sessionContext.switchToCompression(compression);
+        assertFalse(sessionContext.isCompressionSupported());
+        assertFalse(session.getFilterChain().contains(CompressionFilter.class));
+
+        // compression starts after <compressed/> is written
+        sessionContext.write(new StanzaBuilder("compressed", NamespaceURIs.XEP0138_COMPRESS).build());
+        assertTrue(session.getFilterChain().contains(CompressionFilter.class));
+        assertFalse(sessionContext.isCompressionSupported());
+    }
+
+    public void testPooling() {
+        Deflater deflater = compression.borrowDeflater();
+        compression.returnDeflater(deflater);
+        assertSame(deflater, compression.borrowDeflater());
+        assertNotSame(deflater, compression.borrowDeflater());
+
+        Inflater inflater = compression.borrowInflater();
+        compression.returnInflater(inflater);
+        assertSame(inflater, compression.borrowInflater());
+    }
+}
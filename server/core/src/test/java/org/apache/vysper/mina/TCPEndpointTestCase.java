@@ -0,0 +1,161 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.filterchain.IoFilterChain.Entry;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.transport.socket.SocketSessionConfig;
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.apache.vysper.mina.codec.XMPPProtocolCodecFactory;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.RecordingStanzaRelay;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class TCPEndpointTestCase extends TestCase {
+
+    private DefaultServerRuntimeContext serverRuntimeContext = new DefaultServerRuntimeContext(new EntityImpl(null,
+            "vysper.org", null), new RecordingStanzaRelay());
+
+    private TCPEndpoint endpoint = new TCPEndpoint();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        endpoint.setServerRuntimeContext(serverRuntimeContext);
+        endpoint.setPort(findFreePort());
+    }
+
+    private int findFreePort() throws IOException {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            return ss.getLocalPort();
+        } finally {
+            ss.close();
+        }
+    }
+
+    private List<String> getFilterNames() {
+        List<String> names = new ArrayList<String>();
+        for (Entry entry : endpoint.getFilterChainBuilder().getAll()) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+
+    public void testDefaultLayout() throws Exception {
+        endpoint.start();
+        try {
+            assertEquals("[xmppCodec, executorFilter, loggingFilter]", getFilterNames().toString());
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    public void testLayoutWithoutExecutors() throws Exception {
+        endpoint.setStanzaExecutorThreads(0);
+        endpoint.start();
+        try {
+            assertEquals("[xmppCodec, loggingFilter]", getFilterNames().toString());
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    public void testLayoutWithTLSExecutor() throws Exception {
+        endpoint.setTLSExecutorThreads(2);
+        endpoint.start();
+        try {
+            assertEquals("[tlsExecutorFilter, xmppCodec, executorFilter, loggingFilter]", getFilterNames()
+                    .toString());
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    public void testSocketOptions() throws Exception {
+        endpoint.setProcessorCount(2);
+        endpoint.setBacklog(1000);
+        endpoint.setTcpNoDelay(false);
+        endpoint.setReceiveBufferSize(32768);
+        endpoint.setMinReadBufferSize(512);
+        endpoint.setReadBufferSize(1024);
+        endpoint.start();
+        try {
+            NioSocketAcceptor acceptor = endpoint.getAcceptors().get(0);
+            assertEquals(1000, acceptor.getBacklog());
+            assertTrue(acceptor.isReuseAddress());
+            SocketSessionConfig config = acceptor.getSessionConfig();
+            assertFalse(config.isTcpNoDelay());
+            assertEquals(32768, config.getReceiveBufferSize());
+            assertEquals(512, config.getMinReadBufferSize());
+            assertEquals(1024, config.getReadBufferSize());
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    public void testSeveralPorts() throws Exception {
+        int[] ports = { findFreePort(), findFreePort() };
+        endpoint.setPorts(ports);
+        endpoint.start();
+        try {
+            assertEquals(2, endpoint.getAcceptors().size());
+            for (int port : ports) {
+                new Socket("localhost", port).close();
+            }
+        } finally {
+            endpoint.stop();
+        }
+        assertTrue(endpoint.getAcceptors().isEmpty());
+    }
+
+    public void testCompressionBehindTLSExecutor() {
+        DummySession session = new DummySession();
+        session.getFilterChain().addLast(TCPEndpoint.TLS_EXECUTOR_FILTER, new IoFilterAdapter());
+        session.getFilterChain().addLast("xmppCodec", new ProtocolCodecFilter(new XMPPProtocolCodecFactory()));
+        MinaBackedSessionContext sessionContext = new MinaBackedSessionContext(serverRuntimeContext,
+                new SessionStateHolder(), session);
+        ZlibCompression compression = new ZlibCompression(6, 2);
+
+        sessionContext.switchToCompression(compression);
+        sessionContext.write(new StanzaBuilder("compressed", NamespaceURIs.XEP0138_COMPRESS).build());
+        List<Entry> chain = session.getFilterChain().getAll();
+        assertEquals(TCPEndpoint.TLS_EXECUTOR_FILTER, chain.get(0).getName());
+        assertEquals("compressionFilter", chain.get(1).getName());
+        // <compressed/> itself went out uncompressed
+        assertFalse(session.containsAttribute(CompressionFilter.DISABLE_COMPRESSION_ONCE));
+        compression.dispose();
+    }
+}
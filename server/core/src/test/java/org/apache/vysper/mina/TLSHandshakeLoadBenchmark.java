@@ -0,0 +1,321 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.vysper.storage.StorageProviderRegistry;
+import org.apache.vysper.storage.inmemory.MemoryStorageProviderRegistry;
+import org.apache.vysper.xmpp.authorization.AccountManagement;
+import org.apache.vysper.xmpp.server.XMPPServer;
+
+/**
+ * Measures the chat latency of established sessions while other clients keep connecting, each doing a full
+ * STARTTLS handshake, SASL and resource binding. Runs the same load against TCP endpoints laid out without
+ * executors, with the stanza executor, and with the stanza and the TLS executor.
+ * Not run as part of the unit tests, start it manually from the module directory:
+ * <pre>
+ * TLSHandshakeLoadBenchmark [chatClients] [connectingClients] [messagesPerClient]
+ * </pre>
+ * A 2048 bit RSA key is generated with keytool, the bundled test certificate is too weak for current JDKs.
+ */
+public class TLSHandshakeLoadBenchmark {
+
+    private static final String DOMAIN = "vysper.org";
+
+    private static final String PASSWORD = "password1";
+
+    public static void main(String[] args) throws Exception {
+        int chatClients = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int connectingClients = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        StorageProviderRegistry providerRegistry = new MemoryStorageProviderRegistry();
+        AccountManagement accountManagement = (AccountManagement) providerRegistry.retrieve(AccountManagement.class);
+        for (int i = 0; i < chatClients; i++) {
+            accountManagement.addUser("user" + i + "@" + DOMAIN, PASSWORD);
+        }
+        for (int i = 0; i < connectingClients; i++) {
+            accountManagement.addUser("connect" + i + "@" + DOMAIN, PASSWORD);
+        }
+
+        XMPPServer server = new XMPPServer(DOMAIN);
+        server.setStorageProviderRegistry(providerRegistry);
+        server.setTLSCertificateInfo(generateKeyStore(), PASSWORD);
+        int[] ports = new int[3];
+        String[] layouts = { "I/O threads only", "stanza executor", "stanza + TLS executor" };
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = findFreePort();
+            TCPEndpoint endpoint = new TCPEndpoint();
+            endpoint.setPort(ports[i]);
+            endpoint.setStanzaExecutorThreads(i == 0 ? 0 : 16);
+            endpoint.setTLSExecutorThreads(i == 2 ? Runtime.getRuntime().availableProcessors() : 0);
+            server.addEndpoint(endpoint);
+        }
+        server.start();
+
+        for (int round = 0; round < 2; round++) { // first round warms up
+            System.out.println(round == 0 ? "warm up" : "measure");
+            for (int i = 0; i < ports.length; i++) {
+                run(layouts[i], ports[i], chatClients, connectingClients, messages);
+            }
+        }
+        server.stop();
+        System.exit(0);
+    }
+
+    private static void run(String layout, final int port, int chatClients, int connectingClients,
+            final int messages) throws Exception {
+        final List<Client> clients = new ArrayList<Client>();
+        final List<String> jids = new ArrayList<String>();
+        for (int i = 0; i < chatClients; i++) {
+            Client client = new Client(port);
+            jids.add(client.login("user" + i));
+            clients.add(client);
+        }
+
+        final AtomicBoolean chatting = new AtomicBoolean(true);
+        final AtomicInteger handshakes = new AtomicInteger();
+        final CountDownLatch connectingDone = new CountDownLatch(connectingClients);
+        for (int i = 0; i < connectingClients; i++) {
+            final String username = "connect" + i;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (chatting.get()) {
+                            Client client = new Client(port);
+                            client.login(username);
+                            client.close();
+                            handshakes.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        connectingDone.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        final long[][] latencies = new long[chatClients][messages];
+        final CountDownLatch done = new CountDownLatch(chatClients);
+        long started = System.nanoTime();
+        for (int i = 0; i < chatClients; i++) {
+            final int index = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < messages; j++) {
+                            long sent = System.nanoTime();
+                            clients.get(index).roundTrip(jids.get(index), j);
+                            latencies[index][j] = System.nanoTime() - sent;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - started;
+        chatting.set(false);
+        connectingDone.await();
+        for (Client client : clients) {
+            client.close();
+        }
+
+        long[] all = new long[chatClients * messages];
+        for (int i = 0; i < chatClients; i++) {
+            System.arraycopy(latencies[i], 0, all, i * messages, messages);
+        }
+        Arrays.sort(all);
+        System.out.println(String.format(
+                "%-22s %6d msg/s, latency p50 %6d us, p99 %6d us, p99.9 %6d us, %5d handshakes/s", layout,
+                all.length * 1000000000L / elapsed, percentile(all, 0.5), percentile(all, 0.99), percentile(all,
+                        0.999), handshakes.get() * 1000000000L / elapsed));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[(int) (sorted.length * percentile)] / 1000;
+    }
+
+    private static File generateKeyStore() throws Exception {
+        File keyStore = File.createTempFile("vysper", ".jks");
+        keyStore.delete();
+        keyStore.deleteOnExit();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-keyalg", "RSA", "-keysize", "2048",
+                "-alias", "vysper", "-dname", "CN=" + DOMAIN, "-validity", "1", "-keystore", keyStore.getPath(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD).redirectErrorStream(true).start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("keytool failed");
+        }
+        return keyStore;
+    }
+
+    private static int findFreePort() throws IOException {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            return ss.getLocalPort();
+        } finally {
+            ss.close();
+        }
+    }
+
+    private static class Client {
+
+        private static final String STREAM_HEADER = "<stream:stream xmlns='jabber:client' "
+                + "xmlns:stream='http://etherx.jabber.org/streams' to='" + DOMAIN + "' version='1.0'>";
+
+        private final Socket socket;
+
+        private Socket secured;
+
+        private InputStream in;
+
+        private OutputStream out;
+
+        private final byte[] buffer = new byte[8192];
+
+        private final StringBuilder received = new StringBuilder();
+
+        public Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(10000);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        private void send(String xml) throws IOException {
+            out.write(xml.getBytes("UTF-8"));
+            out.flush();
+        }
+
+        private String receive(String until) throws IOException {
+            int index;
+            while ((index = received.indexOf(until)) < 0) {
+                int read;
+                try {
+                    read = in.read(buffer);
+                } catch (SocketTimeoutException e) {
+                    throw new IOException("timeout waiting for " + until + ", received " + received);
+                }
+                if (read < 0) {
+                    throw new EOFException("connection closed, received " + received);
+                }
+                received.append(new String(buffer, 0, read, "UTF-8"));
+            }
+            String result = received.substring(0, index + until.length());
+            received.delete(0, index + until.length());
+            return result;
+        }
+
+        /**
+         * @return the full JID bound to the session
+         */
+        public String login(String username) throws Exception {
+            send(STREAM_HEADER);
+            receive("</stream:features>");
+            send("<starttls xmlns='urn:ietf:params:xml:ns:xmpp-tls'/>");
+            receive("</proceed>");
+
+            // a fresh context per connection, so every handshake is a full one
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[] { new TrustAllManager() }, null);
+            SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, "localhost",
+                    socket.getPort(), true);
+            // the SslFilter of this MINA version does not cope with the TLS 1.3 post handshake messages
+            sslSocket.setEnabledProtocols(new String[] { "TLSv1.2" });
+            sslSocket.startHandshake();
+            secured = sslSocket;
+            in = sslSocket.getInputStream();
+            out = sslSocket.getOutputStream();
+
+            send(STREAM_HEADER);
+            receive("</stream:features>");
+            String credentials = new String(Base64.encodeBase64(("\u0000" + username + "\u0000" + PASSWORD)
+                    .getBytes("UTF-8")));
+            send("<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='PLAIN'>" + credentials + "</auth>");
+            receive("</success>");
+            send(STREAM_HEADER);
+            receive("</stream:features>");
+            send("<iq type='set' id='bind' xmlns='jabber:client'>"
+                    + "<bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></iq>");
+            String bind = receive("</iq>");
+            int start = bind.indexOf("<jid>") + "<jid>".length();
+            return bind.substring(start, bind.indexOf("</jid>", start));
+        }
+
+        /**
+         * sends a message to the client itself and waits for it
+         */
+        public void roundTrip(String jid, int id) throws IOException {
+            send("<message type='chat' to='" + jid + "' id='m" + id + "'><body>ping " + id + "</body></message>");
+            while (!receive("</message>").contains("id=\"m" + id + "\"")) {
+                // skip other stanzas
+            }
+        }
+
+        public void close() throws IOException {
+            send("</stream:stream>");
+            (secured != null ? secured : socket).close();
+        }
+    }
+
+    private static class TrustAllManager implements X509TrustManager {
+
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            // the benchmark trusts the generated certificate
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            // the benchmark trusts the generated certificate
+        }
+
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
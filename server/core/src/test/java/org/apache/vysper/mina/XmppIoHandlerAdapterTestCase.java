@@ -0,0 +1,70 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.filter.ssl.SslFilter;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.RecordingStanzaRelay;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionState;
+
+/**
+ */
+public class XmppIoHandlerAdapterTestCase extends TestCase {
+
+    private XmppIoHandlerAdapter adapter = new XmppIoHandlerAdapter();
+
+    private DummySession ioSession = new DummySession();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        adapter.setServerRuntimeContext(new DefaultServerRuntimeContext(new EntityImpl(null, "vysper.org", null),
+                new RecordingStanzaRelay()));
+    }
+
+    private SessionState getState() {
+        SessionStateHolder stateHolder = (SessionStateHolder) ioSession
+                .getAttribute(XmppIoHandlerAdapter.ATTRIBUTE_VYSPER_SESSIONSTATEHOLDER);
+        return stateHolder.getState();
+    }
+
+    public void testDirectTLS() throws Exception {
+        adapter.setDirectTLS(true);
+        adapter.sessionCreated(ioSession);
+        assertEquals(SessionState.ENCRYPTION_STARTED, getState());
+        assertEquals(Boolean.TRUE, ioSession.getAttribute(SslFilter.USE_NOTIFICATION));
+
+        adapter.messageReceived(ioSession, SslFilter.SESSION_SECURED);
+        assertEquals(SessionState.ENCRYPTED, getState());
+        assertEquals(1, adapter.getHandshakeStatistics().getFullHandshakes());
+        assertEquals(0, adapter.getHandshakeStatistics().getResumedHandshakes());
+    }
+
+    public void testStartTLS() throws Exception {
+        adapter.sessionCreated(ioSession);
+        assertEquals(SessionState.INITIATED, getState());
+        assertNull(ioSession.getAttribute(SslFilter.USE_NOTIFICATION));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.apache.vysper.charset.CharsetUtil;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class StanzaWriterProtocolEncoderTestCase extends TestCase {
+
+    private static class RecordingEncoderOutput implements ProtocolEncoderOutput {
+        private List<Object> written = new ArrayList<Object>();
+
+        public void write(Object encodedMessage) {
+            written.add(encodedMessage);
+        }
+
+        public void mergeAll() {
+            // empty
+        }
+
+        public WriteFuture flush() {
+            return null;
+        }
+    }
+
+    private StanzaWriterProtocolEncoder encoder = new StanzaWriterProtocolEncoder();
+
+    private RecordingEncoderOutput output = new RecordingEncoderOutput();
+
+    private Stanza createMessage(String body) {
+        return StanzaBuilder.createMessageStanza(EntityImpl.parseUnchecked("from@vysper.org/res"),
+                EntityImpl.parseUnchecked("to@vysper.org/res"), null, body).build();
+    }
+
+    public void testEncodeSingle() throws Exception {
+        encoder.encode(new MockIoSession(), new StanzaWriteInfo(createMessage("one"), false), output);
+
+        assertEquals(1, output.written.size());
+        assertEquals(
+                "<message xmlns=\"jabber:client\" from=\"from@vysper.org/res\" to=\"to@vysper.org/res\"><body>one</body></message>",
+                ((IoBuffer) output.written.get(0)).getString(CharsetUtil.UTF8_DECODER));
+    }
+
+    public void testEncodeBatch() throws Exception {
+        List<Stanza> stanzas = Arrays.asList(createMessage("one"), createMessage("two"));
+        encoder.encode(new MockIoSession(), new StanzaBatchWriteInfo(stanzas), output);
+
+        // all stanzas end up in one buffer
+        assertEquals(1, output.written.size());
+        assertEquals(
+                "<message xmlns=\"jabber:client\" from=\"from@vysper.org/res\" to=\"to@vysper.org/res\"><body>one</body></message>"
+                        + "<message xmlns=\"jabber:client\" from=\"from@vysper.org/res\" to=\"to@vysper.org/res\"><body>two</body></message>",
+                ((IoBuffer) output.written.get(0)).getString(CharsetUtil.UTF8_DECODER));
+    }
+
+    public void testEncodeUnknown() throws Exception {
+        try {
+            encoder.encode(new MockIoSession(), "foo", output);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.vysper.storage.StorageProviderRegistry;
+import org.apache.vysper.storage.inmemory.MemoryStorageProviderRegistry;
+import org.apache.vysper.xmpp.authorization.AccountManagement;
+import org.apache.vysper.xmpp.server.XMPPServer;
+
+/**
+ * runs a XMPP session over a WebSocket connection
+ */
+public class WebSocketEndpointTestCase extends TestCase {
+
+    private XMPPServer server;
+
+    private Socket socket;
+
+    private DataInputStream in;
+
+    private OutputStream out;
+
+    private void connect(boolean insecureAllowed) throws Exception {
+        StorageProviderRegistry providerRegistry = new MemoryStorageProviderRegistry();
+        AccountManagement accountManagement = (AccountManagement) providerRegistry.retrieve(AccountManagement.class);
+        accountManagement.addUser("user1@vysper.org", "password1");
+
+        server = new XMPPServer("vysper.org");
+        server.setStorageProviderRegistry(providerRegistry);
+        server.setTLSCertificateInfo(new File("src/main/config/bogus_mina_tls.cert"), "boguspw");
+        WebSocketEndpoint endpoint = new WebSocketEndpoint();
+        int port = findFreePort();
+        endpoint.setPort(port);
+        endpoint.setInsecureAllowed(insecureAllowed);
+        server.addEndpoint(endpoint);
+        server.start();
+
+        socket = new Socket("localhost", port);
+        socket.setSoTimeout(10000);
+        in = new DataInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (server != null) {
+            socket.close();
+            server.stop();
+        }
+        super.tearDown();
+    }
+
+    private int findFreePort() throws IOException {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            return ss.getLocalPort();
+        } finally {
+            ss.close();
+        }
+    }
+
+    private String handshake(String protocol) throws IOException {
+        out.write(("GET / HTTP/1.1\r\nHost: vysper.org\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n"
+                + "Sec-WebSocket-Protocol: " + protocol + "\r\n\r\n").getBytes("US-ASCII"));
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        while (!response.toString("US-ASCII").endsWith("\r\n\r\n")) {
+            response.write(in.readUnsignedByte());
+        }
+        return response.toString("US-ASCII");
+    }
+
+    private void sendFrame(int opcode, boolean fin, String payload) throws IOException {
+        byte[] data = payload.getBytes("UTF-8");
+        byte[] mask = { 0x12, 0x34, 0x56, 0x78 };
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write((fin ? 0x80 : 0) | opcode);
+        if (data.length < 126) {
+            frame.write(0x80 | data.length);
+        } else {
+            frame.write(0x80 | 126);
+            frame.write(data.length >> 8);
+            frame.write(data.length & 0xFF);
+        }
+        frame.write(mask);
+        for (int i = 0; i < data.length; i++) {
+            frame.write(data[i] ^ mask[i & 3]);
+        }
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    private void send(String element) throws IOException {
+        sendFrame(WebSocketFilter.OPCODE_TEXT, true, element);
+    }
+
+    /**
+     * @return the opcode and the text of the next frame, separated by a colon
+     */
+    private String receiveFrame() throws IOException {
+        int b0 = in.readUnsignedByte();
+        int length = in.readUnsignedByte();
+        assertEquals("frames from the server are not masked", 0, length & 0x80);
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = (int) in.readLong();
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        assertTrue("no fragmentation", (b0 & 0x80) != 0);
+        return (b0 & 0x0F) + ":" + new String(payload, "UTF-8");
+    }
+
+    private String receive() throws IOException {
+        String frame = receiveFrame();
+        assertTrue(frame, frame.startsWith(WebSocketFilter.OPCODE_TEXT + ":"));
+        return frame.substring(2);
+    }
+
+    public void testSession() throws Exception {
+        connect(true);
+        String response = handshake("xmpp");
+        assertTrue(response.startsWith("HTTP/1.1 101 "));
+        assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+
+        // the element can be split across fragments
+        sendFrame(WebSocketFilter.OPCODE_TEXT, false, "<open xmlns='urn:ietf:params:xml:ns:xmpp-framing' ");
+        sendFrame(WebSocketFilter.OPCODE_CONTINUATION, true, "to='vysper.org' version='1.0'/>");
+        String open = receive();
+        assertTrue(open, open.startsWith("<open xmlns=\"urn:ietf:params:xml:ns:xmpp-framing\" from=\"vysper.org\""));
+        String features = receive();
+        assertTrue(features, features.startsWith("<stream:features"));
+        assertTrue(features, features.contains("<mechanism>PLAIN</mechanism>"));
+        assertFalse(features, features.contains("starttls"));
+
+        byte[] credentials = "\u0000user1\u0000password1".getBytes("UTF-8");
+        send("<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='PLAIN'>"
+                + new String(Base64.encodeBase64(credentials), "US-ASCII") + "</auth>");
+        assertTrue(receive().startsWith("<success"));
+
+        // stream restart
+        send("<open xmlns='urn:ietf:params:xml:ns:xmpp-framing' to='vysper.org' version='1.0'/>");
+        assertTrue(receive().startsWith("<open "));
+        features = receive();
+        assertTrue(features, features.contains("urn:ietf:params:xml:ns:xmpp-bind"));
+
+        send("<iq xmlns='jabber:client' type='set' id='bind1'>"
+                + "<bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></iq>");
+        String bind = receive();
+        assertTrue(bind, bind.contains("type=\"result\""));
+        assertTrue(bind, bind.contains("<jid>user1@vysper.org/"));
+
+        sendFrame(WebSocketFilter.OPCODE_PING, true, "are you there");
+        assertEquals(WebSocketFilter.OPCODE_PONG + ":are you there", receiveFrame());
+
+        send("<close xmlns='urn:ietf:params:xml:ns:xmpp-framing'/>");
+        assertEquals("<close xmlns=\"urn:ietf:params:xml:ns:xmpp-framing\"></close>", receive());
+        assertTrue(receiveFrame().startsWith(WebSocketFilter.OPCODE_CLOSE + ":"));
+    }
+
+    public void testPlainConnectionRejected() throws Exception {
+        connect(false);
+        handshake("xmpp");
+        send("<open xmlns='urn:ietf:params:xml:ns:xmpp-framing' to='vysper.org' version='1.0'/>");
+        assertTrue(receive().startsWith("<open "));
+        String error = receive();
+        assertTrue(error, error.contains("policy-violation"));
+        assertFalse(error, error.contains("mechanism"));
+    }
+
+    public void testXmppSubprotocolRequired() throws Exception {
+        connect(true);
+        String response = handshake("chat");
+        assertTrue(response.startsWith("HTTP/1.1 400 "));
+        assertEquals(-1, in.read());
+    }
+
+    public void testUnmaskedFrameClosesConnection() throws Exception {
+        connect(true);
+        handshake("xmpp");
+        out.write(new byte[] { (byte) 0x81, 0x02, '<', '/' });
+        out.flush();
+        assertTrue(receiveFrame().startsWith(WebSocketFilter.OPCODE_CLOSE + ":"));
+        assertEquals(-1, in.read());
+    }
+}
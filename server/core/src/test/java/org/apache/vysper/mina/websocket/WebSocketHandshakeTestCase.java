@@ -0,0 +1,74 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.mina.websocket;
+
+import junit.framework.TestCase;
+
+/**
+ */
+public class WebSocketHandshakeTestCase extends TestCase {
+
+    private static final String REQUEST = "GET /xmpp-websocket HTTP/1.1\r\n" + "Host: vysper.org\r\n"
+            + "Upgrade: websocket\r\n" + "Connection: keep-alive, Upgrade\r\n"
+            + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" + "Origin: http://vysper.org\r\n";
+
+    public void testComputeAccept() {
+        // the example of RFC 6455
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketHandshake.computeAccept("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    public void testAccepted() {
+        WebSocketHandshake handshake = new WebSocketHandshake(REQUEST + "Sec-WebSocket-Protocol: xmpp\r\n"
+                + "Sec-WebSocket-Version: 13");
+        assertTrue(handshake.isAccepted());
+        assertEquals("/xmpp-websocket", handshake.getPath());
+        String response = handshake.getResponse();
+        assertTrue(response.startsWith("HTTP/1.1 101 "));
+        assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+        assertTrue(response.contains("Sec-WebSocket-Protocol: xmpp\r\n"));
+        assertTrue(response.endsWith("\r\n\r\n"));
+    }
+
+    public void testXmppNotRequested() {
+        WebSocketHandshake handshake = new WebSocketHandshake(REQUEST + "Sec-WebSocket-Protocol: chat, superchat\r\n"
+                + "Sec-WebSocket-Version: 13");
+        assertTrue(handshake.isValid());
+        assertFalse(handshake.isAccepted());
+        assertTrue(handshake.getResponse().startsWith("HTTP/1.1 400 "));
+    }
+
+    public void testUnsupportedVersion() {
+        WebSocketHandshake handshake = new WebSocketHandshake(REQUEST + "Sec-WebSocket-Protocol: xmpp\r\n"
+                + "Sec-WebSocket-Version: 8");
+        assertFalse(handshake.isAccepted());
+        String response = handshake.getResponse();
+        assertTrue(response.startsWith("HTTP/1.1 426 "));
+        assertTrue(response.contains("Sec-WebSocket-Version: 13\r\n"));
+    }
+
+    public void testNotHttp() {
+        try {
+            new WebSocketHandshake("<stream:stream>");
+            fail("not a HTTP request");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
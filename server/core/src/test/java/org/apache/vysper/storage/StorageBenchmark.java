@@ -0,0 +1,146 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.vysper.storage.jcr.JcrStorage;
+import org.apache.vysper.storage.jcr.JcrStorageProviderRegistry;
+import org.apache.vysper.storage.jdbc.JdbcStorage;
+import org.apache.vysper.storage.jdbc.JdbcStorageProviderRegistry;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.authorization.AccountManagement;
+import org.apache.vysper.xmpp.authorization.UserAuthorization;
+import org.apache.vysper.xmpp.modules.roster.AskSubscriptionType;
+import org.apache.vysper.xmpp.modules.roster.Roster;
+import org.apache.vysper.xmpp.modules.roster.RosterItem;
+import org.apache.vysper.xmpp.modules.roster.SubscriptionType;
+import org.apache.vysper.xmpp.modules.roster.persistence.RosterManager;
+
+/**
+ * compares the JCR and the JDBC storage backends for account and roster heavy workloads.
+ * not run as part of the unit tests, start it manually:
+ * <pre>
+ * StorageBenchmark [users] [contactsPerUser]
+ * </pre>
+ */
+public class StorageBenchmark {
+
+    private final int users;
+
+    private final int contactsPerUser;
+
+    public StorageBenchmark(int users, int contactsPerUser) {
+        this.users = users;
+        this.contactsPerUser = contactsPerUser;
+    }
+
+    public void run(String name, StorageProviderRegistry registry) throws Exception {
+        AccountManagement accountManagement = (AccountManagement) registry.retrieve(AccountManagement.class);
+        UserAuthorization userAuthorization = (UserAuthorization) registry.retrieve(UserAuthorization.class);
+        RosterManager rosterManager = (RosterManager) registry.retrieve(RosterManager.class);
+
+        // warm up, e.g. schema creation and repository startup
+        accountManagement.addUser("warmup@vysper.org", "password");
+
+        long start = System.nanoTime();
+        for (int u = 0; u < users; u++) {
+            accountManagement.addUser(user(u).getFullQualifiedName(), "password" + u);
+        }
+        report(name, "create accounts", users, start);
+
+        start = System.nanoTime();
+        for (int u = 0; u < users; u++) {
+            if (!userAuthorization.verifyCredentials(user(u), "password" + u, null)) {
+                throw new IllegalStateException("verification failed for " + user(u));
+            }
+        }
+        report(name, "verify credentials", users, start);
+
+        start = System.nanoTime();
+        for (int u = 0; u < users; u++) {
+            for (int c = 0; c < contactsPerUser; c++) {
+                rosterManager.addContact(user(u), new RosterItem(contact(c), "contact " + c, SubscriptionType.BOTH,
+                        AskSubscriptionType.NOT_SET));
+            }
+        }
+        report(name, "add contacts", users * contactsPerUser, start);
+
+        start = System.nanoTime();
+        int loaded = 0;
+        for (int u = 0; u < users; u++) {
+            Roster roster = rosterManager.retrieve(user(u));
+            for (RosterItem item : roster) {
+                if (item != null)
+                    loaded++;
+            }
+        }
+        report(name, "load rosters", users, start);
+        if (loaded != users * contactsPerUser) {
+            throw new IllegalStateException("expected " + users * contactsPerUser + " contacts, loaded " + loaded);
+        }
+    }
+
+    private Entity user(int u) {
+        return EntityImpl.parseUnchecked("user" + u + "@vysper.org");
+    }
+
+    private Entity contact(int c) {
+        return EntityImpl.parseUnchecked("contact" + c + "@vysper.org");
+    }
+
+    private void report(String backend, String operation, int count, long startNanos) {
+        double millis = (System.nanoTime() - startNanos) / 1000000.0;
+        System.out.println(String.format("%-6s %-20s %8d ops %10.1f ms %10.3f ms/op", backend, operation, count,
+                millis, millis / count));
+    }
+
+    private static File createTempDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int contactsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        StorageBenchmark benchmark = new StorageBenchmark(users, contactsPerUser);
+
+        File jdbcDirectory = createTempDirectory("benchmark-jdbc");
+        System.setProperty("derby.stream.error.file", new File(jdbcDirectory, "derby.log").getPath());
+        JdbcStorage jdbcStorage = new JdbcStorage("jdbc:derby:" + new File(jdbcDirectory, "db").getPath()
+                + ";create=true");
+        try {
+            benchmark.run("JDBC", new JdbcStorageProviderRegistry(jdbcStorage));
+        } finally {
+            jdbcStorage.shutdown();
+        }
+
+        JcrStorage jcrStorage = new JcrStorage(createTempDirectory("benchmark-jcr").getPath());
+        try {
+            benchmark.run("JCR", new JcrStorageProviderRegistry(jcrStorage));
+        } finally {
+            jcrStorage.shutdown();
+        }
+    }
+}
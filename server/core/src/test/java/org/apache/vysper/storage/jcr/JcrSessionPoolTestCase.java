@@ -0,0 +1,160 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jcr;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import junit.framework.TestCase;
+
+/**
+ */
+public class JcrSessionPoolTestCase extends TestCase {
+
+    /**
+     * records the calls on a session
+     */
+    private static class SessionState implements InvocationHandler {
+        boolean live = true;
+
+        boolean pendingChanges = false;
+
+        int refreshCount = 0;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("isLive".equals(name))
+                return live;
+            if ("hasPendingChanges".equals(name))
+                return pendingChanges;
+            if ("refresh".equals(name)) {
+                refreshCount++;
+                pendingChanges = false;
+                return null;
+            }
+            if ("logout".equals(name)) {
+                live = false;
+                return null;
+            }
+            if ("hashCode".equals(name))
+                return System.identityHashCode(proxy);
+            if ("equals".equals(name))
+                return proxy == args[0];
+            return null;
+        }
+    }
+
+    private int loginCount = 0;
+
+    private SessionState lastSessionState;
+
+    private Repository repository = (Repository) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { Repository.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (!"login".equals(method.getName()))
+                        return null;
+                    loginCount++;
+                    lastSessionState = new SessionState();
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Session.class },
+                            lastSessionState);
+                }
+            });
+
+    private Credentials credentials = new SimpleCredentials("user", "password".toCharArray());
+
+    public void testSessionIsReused() throws Exception {
+        JcrSessionPool pool = new JcrSessionPool(repository, credentials, 2, 100);
+        Session session = pool.borrowSession();
+        pool.returnSession(session);
+        assertSame(session, pool.borrowSession());
+        assertEquals(1, loginCount);
+    }
+
+    public void testConcurrentBorrowersGetDistinctSessions() throws Exception {
+        JcrSessionPool pool = new JcrSessionPool(repository, credentials, 2, 100);
+        Session session1 = pool.borrowSession();
+        Session session2 = pool.borrowSession();
+        assertNotSame(session1, session2);
+        assertEquals(2, loginCount);
+    }
+
+    public void testPoolExhausted() throws Exception {
+        JcrSessionPool pool = new JcrSessionPool(repository, credentials, 1, 50);
+        Session session = pool.borrowSession();
+        try {
+            pool.borrowSession();
+            fail("pool is exhausted");
+        } catch (JcrStorageException e) {
+            // fall through
+        }
+        pool.returnSession(session);
+        assertSame(session, pool.borrowSession());
+    }
+
+    public void testPendingChangesAreDiscardedOnReturn() throws Exception {
+        JcrSessionPool pool = new JcrSessionPool(repository, credentials, 1, 50);
+        Session session = pool.borrowSession();
+        SessionState sessionState = lastSessionState;
+        sessionState.pendingChanges = true;
+        pool.returnSession(session);
+        assertEquals(1, sessionState.refreshCount);
+        assertFalse(sessionState.pendingChanges);
+    }
+
+    public void testDeadSessionIsReplaced() throws Exception {
+        JcrSessionPool pool = new JcrSessionPool(repository, credentials, 1, 50);
+        Session session = pool.borrowSession();
+        pool.returnSession(session);
+        lastSessionState.live = false;
+        assertNotSame(session, pool.borrowSession());
+        assertEquals(2, loginCount);
+    }
+
+    public void testInvalidatedSessionIsLoggedOut() throws Exception {
+        JcrSessionPool pool = new JcrSessionPool(repository, credentials, 1, 50);
+        Session session = pool.borrowSession();
+        SessionState sessionState = lastSessionState;
+        pool.invalidateSession(session);
+        assertFalse(sessionState.live);
+        assertEquals(0, pool.getIdleCount());
+        assertNotSame(session, pool.borrowSession());
+    }
+
+    public void testClose() throws Exception {
+        JcrSessionPool pool = new JcrSessionPool(repository, credentials, 2, 50);
+        Session session = pool.borrowSession();
+        SessionState sessionState = lastSessionState;
+        pool.returnSession(session);
+        pool.close();
+        assertFalse(sessionState.live);
+        try {
+            pool.borrowSession();
+            fail("pool is closed");
+        } catch (JcrStorageException e) {
+            // fall through
+        }
+    }
+}
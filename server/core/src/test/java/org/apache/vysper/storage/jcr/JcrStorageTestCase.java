@@ -0,0 +1,148 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jcr;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.storage.jcr.roster.JcrRosterManager;
+import org.apache.vysper.storage.jcr.user.JcrUserManagement;
+import org.apache.vysper.storage.jcr.vcardtemp.JcrVcardTempPersistenceManager;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.authorization.AccountCreationException;
+import org.apache.vysper.xmpp.modules.roster.AskSubscriptionType;
+import org.apache.vysper.xmpp.modules.roster.Roster;
+import org.apache.vysper.xmpp.modules.roster.RosterItem;
+import org.apache.vysper.xmpp.modules.roster.SubscriptionType;
+
+/**
+ */
+public class JcrStorageTestCase extends TestCase {
+
+    private static final Entity USER = EntityImpl.parseUnchecked("user@vysper.org");
+
+    private File repositoryHome;
+
+    private JcrStorage jcrStorage;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        repositoryHome = File.createTempFile("jcr", "");
+        repositoryHome.delete();
+        repositoryHome.mkdirs();
+        // the repository's embedded derby would otherwise log to the working directory
+        System.setProperty("derby.stream.error.file", new File(repositoryHome, "derby.log").getPath());
+        jcrStorage = new JcrStorage(repositoryHome.getPath());
+        jcrStorage.setMaxSessions(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        jcrStorage.shutdown();
+        delete(repositoryHome);
+        super.tearDown();
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testUserManagement() throws Exception {
+        JcrUserManagement userManagement = new JcrUserManagement(jcrStorage);
+        assertFalse(userManagement.verifyAccountExists(USER));
+        userManagement.addUser(USER.getFullQualifiedName(), "secret");
+        assertTrue(userManagement.verifyAccountExists(USER));
+        assertTrue(userManagement.verifyCredentials(USER, "secret", null));
+        assertFalse(userManagement.verifyCredentials(USER, "wrong", null));
+        try {
+            userManagement.addUser(USER.getFullQualifiedName(), "other");
+            fail("account already exists");
+        } catch (AccountCreationException e) {
+            // fall through
+        }
+    }
+
+    public void testVcard() throws Exception {
+        JcrVcardTempPersistenceManager vcardManager = new JcrVcardTempPersistenceManager(jcrStorage);
+        assertTrue(vcardManager.isAvailable());
+        assertNull(vcardManager.getVcard(USER));
+        assertTrue(vcardManager.setVcard(USER, "<vCard/>"));
+        assertEquals("<vCard/>", vcardManager.getVcard(USER));
+    }
+
+    public void testConcurrentRosterUpdates() throws Exception {
+        final JcrRosterManager rosterManager = new JcrRosterManager(jcrStorage);
+        final int threadCount = 8;
+        final int contactsPerThread = 10;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < threadCount; t++) {
+            final int threadNo = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int i = 0; i < contactsPerThread; i++) {
+                            Entity contact = EntityImpl.parseUnchecked("contact" + threadNo + "-" + i + "@vysper.org");
+                            rosterManager.addContact(USER, new RosterItem(contact, "contact",
+                                    SubscriptionType.BOTH, AskSubscriptionType.NOT_SET));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        Roster roster = rosterManager.retrieve(USER);
+        int count = 0;
+        for (RosterItem item : roster) {
+            assertEquals(SubscriptionType.BOTH, item.getSubscriptionType());
+            count++;
+        }
+        assertEquals(threadCount * contactsPerThread, count);
+
+        rosterManager.removeContact(USER, EntityImpl.parseUnchecked("contact0-0@vysper.org"));
+        assertNull(rosterManager.retrieve(USER).getEntry(EntityImpl.parseUnchecked("contact0-0@vysper.org")));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.storage.jdbc;
+
+import java.io.File;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.storage.jdbc.privatedata.JdbcPrivateDataPersistenceManager;
+import org.apache.vysper.storage.jdbc.roster.JdbcRosterManager;
+import org.apache.vysper.storage.jdbc.user.JdbcUserManagement;
+import org.apache.vysper.storage.jdbc.vcardtemp.JdbcVcardTempPersistenceManager;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.authorization.AccountCreationException;
+import org.apache.vysper.xmpp.authorization.AccountManagement;
+import org.apache.vysper.xmpp.modules.roster.AskSubscriptionType;
+import org.apache.vysper.xmpp.modules.roster.Roster;
+import org.apache.vysper.xmpp.modules.roster.RosterGroup;
+import org.apache.vysper.xmpp.modules.roster.RosterItem;
+import org.apache.vysper.xmpp.modules.roster.SubscriptionType;
+import org.apache.vysper.xmpp.modules.roster.persistence.RosterManager;
+
+/**
+ */
+public class JdbcStorageTestCase extends TestCase {
+
+    private static final Entity USER = EntityImpl.parseUnchecked("user@vysper.org");
+
+    private static final Entity CONTACT = EntityImpl.parseUnchecked("contact@vysper.org");
+
+    private File databaseDirectory;
+
+    private JdbcStorage jdbcStorage;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        databaseDirectory = File.createTempFile("jdbc", "");
+        databaseDirectory.delete();
+        databaseDirectory.mkdirs();
+        System.setProperty("derby.stream.error.file", new File(databaseDirectory, "derby.log").getPath());
+        jdbcStorage = new JdbcStorage(databaseUrl(";create=true"));
+    }
+
+    private String databaseUrl(String attributes) {
+        return "jdbc:derby:" + new File(databaseDirectory, "db").getPath() + attributes;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        jdbcStorage.shutdown();
+        try {
+            DriverManager.getConnection(databaseUrl(";shutdown=true"));
+        } catch (SQLException e) {
+            // derby always signals a successful shutdown by an exception
+        }
+        delete(databaseDirectory);
+        super.tearDown();
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testRegistry() {
+        JdbcStorageProviderRegistry registry = new JdbcStorageProviderRegistry(jdbcStorage);
+        assertTrue(registry.retrieve(AccountManagement.class) instanceof JdbcUserManagement);
+        assertTrue(registry.retrieve(RosterManager.class) instanceof JdbcRosterManager);
+    }
+
+    public void testUserManagement() throws Exception {
+        JdbcUserManagement userManagement = new JdbcUserManagement(jdbcStorage);
+        assertFalse(userManagement.verifyAccountExists(USER));
+        userManagement.addUser(USER.getFullQualifiedName(), "secret");
+        assertTrue(userManagement.verifyAccountExists(USER));
+        assertTrue(userManagement.verifyAccountExists(EntityImpl.parseUnchecked("user@vysper.org/resource")));
+        assertTrue(userManagement.verifyCredentials(USER, "secret", null));
+        assertTrue(userManagement.verifyCredentials("user@vysper.org", "secret", null));
+        assertFalse(userManagement.verifyCredentials(USER, "wrong", null));
+        assertFalse(userManagement.verifyCredentials(USER, null, null));
+        try {
+            userManagement.addUser(USER.getFullQualifiedName(), "other");
+            fail("account already exists");
+        } catch (AccountCreationException e) {
+            // fall through
+        }
+        assertTrue(userManagement.verifyCredentials(USER, "secret", null));
+
+        userManagement.changePassword(USER, "changed");
+        assertFalse(userManagement.verifyCredentials(USER, "secret", null));
+        assertTrue(userManagement.verifyCredentials(USER, "changed", null));
+    }
+
+    public void testVcardAndPrivateData() throws Exception {
+        JdbcVcardTempPersistenceManager vcardManager = new JdbcVcardTempPersistenceManager(jdbcStorage);
+        assertTrue(vcardManager.isAvailable());
+        assertNull(vcardManager.getVcard(USER));
+        assertTrue(vcardManager.setVcard(USER, "<vCard/>"));
+        assertTrue(vcardManager.setVcard(USER, "<vCard><FN>User</FN></vCard>"));
+        assertEquals("<vCard><FN>User</FN></vCard>", vcardManager.getVcard(USER));
+
+        JdbcPrivateDataPersistenceManager privateDataManager = new JdbcPrivateDataPersistenceManager(jdbcStorage);
+        assertNull(privateDataManager.getPrivateData(USER, "key"));
+        assertTrue(privateDataManager.setPrivateData(USER, "key", "<a/>"));
+        assertTrue(privateDataManager.setPrivateData(USER, "other", "<b/>"));
+        assertTrue(privateDataManager.setPrivateData(USER, "key", "<c/>"));
+        assertEquals("<c/>", privateDataManager.getPrivateData(USER, "key"));
+        assertEquals("<b/>", privateDataManager.getPrivateData(USER, "other"));
+    }
+
+    public void testRoster() throws Exception {
+        JdbcRosterManager rosterManager = new JdbcRosterManager(jdbcStorage);
+        assertFalse(rosterManager.retrieve(USER).iterator().hasNext());
+
+        List<RosterGroup> groups = Arrays.asList(new RosterGroup("friends"), new RosterGroup("work"));
+        rosterManager.addContact(USER, new RosterItem(CONTACT, "Contact", SubscriptionType.TO,
+                AskSubscriptionType.ASK_SUBSCRIBE, groups));
+        RosterItem item = rosterManager.getContact(USER, CONTACT);
+        assertEquals("Contact", item.getName());
+        assertEquals(SubscriptionType.TO, item.getSubscriptionType());
+        assertEquals(AskSubscriptionType.ASK_SUBSCRIBE, item.getAskSubscriptionType());
+        assertEquals(groups, item.getGroups());
+
+        // update replaces all values and groups
+        rosterManager.addContact(USER, new RosterItem(CONTACT, "Renamed", SubscriptionType.BOTH,
+                AskSubscriptionType.NOT_SET, Arrays.asList(new RosterGroup("family"))));
+        item = rosterManager.getContact(USER, CONTACT);
+        assertEquals("Renamed", item.getName());
+        assertEquals(SubscriptionType.BOTH, item.getSubscriptionType());
+        assertEquals(AskSubscriptionType.NOT_SET, item.getAskSubscriptionType());
+        assertEquals(1, item.getGroups().size());
+        assertEquals("family", item.getGroups().get(0).getName());
+
+        rosterManager.removeContact(USER, CONTACT);
+        assertNull(rosterManager.getContact(USER, CONTACT));
+    }
+
+    public void testImportContacts() throws Exception {
+        JdbcRosterManager rosterManager = new JdbcRosterManager(jdbcStorage);
+        rosterManager.addContact(USER, new RosterItem(EntityImpl.parseUnchecked("contact0@vysper.org"),
+                SubscriptionType.NONE));
+
+        List<RosterItem> items = new ArrayList<RosterItem>();
+        for (int i = 0; i < 100; i++) {
+            items.add(new RosterItem(EntityImpl.parseUnchecked("contact" + i + "@vysper.org"), "contact " + i,
+                    SubscriptionType.BOTH, AskSubscriptionType.NOT_SET, Arrays.asList(new RosterGroup("imported"))));
+        }
+        rosterManager.importContacts(USER, items);
+
+        Roster roster = rosterManager.retrieve(USER);
+        int count = 0;
+        for (RosterItem item : roster) {
+            assertEquals(SubscriptionType.BOTH, item.getSubscriptionType());
+            assertEquals(1, item.getGroups().size());
+            count++;
+        }
+        assertEquals(100, count);
+        // other users are not affected
+        assertFalse(rosterManager.retrieve(CONTACT).iterator().hasNext());
+    }
+
+    public void testSchemaIsCreatedOnlyOnce() throws Exception {
+        new JdbcUserManagement(jdbcStorage).addUser(USER.getFullQualifiedName(), "secret");
+        jdbcStorage.shutdown();
+
+        jdbcStorage = new JdbcStorage(databaseUrl(""));
+        assertTrue(new JdbcUserManagement(jdbcStorage).verifyCredentials(USER, "secret", null));
+    }
+}
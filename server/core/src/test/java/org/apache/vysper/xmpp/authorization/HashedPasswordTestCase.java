@@ -0,0 +1,91 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.authorization;
+
+import junit.framework.TestCase;
+
+/**
+ */
+public class HashedPasswordTestCase extends TestCase {
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        return builder.toString();
+    }
+
+    public void testPbkdf2Rfc6070Vectors() throws Exception {
+        byte[] password = "password".getBytes("UTF-8");
+        byte[] salt = "salt".getBytes("UTF-8");
+        assertEquals("0c60c80f961f0e71f3a9b524af6012062fe037a6", toHex(Pbkdf2.hi(Pbkdf2.SHA_1, password, salt, 1)));
+        assertEquals("ea6c014dc72d6f8ccd1ed92ace1d41f0d8de8957", toHex(Pbkdf2.hi(Pbkdf2.SHA_1, password, salt, 2)));
+        assertEquals("4b007901b765489abead49d926f721d065a429c1", toHex(Pbkdf2.hi(Pbkdf2.SHA_1, password, salt,
+                4096)));
+    }
+
+    public void testVerify() {
+        HashedPassword hashedPassword = HashedPassword.create("secret", 64);
+        assertTrue(hashedPassword.verify("secret"));
+        assertFalse(hashedPassword.verify("Secret"));
+        assertFalse(hashedPassword.verify(""));
+        assertNotNull(hashedPassword.getKeys(Pbkdf2.SHA_1));
+        assertNotNull(hashedPassword.getKeys(Pbkdf2.SHA_256));
+    }
+
+    public void testEncodeDecode() {
+        HashedPassword hashedPassword = HashedPassword.create("secret", 64);
+        String encoded = hashedPassword.encode();
+        assertTrue(HashedPassword.isEncoded(encoded));
+        assertFalse(encoded.contains("secret"));
+
+        HashedPassword decoded = HashedPassword.decode(encoded);
+        assertEquals(64, decoded.getIterations());
+        assertTrue(java.util.Arrays.equals(hashedPassword.getSalt(), decoded.getSalt()));
+        assertTrue(java.util.Arrays.equals(hashedPassword.getKeys(Pbkdf2.SHA_1).getStoredKey(), decoded.getKeys(
+                Pbkdf2.SHA_1).getStoredKey()));
+        assertEquals(encoded, decoded.encode());
+        assertTrue(decoded.verify("secret"));
+    }
+
+    public void testSaltDiffers() {
+        assertFalse(HashedPassword.create("secret", 64).encode().equals(HashedPassword.create("secret", 64).encode()));
+    }
+
+    public void testSingleAlgorithm() {
+        HashedPassword hashedPassword = HashedPassword.create("secret", new byte[] { 1, 2, 3 }, 16, Pbkdf2.SHA_1);
+        assertNull(hashedPassword.getKeys(Pbkdf2.SHA_256));
+        assertTrue(HashedPassword.decode(hashedPassword.encode()).verify("secret"));
+    }
+
+    public void testMatches() {
+        String encoded = HashedPassword.create("secret", 64).encode();
+        assertTrue(HashedPassword.matches(encoded, "secret"));
+        assertFalse(HashedPassword.matches(encoded, "wrong"));
+        assertFalse(HashedPassword.matches(null, "secret"));
+        assertFalse(HashedPassword.matches(encoded, null));
+        // legacy cleartext storage
+        assertTrue(HashedPassword.matches("secret", "secret"));
+        assertFalse(HashedPassword.matches("secret", "wrong"));
+        // broken encoding
+        assertFalse(HashedPassword.matches(HashedPassword.PREFIX + "garbage", "secret"));
+    }
+}
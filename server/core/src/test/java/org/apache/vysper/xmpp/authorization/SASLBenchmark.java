@@ -0,0 +1,161 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.authorization;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.vysper.storage.OpenStorageProviderRegistry;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.server.TestSessionContext;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ * measures the server side cost of a login with PLAIN, with and without the verification cache,
+ * and with a full SCRAM exchange. the client side of SCRAM, including its PBKDF2 run, is computed
+ * upfront and not part of the measurement.
+ * not run as part of the unit tests, start it manually:
+ * <pre>
+ * SASLBenchmark [logins] [iterations]
+ * </pre>
+ */
+public class SASLBenchmark {
+
+    private static final String USER = "user007";
+
+    private static final String PASSWORD = "pass007";
+
+    private final int logins;
+
+    private final SimpleUserAuthorization users = new SimpleUserAuthorization();
+
+    private final VerificationCache verificationCache = new VerificationCache();
+
+    private final SessionStateHolder sessionStateHolder = new SessionStateHolder();
+
+    private final TestSessionContext sessionContext = new TestSessionContext(sessionStateHolder);
+
+    public SASLBenchmark(int logins, int iterations) {
+        this.logins = logins;
+        users.setHashIterations(iterations);
+        users.setVerificationCache(verificationCache);
+        users.addUser(USER + "@test", PASSWORD);
+
+        OpenStorageProviderRegistry providerRegistry = new OpenStorageProviderRegistry();
+        providerRegistry.add(users);
+        ((DefaultServerRuntimeContext) sessionContext.getServerRuntimeContext())
+                .setStorageProviderRegistry(providerRegistry);
+        List<SASLMechanism> methods = new ArrayList<SASLMechanism>();
+        methods.add(new Plain());
+        methods.add(new Scram(Pbkdf2.SHA_1));
+        methods.add(new Scram(Pbkdf2.SHA_256));
+        sessionContext.getServerRuntimeContext().getServerFeatures().setAuthenticationMethods(methods);
+    }
+
+    public void runPlain(boolean cached) {
+        Plain plain = new Plain();
+        String payload = encode("\0" + USER + "\0" + PASSWORD);
+        long start = System.nanoTime();
+        for (int i = 0; i < logins; i++) {
+            if (!cached)
+                verificationCache.clear();
+            sessionStateHolder.setState(SessionState.ENCRYPTED);
+            Stanza response = plain.started(sessionContext, sessionStateHolder, auth("PLAIN", payload));
+            check(response, "success");
+        }
+        report("PLAIN" + (cached ? " (cached)" : " (uncached)"), start);
+    }
+
+    public void runScram(String hashAlgorithm) {
+        Scram scram = new Scram(hashAlgorithm);
+        String clientFirstBare = "n=" + USER + ",r=fyko+d2lbbFgONRv9qkxdawL";
+        HashedPassword hashedPassword = users.retrieveHashedPassword(new EntityImpl(USER, "test", null));
+        byte[] saltedPassword = Pbkdf2.hi(hashAlgorithm, HashedPassword.toUTF8(PASSWORD), hashedPassword.getSalt(),
+                hashedPassword.getIterations());
+        byte[] clientKey = Pbkdf2.hmac(hashAlgorithm, saltedPassword, HashedPassword.toUTF8("Client Key"));
+        byte[] storedKey = Pbkdf2.hash(hashAlgorithm, clientKey);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < logins; i++) {
+            sessionStateHolder.setState(SessionState.ENCRYPTED);
+            Stanza challenge = scram.started(sessionContext, sessionStateHolder, auth(scram.getName(),
+                    encode("n,," + clientFirstBare)));
+            check(challenge, "challenge");
+            String serverFirst = decode(challenge);
+
+            // the client's part of the final message, without the key derivation
+            String withoutProof = "c=biws,r=" + serverFirst.substring(2, serverFirst.indexOf(','));
+            String authMessage = clientFirstBare + "," + serverFirst + "," + withoutProof;
+            byte[] proof = Pbkdf2.xor(clientKey, Pbkdf2.hmac(hashAlgorithm, storedKey, HashedPassword
+                    .toUTF8(authMessage)));
+
+            StanzaBuilder response = new StanzaBuilder("response", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_SASL);
+            response.addText(encode(withoutProof + ",p=" + new String(Base64.encodeBase64(proof))));
+            check(scram.responded(sessionContext, sessionStateHolder, response.build()), "success");
+        }
+        report(scram.getName(), start);
+    }
+
+    private Stanza auth(String mechanism, String payload) {
+        StanzaBuilder stanzaBuilder = new StanzaBuilder("auth", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_SASL);
+        stanzaBuilder.addAttribute("mechanism", mechanism);
+        stanzaBuilder.addText(payload);
+        return stanzaBuilder.build();
+    }
+
+    private void check(Stanza response, String expected) {
+        if (!expected.equals(response.getName()))
+            throw new IllegalStateException("expected " + expected + ", but got " + response.getName());
+    }
+
+    private void report(String name, long start) {
+        long micros = (System.nanoTime() - start) / 1000;
+        System.out.println(String.format("%-20s %6d logins in %8d ms, %8.1f us/login", name, logins, micros / 1000,
+                (double) micros / logins));
+    }
+
+    private static String encode(String message) {
+        return new String(Base64.encodeBase64(HashedPassword.toUTF8(message)));
+    }
+
+    private static String decode(Stanza stanza) {
+        return new String(Base64.decodeBase64(stanza.getInnerTexts().get(0).getText().getBytes()));
+    }
+
+    public static void main(String[] args) {
+        int logins = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : HashedPassword.DEFAULT_ITERATIONS;
+
+        SASLBenchmark benchmark = new SASLBenchmark(logins, iterations);
+        for (int round = 0; round < 2; round++) { // first round warms up
+            System.out.println(round == 0 ? "warm up" : "measure");
+            benchmark.runPlain(false);
+            benchmark.runPlain(true);
+            benchmark.runScram(Pbkdf2.SHA_1);
+            benchmark.runScram(Pbkdf2.SHA_256);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.authorization;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+
+/**
+ */
+public class UserAuthorizationCacheTestCase extends TestCase {
+
+    private static final Entity USER = EntityImpl.parseUnchecked("user@vysper.org");
+
+    /**
+     * counts storage accesses
+     */
+    private static class CountingUserAuthorization extends SimpleUserAuthorization {
+        int retrieveCount = 0;
+
+        @Override
+        protected String retrieveStoredPassword(Entity bareJid) {
+            retrieveCount++;
+            return super.retrieveStoredPassword(bareJid);
+        }
+    }
+
+    private CountingUserAuthorization userAuthorization;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        userAuthorization = new CountingUserAuthorization();
+        userAuthorization.setHashIterations(16);
+        userAuthorization.addUser("user@vysper.org", "secret");
+    }
+
+    public void testPasswordIsNotStoredInCleartext() {
+        String stored = userAuthorization.retrieveStoredPassword(USER);
+        assertTrue(HashedPassword.isEncoded(stored));
+        assertFalse(stored.contains("secret"));
+    }
+
+    public void testSuccessfulVerificationIsCached() {
+        assertTrue(userAuthorization.verifyCredentials(USER, "secret", null));
+        assertEquals(1, userAuthorization.retrieveCount);
+        assertTrue(userAuthorization.verifyCredentials("user@vysper.org", "secret", null));
+        assertTrue(userAuthorization.verifyCredentials(EntityImpl.parseUnchecked("user@vysper.org/res"), "secret",
+                null));
+        assertEquals(1, userAuthorization.retrieveCount);
+    }
+
+    public void testFailedVerificationIsNotCached() {
+        assertFalse(userAuthorization.verifyCredentials(USER, "wrong", null));
+        assertFalse(userAuthorization.verifyCredentials(USER, "wrong", null));
+        assertEquals(2, userAuthorization.retrieveCount);
+        assertTrue(userAuthorization.verifyCredentials(USER, "secret", null));
+        // a different password must never be taken from the cache
+        assertFalse(userAuthorization.verifyCredentials(USER, "wrong", null));
+    }
+
+    public void testChangePasswordInvalidatesCache() throws Exception {
+        assertTrue(userAuthorization.verifyCredentials(USER, "secret", null));
+        userAuthorization.changePassword(USER, "newsecret");
+        assertFalse(userAuthorization.verifyCredentials(USER, "secret", null));
+        assertTrue(userAuthorization.verifyCredentials(USER, "newsecret", null));
+    }
+
+    public void testChangePasswordOfUnknownAccount() {
+        try {
+            userAuthorization.changePassword(EntityImpl.parseUnchecked("unknown@vysper.org"), "secret");
+            fail("account does not exist");
+        } catch (AccountCreationException e) {
+            // fall through
+        }
+    }
+
+    public void testCacheIsBounded() {
+        VerificationCache cache = new VerificationCache(2, 60000);
+        cache.put("a", "pa", cache.getGeneration());
+        cache.put("b", "pb", cache.getGeneration());
+        assertTrue(cache.isVerified("a", "pa")); // a is now most recently used
+        cache.put("c", "pc", cache.getGeneration());
+        assertEquals(2, cache.size());
+        assertTrue(cache.isVerified("a", "pa"));
+        assertFalse(cache.isVerified("b", "pb"));
+        assertTrue(cache.isVerified("c", "pc"));
+    }
+
+    public void testCacheEntriesExpire() throws Exception {
+        VerificationCache cache = new VerificationCache(2, 0);
+        cache.put("a", "pa", cache.getGeneration());
+        Thread.sleep(5);
+        assertFalse(cache.isVerified("a", "pa"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testStalePutIsIgnored() {
+        VerificationCache cache = new VerificationCache();
+        long generation = cache.getGeneration();
+        cache.invalidate("a"); // password changed while verifying against the old one
+        cache.put("a", "old", generation);
+        assertFalse(cache.isVerified("a", "old"));
+    }
+}
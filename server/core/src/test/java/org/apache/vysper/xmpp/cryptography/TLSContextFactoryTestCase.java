@@ -0,0 +1,55 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.cryptography;
+
+import java.io.File;
+
+import javax.net.ssl.SSLSessionContext;
+
+import junit.framework.TestCase;
+
+/**
+ */
+public class TLSContextFactoryTestCase extends TestCase {
+
+    private FileBasedTLSContextFactory createFactory() {
+        FileBasedTLSContextFactory factory = new FileBasedTLSContextFactory(new File(
+                "src/main/config/bogus_mina_tls.cert"));
+        factory.setPassword("boguspw");
+        factory.setTrustManagerFactory(new BogusTrustManagerFactory());
+        return factory;
+    }
+
+    public void testSessionCache() throws Exception {
+        FileBasedTLSContextFactory factory = createFactory();
+        factory.setSessionCacheSize(1234);
+        factory.setSessionTimeout(600);
+
+        SSLSessionContext sessionContext = factory.getSSLContext().getServerSessionContext();
+        assertEquals(1234, sessionContext.getSessionCacheSize());
+        assertEquals(600, sessionContext.getSessionTimeout());
+        assertSame(factory.getSSLContext(), factory.getSSLContext());
+    }
+
+    public void testJDKDefaults() throws Exception {
+        SSLSessionContext sessionContext = createFactory().getSSLContext().getServerSessionContext();
+        assertTrue(sessionContext.getSessionTimeout() > 0);
+    }
+}
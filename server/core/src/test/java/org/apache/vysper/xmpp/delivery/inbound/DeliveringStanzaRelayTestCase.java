@@ -29,9 +29,11 @@ import org.apache.vysper.xmpp.authorization.AccountCreationException;
 import org.apache.vysper.xmpp.authorization.AccountManagement;
 import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
 import org.apache.vysper.xmpp.delivery.failure.IgnoreFailureStrategy;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.storage.MemoryOfflineStorageProvider;
 import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.server.TestSessionContext;
+import org.apache.vysper.xmpp.stanza.MessageStanzaType;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
 import org.apache.vysper.xmpp.state.resourcebinding.BindException;
@@ -55,6 +57,10 @@ public class DeliveringStanzaRelayTestCase extends TestCase {
         public boolean verifyAccountExists(Entity jid) {
             return true;
         }
+
+        public void changePassword(Entity jid, String password) throws AccountCreationException {
+            ; // empty
+        }
     }
 
     @Override
@@ -107,6 +113,26 @@ public class DeliveringStanzaRelayTestCase extends TestCase {
         }
     }
 
+    public void testRelayToOfflineUserIsStored() throws Exception {
+        DefaultServerRuntimeContext serverRuntimeContext = new DefaultServerRuntimeContext(null, null);
+        stanzaRelay.setServerRuntimeContext(serverRuntimeContext);
+        MemoryOfflineStorageProvider offlineStorageProvider = new MemoryOfflineStorageProvider();
+        stanzaRelay.setOfflineStanzaReceiver(offlineStorageProvider);
+
+        EntityImpl fromEntity = EntityImpl.parse("userFrom@vysper.org");
+        EntityImpl toEntity = EntityImpl.parse("userTo@vysper.org");
+        Stanza stanza = StanzaBuilder.createMessageStanza(fromEntity, toEntity, MessageStanzaType.CHAT, "en", "Hello")
+                .build();
+
+        stanzaRelay.relay(toEntity, stanza, new IgnoreFailureStrategy());
+        for (int i = 0; i < 100 && offlineStorageProvider.countStanzas(toEntity) == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("stanza stored for the offline user", 1, offlineStorageProvider.countStanzas(toEntity));
+        Stanza storedStanza = offlineStorageProvider.takeAllStanzas(toEntity).get(0);
+        assertEquals("Hello", storedStanza.getSingleInnerElementsNamed("body").getSingleInnerText().getText());
+    }
+
     public void testRelayToTwoRecepients_DeliverToALL() throws EntityFormatException, XMLSemanticError,
             DeliveryException, BindException {
         DefaultServerRuntimeContext serverRuntimeContext = new DefaultServerRuntimeContext(null, null);
@@ -0,0 +1,292 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.core.sasl.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.vysper.storage.OpenStorageProviderRegistry;
+import org.apache.vysper.xmpp.authorization.Pbkdf2;
+import org.apache.vysper.xmpp.authorization.SASLMechanism;
+import org.apache.vysper.xmpp.authorization.Scram;
+import org.apache.vysper.xmpp.authorization.SimpleUserAuthorization;
+import org.apache.vysper.xmpp.modules.core.sasl.AuthorizationRetriesCounter;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.server.TestSessionContext;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class AuthHandlerScramMechanismTestCase extends TestCase {
+
+    private static final byte[] CHANNEL_BINDING_DATA = "certificate-hash".getBytes();
+
+    private TestSessionContext sessionContext;
+
+    private SessionStateHolder sessionStateHolder = new SessionStateHolder();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        sessionContext = new TestSessionContext(sessionStateHolder);
+        sessionContext.setSessionState(SessionState.ENCRYPTED);
+
+        List<SASLMechanism> methods = new ArrayList<SASLMechanism>();
+        methods.add(new Scram(Pbkdf2.SHA_256));
+        methods.add(new Scram(Pbkdf2.SHA_1));
+
+        sessionContext.getServerRuntimeContext().getServerFeatures().setAuthenticationMethods(methods);
+        SimpleUserAuthorization users = new SimpleUserAuthorization();
+        users.setHashIterations(64);
+        users.addUser("user007@test", "pass007");
+        OpenStorageProviderRegistry providerRegistry = new OpenStorageProviderRegistry();
+        providerRegistry.add(users);
+        ((DefaultServerRuntimeContext) sessionContext.getServerRuntimeContext())
+                .setStorageProviderRegistry(providerRegistry);
+    }
+
+    public void testScramSha1() throws Exception {
+        ScramClient client = new ScramClient(Pbkdf2.SHA_1, "n,,", "user007", "pass007");
+        Stanza response = authenticate(client);
+
+        assertTrue(response.getVerifier().nameEquals("success"));
+        assertTrue(client.verifyServerFinal(decode(response)));
+        assertEquals(SessionState.AUTHENTICATED, sessionStateHolder.getState());
+        assertEquals("user007@test", sessionContext.getInitiatingEntity().getFullQualifiedName());
+        assertNull(sessionContext.getAttribute(AuthorizationRetriesCounter.SESSION_ATTRIBUTE_ABORTION_COUNTER));
+        assertNull(sessionContext.getAttribute(AbstractSASLHandler.SESSION_ATTRIBUTE_MECHANISM_IN_PROGRESS));
+    }
+
+    public void testScramSha256() throws Exception {
+        ScramClient client = new ScramClient(Pbkdf2.SHA_256, "n,a=user007@test,", "user007@test", "pass007");
+        Stanza response = authenticate(client);
+
+        assertTrue(response.getVerifier().nameEquals("success"));
+        assertTrue(client.verifyServerFinal(decode(response)));
+        assertEquals(SessionState.AUTHENTICATED, sessionStateHolder.getState());
+    }
+
+    public void testWrongPassword() throws Exception {
+        Stanza response = authenticate(new ScramClient(Pbkdf2.SHA_256, "n,,", "user007", "wrong"));
+
+        assertTrue(response.getVerifier().nameEquals("failure"));
+        assertEquals(SessionState.ENCRYPTED, sessionStateHolder.getState());
+        assertEquals(2, AuthorizationRetriesCounter.getFromSession(sessionContext).getTriesLeft());
+        assertNull(sessionContext.getAttribute(AbstractSASLHandler.SESSION_ATTRIBUTE_MECHANISM_IN_PROGRESS));
+    }
+
+    public void testUnknownUserIsChallengedLikeKnownUser() throws Exception {
+        ScramClient client = new ScramClient(Pbkdf2.SHA_256, "n,,", "user008", "pass007");
+        Stanza challenge = start(client);
+        assertTrue(challenge.getVerifier().nameEquals("challenge"));
+
+        // same parameters for repeated attempts
+        String serverFirst = decode(challenge);
+        String saltAndIterations = serverFirst.substring(serverFirst.indexOf(",s="));
+        challenge = start(new ScramClient(Pbkdf2.SHA_256, "n,,", "user008", "pass007"));
+        assertTrue(decode(challenge).endsWith(saltAndIterations));
+
+        Stanza response = respond(client.clientFinal(decode(challenge)));
+        assertTrue(response.getVerifier().nameEquals("failure"));
+        assertEquals(SessionState.ENCRYPTED, sessionStateHolder.getState());
+    }
+
+    public void testTamperedNonce() throws Exception {
+        ScramClient client = new ScramClient(Pbkdf2.SHA_1, "n,,", "user007", "pass007");
+        String serverFirst = decode(start(client));
+        String tampered = serverFirst.replaceFirst("r=", "r=x");
+
+        Stanza response = respond(client.clientFinal(tampered));
+        assertTrue(response.getVerifier().nameEquals("failure"));
+        assertEquals(SessionState.ENCRYPTED, sessionStateHolder.getState());
+    }
+
+    public void testAuthzidOfOtherUser() throws Exception {
+        Stanza response = start(new ScramClient(Pbkdf2.SHA_1, "n,a=user008@test,", "user007", "pass007"));
+        assertTrue(response.getVerifier().nameEquals("failure"));
+        assertNull(sessionContext.getAttribute(AbstractSASLHandler.SESSION_ATTRIBUTE_MECHANISM_IN_PROGRESS));
+    }
+
+    public void testChannelBinding() throws Exception {
+        offerChannelBinding();
+
+        ScramClient client = new ScramClient(Pbkdf2.SHA_256, "p=tls-server-end-point,,", "user007", "pass007");
+        client.channelBindingData = CHANNEL_BINDING_DATA;
+        Stanza response = authenticate(client);
+
+        assertTrue(response.getVerifier().nameEquals("success"));
+        assertTrue(client.verifyServerFinal(decode(response)));
+    }
+
+    public void testChannelBindingMismatch() throws Exception {
+        offerChannelBinding();
+
+        ScramClient client = new ScramClient(Pbkdf2.SHA_256, "p=tls-server-end-point,,", "user007", "pass007");
+        client.channelBindingData = "other-certificate".getBytes();
+        Stanza response = authenticate(client);
+
+        assertTrue(response.getVerifier().nameEquals("failure"));
+        assertEquals(SessionState.ENCRYPTED, sessionStateHolder.getState());
+    }
+
+    public void testChannelBindingRequiresTLS() throws Exception {
+        offerChannelBinding();
+        sessionContext.setTransportEncrypted(false);
+
+        ScramClient client = new ScramClient(Pbkdf2.SHA_256, "p=tls-server-end-point,,", "user007", "pass007");
+        client.channelBindingData = CHANNEL_BINDING_DATA;
+        Stanza response = start(client);
+
+        assertTrue(response.getVerifier().nameEquals("failure"));
+        assertNull(sessionContext.getAttribute(AbstractSASLHandler.SESSION_ATTRIBUTE_MECHANISM_IN_PROGRESS));
+    }
+
+    public void testDowngradeDetected() throws Exception {
+        Stanza response = start(new ScramClient(Pbkdf2.SHA_256, "y,,", "user007", "pass007"));
+        assertTrue(response.getVerifier().nameEquals("challenge")); // no -PLUS offered, 'y' is fine
+
+        offerChannelBinding();
+        response = start(new ScramClient(Pbkdf2.SHA_256, "y,,", "user007", "pass007"));
+        assertTrue(response.getVerifier().nameEquals("failure"));
+    }
+
+    public void testResponseWithoutAuth() throws Exception {
+        Stanza response = respond("c=biws,r=abc,p=dGVzdA==");
+        assertTrue(response.getVerifier().nameEquals("failure"));
+        assertEquals(2, AuthorizationRetriesCounter.getFromSession(sessionContext).getTriesLeft());
+    }
+
+    private void offerChannelBinding() {
+        // adds to the configured mechanisms, binding to the certificate of the TLS connection
+        sessionContext.setTransportEncrypted(true);
+        List<SASLMechanism> plus = new ArrayList<SASLMechanism>();
+        plus.add(new Scram(Pbkdf2.SHA_256, CHANNEL_BINDING_DATA));
+        sessionContext.getServerRuntimeContext().getServerFeatures().setAuthenticationMethods(plus);
+    }
+
+    private Stanza authenticate(ScramClient client) throws Exception {
+        Stanza challenge = start(client);
+        assertTrue(challenge.getVerifier().nameEquals("challenge"));
+        return respond(client.clientFinal(decode(challenge)));
+    }
+
+    private Stanza start(ScramClient client) throws Exception {
+        StanzaBuilder stanzaBuilder = new StanzaBuilder("auth", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_SASL);
+        stanzaBuilder.addAttribute("mechanism", client.mechanism);
+        stanzaBuilder.addText(encode(client.clientFirst()));
+        return new AuthHandler().execute(stanzaBuilder.build(), sessionContext.getServerRuntimeContext(), true,
+                sessionContext, sessionStateHolder).getResponseStanza();
+    }
+
+    private Stanza respond(String message) throws Exception {
+        StanzaBuilder stanzaBuilder = new StanzaBuilder("response", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_SASL);
+        stanzaBuilder.addText(encode(message));
+        return new ResponseHandler().execute(stanzaBuilder.build(), sessionContext.getServerRuntimeContext(), true,
+                sessionContext, sessionStateHolder).getResponseStanza();
+    }
+
+    private static String encode(String message) throws Exception {
+        return new String(Base64.encodeBase64(message.getBytes("UTF-8")), "US-ASCII");
+    }
+
+    private static String decode(Stanza stanza) throws Exception {
+        return new String(Base64.decodeBase64(stanza.getInnerTexts().get(0).getText().getBytes("US-ASCII")),
+                "UTF-8");
+    }
+
+    /**
+     * minimal client side of the exchange
+     */
+    private static class ScramClient {
+        final String hashAlgorithm;
+
+        final String mechanism;
+
+        final String gs2Header;
+
+        final String username;
+
+        final String password;
+
+        final String clientNonce = "fyko+d2lbbFgONRv9qkxdawL";
+
+        byte[] channelBindingData = new byte[0];
+
+        String authMessage;
+
+        byte[] saltedPassword;
+
+        ScramClient(String hashAlgorithm, String gs2Header, String username, String password) {
+            this.hashAlgorithm = hashAlgorithm;
+            this.mechanism = "SCRAM-" + hashAlgorithm + (gs2Header.startsWith("p=") ? "-PLUS" : "");
+            this.gs2Header = gs2Header;
+            this.username = username;
+            this.password = password;
+        }
+
+        String clientFirst() {
+            return gs2Header + clientFirstBare();
+        }
+
+        String clientFirstBare() {
+            return "n=" + username + ",r=" + clientNonce;
+        }
+
+        String clientFinal(String serverFirst) throws Exception {
+            String nonce = null;
+            byte[] salt = null;
+            int iterations = 0;
+            for (String attribute : serverFirst.split(",")) {
+                if (attribute.startsWith("r="))
+                    nonce = attribute.substring(2);
+                else if (attribute.startsWith("s="))
+                    salt = Base64.decodeBase64(attribute.substring(2).getBytes("US-ASCII"));
+                else if (attribute.startsWith("i="))
+                    iterations = Integer.parseInt(attribute.substring(2));
+            }
+            byte[] gs2 = gs2Header.getBytes("UTF-8");
+            byte[] channelBinding = new byte[gs2.length + channelBindingData.length];
+            System.arraycopy(gs2, 0, channelBinding, 0, gs2.length);
+            System.arraycopy(channelBindingData, 0, channelBinding, gs2.length, channelBindingData.length);
+
+            String withoutProof = "c=" + new String(Base64.encodeBase64(channelBinding), "US-ASCII") + ",r=" + nonce;
+            authMessage = clientFirstBare() + "," + serverFirst + "," + withoutProof;
+            saltedPassword = Pbkdf2.hi(hashAlgorithm, password.getBytes("UTF-8"), salt, iterations);
+            byte[] clientKey = Pbkdf2.hmac(hashAlgorithm, saltedPassword, "Client Key".getBytes("UTF-8"));
+            byte[] storedKey = Pbkdf2.hash(hashAlgorithm, clientKey);
+            byte[] clientSignature = Pbkdf2.hmac(hashAlgorithm, storedKey, authMessage.getBytes("UTF-8"));
+            byte[] proof = Pbkdf2.xor(clientKey, clientSignature);
+            return withoutProof + ",p=" + new String(Base64.encodeBase64(proof), "US-ASCII");
+        }
+
+        boolean verifyServerFinal(String serverFinal) throws Exception {
+            byte[] serverKey = Pbkdf2.hmac(hashAlgorithm, saltedPassword, "Server Key".getBytes("UTF-8"));
+            byte[] serverSignature = Pbkdf2.hmac(hashAlgorithm, serverKey, authMessage.getBytes("UTF-8"));
+            return serverFinal.equals("v=" + new String(Base64.encodeBase64(serverSignature), "US-ASCII"));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0138_stream_compression;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.mina.ZlibCompression;
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.ResponseStanzaContainer;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.server.TestSessionContext;
+import org.apache.vysper.xmpp.server.response.ServerResponses;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class CompressHandlerTestCase extends TestCase {
+
+    private SessionStateHolder sessionStateHolder = new SessionStateHolder();
+
+    private TestSessionContext sessionContext;
+
+    private StreamCompressionModule module;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        sessionContext = new TestSessionContext(sessionStateHolder);
+        sessionContext.setSessionState(SessionState.AUTHENTICATED);
+        sessionContext.setCompressionSupported(true);
+        sessionContext.setTransportEncrypted(true);
+        module = new StreamCompressionModule();
+    }
+
+    private Stanza compress(String method) {
+        module.initialize(sessionContext.getServerRuntimeContext());
+        Stanza stanza = new StanzaBuilder("compress", NamespaceURIs.XEP0138_COMPRESS).startInnerElement("method",
+                NamespaceURIs.XEP0138_COMPRESS).addText(method).endInnerElement().build();
+        CompressHandler handler = new CompressHandler(module);
+        assertTrue(handler.verify(stanza));
+        ResponseStanzaContainer response = handler.execute(stanza, sessionContext.getServerRuntimeContext(), false,
+                sessionContext, sessionStateHolder);
+        return response.getResponseStanza();
+    }
+
+    private void assertFailure(String condition, Stanza response) {
+        assertEquals("failure", response.getName());
+        assertEquals(condition, response.getFirstInnerElement().getName());
+        assertNull(sessionContext.getSwitchedToCompression());
+    }
+
+    public void testCompress() {
+        Stanza response = compress("zlib");
+        assertEquals("compressed", response.getName());
+        assertEquals(NamespaceURIs.XEP0138_COMPRESS, response.getNamespaceURI());
+        assertSame(module.getCompression(), sessionContext.getSwitchedToCompression());
+
+        // already compressed
+        assertFalse(module.isOffered(sessionContext));
+    }
+
+    public void testUnsupportedMethod() {
+        assertFailure("unsupported-method", compress("lzw"));
+    }
+
+    public void testNotBeforeTLS() {
+        sessionContext.setTransportEncrypted(false);
+        assertFailure("setup-failed", compress("zlib"));
+
+        module.setCompressBeforeTLS(true);
+        assertEquals("compressed", compress("zlib").getName());
+    }
+
+    public void testTransportWithoutCompression() {
+        sessionContext.setCompressionSupported(false);
+        assertFailure("setup-failed", compress("zlib"));
+    }
+
+    public void testFeatures() {
+        ServerResponses serverResponses = new ServerResponses();
+        String withoutModule = new Renderer(serverResponses.getFeaturesForSession(sessionContext)).getComplete();
+        assertFalse(withoutModule.contains("compression"));
+
+        sessionContext.getServerRuntimeContext().registerServerRuntimeContextService(module);
+        String features = new Renderer(serverResponses.getFeaturesForSession(sessionContext)).getComplete();
+        assertTrue(features, features.contains("<compression xmlns=\"http://jabber.org/features/compress\">"
+                + "<method>zlib</method></compression>"));
+        assertTrue(features, features.contains("<bind"));
+
+        sessionContext.setTransportEncrypted(false);
+        features = new Renderer(serverResponses.getFeaturesForSession(sessionContext)).getComplete();
+        assertFalse(features.contains("compression"));
+    }
+
+    public void testInvalidLevel() {
+        try {
+            new ZlibCompression(10, 1);
+            fail("level out of range");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.InfoRequest;
+import org.apache.vysper.xmpp.modules.servicediscovery.management.Item;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.server.TestSessionContext;
+import org.apache.vysper.xmpp.stanza.MessageStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.writer.BatchStanzaWriter;
+import org.apache.vysper.xmpp.writer.StanzaWriter;
+
+/**
+ */
+public class OfflineMessageDeliveryTestCase extends TestCase {
+
+    private static final Entity SENDER = EntityImpl.parseUnchecked("romeo@vysper.org/balcony");
+
+    private static final Entity CLIENT = EntityImpl.parseUnchecked("juliet@vysper.org");
+
+    private TestSessionContext sessionContext;
+
+    private ServerRuntimeContext serverRuntimeContext;
+
+    private OfflineStorageProvider offlineStorageProvider;
+
+    private static class RecordingBatchWriter implements BatchStanzaWriter {
+
+        private List<List<Stanza>> batches = new ArrayList<List<Stanza>>();
+
+        public void writeBatch(List<Stanza> stanzas) {
+            batches.add(stanzas);
+        }
+
+        public void write(Stanza stanza) {
+            fail("stanza written outside of a batch");
+        }
+
+        public void close() {
+            // empty
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        SessionStateHolder sessionStateHolder = new SessionStateHolder();
+        sessionStateHolder.setState(SessionState.AUTHENTICATED);
+        sessionContext = new TestSessionContext(sessionStateHolder);
+        sessionContext.setInitiatingEntity(CLIENT);
+        serverRuntimeContext = sessionContext.getServerRuntimeContext();
+
+        offlineStorageProvider = (OfflineStorageProvider) serverRuntimeContext
+                .getStorageProvider(OfflineStorageProvider.class);
+        offlineStorageProvider.receive(createMessage("one"));
+        offlineStorageProvider.receive(createMessage("two"));
+    }
+
+    private Stanza createMessage(String body) {
+        return StanzaBuilder.createMessageStanza(SENDER, CLIENT, MessageStanzaType.CHAT, null, body).build();
+    }
+
+    public void testDeliverStoredStanzas() throws Exception {
+        assertEquals(2, OfflineMessageDelivery.deliverStoredStanzas(serverRuntimeContext, sessionContext, CLIENT));
+
+        Stanza first = sessionContext.getNextRecordedResponse();
+        assertEquals("one", first.getSingleInnerElementsNamed("body").getSingleInnerText().getText());
+        assertNotNull(first.getSingleInnerElementsNamed("delay", NamespaceURIs.URN_XMPP_DELAY));
+        Stanza second = sessionContext.getNextRecordedResponse();
+        assertEquals("two", second.getSingleInnerElementsNamed("body").getSingleInnerText().getText());
+        assertNull(sessionContext.getNextRecordedResponse());
+
+        assertEquals(0, offlineStorageProvider.countStanzas(CLIENT));
+        assertEquals(0, OfflineMessageDelivery.deliverStoredStanzas(serverRuntimeContext, sessionContext, CLIENT));
+    }
+
+    public void testDeliverAsOneBatch() {
+        final RecordingBatchWriter batchWriter = new RecordingBatchWriter();
+        TestSessionContext batchSessionContext = new TestSessionContext(serverRuntimeContext, new SessionStateHolder()) {
+            @Override
+            public StanzaWriter getResponseWriter() {
+                return batchWriter;
+            }
+        };
+
+        assertEquals(2, OfflineMessageDelivery.deliverStoredStanzas(serverRuntimeContext, batchSessionContext, CLIENT));
+        assertEquals(1, batchWriter.batches.size());
+        assertEquals(2, batchWriter.batches.get(0).size());
+    }
+
+    public void testFlexibleRetrievalSessionIsNotFlushed() {
+        sessionContext.putAttribute(OfflineMessageDelivery.SESSION_ATTRIBUTE_FLEXIBLE_RETRIEVAL, Boolean.TRUE);
+
+        assertEquals(0, OfflineMessageDelivery.deliverStoredStanzas(serverRuntimeContext, sessionContext, CLIENT));
+        assertNull(sessionContext.getNextRecordedResponse());
+        assertEquals(2, offlineStorageProvider.countStanzas(CLIENT));
+    }
+
+    public void testDiscoItemsMarkFlexibleRetrieval() throws Exception {
+        Entity boundClient = new EntityImpl(CLIENT, sessionContext.bindResource());
+        OfflineMessageModule module = new OfflineMessageModule();
+        module.initialize(serverRuntimeContext);
+
+        List<Item> items = module.getItemsFor(new InfoRequest(boundClient, sessionContext.getServerJID(),
+                NamespaceURIs.XEP0013_OFFLINE, "id1"));
+        assertEquals(2, items.size());
+        assertEquals(Boolean.TRUE, sessionContext
+                .getAttribute(OfflineMessageDelivery.SESSION_ATTRIBUTE_FLEXIBLE_RETRIEVAL));
+
+        // the messages are left to the retrieval protocol
+        assertEquals(0, OfflineMessageDelivery.deliverStoredStanzas(serverRuntimeContext, sessionContext, CLIENT));
+        assertEquals(2, offlineStorageProvider.countStanzas(CLIENT));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.ResponseStanzaContainer;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.server.TestSessionContext;
+import org.apache.vysper.xmpp.stanza.IQStanzaType;
+import org.apache.vysper.xmpp.stanza.MessageStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class OfflineMessageIQHandlerTestCase extends TestCase {
+
+    private static final String IQ_ID = "id1";
+
+    private static final Entity SENDER = EntityImpl.parseUnchecked("romeo@vysper.org/balcony");
+
+    private TestSessionContext sessionContext;
+
+    protected Entity client;
+
+    protected Entity boundClient;
+
+    protected Entity server;
+
+    protected OfflineStorageProvider offlineStorageProvider;
+
+    protected OfflineMessageIQHandler handler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        client = EntityImpl.parse("juliet@vysper.org");
+
+        SessionStateHolder sessionStateHolder = new SessionStateHolder();
+        sessionStateHolder.setState(SessionState.AUTHENTICATED);
+        sessionContext = new TestSessionContext(sessionStateHolder);
+        sessionContext.setInitiatingEntity(client);
+
+        boundClient = new EntityImpl(client, sessionContext.bindResource());
+        server = sessionContext.getServerJID();
+
+        offlineStorageProvider = (OfflineStorageProvider) sessionContext.getServerRuntimeContext()
+                .getStorageProvider(OfflineStorageProvider.class);
+        offlineStorageProvider.receive(createMessage("one"));
+        offlineStorageProvider.receive(createMessage("two"));
+
+        handler = new OfflineMessageIQHandler();
+        handler.setOfflineStorageProvider(offlineStorageProvider);
+    }
+
+    private Stanza createMessage(String body) {
+        return StanzaBuilder.createMessageStanza(SENDER, client, MessageStanzaType.CHAT, null, body).build();
+    }
+
+    private String firstNode() {
+        return offlineStorageProvider.getHeaders(client).get(0).getId();
+    }
+
+    private Stanza execute(IQStanzaType type, String element, String node, String action) {
+        StanzaBuilder stanzaBuilder = StanzaBuilder.createIQStanza(boundClient, server, type, IQ_ID);
+        stanzaBuilder.startInnerElement("offline", NamespaceURIs.XEP0013_OFFLINE);
+        if (element != null) {
+            stanzaBuilder.startInnerElement(element, NamespaceURIs.XEP0013_OFFLINE).endInnerElement();
+        }
+        if (node != null) {
+            stanzaBuilder.startInnerElement("item", NamespaceURIs.XEP0013_OFFLINE).addAttribute("action", action)
+                    .addAttribute("node", node).endInnerElement();
+        }
+        stanzaBuilder.endInnerElement();
+
+        ResponseStanzaContainer resp = handler.execute(stanzaBuilder.build(), sessionContext
+                .getServerRuntimeContext(), true, sessionContext, null);
+        assertTrue(resp.hasResponse());
+        return resp.getResponseStanza();
+    }
+
+    private void assertError(String condition, Stanza response) throws Exception {
+        assertEquals("error", response.getAttributeValue("type"));
+        XMLElement error = response.getSingleInnerElementsNamed("error");
+        assertEquals(condition, error.getFirstInnerElement().getName());
+    }
+
+    public void testView() throws Exception {
+        String node = firstNode();
+        Stanza response = execute(IQStanzaType.GET, null, node, "view");
+        assertEquals("result", response.getAttributeValue("type"));
+        assertEquals(IQ_ID, response.getAttributeValue("id"));
+
+        Stanza message = sessionContext.getNextRecordedResponse();
+        assertNotNull(message);
+        assertEquals("one", message.getSingleInnerElementsNamed("body").getSingleInnerText().getText());
+        XMLElement item = message.getSingleInnerElementsNamed("offline").getSingleInnerElementsNamed("item");
+        assertEquals(node, item.getAttributeValue("node"));
+        assertNull(sessionContext.getNextRecordedResponse());
+
+        // viewing does not remove
+        assertEquals(2, offlineStorageProvider.countStanzas(client));
+        assertEquals(Boolean.TRUE, sessionContext
+                .getAttribute(OfflineMessageDelivery.SESSION_ATTRIBUTE_FLEXIBLE_RETRIEVAL));
+    }
+
+    public void testViewUnknownItem() throws Exception {
+        Stanza response = execute(IQStanzaType.GET, null, "unknown-node", "view");
+        assertError("item-not-found", response);
+        assertNull(sessionContext.getNextRecordedResponse());
+    }
+
+    public void testViewWithoutItems() throws Exception {
+        Stanza response = execute(IQStanzaType.GET, null, null, null);
+        assertError("bad-request", response);
+    }
+
+    public void testFetch() throws Exception {
+        Stanza response = execute(IQStanzaType.GET, "fetch", null, null);
+        assertEquals("result", response.getAttributeValue("type"));
+
+        assertNotNull(sessionContext.getNextRecordedResponse());
+        assertNotNull(sessionContext.getNextRecordedResponse());
+        assertNull(sessionContext.getNextRecordedResponse());
+        assertEquals(2, offlineStorageProvider.countStanzas(client));
+    }
+
+    public void testRemove() throws Exception {
+        String node = firstNode();
+        Stanza response = execute(IQStanzaType.SET, null, node, "remove");
+        assertEquals("result", response.getAttributeValue("type"));
+
+        List<OfflineStanzaHeader> headers = offlineStorageProvider.getHeaders(client);
+        assertEquals(1, headers.size());
+        assertFalse(node.equals(headers.get(0).getId()));
+        assertEquals(Boolean.TRUE, sessionContext
+                .getAttribute(OfflineMessageDelivery.SESSION_ATTRIBUTE_FLEXIBLE_RETRIEVAL));
+    }
+
+    public void testRemoveWithoutItems() throws Exception {
+        Stanza response = execute(IQStanzaType.SET, null, null, null);
+        assertError("bad-request", response);
+        assertEquals(2, offlineStorageProvider.countStanzas(client));
+    }
+
+    public void testPurge() throws Exception {
+        Stanza response = execute(IQStanzaType.SET, "purge", null, null);
+        assertEquals("result", response.getAttributeValue("type"));
+        assertEquals(0, offlineStorageProvider.countStanzas(client));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline.storage;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineStanzaHeader;
+import org.apache.vysper.xmpp.stanza.MessageStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class MemoryOfflineStorageProviderTestCase extends TestCase {
+
+    private static final Entity FROM = EntityImpl.parseUnchecked("romeo@vysper.org/balcony");
+
+    private static final Entity TO = EntityImpl.parseUnchecked("juliet@vysper.org");
+
+    private MemoryOfflineStorageProvider provider = new MemoryOfflineStorageProvider();
+
+    private Stanza createMessage(String body) {
+        return StanzaBuilder.createMessageStanza(FROM, TO, MessageStanzaType.CHAT, null, body).build();
+    }
+
+    public void testStoreAndTakeAll() throws Exception {
+        assertTrue(provider.receive(createMessage("one")));
+        assertTrue(provider.receive(createMessage("two")));
+        assertEquals(2, provider.countStanzas(TO));
+
+        List<Stanza> stanzas = provider.takeAllStanzas(TO);
+        assertEquals(2, stanzas.size());
+        assertEquals("one", stanzas.get(0).getSingleInnerElementsNamed("body").getSingleInnerText().getText());
+        assertEquals(0, provider.countStanzas(TO));
+    }
+
+    public void testEmptyMailboxIsDropped() {
+        assertFalse(provider.hasMailbox(TO));
+        provider.receive(createMessage("one"));
+        provider.receive(createMessage("two"));
+        assertTrue(provider.hasMailbox(TO));
+
+        List<OfflineStanzaHeader> headers = provider.getHeaders(TO);
+        provider.removeStanzas(TO, Arrays.asList(headers.get(0).getId()));
+        assertTrue(provider.hasMailbox(TO));
+        provider.removeStanzas(TO, Arrays.asList(headers.get(1).getId()));
+        assertFalse(provider.hasMailbox(TO));
+
+        provider.receive(createMessage("three"));
+        provider.takeAllStanzas(TO);
+        assertFalse(provider.hasMailbox(TO));
+
+        // a new mailbox is created after the old one was dropped
+        assertTrue(provider.receive(createMessage("four")));
+        assertEquals(1, provider.countStanzas(TO));
+        provider.removeAllStanzas(TO);
+        assertFalse(provider.hasMailbox(TO));
+    }
+
+    public void testQuota() {
+        provider.setMaxStanzasPerUser(2);
+        assertTrue(provider.receive(createMessage("one")));
+        assertTrue(provider.receive(createMessage("two")));
+        assertFalse(provider.receive(createMessage("three")));
+        assertEquals(2, provider.countStanzas(TO));
+    }
+
+    public void testSizeQuota() {
+        provider.setMaxBytesPerUser(1000);
+        String large = new String(new char[300]).replace('\0', 'x');
+        assertTrue(provider.receive(createMessage(large)));
+        assertFalse(provider.receive(createMessage(large)));
+        assertEquals(1, provider.countStanzas(TO));
+
+        // removing stanzas frees their share of the quota
+        List<OfflineStanzaHeader> headers = provider.getHeaders(TO);
+        provider.removeStanzas(TO, Arrays.asList(headers.get(0).getId()));
+        assertTrue(provider.receive(createMessage(large)));
+    }
+
+    public void testQuotaWithConcurrentSenders() throws Exception {
+        provider.setMaxStanzasPerUser(100);
+        Thread[] senders = new Thread[8];
+        for (int i = 0; i < senders.length; i++) {
+            senders[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 50; j++) {
+                        provider.receive(createMessage("message " + j));
+                    }
+                }
+            };
+            senders[i].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        assertEquals(100, provider.countStanzas(TO));
+    }
+}
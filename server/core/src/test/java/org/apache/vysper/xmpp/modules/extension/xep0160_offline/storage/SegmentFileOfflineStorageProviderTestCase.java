@@ -0,0 +1,255 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0160_offline.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0160_offline.OfflineStanzaHeader;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.stanza.MessageStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class SegmentFileOfflineStorageProviderTestCase extends TestCase {
+
+    private static final Entity FROM = EntityImpl.parseUnchecked("romeo@vysper.org/balcony");
+
+    private static final Entity TO = EntityImpl.parseUnchecked("juliet@vysper.org");
+
+    private File directory;
+
+    private SegmentFileOfflineStorageProvider provider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("offline", "");
+        directory.delete();
+        provider = new SegmentFileOfflineStorageProvider(directory, 4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        provider.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    private Stanza createMessage(Entity to, MessageStanzaType type, String body) {
+        return StanzaBuilder.createMessageStanza(FROM, to, type, null, body).build();
+    }
+
+    public void testStoreAndTakeAll() throws Exception {
+        assertTrue(provider.receive(createMessage(TO, MessageStanzaType.CHAT, "one")));
+        assertTrue(provider.receive(createMessage(TO, MessageStanzaType.NORMAL, "two & <three>")));
+        assertEquals(2, provider.countStanzas(TO));
+
+        List<Stanza> stanzas = provider.takeAllStanzas(TO);
+        assertEquals(2, stanzas.size());
+        assertEquals("one", stanzas.get(0).getSingleInnerElementsNamed("body").getSingleInnerText().getText());
+        assertEquals("two & <three>", stanzas.get(1).getSingleInnerElementsNamed("body").getSingleInnerText()
+                .getText());
+        assertEquals(FROM, stanzas.get(0).getFrom());
+        assertNotNull(stanzas.get(0).getSingleInnerElementsNamed("delay", NamespaceURIs.URN_XMPP_DELAY));
+
+        assertEquals(0, provider.countStanzas(TO));
+        assertTrue(provider.takeAllStanzas(TO).isEmpty());
+    }
+
+    public void testNotStorable() {
+        assertFalse(provider.receive(createMessage(TO, MessageStanzaType.GROUPCHAT, "groupchat")));
+        assertFalse(provider.receive(createMessage(TO, MessageStanzaType.HEADLINE, "headline")));
+        assertFalse(provider.receive(createMessage(TO, MessageStanzaType.CHAT, null)));
+        assertFalse(provider.receive(StanzaBuilder.createPresenceStanza(FROM, TO, null, null, null, null).build()));
+        assertEquals(0, provider.countStanzas(TO));
+    }
+
+    public void testReceiverIsBareJID() {
+        assertTrue(provider.receive(createMessage(EntityImpl.parseUnchecked("juliet@vysper.org/chamber"),
+                MessageStanzaType.CHAT, "one")));
+        assertEquals(1, provider.countStanzas(TO));
+        assertEquals(1, provider.countStanzas(EntityImpl.parseUnchecked("juliet@vysper.org/other")));
+    }
+
+    public void testQuota() {
+        provider.setMaxStanzasPerUser(2);
+        assertTrue(provider.receive(createMessage(TO, MessageStanzaType.CHAT, "one")));
+        assertTrue(provider.receive(createMessage(TO, MessageStanzaType.CHAT, "two")));
+        assertFalse(provider.receive(createMessage(TO, MessageStanzaType.CHAT, "three")));
+        assertEquals(2, provider.countStanzas(TO));
+
+        provider.setMaxStanzasPerUser(100);
+        provider.setMaxBytesPerUser(500);
+        assertFalse(provider.receive(createMessage(TO, MessageStanzaType.CHAT, new String(new char[500]).replace(
+                '\0', 'x'))));
+    }
+
+    public void testQuotaWithConcurrentSenders() throws Exception {
+        provider.setMaxStanzasPerUser(100);
+        Thread[] senders = new Thread[8];
+        for (int i = 0; i < senders.length; i++) {
+            senders[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 50; j++) {
+                        provider.receive(createMessage(TO, MessageStanzaType.CHAT, "message " + j));
+                    }
+                }
+            };
+            senders[i].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        assertEquals(100, provider.countStanzas(TO));
+    }
+
+    public void testViewAndRemoveItems() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(provider.receive(createMessage(TO, MessageStanzaType.CHAT, "message " + i)));
+        }
+        List<OfflineStanzaHeader> headers = provider.getHeaders(TO);
+        assertEquals(5, headers.size());
+        assertEquals(FROM, headers.get(0).getFrom());
+
+        String second = headers.get(1).getId();
+        String fourth = headers.get(3).getId();
+        Map<String, Stanza> stanzas = provider.getStanzas(TO, Arrays.asList(fourth, second));
+        assertEquals(2, stanzas.size());
+        assertEquals("message 1", stanzas.get(second).getSingleInnerElementsNamed("body").getSingleInnerText()
+                .getText());
+        assertEquals("message 3", stanzas.get(fourth).getSingleInnerElementsNamed("body").getSingleInnerText()
+                .getText());
+
+        provider.removeStanzas(TO, Arrays.asList(second, fourth, "unknown"));
+        assertEquals(3, provider.countStanzas(TO));
+        assertEquals(3, provider.getStanzas(TO, null).size());
+        assertFalse(provider.getStanzas(TO, null).containsKey(second));
+
+        provider.removeAllStanzas(TO);
+        assertEquals(0, provider.countStanzas(TO));
+    }
+
+    public void testIndexRebuiltAfterRestart() throws Exception {
+        Entity other = EntityImpl.parseUnchecked("nurse@vysper.org");
+        for (int i = 0; i < 10; i++) {
+            provider.receive(createMessage(TO, MessageStanzaType.CHAT, "juliet " + i));
+            provider.receive(createMessage(other, MessageStanzaType.CHAT, "nurse " + i));
+        }
+        List<OfflineStanzaHeader> headers = provider.getHeaders(TO);
+        provider.removeStanzas(TO, Arrays.asList(headers.get(0).getId()));
+        provider.takeAllStanzas(other);
+        provider.close();
+
+        provider = new SegmentFileOfflineStorageProvider(directory, 4);
+        assertEquals(9, provider.countStanzas(TO));
+        assertEquals(0, provider.countStanzas(other));
+        List<Stanza> stanzas = provider.takeAllStanzas(TO);
+        assertEquals(9, stanzas.size());
+        assertEquals("juliet 1", stanzas.get(0).getSingleInnerElementsNamed("body").getSingleInnerText().getText());
+    }
+
+    public void testCompaction() throws Exception {
+        provider.setCompactionThreshold(1);
+        Entity other = EntityImpl.parseUnchecked("nurse@vysper.org");
+        for (int i = 0; i < 20; i++) {
+            provider.receive(createMessage(TO, MessageStanzaType.CHAT, "juliet " + i));
+            provider.receive(createMessage(other, MessageStanzaType.CHAT, "nurse " + i));
+        }
+        long sizeBefore = totalSegmentSize();
+        provider.takeAllStanzas(other);
+        assertTrue(totalSegmentSize() < sizeBefore);
+
+        List<Stanza> stanzas = provider.takeAllStanzas(TO);
+        assertEquals(20, stanzas.size());
+        assertEquals("juliet 19", stanzas.get(19).getSingleInnerElementsNamed("body").getSingleInnerText().getText());
+    }
+
+    public void testTruncatedSegmentIsRepaired() throws Exception {
+        provider.receive(createMessage(TO, MessageStanzaType.CHAT, "intact"));
+        provider.close();
+
+        // simulate a crash in the middle of writing a record
+        for (File file : directory.listFiles()) {
+            if (file.length() > 0) {
+                java.io.RandomAccessFile randomAccessFile = new java.io.RandomAccessFile(file, "rw");
+                randomAccessFile.seek(file.length());
+                randomAccessFile.writeInt(1000);
+                randomAccessFile.write(new byte[] { 1, 2, 3 });
+                randomAccessFile.close();
+            }
+        }
+
+        provider = new SegmentFileOfflineStorageProvider(directory, 4);
+        assertEquals(1, provider.countStanzas(TO));
+        assertTrue(provider.receive(createMessage(TO, MessageStanzaType.CHAT, "after crash")));
+        assertEquals(2, provider.takeAllStanzas(TO).size());
+    }
+
+    public void testUndecodableStanzasAreKept() throws Exception {
+        provider.receive(createMessage(TO, MessageStanzaType.CHAT, "intact"));
+        provider.receive(createMessage(TO, MessageStanzaType.CHAT, "broken"));
+        provider.close();
+
+        // damage the second stanza on disk, so it cannot be parsed anymore
+        for (File file : directory.listFiles()) {
+            byte[] content = new byte[(int) file.length()];
+            java.io.RandomAccessFile randomAccessFile = new java.io.RandomAccessFile(file, "rw");
+            randomAccessFile.readFully(content);
+            int position = new String(content, "ISO-8859-1").indexOf("broken");
+            if (position >= 0) {
+                randomAccessFile.seek(position);
+                randomAccessFile.write("<<<<<<".getBytes("ISO-8859-1"));
+            }
+            randomAccessFile.close();
+        }
+
+        provider = new SegmentFileOfflineStorageProvider(directory, 4);
+        List<Stanza> stanzas = provider.takeAllStanzas(TO);
+        assertEquals(1, stanzas.size());
+        assertEquals("intact", stanzas.get(0).getSingleInnerElementsNamed("body").getSingleInnerText().getText());
+        // what could not be delivered is not deleted
+        assertEquals(1, provider.countStanzas(TO));
+    }
+
+    private long totalSegmentSize() throws IOException {
+        long size = 0;
+        for (File file : directory.listFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+}
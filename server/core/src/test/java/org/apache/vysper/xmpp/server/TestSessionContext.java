@@ -47,6 +47,12 @@ public class TestSessionContext extends AbstractSessionContext implements Stanza
 
     private boolean isReopeningXMLStream;
 
+    private boolean transportEncrypted = false;
+
+    private boolean compressionSupported = false;
+
+    private CompressionMethod switchedToCompression;
+
     private int recordedResponsesTotal = 0;
 
     /**
@@ -178,6 +184,33 @@ public class TestSessionContext extends AbstractSessionContext implements Stanza
         return switchToTLSCalled;
     }
 
+    @Override
+    public boolean isTransportEncrypted() {
+        return transportEncrypted;
+    }
+
+    public void setTransportEncrypted(boolean transportEncrypted) {
+        this.transportEncrypted = transportEncrypted;
+    }
+
+    @Override
+    public boolean isCompressionSupported() {
+        return compressionSupported && switchedToCompression == null;
+    }
+
+    public void setCompressionSupported(boolean compressionSupported) {
+        this.compressionSupported = compressionSupported;
+    }
+
+    @Override
+    public void switchToCompression(CompressionMethod compression) {
+        switchedToCompression = compression;
+    }
+
+    public CompressionMethod getSwitchedToCompression() {
+        return switchedToCompression;
+    }
+
     public StanzaReceiverQueue addReceiver(Entity entity, String resourceId) {
         if (!(getServerRuntimeContext().getStanzaRelay() instanceof StanzaReceiverRelay)) {
             throw new RuntimeException("cannot add receiver - the stanza relay is of a different kind");
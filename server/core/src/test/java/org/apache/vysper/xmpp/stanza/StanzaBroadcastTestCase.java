@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.stanza;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+
+/**
+ */
+public class StanzaBroadcastTestCase extends TestCase {
+
+    private static final Entity SENDER = EntityImpl.parseUnchecked("sender@vysper.org/res");
+
+    private static final Entity ROOM_SENDER = EntityImpl.parseUnchecked("room@chat.vysper.org/nick");
+
+    private static final Entity RECEIVER1 = EntityImpl.parseUnchecked("receiver1@vysper.org/res");
+
+    private static final Entity RECEIVER2 = EntityImpl.parseUnchecked("receiver2@vysper.org/res");
+
+    private Stanza createMessage() {
+        StanzaBuilder builder = StanzaBuilder.createMessageStanza(SENDER,
+                EntityImpl.parseUnchecked("room@chat.vysper.org"), MessageStanzaType.GROUPCHAT, null, "hello & bye");
+        builder.startInnerElement("x", "urn:test").addAttribute("a", "b").endInnerElement();
+        return builder.build();
+    }
+
+    private Stanza createClone(Stanza original, Entity to) {
+        List<Attribute> replaceAttributes = new ArrayList<Attribute>();
+        replaceAttributes.add(new Attribute("from", ROOM_SENDER.getFullQualifiedName()));
+        replaceAttributes.add(new Attribute("to", to.getFullQualifiedName()));
+        return StanzaBuilder.createClone(original, true, replaceAttributes).build();
+    }
+
+    public void testAddressTo() {
+        Stanza original = createMessage();
+        StanzaBroadcast broadcast = new StanzaBroadcast(original, ROOM_SENDER);
+
+        Stanza copy1 = broadcast.addressTo(RECEIVER1);
+        Stanza copy2 = broadcast.addressTo(RECEIVER2);
+
+        assertEquals(createClone(original, RECEIVER1), copy1);
+        assertEquals(createClone(original, RECEIVER2), copy2);
+        assertEquals(RECEIVER1, copy1.getTo());
+        assertEquals(ROOM_SENDER, copy1.getFrom());
+        assertSame(original.getInnerElements().get(0), copy1.getInnerElements().get(0));
+    }
+
+    public void testRendering() {
+        Stanza original = createMessage();
+        StanzaBroadcast broadcast = new StanzaBroadcast(original, ROOM_SENDER);
+
+        // the second rendering uses the content cached by the first one
+        assertEquals(new Renderer(createClone(original, RECEIVER1)).getComplete(), new Renderer(broadcast
+                .addressTo(RECEIVER1)).getComplete());
+        assertEquals(new Renderer(createClone(original, RECEIVER2)).getComplete(), new Renderer(broadcast
+                .addressTo(RECEIVER2)).getComplete());
+    }
+
+    public void testKeepFromIfNotReplaced() {
+        Stanza original = createMessage();
+        Stanza copy = new StanzaBroadcast(original, null).addressTo(RECEIVER1);
+        assertEquals(SENDER, copy.getFrom());
+        assertEquals(RECEIVER1, copy.getTo());
+    }
+}
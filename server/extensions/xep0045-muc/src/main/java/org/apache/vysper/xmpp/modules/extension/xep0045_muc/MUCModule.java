@@ -123,6 +123,11 @@ public class MUCModule extends DefaultDiscoAwareModule implements Component, Com
         this.conference.initialize();
     }
 
+    @Override
+    public void close() {
+        conference.close();
+    }
+
     @Override
     public String getName() {
         return "XEP-0045 Multi-user chat";
@@ -133,16 +133,7 @@ public class MUCMessageHandler extends DefaultMessageHandler {
                         }
 
                         logger.debug("Relaying message to all room occupants");
-                        for (Occupant occupent : room.getOccupants()) {
-                            logger.debug("Relaying message to  {}", occupent);
-                            List<Attribute> replaceAttributes = new ArrayList<Attribute>();
-                            replaceAttributes.add(new Attribute("from", roomAndSendingNick.getFullQualifiedName()));
-                            replaceAttributes.add(new Attribute("to", occupent.getJid().getFullQualifiedName()));
-
-                            relayStanza(occupent.getJid(), StanzaBuilder.createClone(stanza, true, replaceAttributes)
-                                    .build(), serverRuntimeContext);
-
-                        }
+                        new RoomBroadcaster(serverRuntimeContext).broadcast(room, stanza, roomAndSendingNick);
 
                         // add to discussion history
                         room.getHistory().append(stanza, sendingOccupant);
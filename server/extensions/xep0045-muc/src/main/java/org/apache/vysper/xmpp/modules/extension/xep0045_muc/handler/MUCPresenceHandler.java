@@ -21,8 +21,8 @@ package org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 
 import org.apache.vysper.compliance.SpecCompliant;
 import org.apache.vysper.xml.fragment.XMLElement;
@@ -35,9 +35,11 @@ import org.apache.vysper.xmpp.modules.core.base.handler.DefaultPresenceHandler;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.MUCStanzaBuilder;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Affiliation;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Conference;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.NickConflictException;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Occupant;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Role;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Room;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.RoomHibernatedException;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.RoomType;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.History;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.MucUserItem;
@@ -150,15 +152,13 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
                             getInnerElementText(stanza, "status"), serverRuntimeContext);
                 }
             } else {
-                if (room.isInRoom(nick)) {
+                String oldNick = occupant.getNick();
+                // update the nick
+                if (!room.changeNick(occupant, nick)) {
                     // user with this nick is already in room
                     return createPresenceErrorStanza(roomJid, newOccupantJid, stanza.getID(), "cancel", "conflict");
                 }
 
-                String oldNick = occupant.getNick();
-                // update the nick
-                occupant.setNick(nick);
-
                 // send out unavailable presences to all existing occupants
                 for (Occupant receiver : room.getOccupants()) {
                     sendChangeNickUnavailable(occupant, oldNick, receiver, room, serverRuntimeContext);
@@ -192,11 +192,23 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
                 }
             }
 
-            Occupant newOccupant;
-            try {
-                newOccupant = room.addOccupant(newOccupantJid, nick);
-            } catch(RuntimeException e) {
-                return createPresenceErrorStanza(roomJid, newOccupantJid, stanza.getID(), "auth", e.getMessage());
+            Occupant newOccupant = null;
+            while (newOccupant == null) {
+                try {
+                    newOccupant = room.addOccupant(newOccupantJid, nick);
+                } catch (RoomHibernatedException e) {
+                    // the room has been evicted from memory meanwhile, join the freshly loaded one
+                    room = conference.findRoom(roomJid);
+                    if (room == null) {
+                        room = conference.createRoom(roomJid, roomJid.getNode());
+                        newRoom = true;
+                    }
+                } catch (NickConflictException e) {
+                    // another user has entered with this nick meanwhile
+                    return createPresenceErrorStanza(roomJid, newOccupantJid, stanza.getID(), "cancel", "conflict");
+                } catch(RuntimeException e) {
+                    return createPresenceErrorStanza(roomJid, newOccupantJid, stanza.getID(), "auth", e.getMessage());
+                }
             }
             
             if(newRoom) {
@@ -204,20 +216,35 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
                 newOccupant.setRole(Role.Moderator);
             }
 
+            RoomBroadcaster broadcaster = new RoomBroadcaster(serverRuntimeContext);
+            Collection<Occupant> occupants = room.getOccupants();
+
+            // everything the now joined occupant receives is collected and sent as one batch
+            List<Stanza> joinStanzas = new ArrayList<Stanza>(occupants.size() + 1);
+
             // relay presence of all existing room occupants to the now joined occupant
-            for (Occupant occupant : room.getOccupants()) {
-                sendExistingOccupantToNewOccupant(newOccupant, occupant, room, serverRuntimeContext);
+            for (Occupant occupant : occupants) {
+                // do not send own presence
+                if (occupant.getJid().equals(newOccupantJid))
+                    continue;
+                joinStanzas.add(occupant.createPresenceStanza(newOccupantJid, false));
             }
 
             // relay presence of the newly added occupant to all existing occupants
-            for (Occupant occupant : room.getOccupants()) {
-                sendNewOccupantPresenceToExisting(newOccupant, occupant, room, serverRuntimeContext);
+            for (Occupant occupant : occupants) {
+                if (occupant.getJid().equals(newOccupantJid))
+                    continue;
+                logger.debug("Room presence from {} sent to {}", newOccupant, occupant);
+                broadcaster.deliver(occupant.getJid(), newOccupant.createPresenceStanza(occupant.getJid(),
+                        includeJidInItem(room, occupant)));
             }
+            joinStanzas.add(createOwnPresence(newOccupant, room));
 
             // send discussion history to user
             boolean includeJid = room.isRoomType(RoomType.NonAnonymous);
-            List<Stanza> history = room.getHistory().createStanzas(newOccupant, includeJid, History.fromStanza(stanza));
-            relayStanzas(newOccupantJid, history, serverRuntimeContext);
+            joinStanzas.addAll(room.getHistory().createStanzas(newOccupant, includeJid, History.fromStanza(stanza)));
+
+            broadcaster.deliver(newOccupantJid, joinStanzas);
 
             logger.debug("{} successfully entered room {}", newOccupantJid, roomJid);
         }
@@ -234,7 +261,7 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
 
             // user must by in room, or we do nothing
             if (exitingOccupant != null) {
-                Set<Occupant> allOccupants = room.getOccupants();
+                Collection<Occupant> allOccupants = room.getOccupants();
 
                 room.removeOccupant(occupantJid);
 
@@ -263,57 +290,22 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
         return null;
     }
 
-    private void sendExistingOccupantToNewOccupant(Occupant newOccupant, Occupant existingOccupant, Room room,
-            ServerRuntimeContext serverRuntimeContext) {
-        //            <presence
-        //            from='darkcave@chat.shakespeare.lit/firstwitch'
-        //            to='hag66@shakespeare.lit/pda'>
-        //          <x xmlns='http://jabber.org/protocol/muc#user'>
-        //            <item affiliation='owner' role='moderator'/>
-        //          </x>
-        //        </presence>
-
-        // do not send own presence
-        if (existingOccupant.getJid().equals(newOccupant.getJid())) {
-            return;
-        }
-
-        Entity roomAndOccupantNick = new EntityImpl(room.getJID(), existingOccupant.getNick());
-        Stanza presenceToNewOccupant = MUCStanzaBuilder.createPresenceStanza(roomAndOccupantNick, newOccupant.getJid(),
-                null, NamespaceURIs.XEP0045_MUC_USER, new MucUserItem(existingOccupant.getAffiliation(),
-                        existingOccupant.getRole()));
-
-        logger.debug("Room presence from {} sent to {}", newOccupant, roomAndOccupantNick);
-        relayStanza(newOccupant.getJid(), presenceToNewOccupant, serverRuntimeContext);
-    }
-
-    private void sendNewOccupantPresenceToExisting(Occupant newOccupant, Occupant existingOccupant, Room room,
-            ServerRuntimeContext serverRuntimeContext) {
-        Entity roomAndNewUserNick = new EntityImpl(room.getJID(), newOccupant.getNick());
-
+    private Stanza createOwnPresence(Occupant newOccupant, Room room) {
         List<XMLElement> inner = new ArrayList<XMLElement>();
 
-        // room is non-anonymous or semi-anonymous and the occupant a moderator, send full user JID
-        boolean includeJid = room.getRoomTypes().contains(RoomType.NonAnonymous)
-                || (room.getRoomTypes().contains(RoomType.SemiAnonymous) && existingOccupant.getRole() == Role.Moderator);
+        boolean includeJid = includeJidInItem(room, newOccupant);
         inner.add(new MucUserItem(newOccupant, includeJid, false));
 
-        if (existingOccupant.getJid().equals(newOccupant.getJid())) {
-
-            if (room.getRoomTypes().contains(RoomType.NonAnonymous)) {
-                // notify the user that this is a non-anonymous room
-                inner.add(new Status(StatusCode.ROOM_NON_ANONYMOUS));
-            }
-
-            // send status to indicate that this is the users own presence
-            inner.add(new Status(StatusCode.OWN_PRESENCE));
+        if (room.getRoomTypes().contains(RoomType.NonAnonymous)) {
+            // notify the user that this is a non-anonymous room
+            inner.add(new Status(StatusCode.ROOM_NON_ANONYMOUS));
         }
 
-        Stanza presenceToExisting = MUCStanzaBuilder.createPresenceStanza(roomAndNewUserNick,
-                existingOccupant.getJid(), null, NamespaceURIs.XEP0045_MUC_USER, inner);
+        // send status to indicate that this is the users own presence
+        inner.add(new Status(StatusCode.OWN_PRESENCE));
 
-        logger.debug("Room presence from {} sent to {}", roomAndNewUserNick, existingOccupant);
-        relayStanza(existingOccupant.getJid(), presenceToExisting, serverRuntimeContext);
+        return MUCStanzaBuilder.createPresenceStanza(newOccupant.getJidInRoom(), newOccupant.getJid(), null,
+                NamespaceURIs.XEP0045_MUC_USER, inner);
     }
 
     private void sendChangeNickUnavailable(Occupant changer, String oldNick, Occupant receiver, Room room,
@@ -409,12 +401,6 @@ public class MUCPresenceHandler extends DefaultPresenceHandler {
         relayStanza(existingOccupant.getJid(), presenceToExisting, serverRuntimeContext);
     }
 
-    protected void relayStanzas(Entity receiver, List<Stanza> stanzas, ServerRuntimeContext serverRuntimeContext) {
-        for (Stanza stanza : stanzas) {
-            relayStanza(receiver, stanza, serverRuntimeContext);
-        }
-    }
-
     protected void relayStanza(Entity receiver, Stanza stanza, ServerRuntimeContext serverRuntimeContext) {
         try {
             serverRuntimeContext.getStanzaRelay().relay(receiver, stanza, new IgnoreFailureStrategy());
@@ -0,0 +1,102 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler;
+
+import java.util.List;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.LocalDeliveryUtils;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.IgnoreFailureStrategy;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Occupant;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Room;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBroadcast;
+import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * sends one stanza to all occupants of a room. the stanza is not cloned per occupant, all copies share
+ * the original's inner elements and their rendering. occupants connected to this server get the stanza
+ * written directly to their session, all others are reached through the stanza relay.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class RoomBroadcaster {
+
+    final Logger logger = LoggerFactory.getLogger(RoomBroadcaster.class);
+
+    private final ServerRuntimeContext serverRuntimeContext;
+
+    public RoomBroadcaster(ServerRuntimeContext serverRuntimeContext) {
+        this.serverRuntimeContext = serverRuntimeContext;
+    }
+
+    /**
+     * @param room the receiving room
+     * @param stanza the stanza to broadcast
+     * @param from the sender of all copies, typically room@service/nick
+     */
+    public void broadcast(Room room, Stanza stanza, Entity from) {
+        StanzaBroadcast broadcast = new StanzaBroadcast(stanza, from);
+        ResourceRegistry resourceRegistry = serverRuntimeContext.getResourceRegistry();
+        for (Occupant occupant : room.getOccupants()) {
+            Entity receiver = occupant.getJid();
+            logger.debug("Relaying message to {}", occupant);
+            Stanza copy = broadcast.addressTo(receiver);
+            if (!LocalDeliveryUtils.deliverToLocalSession(resourceRegistry, receiver, copy)) {
+                relayStanza(receiver, copy);
+            }
+        }
+    }
+
+    /**
+     * sends a stanza to a single receiver, directly if connected to this server, otherwise through the relay
+     */
+    public void deliver(Entity receiver, Stanza stanza) {
+        if (!LocalDeliveryUtils.deliverToLocalSession(serverRuntimeContext.getResourceRegistry(), receiver, stanza)) {
+            relayStanza(receiver, stanza);
+        }
+    }
+
+    /**
+     * sends a number of stanzas to a single receiver. if the receiver is connected to this server, they are
+     * written to the occupant's session as one batch. otherwise, they are relayed one by one.
+     */
+    public void deliver(Entity receiver, List<Stanza> stanzas) {
+        if (stanzas.isEmpty())
+            return;
+        if (!LocalDeliveryUtils.deliverToLocalSession(serverRuntimeContext.getResourceRegistry(), receiver, stanzas)) {
+            for (Stanza stanza : stanzas) {
+                relayStanza(receiver, stanza);
+            }
+        }
+    }
+
+    private void relayStanza(Entity receiver, Stanza stanza) {
+        try {
+            serverRuntimeContext.getStanzaRelay().relay(receiver, stanza, new IgnoreFailureStrategy());
+        } catch (DeliveryException e) {
+            logger.warn("relaying failed ", e);
+        }
+    }
+}
@@ -19,8 +19,8 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0045_muc.model;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.vysper.xmpp.addressing.Entity;
 
@@ -31,19 +31,38 @@ import org.apache.vysper.xmpp.addressing.Entity;
  */
 public class Affiliations {
 
-    // TODO should be loaded from the storage provider
     // keyed by bare JIDs
-    private Map<Entity, Affiliation> affiliations = new HashMap<Entity, Affiliation>();
+    private Map<Entity, Affiliation> affiliations = new ConcurrentHashMap<Entity, Affiliation>();
+
+    private Room room;
+
+    public Affiliations() {
+        // not attached to a room
+    }
+
+    /*package*/Affiliations(Room room) {
+        this.room = room;
+    }
 
     public void add(Entity user, Affiliation affiliation) {
         affiliations.put(user.getBareJID(), affiliation);
+        fireAffiliationChanged(user, affiliation);
     }
 
     public void remove(Entity user) {
         affiliations.remove(user.getBareJID());
+        fireAffiliationChanged(user, null);
     }
 
     public Affiliation getAffiliation(Entity user) {
         return affiliations.get(user.getBareJID());
     }
+
+    private void fireAffiliationChanged(Entity user, Affiliation affiliation) {
+        if (room != null)
+            room.affiliationChanged(user.getBareJID());
+        RoomListener listener = room == null ? null : room.getListener();
+        if (listener != null)
+            listener.affiliationChanged(room, user.getBareJID(), affiliation);
+    }
 }
@@ -22,6 +22,7 @@ package org.apache.vysper.xmpp.modules.extension.xep0045_muc.model;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.storage.InMemoryOccupantStorageProvider;
@@ -50,6 +51,8 @@ public class Conference implements ServerInfoRequestListener, ItemRequestListene
 
     private OccupantStorageProvider occupantStorageProvider = new InMemoryOccupantStorageProvider();
 
+    private int historySize = DiscussionHistory.DEFAULT_HISTORY_SIZE;
+
     public Conference(String name) {
         if (name == null || name.trim().length() == 0) {
             throw new IllegalArgumentException("Name must not be null or empty");
@@ -64,6 +67,10 @@ public class Conference implements ServerInfoRequestListener, ItemRequestListene
             occupantStorageProvider.initialize();
     }
 
+    public void close() {
+        roomStorageProvider.close();
+    }
+
     public Collection<Room> getAllRooms() {
         return roomStorageProvider.getAllRooms();
     }
@@ -73,7 +80,11 @@ public class Conference implements ServerInfoRequestListener, ItemRequestListene
             throw new IllegalArgumentException("Room already exists with JID: " + jid);
         }
 
-        return roomStorageProvider.createRoom(jid, name, types);
+        Room room = roomStorageProvider.createRoom(jid, name, types);
+        if (room.getHistory().getMaxItems() != historySize) {
+            room.getHistory().setMaxItems(historySize);
+        }
+        return room;
     }
 
     public void deleteRoom(Entity jid) {
@@ -109,6 +120,18 @@ public class Conference implements ServerInfoRequestListener, ItemRequestListene
         this.roomStorageProvider = roomStorageProvider;
     }
 
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    /**
+     * @param historySize the size of the discussion history of newly created rooms. the history of an
+     * existing room can be resized using {@link DiscussionHistory#setMaxItems(int)}.
+     */
+    public void setHistorySize(int historySize) {
+        this.historySize = historySize;
+    }
+
     public String getName() {
         return name;
     }
@@ -122,10 +145,9 @@ public class Conference implements ServerInfoRequestListener, ItemRequestListene
 
     public List<Item> getItemsFor(InfoRequest request) {
         List<Item> items = new ArrayList<Item>();
-        Collection<Room> rooms = getAllRooms();
-
-        for (Room room : rooms) {
-            items.add(new Item(room.getJID(), room.getName()));
+        // listing the rooms must not load them all
+        for (Map.Entry<Entity, String> room : roomStorageProvider.getAllRoomNames().entrySet()) {
+            items.add(new Item(room.getKey(), room.getValue()));
         }
 
         return items;
@@ -25,12 +25,12 @@ import java.util.Collections;
 import java.util.List;
 import java.util.TimeZone;
 
-import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.History;
 import org.apache.vysper.xmpp.stanza.Stanza;
 
 /**
- * The discussion history for a room
+ * The discussion history for a room. Messages are kept in a fixed-capacity ring buffer, the oldest message
+ * is overwritten when the history is full.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -38,106 +38,190 @@ public class DiscussionHistory {
 
     public static final int DEFAULT_HISTORY_SIZE = 20;
 
-    private int maxItems = DEFAULT_HISTORY_SIZE;
+    private final Object lock = new Object();
+
+    private int maxItems;
 
     private DiscussionMessage subjectMessage;
 
-    private List<DiscussionMessage> items = new ArrayList<DiscussionMessage>();
+    /**
+     * ring buffer, holding count messages starting at index first
+     */
+    private DiscussionMessage[] items;
+
+    private int first = 0;
+
+    private int count = 0;
+
+    private Room room;
+
+    public DiscussionHistory() {
+        this(DEFAULT_HISTORY_SIZE);
+    }
+
+    /*package*/DiscussionHistory(Room room) {
+        this(DEFAULT_HISTORY_SIZE);
+        this.room = room;
+    }
+
+    /**
+     * @param maxItems the maximum number of messages kept, including the subject message
+     */
+    public DiscussionHistory(int maxItems) {
+        if (maxItems < 0)
+            throw new IllegalArgumentException("history size must not be negative");
+        this.maxItems = maxItems;
+        this.items = new DiscussionMessage[maxItems];
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    /**
+     * changes the size of the history, keeping the latest messages
+     * @param maxItems the maximum number of messages kept, including the subject message
+     */
+    public void setMaxItems(int maxItems) {
+        if (maxItems < 0)
+            throw new IllegalArgumentException("history size must not be negative");
+        synchronized (lock) {
+            DiscussionMessage[] newItems = new DiscussionMessage[maxItems];
+            int newCount = Math.min(count, maxItems);
+            for (int i = 0; i < newCount; i++) {
+                newItems[i] = get(count - newCount + i);
+            }
+            this.items = newItems;
+            this.first = 0;
+            this.count = newCount;
+            this.maxItems = maxItems;
+            trim();
+        }
+        RoomListener listener = room == null ? null : room.getListener();
+        if (listener != null)
+            listener.roomChanged(room);
+    }
 
     public void append(Stanza stanza, Occupant sender) {
         append(stanza, sender, Calendar.getInstance(TimeZone.getTimeZone("UTC")));
     }
 
     public void append(Stanza stanza, Occupant sender, Calendar timestamp) {
-        synchronized (items) {
-            DiscussionMessage discMsg = new DiscussionMessage(stanza, sender, timestamp);
+        append(stanza, sender.getNick(), timestamp);
+    }
 
+    /**
+     * @param senderNick the nick the sender had in the room
+     */
+    public void append(Stanza stanza, String senderNick, Calendar timestamp) {
+        DiscussionMessage discMsg = new DiscussionMessage(stanza, senderNick, timestamp);
+        RoomListener listener = room == null ? null : room.getListener();
+        if (listener != null)
+            listener.historyAppended(room, stanza, senderNick, timestamp);
+        synchronized (lock) {
             if (discMsg.hasSubject() && !discMsg.hasBody()) {
                 subjectMessage = discMsg;
-            } else {
-                items.add(discMsg);
+            } else if (items.length > 0) {
+                if (count == items.length) {
+                    // full, overwrite the oldest message
+                    items[first] = discMsg;
+                    first = (first + 1) % items.length;
+                } else {
+                    items[(first + count) % items.length] = discMsg;
+                    count++;
+                }
             }
 
             // check if size is over limits
-            if (getSize() > maxItems) {
-                items.remove(0);
-            }
+            trim();
         }
     }
 
+    /**
+     * removes the oldest messages until the history, including the subject, fits its size
+     */
+    private void trim() {
+        while (count > 0 && getSize() > maxItems) {
+            items[first] = null;
+            first = (first + 1) % items.length;
+            count--;
+        }
+    }
+
+    /**
+     * @param index 0 for the oldest message
+     */
+    private DiscussionMessage get(int index) {
+        return items[(first + index) % items.length];
+    }
+
     private int getSize() {
-        int size = items.size();
+        int size = count;
         if (subjectMessage != null)
             size++;
         return size;
     }
 
     public List<Stanza> createStanzas(Occupant receiver, boolean includeJid, History history) {
-        synchronized (items) {
+        int maxstanzas = history != null && history.getMaxStanzas() != null ? history.getMaxStanzas() : -1;
+        int maxchars = history != null && history.getMaxChars() != null ? history.getMaxChars() : -1;
+        int seconds = history != null && history.getSeconds() != null ? history.getSeconds() : -1;
+        long sinceLimit = history != null && history.getSince() != null ? history.getSince().getTimeInMillis() : -1;
 
-            int maxstanzas = history != null && history.getMaxStanzas() != null ? history.getMaxStanzas() : -1;
-            int maxchars = history != null && history.getMaxChars() != null ? history.getMaxChars() : -1;
-            int seconds = history != null && history.getSeconds() != null ? history.getSeconds() : -1;
+        List<Stanza> stanzas = new ArrayList<Stanza>();
 
-            List<Stanza> stanzas = new ArrayList<Stanza>();
+        if (maxchars == 0 || maxstanzas == 0 || seconds == 0) {
+            // quick return for no-stanza requests
+            return stanzas;
+        }
 
-            if (maxchars == 0 || maxstanzas == 0 || seconds == 0) {
-                // quick return for no-stanza requests
-            } else {
-                int counter = 0;
-                int totalChars = 0;
+        // the timestamp at which "seconds" start filtering from 
+        long secondsLimit = -1;
+        if (seconds != -1) {
+            secondsLimit = System.currentTimeMillis() - seconds * 1000L;
+        }
 
-                List<DiscussionMessage> itemsWithSubject = new ArrayList<DiscussionMessage>(items);
-                // add subject if one is provided
-                if (subjectMessage != null) {
-                    itemsWithSubject.add(subjectMessage);
+        synchronized (lock) {
+            int counter = 0;
+            int totalChars = 0;
+
+            // now add all messages, as long as the predicated are fulfilled
+            // first, do this in reverse order so that older messages are filtered out.
+            // the subject is handled as the latest message
+            int start = subjectMessage != null ? count : count - 1;
+            for (int i = start; i > -1; i--) {
+                DiscussionMessage item = i == count ? subjectMessage : get(i);
+                counter++;
+
+                if (secondsLimit != -1 && secondsLimit > item.getTimestampMillis()) {
+                    // too old, break
+                    break;
                 }
 
-                // the timestamp at which "seconds" start filtering from 
-                long secondsLimit = -1;
-                if (seconds != -1) {
-                    Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-                    cal.add(Calendar.SECOND, -seconds);
-                    secondsLimit = cal.getTimeInMillis();
+                if (sinceLimit != -1 && sinceLimit > item.getTimestampMillis()) {
+                    // too old, break
+                    break;
                 }
 
-                // now add all messages, as long as the predicated are fulfilled
-                // first, do this in reverse order so that older messages are filtered out
-                for (int i = itemsWithSubject.size() - 1; i > -1; i--) {
-                    DiscussionMessage item = itemsWithSubject.get(i);
-                    Stanza stanza = item.createStanza(receiver, includeJid);
-                    counter++;
-
-                    if (secondsLimit != -1 && secondsLimit > item.getTimestamp().getTimeInMillis()) {
-                        // too old, break
-                        break;
-                    }
+                // only count chars if needed
+                if (maxchars != -1) {
+                    totalChars += item.getLength(receiver, includeJid);
 
-                    if (history != null && history.getSince() != null && history.getSince().after(item.getTimestamp())) {
-                        // too old, break
+                    if (totalChars > maxchars) {
                         break;
                     }
+                }
 
-                    // only count chars if needed
-                    if (maxchars != -1) {
-                        totalChars += new Renderer(stanza).getComplete().length();
-
-                        if (totalChars > maxchars) {
-                            break;
-                        }
-                    }
-
-                    // checks after this line will include the last stanza
-                    stanzas.add(stanza);
-                    if (maxstanzas != -1 && counter == maxstanzas) {
-                        // max number of stanzas reached, return
-                        break;
-                    }
+                // checks after this line will include the last stanza
+                stanzas.add(item.createStanza(receiver, includeJid));
+                if (maxstanzas != -1 && counter == maxstanzas) {
+                    // max number of stanzas reached, return
+                    break;
                 }
             }
-            // reverse list so that the oldest message is first
-            Collections.reverse(stanzas);
-            return stanzas;
         }
+        // reverse list so that the oldest message is first
+        Collections.reverse(stanzas);
+        return stanzas;
     }
 }
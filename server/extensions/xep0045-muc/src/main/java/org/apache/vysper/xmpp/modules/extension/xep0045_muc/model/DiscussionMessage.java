@@ -22,12 +22,18 @@ package org.apache.vysper.xmpp.modules.extension.xep0045_muc.model;
 import java.util.Calendar;
 import java.util.TimeZone;
 
+import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.Delay;
 import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBroadcast;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
 
+/**
+ * a message in the discussion history of a room. the stanzas sent to occupants are prepared on creation,
+ * together with their rendered length, so that history requests neither clone nor render stanzas.
+ */
 public class DiscussionMessage {
 
     private Stanza message;
@@ -36,26 +42,66 @@ public class DiscussionMessage {
 
     private Calendar timestamp;
 
+    private long timestampMillis;
+
+    /**
+     * copies with the delay from the room/nick JID
+     */
+    private StanzaBroadcast anonymousStanzas;
+
+    /**
+     * copies with the delay from the sender's real JID
+     */
+    private StanzaBroadcast nonAnonymousStanzas;
+
+    /**
+     * rendered lengths of the prepared stanzas, without the receiver's 'to' attribute value
+     */
+    private int anonymousLength;
+
+    private int nonAnonymousLength;
+
     public DiscussionMessage(Stanza stanza, Occupant from) {
         this(stanza, from, Calendar.getInstance(TimeZone.getTimeZone("UTC")));
     }
 
     public DiscussionMessage(Stanza stanza, Occupant from, Calendar timestamp) {
+        this(stanza, from.getNick(), timestamp);
+    }
+
+    public DiscussionMessage(Stanza stanza, String fromNick, Calendar timestamp) {
         this.message = stanza;
-        this.fromNick = from.getNick();
+        this.fromNick = fromNick;
 
         this.timestamp = (Calendar) timestamp.clone();
+        this.timestampMillis = timestamp.getTimeInMillis();
+
+        Entity roomJid = message.getTo();
+        Entity roomAndNick = new EntityImpl(roomJid, fromNick);
+        anonymousStanzas = new StanzaBroadcast(createStanza(roomAndNick), null);
+        anonymousLength = renderedLength(anonymousStanzas, roomJid);
+        if (message.getFrom() != null) {
+            nonAnonymousStanzas = new StanzaBroadcast(createStanza(message.getFrom()), null);
+            nonAnonymousLength = renderedLength(nonAnonymousStanzas, roomJid);
+        } else {
+            nonAnonymousStanzas = anonymousStanzas;
+            nonAnonymousLength = anonymousLength;
+        }
     }
 
     public Calendar getTimestamp() {
         return (Calendar) timestamp.clone();
     }
 
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
     public String getNick() {
         return fromNick;
     }
 
-    public Stanza createStanza(Occupant receiver, boolean includeJid) {
+    private Stanza createStanza(Entity delayFrom) {
 
         //        <message
         //            from='darkcave@chat.shakespeare.lit/secondwitch'
@@ -67,22 +113,34 @@ public class DiscussionMessage {
         //             stamp='2002-10-13T23:58:43Z'/>
         //        </message>
 
-        Entity roomJid = message.getTo();
-        StanzaBuilder builder = StanzaBuilder.createForward(message, new EntityImpl(roomJid, fromNick), receiver
-                .getJid());
-
-        Entity delayFrom;
-        if (includeJid) {
-            delayFrom = message.getFrom();
-        } else {
-            delayFrom = new EntityImpl(roomJid, fromNick);
-        }
+        // 'to' is replaced for every receiver
+        StanzaBuilder builder = StanzaBuilder.createForward(message, new EntityImpl(message.getTo(), fromNick), null);
         Delay delay = new Delay(delayFrom, timestamp);
         builder.addPreparedElement(delay);
 
         return builder.build();
     }
 
+    /**
+     * renders one copy, which also prepares the shared content for all later copies
+     */
+    private int renderedLength(StanzaBroadcast stanzas, Entity to) {
+        return new Renderer(stanzas.addressTo(to)).getComplete().length() - to.getFullQualifiedName().length();
+    }
+
+    public Stanza createStanza(Occupant receiver, boolean includeJid) {
+        StanzaBroadcast stanzas = includeJid ? nonAnonymousStanzas : anonymousStanzas;
+        return stanzas.addressTo(receiver.getJid());
+    }
+
+    /**
+     * @return the number of characters of the stanza created for the receiver
+     */
+    public int getLength(Occupant receiver, boolean includeJid) {
+        int length = includeJid ? nonAnonymousLength : anonymousLength;
+        return length + receiver.getJid().getFullQualifiedName().length();
+    }
+
     public boolean hasSubject() {
         return !message.getInnerElementsNamed("subject").isEmpty();
     }
@@ -21,6 +21,11 @@ package org.apache.vysper.xmpp.modules.extension.xep0045_muc.model;
 
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.MUCStanzaBuilder;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.MucUserItem;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBroadcast;
 
 /**
  * An occupant (user) in a room
@@ -37,6 +42,19 @@ public class Occupant {
 
     private String nick;
 
+    /**
+     * the occupant's presence, prepared once and shared by all receivers. replaced by an empty cache when
+     * the nick, role or affiliation changes. a presence built concurrently with a change goes to the discarded
+     * cache, so it is never served after the change.
+     */
+    private volatile PresenceCache presenceCache = new PresenceCache();
+
+    private static class PresenceCache {
+        private volatile StanzaBroadcast presence;
+
+        private volatile StanzaBroadcast presenceWithJid;
+    }
+
     public Occupant(Entity jid, String nick, Room room, Role role) {
         if (jid == null)
             throw new IllegalArgumentException("JID can not be null");
@@ -65,14 +83,19 @@ public class Occupant {
 
     public void setRole(Role role) {
         this.role = role;
+        invalidatePresence();
     }
 
     public String getNick() {
         return nick;
     }
 
-    public void setNick(String nick) {
+    /**
+     * nick changes go through {@link Room#changeNick(Occupant, String)}, which keeps the nick index up to date
+     */
+    /*package*/void setNick(String nick) {
         this.nick = nick;
+        invalidatePresence();
     }
 
     public Entity getJid() {
@@ -96,4 +119,32 @@ public class Occupant {
         return new EntityImpl(room.getJID(), nick);
     }
 
+    /**
+     * the available presence of this occupant, from room@service/nick, carrying the occupant's affiliation and role
+     * @param receiver the receiving JID
+     * @param includeJid whether the occupant's full JID is revealed to the receiver
+     */
+    public Stanza createPresenceStanza(Entity receiver, boolean includeJid) {
+        PresenceCache cache = presenceCache;
+        StanzaBroadcast presence = includeJid ? cache.presenceWithJid : cache.presence;
+        if (presence == null) {
+            Stanza template = MUCStanzaBuilder.createPresenceStanza(getJidInRoom(), room.getJID(), null,
+                    NamespaceURIs.XEP0045_MUC_USER, new MucUserItem(this, includeJid, false));
+            presence = new StanzaBroadcast(template, null);
+            if (includeJid) {
+                cache.presenceWithJid = presence;
+            } else {
+                cache.presence = presence;
+            }
+        }
+        return presence.addressTo(receiver);
+    }
+
+    /**
+     * drops the prepared presences, they are rebuilt on next use
+     */
+    /*package*/void invalidatePresence() {
+        presenceCache = new PresenceCache();
+    }
+
 }
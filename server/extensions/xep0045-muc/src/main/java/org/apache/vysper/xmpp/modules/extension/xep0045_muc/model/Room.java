@@ -21,6 +21,7 @@ package org.apache.vysper.xmpp.modules.extension.xep0045_muc.model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -56,13 +57,38 @@ public class Room implements InfoRequestListener, ItemRequestListener {
 
     private String password;
 
-    private DiscussionHistory history = new DiscussionHistory();
+    private DiscussionHistory history = new DiscussionHistory(this);
 
-    private Affiliations affiliations = new Affiliations();
+    private Affiliations affiliations = new Affiliations(this);
+
+    private volatile RoomListener listener;
 
     // keep in a map to allow for quick access
     private Map<Entity, Occupant> occupants = new ConcurrentHashMap<Entity, Occupant>();
 
+    private Map<String, Occupant> occupantsByNick = new ConcurrentHashMap<String, Occupant>();
+
+    /**
+     * copy-on-write snapshot of all occupants, replaced on join, leave and nick change.
+     * broadcasts iterate it without copying or locking.
+     */
+    private volatile List<Occupant> occupantSnapshot = Collections.emptyList();
+
+    /**
+     * guards changes to the occupants, the nick index and the snapshot
+     */
+    private final Object occupantLock = new Object();
+
+    /**
+     * time of the last join, leave or nick change
+     */
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    /**
+     * true once the room has been evicted from memory, guarded by the occupant lock
+     */
+    private boolean hibernated = false;
+
     public Room(Entity jid, String name, RoomType... types) {
         if (jid == null) {
             throw new IllegalArgumentException("JID can not be null");
@@ -125,22 +151,55 @@ public class Room implements InfoRequestListener, ItemRequestListener {
             // don't add non member to room
             throw new RuntimeException("registration-required");
         } else {
-            occupants.put(occupantJid, occupant);
+            synchronized (occupantLock) {
+                if (hibernated) {
+                    throw new RoomHibernatedException(jid);
+                }
+                Occupant existing = occupantsByNick.get(name);
+                if (existing != null && !existing.getJid().equals(occupantJid)) {
+                    throw new NickConflictException(name);
+                }
+                Occupant previous = occupants.put(occupantJid, occupant);
+                if (previous != null) {
+                    occupantsByNick.remove(previous.getNick());
+                }
+                occupantsByNick.put(name, occupant);
+                updateSnapshot();
+            }
         }
         return occupant;
     }
 
+    /**
+     * changes the nick of an occupant of this room
+     * @return false, if the nick is already in use by another occupant
+     */
+    public boolean changeNick(Occupant occupant, String nick) {
+        synchronized (occupantLock) {
+            Occupant existing = occupantsByNick.get(nick);
+            if (existing != null) {
+                return existing == occupant;
+            }
+            occupantsByNick.remove(occupant.getNick());
+            occupant.setNick(nick);
+            occupantsByNick.put(nick, occupant);
+            updateSnapshot();
+            return true;
+        }
+    }
+
+    private void updateSnapshot() {
+        occupantSnapshot = Collections.unmodifiableList(Arrays.asList(occupants.values().toArray(
+                new Occupant[occupants.size()])));
+        lastActivity = System.currentTimeMillis();
+    }
+
     public Occupant findOccupantByJID(Entity occupantJid) {
         return occupants.get(occupantJid);
     }
 
     public Occupant findOccupantByNick(String nick) {
-        for (Occupant occupant : getOccupants()) {
-            if (occupant.getNick().equals(nick))
-                return occupant;
-        }
-
-        return null;
+        return nick == null ? null : occupantsByNick.get(nick);
     }
 
     public Set<Occupant> getModerators() {
@@ -165,7 +224,23 @@ public class Room implements InfoRequestListener, ItemRequestListener {
     }
 
     public void removeOccupant(Entity occupantJid) {
-        occupants.remove(occupantJid);
+        synchronized (occupantLock) {
+            Occupant occupant = occupants.remove(occupantJid);
+            if (occupant != null) {
+                occupantsByNick.remove(occupant.getNick());
+                updateSnapshot();
+            }
+        }
+    }
+
+    /**
+     * the affiliation of a user has changed, the occupant's prepared presences are outdated
+     */
+    /*package*/void affiliationChanged(Entity bareJid) {
+        for (Occupant occupant : getOccupants()) {
+            if (occupant.getJid().getBareJID().equals(bareJid))
+                occupant.invalidatePresence();
+        }
     }
 
     public int getOccupantCount() {
@@ -176,13 +251,38 @@ public class Room implements InfoRequestListener, ItemRequestListener {
         return occupants.isEmpty();
     }
 
-    public Set<Occupant> getOccupants() {
-        Set<Occupant> set = new HashSet<Occupant>();
-        for (Occupant occupant : occupants.values()) {
-            set.add(occupant);
+    /**
+     * marks the room as evicted from memory, if it has been empty since the given time. once hibernated,
+     * the room does not accept occupants anymore, joins have to look it up again.
+     * @return true, if the room has been hibernated
+     */
+    public boolean hibernate(long idleSince) {
+        synchronized (occupantLock) {
+            if (!hibernated && (!occupants.isEmpty() || lastActivity > idleSince))
+                return false;
+            hibernated = true;
+            return true;
+        }
+    }
+
+    public boolean isHibernated() {
+        synchronized (occupantLock) {
+            return hibernated;
         }
+    }
+
+    /**
+     * @return the time of the last join, leave or nick change, in milliseconds
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
 
-        return Collections.unmodifiableSet(set);
+    /**
+     * @return unmodifiable snapshot of the current occupants, unaffected by later joins and leaves
+     */
+    public Collection<Occupant> getOccupants() {
+        return occupantSnapshot;
     }
 
     public List<InfoElement> getInfosFor(InfoRequest request) throws ServiceDiscoveryRequestException {
@@ -220,6 +320,9 @@ public class Room implements InfoRequestListener, ItemRequestListener {
 
     public void setPassword(String password) {
         this.password = password;
+        RoomListener roomListener = listener;
+        if (roomListener != null)
+            roomListener.roomChanged(this);
     }
 
     public DiscussionHistory getHistory() {
@@ -230,4 +333,15 @@ public class Room implements InfoRequestListener, ItemRequestListener {
         return affiliations;
     }
 
+    public RoomListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener gets notified about changes to the configuration, affiliations and history of this room
+     */
+    public void setListener(RoomListener listener) {
+        this.listener = listener;
+    }
+
 }
@@ -0,0 +1,37 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.model;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+
+/**
+ * thrown when joining a room which has been evicted from memory meanwhile. the room has to be looked up
+ * again, which loads it from the storage.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class RoomHibernatedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RoomHibernatedException(Entity jid) {
+        super("room " + jid.getFullQualifiedName() + " has been hibernated");
+    }
+}
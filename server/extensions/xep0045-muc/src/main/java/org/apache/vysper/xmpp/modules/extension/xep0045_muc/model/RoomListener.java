@@ -0,0 +1,49 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.model;
+
+import java.util.Calendar;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * gets notified about changes to the persistent state of a room, for example by a storage provider
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public interface RoomListener {
+
+    /**
+     * the configuration of the room, like its password or history size, has changed
+     */
+    void roomChanged(Room room);
+
+    /**
+     * @param user bare JID
+     * @param affiliation the new affiliation, or NULL if it was removed
+     */
+    void affiliationChanged(Room room, Entity user, Affiliation affiliation);
+
+    /**
+     * a message was added to the discussion history
+     */
+    void historyAppended(Room room, Stanza stanza, String senderNick, Calendar timestamp);
+}
@@ -21,6 +21,7 @@ package org.apache.vysper.xmpp.modules.extension.xep0045_muc.storage;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -40,6 +41,10 @@ public class InMemoryRoomStorageProvider implements RoomStorageProvider {
         // do nothing
     }
 
+    public void close() {
+        // do nothing
+    }
+
     public Room createRoom(Entity jid, String name, RoomType... roomTypes) {
         Room room = new Room(jid, name, roomTypes);
         rooms.put(jid, room);
@@ -50,6 +55,14 @@ public class InMemoryRoomStorageProvider implements RoomStorageProvider {
         return Collections.unmodifiableCollection(rooms.values());
     }
 
+    public Map<Entity, String> getAllRoomNames() {
+        Map<Entity, String> names = new LinkedHashMap<Entity, String>();
+        for (Room room : rooms.values()) {
+            names.put(room.getJID(), room.getName());
+        }
+        return names;
+    }
+
     public Room findRoom(Entity jid) {
         return rooms.get(jid);
     }
@@ -0,0 +1,752 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.storage;
+
+import java.nio.charset.Charset;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.mina.codec.StanzaBuilderFactory;
+import org.apache.vysper.storage.jdbc.JdbcStorage;
+import org.apache.vysper.storage.jdbc.JdbcStorageException;
+import org.apache.vysper.storage.jdbc.JdbcStorageOperation;
+import org.apache.vysper.storage.jdbc.PooledConnection;
+import org.apache.vysper.xml.decoder.XMLElementBatchDecoder;
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Affiliation;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Room;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.RoomListener;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.RoomType;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * stores persistent rooms, their affiliations and their recent discussion history in a relational database,
+ * using {@link JdbcStorage}. temporary rooms are only kept in memory.
+ * <p>
+ * rooms are loaded lazily on first access, so startup time does not depend on the number of stored rooms.
+ * loaded rooms are cached, changes are written through as they happen. only the discussion history is
+ * queued and written in batches by a background writer, so that busy rooms do not wait for the database.
+ * <p>
+ * persistent rooms which have been empty for longer than the hibernation idle time are evicted from the cache,
+ * so that memory usage scales with the number of active rooms. as all their state is already stored, they are
+ * transparently loaded again on the next access, like a join or a disco request.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class JdbcRoomStorageProvider implements RoomStorageProvider {
+
+    final Logger logger = LoggerFactory.getLogger(JdbcRoomStorageProvider.class);
+
+    public static final String TABLE_ROOM = "VYSPER_MUC_ROOM";
+
+    public static final String TABLE_AFFILIATION = "VYSPER_MUC_AFFILIATION";
+
+    public static final String TABLE_HISTORY = "VYSPER_MUC_HISTORY";
+
+    protected static final String[] SCHEMA = {
+            "CREATE TABLE " + TABLE_ROOM + " (jid VARCHAR(2047) NOT NULL, name VARCHAR(1024) NOT NULL, "
+                    + "password VARCHAR(1024), room_types VARCHAR(1024) NOT NULL, history_size INT NOT NULL, "
+                    + "PRIMARY KEY (jid))",
+            "CREATE TABLE " + TABLE_AFFILIATION + " (room_jid VARCHAR(2047) NOT NULL, "
+                    + "user_jid VARCHAR(2047) NOT NULL, affiliation VARCHAR(16) NOT NULL, "
+                    + "PRIMARY KEY (room_jid, user_jid))",
+            "CREATE TABLE " + TABLE_HISTORY + " (room_jid VARCHAR(2047) NOT NULL, seq BIGINT NOT NULL, "
+                    + "sender_nick VARCHAR(1024) NOT NULL, stamp BIGINT NOT NULL, subject SMALLINT NOT NULL, "
+                    + "stanza CLOB NOT NULL, PRIMARY KEY (room_jid, seq))" };
+
+    private static final String SELECT_ROOM = "SELECT name, password, room_types, history_size FROM " + TABLE_ROOM
+            + " WHERE jid = ?";
+
+    private static final String SELECT_ROOM_JIDS = "SELECT jid FROM " + TABLE_ROOM;
+
+    private static final String SELECT_ROOM_NAMES = "SELECT jid, name FROM " + TABLE_ROOM;
+
+    private static final String INSERT_ROOM = "INSERT INTO " + TABLE_ROOM
+            + " (jid, name, password, room_types, history_size) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_ROOM = "UPDATE " + TABLE_ROOM + " SET name = ?, password = ?, history_size = ? WHERE jid = ?";
+
+    private static final String DELETE_ROOM = "DELETE FROM " + TABLE_ROOM + " WHERE jid = ?";
+
+    private static final String SELECT_AFFILIATIONS = "SELECT user_jid, affiliation FROM " + TABLE_AFFILIATION
+            + " WHERE room_jid = ?";
+
+    private static final String UPDATE_AFFILIATION = "UPDATE " + TABLE_AFFILIATION
+            + " SET affiliation = ? WHERE room_jid = ? AND user_jid = ?";
+
+    private static final String INSERT_AFFILIATION = "INSERT INTO " + TABLE_AFFILIATION
+            + " (affiliation, room_jid, user_jid) VALUES (?, ?, ?)";
+
+    private static final String DELETE_AFFILIATION = "DELETE FROM " + TABLE_AFFILIATION
+            + " WHERE room_jid = ? AND user_jid = ?";
+
+    private static final String DELETE_AFFILIATIONS = "DELETE FROM " + TABLE_AFFILIATION + " WHERE room_jid = ?";
+
+    private static final String SELECT_HISTORY = "SELECT seq, sender_nick, stamp, stanza FROM " + TABLE_HISTORY
+            + " WHERE room_jid = ? ORDER BY seq";
+
+    private static final String INSERT_HISTORY = "INSERT INTO " + TABLE_HISTORY
+            + " (room_jid, seq, sender_nick, stamp, subject, stanza) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String TRIM_HISTORY = "DELETE FROM " + TABLE_HISTORY
+            + " WHERE room_jid = ? AND seq <= ? AND subject = 0";
+
+    private static final String DELETE_SUBJECTS = "DELETE FROM " + TABLE_HISTORY
+            + " WHERE room_jid = ? AND seq < ? AND subject = 1";
+
+    private static final String DELETE_HISTORY = "DELETE FROM " + TABLE_HISTORY + " WHERE room_jid = ?";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String BATCH_ELEMENT = "batch";
+
+    public static final long DEFAULT_HIBERNATION_IDLE_MILLIS = 30 * 60 * 1000L;
+
+    /**
+     * maximum number of history messages written in one transaction
+     */
+    public static final int HISTORY_BATCH_SIZE = 500;
+
+    protected JdbcStorage jdbcStorage;
+
+    private long hibernationIdleMillis = DEFAULT_HIBERNATION_IDLE_MILLIS;
+
+    private Timer hibernationTimer;
+
+    /**
+     * all rooms loaded or created so far
+     */
+    private final ConcurrentMap<Entity, Room> rooms = new ConcurrentHashMap<Entity, Room>();
+
+    /**
+     * the last history sequence number of each persistent room
+     */
+    private final Map<Entity, AtomicLong> historySequences = new ConcurrentHashMap<Entity, AtomicLong>();
+
+    private final RoomListener persistingListener = new PersistingRoomListener();
+
+    /**
+     * history messages not yet written to the database
+     */
+    private final BlockingQueue<HistoryRecord> pendingHistory = new LinkedBlockingQueue<HistoryRecord>();
+
+    private final AtomicBoolean historyFlushScheduled = new AtomicBoolean();
+
+    private ExecutorService historyWriter;
+
+    // the number of batches written to the history table, since the provider was created
+    private volatile int historyBatchCount = 0;
+
+    public JdbcRoomStorageProvider(JdbcStorage jdbcStorage) {
+        this.jdbcStorage = jdbcStorage;
+    }
+
+    /**
+     * @param hibernationIdleMillis time after which an empty room is evicted from memory, 0 disables hibernation.
+     * must be set before {@link #initialize()}.
+     */
+    public void setHibernationIdleTime(long hibernationIdleMillis) {
+        this.hibernationIdleMillis = hibernationIdleMillis;
+    }
+
+    public long getHibernationIdleTime() {
+        return hibernationIdleMillis;
+    }
+
+    public void initialize() {
+        if (historyWriter == null) {
+            historyWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "muc-history-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        if (hibernationIdleMillis > 0 && hibernationTimer == null) {
+            long period = Math.max(1000, hibernationIdleMillis / 4);
+            hibernationTimer = new Timer("muc-hibernation", true);
+            hibernationTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    hibernateIdleRooms();
+                }
+            }, period, period);
+        }
+        try {
+            jdbcStorage.execute(new JdbcStorageOperation<Object>() {
+                public Object execute(PooledConnection connection) throws SQLException {
+                    createSchema(connection);
+                    return null;
+                }
+            });
+        } catch (JdbcStorageException e) {
+            throw new IllegalStateException("failed to initialize MUC room storage", e);
+        }
+    }
+
+    protected void createSchema(PooledConnection connection) throws SQLException {
+        ResultSet tables = connection.getConnection().getMetaData().getTables(null, null, TABLE_ROOM, null);
+        try {
+            if (tables.next())
+                return; // schema exists
+        } finally {
+            tables.close();
+        }
+        Statement statement = connection.getConnection().createStatement();
+        try {
+            for (String ddl : SCHEMA) {
+                statement.executeUpdate(ddl);
+            }
+        } finally {
+            statement.close();
+        }
+        logger.info("created MUC room storage schema");
+    }
+
+    /**
+     * stops the hibernation of idle rooms and writes the pending history
+     */
+    public void close() {
+        if (hibernationTimer != null) {
+            hibernationTimer.cancel();
+            hibernationTimer = null;
+        }
+        if (historyWriter != null) {
+            historyWriter.shutdown();
+            try {
+                historyWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            historyWriter = null;
+        }
+        flushHistory();
+    }
+
+    /*package*/boolean isHibernationScheduled() {
+        return hibernationTimer != null;
+    }
+
+    /**
+     * evicts all persistent rooms from memory which have been empty for longer than the hibernation idle time
+     * @return the number of hibernated rooms
+     */
+    public int hibernateIdleRooms() {
+        return hibernateRooms(System.currentTimeMillis() - hibernationIdleMillis);
+    }
+
+    /**
+     * @param idleSince rooms empty since this time or earlier are hibernated
+     */
+    /*package*/int hibernateRooms(long idleSince) {
+        int hibernated = 0;
+        for (Room room : rooms.values()) {
+            // checking for occupants and marking the room happen atomically, joins to the marked
+            // room fail and load the room again
+            if (!room.isRoomType(RoomType.Persistent) || !room.hibernate(idleSince))
+                continue;
+            // the listener stays, so that changes through references still held elsewhere are stored
+            if (rooms.remove(room.getJID(), room))
+                hibernated++;
+        }
+        if (hibernated > 0)
+            logger.debug("hibernated {} idle rooms", hibernated);
+        return hibernated;
+    }
+
+    public Room createRoom(Entity jid, String name, RoomType... roomTypes) {
+        final Room room = new Room(jid, name, roomTypes);
+        if (room.isRoomType(RoomType.Persistent)) {
+            final String roomJid = jid.getFullQualifiedName();
+            try {
+                jdbcStorage.execute(new JdbcStorageOperation<Object>() {
+                    public Object execute(PooledConnection connection) throws SQLException {
+                        // clean up leftovers of a room with the same JID, if any
+                        deleteRoom(connection, roomJid);
+                        PreparedStatement statement = connection.prepareStatement(INSERT_ROOM);
+                        statement.setString(1, roomJid);
+                        statement.setString(2, room.getName());
+                        statement.setString(3, room.getPassword());
+                        statement.setString(4, encodeRoomTypes(room.getRoomTypes()));
+                        statement.setInt(5, room.getHistory().getMaxItems());
+                        statement.executeUpdate();
+                        return null;
+                    }
+                });
+            } catch (JdbcStorageException e) {
+                logger.warn("failed to store room " + roomJid, e);
+            }
+            historySequences.put(jid, new AtomicLong());
+            room.setListener(persistingListener);
+        }
+        rooms.put(jid, room);
+        return room;
+    }
+
+    /**
+     * loads all stored rooms, including their affiliations and history. for listing the rooms, use
+     * {@link #getAllRoomNames()}, which does not load them.
+     */
+    public Collection<Room> getAllRooms() {
+        try {
+            List<String> roomJids = jdbcStorage.execute(new JdbcStorageOperation<List<String>>() {
+                public List<String> execute(PooledConnection connection) throws SQLException {
+                    List<String> roomJids = new ArrayList<String>();
+                    ResultSet resultSet = connection.prepareStatement(SELECT_ROOM_JIDS).executeQuery();
+                    try {
+                        while (resultSet.next()) {
+                            roomJids.add(resultSet.getString(1));
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                    return roomJids;
+                }
+            });
+            for (String roomJid : roomJids) {
+                findRoom(EntityImpl.parseUnchecked(roomJid));
+            }
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to list stored rooms", e);
+        }
+        return Collections.unmodifiableCollection(rooms.values());
+    }
+
+    public Map<Entity, String> getAllRoomNames() {
+        Map<Entity, String> names = new LinkedHashMap<Entity, String>();
+        try {
+            names.putAll(jdbcStorage.execute(new JdbcStorageOperation<Map<Entity, String>>() {
+                public Map<Entity, String> execute(PooledConnection connection) throws SQLException {
+                    Map<Entity, String> names = new LinkedHashMap<Entity, String>();
+                    ResultSet resultSet = connection.prepareStatement(SELECT_ROOM_NAMES).executeQuery();
+                    try {
+                        while (resultSet.next()) {
+                            names.put(EntityImpl.parseUnchecked(resultSet.getString(1)), resultSet.getString(2));
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                    return names;
+                }
+            }));
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to list stored rooms", e);
+        }
+        // temporary rooms are only known in memory
+        for (Room room : rooms.values()) {
+            if (!names.containsKey(room.getJID()))
+                names.put(room.getJID(), room.getName());
+        }
+        return names;
+    }
+
+    public Room findRoom(Entity jid) {
+        Room room = rooms.get(jid);
+        if (room != null) {
+            if (!room.isHibernated())
+                return room;
+            // hibernated, but not yet removed from the cache
+            rooms.remove(jid, room);
+        }
+
+        room = loadRoom(jid);
+        if (room == null)
+            return null;
+
+        Room existing = rooms.putIfAbsent(jid, room);
+        if (existing != null) {
+            // loaded concurrently by another thread
+            return existing;
+        }
+        room.setListener(persistingListener);
+        return room;
+    }
+
+    /**
+     * @return true, if the room is currently held in memory
+     */
+    /*package*/boolean isLoaded(Entity jid) {
+        return rooms.containsKey(jid);
+    }
+
+    public boolean roomExists(Entity jid) {
+        return findRoom(jid) != null;
+    }
+
+    public void deleteRoom(Entity jid) {
+        // pending history must not be written after the room is gone
+        flushHistory();
+        Room room = rooms.remove(jid);
+        historySequences.remove(jid);
+        if (room != null) {
+            room.setListener(null);
+            if (!room.isRoomType(RoomType.Persistent))
+                return;
+        }
+        final String roomJid = jid.getFullQualifiedName();
+        try {
+            jdbcStorage.execute(new JdbcStorageOperation<Object>() {
+                public Object execute(PooledConnection connection) throws SQLException {
+                    deleteRoom(connection, roomJid);
+                    return null;
+                }
+            });
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to delete room " + roomJid, e);
+        }
+    }
+
+    private void deleteRoom(PooledConnection connection, String roomJid) throws SQLException {
+        for (String sql : new String[] { DELETE_HISTORY, DELETE_AFFILIATIONS, DELETE_ROOM }) {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setString(1, roomJid);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * reads the room, its affiliations and its history in one transaction
+     */
+    private Room loadRoom(final Entity jid) {
+        // a hibernated room might still have history waiting to be written
+        flushHistory();
+        final String roomJid = jid.getFullQualifiedName();
+        try {
+            return jdbcStorage.execute(new JdbcStorageOperation<Room>() {
+                public Room execute(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepareStatement(SELECT_ROOM);
+                    statement.setString(1, roomJid);
+                    ResultSet resultSet = statement.executeQuery();
+                    Room room;
+                    try {
+                        if (!resultSet.next())
+                            return null;
+                        room = new Room(jid, resultSet.getString(1), decodeRoomTypes(resultSet.getString(3)));
+                        room.setPassword(resultSet.getString(2));
+                        room.getHistory().setMaxItems(resultSet.getInt(4));
+                    } finally {
+                        resultSet.close();
+                    }
+
+                    statement = connection.prepareStatement(SELECT_AFFILIATIONS);
+                    statement.setString(1, roomJid);
+                    resultSet = statement.executeQuery();
+                    try {
+                        while (resultSet.next()) {
+                            room.getAffiliations().add(EntityImpl.parseUnchecked(resultSet.getString(1)),
+                                    Affiliation.valueOf(resultSet.getString(2)));
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+
+                    loadHistory(connection, room);
+                    return room;
+                }
+            });
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to load room " + roomJid, e);
+            return null;
+        }
+    }
+
+    private void loadHistory(PooledConnection connection, Room room) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(SELECT_HISTORY);
+        statement.setString(1, room.getJID().getFullQualifiedName());
+        ResultSet resultSet = statement.executeQuery();
+        long lastSequence = 0;
+        List<String> nicks = new ArrayList<String>();
+        List<Long> stamps = new ArrayList<Long>();
+        StringBuilder batch = new StringBuilder();
+        batch.append("<").append(BATCH_ELEMENT).append(" xmlns=\"").append(NamespaceURIs.JABBER_CLIENT).append("\">");
+        try {
+            while (resultSet.next()) {
+                lastSequence = resultSet.getLong(1);
+                nicks.add(resultSet.getString(2));
+                stamps.add(resultSet.getLong(3));
+                batch.append(resultSet.getString(4));
+            }
+        } finally {
+            resultSet.close();
+        }
+        batch.append("</").append(BATCH_ELEMENT).append(">");
+        historySequences.put(room.getJID(), new AtomicLong(lastSequence));
+
+        if (nicks.isEmpty())
+            return;
+        List<Stanza> stanzas = decode(batch.toString());
+        if (stanzas.size() != nicks.size()) {
+            logger.warn("failed to restore the discussion history of room {}", room.getJID());
+            return;
+        }
+        for (int i = 0; i < stanzas.size(); i++) {
+            Calendar timestamp = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            timestamp.setTimeInMillis(stamps.get(i));
+            room.getHistory().append(stanzas.get(i), nicks.get(i), timestamp);
+        }
+    }
+
+    private List<Stanza> decode(String batch) {
+        List<Stanza> stanzas = new ArrayList<Stanza>();
+        try {
+            XMLElementBatchDecoder.decode(IoBuffer.wrap(batch.getBytes(UTF8)), new StanzaBuilderFactory(),
+                    Stanza.class, stanzas);
+        } catch (Exception e) {
+            logger.error("failed to decode history stanzas, " + stanzas.size() + " recovered", e);
+        }
+        return stanzas;
+    }
+
+    private void scheduleHistoryFlush() {
+        ExecutorService writer = historyWriter;
+        if (writer == null) {
+            flushHistory();
+            return;
+        }
+        // one flush at a time is enough, it takes all messages queued until then
+        if (!historyFlushScheduled.compareAndSet(false, true))
+            return;
+        try {
+            writer.execute(new Runnable() {
+                public void run() {
+                    historyFlushScheduled.set(false);
+                    flushHistory();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed meanwhile
+            historyFlushScheduled.set(false);
+            flushHistory();
+        }
+    }
+
+    /**
+     * writes all pending history messages, in batches of at most {@link #HISTORY_BATCH_SIZE}
+     */
+    /*package*/synchronized void flushHistory() {
+        List<HistoryRecord> batch = new ArrayList<HistoryRecord>();
+        while (pendingHistory.drainTo(batch, HISTORY_BATCH_SIZE) > 0) {
+            writeHistory(batch);
+            batch.clear();
+        }
+    }
+
+    /*package*/int getHistoryBatchCount() {
+        return historyBatchCount;
+    }
+
+    /**
+     * inserts the messages and trims the history of each room once, in one transaction
+     */
+    private void writeHistory(final List<HistoryRecord> batch) {
+        try {
+            jdbcStorage.execute(new JdbcStorageOperation<Object>() {
+                public Object execute(PooledConnection connection) throws SQLException {
+                    Map<Room, Long> lastMessages = new HashMap<Room, Long>();
+                    Map<Room, Long> lastSubjects = new HashMap<Room, Long>();
+                    PreparedStatement statement = connection.prepareStatement(INSERT_HISTORY);
+                    // the statement is cached, drop what a failed batch left behind
+                    statement.clearBatch();
+                    for (HistoryRecord record : batch) {
+                        if (!historySequences.containsKey(record.room.getJID()))
+                            continue; // deleted meanwhile
+                        statement.setString(1, record.room.getJID().getFullQualifiedName());
+                        statement.setLong(2, record.seq);
+                        statement.setString(3, record.senderNick);
+                        statement.setLong(4, record.stamp);
+                        statement.setInt(5, record.subject ? 1 : 0);
+                        statement.setString(6, record.xml);
+                        statement.addBatch();
+                        Map<Room, Long> lastSequences = record.subject ? lastSubjects : lastMessages;
+                        Long last = lastSequences.get(record.room);
+                        if (last == null || last < record.seq)
+                            lastSequences.put(record.room, record.seq);
+                    }
+                    if (lastMessages.isEmpty() && lastSubjects.isEmpty())
+                        return null;
+                    statement.executeBatch();
+
+                    // only the latest subject is kept
+                    for (Map.Entry<Room, Long> lastSubject : lastSubjects.entrySet()) {
+                        statement = connection.prepareStatement(DELETE_SUBJECTS);
+                        statement.setString(1, lastSubject.getKey().getJID().getFullQualifiedName());
+                        statement.setLong(2, lastSubject.getValue());
+                        statement.executeUpdate();
+                    }
+                    // keep no more messages than the history holds
+                    for (Map.Entry<Room, Long> lastMessage : lastMessages.entrySet()) {
+                        Room room = lastMessage.getKey();
+                        statement = connection.prepareStatement(TRIM_HISTORY);
+                        statement.setString(1, room.getJID().getFullQualifiedName());
+                        statement.setLong(2, lastMessage.getValue() - room.getHistory().getMaxItems());
+                        statement.executeUpdate();
+                    }
+                    return null;
+                }
+            });
+            historyBatchCount++;
+        } catch (JdbcStorageException e) {
+            logger.warn("failed to store " + batch.size() + " history messages", e);
+        }
+    }
+
+    private static String encodeRoomTypes(EnumSet<RoomType> roomTypes) {
+        StringBuilder encoded = new StringBuilder();
+        for (RoomType roomType : roomTypes) {
+            if (encoded.length() > 0)
+                encoded.append(",");
+            encoded.append(roomType.name());
+        }
+        return encoded.toString();
+    }
+
+    private static RoomType[] decodeRoomTypes(String encoded) {
+        List<RoomType> roomTypes = new ArrayList<RoomType>();
+        for (String name : encoded.split(",")) {
+            if (name.length() > 0)
+                roomTypes.add(RoomType.valueOf(name));
+        }
+        return roomTypes.toArray(new RoomType[roomTypes.size()]);
+    }
+
+    private static class HistoryRecord {
+        final Room room;
+
+        final long seq;
+
+        final String senderNick;
+
+        final long stamp;
+
+        final boolean subject;
+
+        final String xml;
+
+        HistoryRecord(Room room, long seq, String senderNick, long stamp, boolean subject, String xml) {
+            this.room = room;
+            this.seq = seq;
+            this.senderNick = senderNick;
+            this.stamp = stamp;
+            this.subject = subject;
+            this.xml = xml;
+        }
+    }
+
+    /**
+     * writes changes of loaded persistent rooms through to the database, except for the history,
+     * which is queued for the background writer
+     */
+    private class PersistingRoomListener implements RoomListener {
+
+        public void roomChanged(final Room room) {
+            final String roomJid = room.getJID().getFullQualifiedName();
+            try {
+                jdbcStorage.execute(new JdbcStorageOperation<Object>() {
+                    public Object execute(PooledConnection connection) throws SQLException {
+                        PreparedStatement statement = connection.prepareStatement(UPDATE_ROOM);
+                        statement.setString(1, room.getName());
+                        statement.setString(2, room.getPassword());
+                        statement.setInt(3, room.getHistory().getMaxItems());
+                        statement.setString(4, roomJid);
+                        statement.executeUpdate();
+                        return null;
+                    }
+                });
+            } catch (JdbcStorageException e) {
+                logger.warn("failed to update room " + roomJid, e);
+            }
+        }
+
+        public void affiliationChanged(Room room, Entity user, final Affiliation affiliation) {
+            final String roomJid = room.getJID().getFullQualifiedName();
+            final String userJid = user.getFullQualifiedName();
+            try {
+                jdbcStorage.executeUpsert(new JdbcStorageOperation<Object>() {
+                    public Object execute(PooledConnection connection) throws SQLException {
+                        if (affiliation == null) {
+                            PreparedStatement statement = connection.prepareStatement(DELETE_AFFILIATION);
+                            statement.setString(1, roomJid);
+                            statement.setString(2, userJid);
+                            statement.executeUpdate();
+                            return null;
+                        }
+                        PreparedStatement statement = connection.prepareStatement(UPDATE_AFFILIATION);
+                        statement.setString(1, affiliation.name());
+                        statement.setString(2, roomJid);
+                        statement.setString(3, userJid);
+                        if (statement.executeUpdate() == 0) {
+                            statement = connection.prepareStatement(INSERT_AFFILIATION);
+                            statement.setString(1, affiliation.name());
+                            statement.setString(2, roomJid);
+                            statement.setString(3, userJid);
+                            statement.executeUpdate();
+                        }
+                        return null;
+                    }
+                });
+            } catch (JdbcStorageException e) {
+                logger.warn("failed to store affiliation of " + userJid + " in room " + roomJid, e);
+            }
+        }
+
+        public void historyAppended(Room room, Stanza stanza, String senderNick, Calendar timestamp) {
+            AtomicLong sequence = historySequences.get(room.getJID());
+            if (sequence == null)
+                return; // deleted meanwhile
+            boolean subject = !stanza.getInnerElementsNamed("subject").isEmpty()
+                    && stanza.getInnerElementsNamed("body").isEmpty();
+            pendingHistory.add(new HistoryRecord(room, sequence.incrementAndGet(), senderNick, timestamp
+                    .getTimeInMillis(), subject, new Renderer(stanza).getComplete()));
+            scheduleHistoryFlush();
+        }
+    }
+}
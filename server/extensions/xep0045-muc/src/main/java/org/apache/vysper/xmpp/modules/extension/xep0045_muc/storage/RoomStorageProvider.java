@@ -20,6 +20,7 @@
 package org.apache.vysper.xmpp.modules.extension.xep0045_muc.storage;
 
 import java.util.Collection;
+import java.util.Map;
 
 import org.apache.vysper.storage.StorageProvider;
 import org.apache.vysper.xmpp.addressing.Entity;
@@ -30,10 +31,21 @@ public interface RoomStorageProvider extends StorageProvider {
 
     void initialize();
 
+    /**
+     * releases the threads and other resources held by the provider
+     */
+    void close();
+
     Room createRoom(Entity jid, String name, RoomType... roomTypes);
 
     Collection<Room> getAllRooms();
 
+    /**
+     * lists the JIDs and names of all rooms, without loading rooms which are not in memory
+     * @return room names by room JID
+     */
+    Map<Entity, String> getAllRoomNames();
+
     boolean roomExists(Entity jid);
 
     Room findRoom(Entity jid);
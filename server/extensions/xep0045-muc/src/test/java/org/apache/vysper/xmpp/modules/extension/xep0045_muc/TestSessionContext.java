@@ -21,6 +21,7 @@
 package org.apache.vysper.xmpp.modules.extension.xep0045_muc;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -36,12 +37,13 @@ import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.writer.BatchStanzaWriter;
 import org.apache.vysper.xmpp.writer.StanzaWriter;
 
 /**
  * makes response available for testing
  */
-public class TestSessionContext extends AbstractSessionContext implements StanzaWriter {
+public class TestSessionContext extends AbstractSessionContext implements BatchStanzaWriter {
 
     private LinkedBlockingQueue<Stanza> recordedResponses = new LinkedBlockingQueue<Stanza>();
 
@@ -53,6 +55,8 @@ public class TestSessionContext extends AbstractSessionContext implements Stanza
 
     private int recordedResponsesTotal = 0;
 
+    private int recordedBatchesTotal = 0;
+
     /**
      * creates a new session context (but doesn't set the runtime context)
      * @param entity
@@ -152,6 +156,7 @@ public class TestSessionContext extends AbstractSessionContext implements Stanza
     public void reset() {
         recordedResponses.clear();
         recordedResponsesTotal = 0;
+        recordedBatchesTotal = 0;
     }
 
     /**
@@ -162,6 +167,15 @@ public class TestSessionContext extends AbstractSessionContext implements Stanza
         recordedResponsesTotal++;
     }
 
+    /**
+     * @param stanzas records all stanzas as one batch
+     */
+    public void writeBatch(List<Stanza> stanzas) {
+        recordedResponses.addAll(stanzas);
+        recordedResponsesTotal += stanzas.size();
+        recordedBatchesTotal++;
+    }
+
     public void setSessionState(SessionState sessionState) {
         this.sessionStateHolder.setState(sessionState);
     }
@@ -196,4 +210,8 @@ public class TestSessionContext extends AbstractSessionContext implements Stanza
     public int getRecordedResponsesTotal() {
         return recordedResponsesTotal;
     }
+
+    public int getRecordedBatchesTotal() {
+        return recordedBatchesTotal;
+    }
 }
@@ -25,6 +25,7 @@ import java.util.List;
 import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xml.fragment.XMLElementBuilder;
 import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.TestSessionContext;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Affiliation;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Occupant;
@@ -37,8 +38,10 @@ import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.X;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.protocol.ProtocolException;
 import org.apache.vysper.xmpp.protocol.ResponseStanzaContainer;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.protocol.StanzaHandler;
 import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.stanza.MessageStanza;
 import org.apache.vysper.xmpp.stanza.MessageStanzaType;
 import org.apache.vysper.xmpp.stanza.Stanza;
@@ -57,7 +60,7 @@ public class EnterRoomTestCase extends AbstractMUCHandlerTestCase {
     private Stanza enterRoom(Entity occupantJid, Entity roomJid, String password, History history, boolean oldProtocol)
             throws ProtocolException {
         SessionContext userSessionContext;
-        if (occupantJid.equals(OCCUPANT1_JID)) {
+        if (occupantJid.getBareJID().equals(OCCUPANT1_JID)) {
             userSessionContext = sessionContext;
         } else {
             userSessionContext = sessionContext2;
@@ -255,6 +258,53 @@ public class EnterRoomTestCase extends AbstractMUCHandlerTestCase {
 
     }
 
+    public void testEnterRoomWithLocalSession() throws Exception {
+        Room room = conference.findOrCreateRoom(ROOM1_JID, "Room 1");
+        room.addOccupant(OCCUPANT2_JID, "Some nick");
+        room.getHistory().append(
+                StanzaBuilder.createMessageStanza(OCCUPANT2_JID, ROOM1_JID, MessageStanzaType.GROUPCHAT, null, "Body")
+                        .build(), new Occupant(OCCUPANT2_JID, "Some nick", room, Role.Participant));
+
+        // the new user is connected to this server
+        SessionStateHolder stateHolder = new SessionStateHolder();
+        stateHolder.setState(SessionState.AUTHENTICATED);
+        TestSessionContext newUserSession = TestSessionContext.createWithStanzaReceiverRelay(stateHolder,
+                sessionContext.getServerRuntimeContext());
+        newUserSession.setInitiatingEntity(OCCUPANT1_JID.getBareJID());
+        String resource = sessionContext.getServerRuntimeContext().getResourceRegistry().bindSession(newUserSession);
+        Entity newUserJid = new EntityImpl(OCCUPANT1_JID.getBareJID(), resource);
+
+        enterRoom(newUserJid, ROOM1_JID_WITH_NICK);
+
+        // the existing occupant gets the new user's presence
+        Stanza stanza = occupant2Queue.getNext();
+        assertEquals(ROOM1_JID_WITH_NICK, stanza.getFrom());
+        assertEquals(OCCUPANT2_JID, stanza.getTo());
+        assertNull(occupant2Queue.getNext());
+
+        // the new user gets the existing presence, his own presence and the history in one batch
+        assertEquals(1, newUserSession.getRecordedBatchesTotal());
+        assertEquals(3, newUserSession.getRecordedResponsesTotal());
+
+        stanza = newUserSession.getNextRecordedResponse();
+        assertEquals("presence", stanza.getName());
+        assertEquals(ROOM1_JID.getFullQualifiedName() + "/Some nick", stanza.getFrom().getFullQualifiedName());
+        assertEquals(newUserJid, stanza.getTo());
+
+        stanza = newUserSession.getNextRecordedResponse();
+        assertEquals("presence", stanza.getName());
+        assertEquals(ROOM1_JID_WITH_NICK, stanza.getFrom());
+        assertEquals(newUserJid, stanza.getTo());
+        List<XMLElement> statusElements = stanza.getFirstInnerElement().getInnerElementsNamed("status");
+        assertEquals("110", statusElements.get(statusElements.size() - 1).getAttributeValue("code"));
+
+        stanza = newUserSession.getNextRecordedResponse();
+        assertEquals("message", stanza.getName());
+        assertEquals(newUserJid, stanza.getTo());
+
+        assertNull(occupant1Queue.getNext());
+    }
+
     public void testDiscussionHistory() throws Exception {
         // add some messages
         Room room = conference.findOrCreateRoom(ROOM1_JID, "Room 1");
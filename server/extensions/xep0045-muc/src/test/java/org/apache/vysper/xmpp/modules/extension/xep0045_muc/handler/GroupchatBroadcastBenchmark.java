@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.LocalDeliveryUtils;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.TestSessionContext;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Occupant;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Room;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.RoomType;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionState;
+import org.apache.vysper.xmpp.stanza.MessageStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
+
+/**
+ * measures groupchat messages per second against the room size, comparing cloning the message for every
+ * occupant with the shared broadcast done by {@link RoomBroadcaster}.
+ * all occupants are bound to local sessions, which render every stanza they receive, like the codec does.
+ * 
+ * usage: GroupchatBroadcastBenchmark [seconds per run] [room sizes...]
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class GroupchatBroadcastBenchmark {
+
+    private static final Entity ROOM_JID = EntityImpl.parseUnchecked("room@chat.vysper.org");
+
+    private static final Entity SENDER = new EntityImpl(ROOM_JID, "sender");
+
+    private static final String BODY = "Lorem ipsum dolor sit amet, consectetur adipisicing elit, sed do eiusmod "
+            + "tempor incididunt ut labore et dolore magna aliqua. Ut enim ad minim veniam & more <text>";
+
+    /**
+     * a local session which renders every stanza written to it, without recording it
+     */
+    private static class RenderingSessionContext extends TestSessionContext {
+
+        private long renderedChars = 0;
+
+        public RenderingSessionContext(ServerRuntimeContext serverRuntimeContext, SessionStateHolder holder) {
+            super(serverRuntimeContext, holder);
+        }
+
+        @Override
+        public void write(Stanza stanza) {
+            renderedChars += new Renderer(stanza).getComplete().length();
+        }
+    }
+
+    public static void main(String[] args) {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 3;
+        int[] roomSizes = new int[] { 10, 100, 1000 };
+        if (args.length > 1) {
+            roomSizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                roomSizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Stanza message = StanzaBuilder.createMessageStanza(EntityImpl.parseUnchecked("sender@vysper.org/res"),
+                ROOM_JID, MessageStanzaType.GROUPCHAT, "en", BODY).build();
+
+        System.out.println("room size\tclone msg/s\tbroadcast msg/s\tspeedup");
+        for (int roomSize : roomSizes) {
+            TestSessionContext context = TestSessionContext.createWithStanzaReceiverRelayAuthenticated();
+            ServerRuntimeContext serverRuntimeContext = context.getServerRuntimeContext();
+            Room room = createRoom(serverRuntimeContext, roomSize);
+
+            // warm up both paths first
+            runClone(room, message, serverRuntimeContext, seconds * 1000 / 2);
+            runBroadcast(room, message, serverRuntimeContext, seconds * 1000 / 2);
+
+            double cloneRate = runClone(room, message, serverRuntimeContext, seconds * 1000);
+            double broadcastRate = runBroadcast(room, message, serverRuntimeContext, seconds * 1000);
+            System.out.println(String.format("%d\t\t%.1f\t\t%.1f\t\t%.2fx", roomSize, cloneRate, broadcastRate,
+                    broadcastRate / cloneRate));
+        }
+    }
+
+    private static Room createRoom(ServerRuntimeContext serverRuntimeContext, int size) {
+        ResourceRegistry registry = serverRuntimeContext.getResourceRegistry();
+        Room room = new Room(ROOM_JID, "Benchmark", RoomType.Public);
+        for (int i = 0; i < size; i++) {
+            SessionStateHolder holder = new SessionStateHolder();
+            holder.setState(SessionState.AUTHENTICATED);
+            RenderingSessionContext session = new RenderingSessionContext(serverRuntimeContext, holder);
+            Entity user = EntityImpl.parseUnchecked("user" + i + "@vysper.org");
+            session.setInitiatingEntity(user);
+            String resource = registry.bindSession(session);
+            room.addOccupant(new EntityImpl(user, resource), "nick" + i);
+        }
+        return room;
+    }
+
+    /**
+     * the previous approach: one clone per occupant, each rendered completely
+     */
+    private static double runClone(Room room, Stanza message, ServerRuntimeContext serverRuntimeContext,
+            long millis) {
+        ResourceRegistry registry = serverRuntimeContext.getResourceRegistry();
+        long messages = 0;
+        long start = System.currentTimeMillis();
+        long end = start + millis;
+        long now;
+        do {
+            for (Occupant occupant : room.getOccupants()) {
+                List<Attribute> replaceAttributes = new ArrayList<Attribute>();
+                replaceAttributes.add(new Attribute("from", SENDER.getFullQualifiedName()));
+                replaceAttributes.add(new Attribute("to", occupant.getJid().getFullQualifiedName()));
+                LocalDeliveryUtils.deliverToLocalSession(registry, occupant.getJid(), StanzaBuilder.createClone(
+                        message, true, replaceAttributes).build());
+            }
+            messages++;
+        } while ((now = System.currentTimeMillis()) < end);
+        return messages * 1000.0 / (now - start);
+    }
+
+    private static double runBroadcast(Room room, Stanza message, ServerRuntimeContext serverRuntimeContext,
+            long millis) {
+        RoomBroadcaster broadcaster = new RoomBroadcaster(serverRuntimeContext);
+        long messages = 0;
+        long start = System.currentTimeMillis();
+        long end = start + millis;
+        long now;
+        do {
+            broadcaster.broadcast(room, message, SENDER);
+            messages++;
+        } while ((now = System.currentTimeMillis()) < end);
+        return messages * 1000.0 / (now - start);
+    }
+}
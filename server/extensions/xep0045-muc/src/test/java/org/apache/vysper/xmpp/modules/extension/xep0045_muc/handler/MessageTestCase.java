@@ -23,7 +23,9 @@ import static org.apache.vysper.xmpp.stanza.MessageStanzaType.GROUPCHAT;
 
 import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xml.fragment.XMLElementBuilder;
+import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.TestSessionContext;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Occupant;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Role;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Room;
@@ -31,6 +33,8 @@ import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.Decline;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.Invite;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.Password;
 import org.apache.vysper.xmpp.modules.extension.xep0045_muc.stanzas.X;
+import org.apache.vysper.xmpp.protocol.SessionStateHolder;
+import org.apache.vysper.xmpp.server.SessionState;
 import org.apache.vysper.xmpp.stanza.MessageStanzaType;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaErrorCondition;
@@ -72,6 +76,31 @@ public class MessageTestCase extends AbstractMUCMessageHandlerTestCase {
         assertMessageStanza(ROOM1_JID_WITH_NICK, OCCUPANT2_JID, "groupchat", body, occupant2Queue.getNext());
     }
 
+    public void testMessageToRoomWithLocalSession() throws Exception {
+        String body = "Message body";
+
+        // occupant 2 is connected to this server
+        SessionStateHolder stateHolder = new SessionStateHolder();
+        stateHolder.setState(SessionState.AUTHENTICATED);
+        TestSessionContext occupant2Session = TestSessionContext.createWithStanzaReceiverRelay(stateHolder,
+                sessionContext.getServerRuntimeContext());
+        occupant2Session.setInitiatingEntity(OCCUPANT2_JID);
+        String resource = sessionContext.getServerRuntimeContext().getResourceRegistry().bindSession(occupant2Session);
+        Entity occupant2FullJid = new EntityImpl(OCCUPANT2_JID, resource);
+
+        Room room = conference.findOrCreateRoom(ROOM1_JID, "Room 1");
+        room.addOccupant(OCCUPANT1_JID, "nick");
+        room.addOccupant(occupant2FullJid, "Nick 2");
+
+        sendMessage(OCCUPANT1_JID, ROOM1_JID, GROUPCHAT, body);
+
+        // occupant 1 is reached through the relay, occupant 2 directly through its session
+        assertMessageStanza(ROOM1_JID_WITH_NICK, OCCUPANT1_JID, "groupchat", body, occupant1Queue.getNext());
+        assertMessageStanza(ROOM1_JID_WITH_NICK, occupant2FullJid, "groupchat", body, occupant2Session
+                .getNextRecordedResponse());
+        assertNull(occupant2Queue.getNext());
+    }
+
     public void testMessageToOccupant() throws Exception {
         String body = "Message body";
 
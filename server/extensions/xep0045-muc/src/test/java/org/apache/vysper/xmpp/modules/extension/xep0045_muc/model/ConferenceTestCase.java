@@ -98,4 +98,11 @@ public class ConferenceTestCase extends TestCase {
             // ok
         }
     }
+
+    public void testHistorySize() {
+        Conference conference = new Conference("foo");
+        conference.setHistorySize(5);
+        Room room = conference.createRoom(jid1, "Room 1");
+        assertEquals(5, room.getHistory().getMaxItems());
+    }
 }
@@ -134,6 +134,42 @@ public class DiscussionHistoryTestCase extends TestCase {
         assertStanzas(stanzas, 6);
     }
 
+    public void testWrapAround() throws Exception {
+        // overwrite the whole history once more
+        int offset = DiscussionHistory.DEFAULT_HISTORY_SIZE + 1;
+        for (int i = 0; i < DiscussionHistory.DEFAULT_HISTORY_SIZE; i++) {
+            history.append(StanzaBuilder.createMessageStanza(FROM, ROOM_JID, MessageStanzaType.GROUPCHAT, null,
+                    BODY + (offset + i)).build(), FROM_OCCUPANT);
+        }
+
+        List<Stanza> stanzas = history.createStanzas(RECEIVER_OCCUPANT, true, null);
+        assertEquals(DiscussionHistory.DEFAULT_HISTORY_SIZE, stanzas.size());
+        for (int i = 0; i < stanzas.size() - 1; i++) {
+            assertStanza(stanzas.get(i), BODY + (offset + i + 1), null);
+        }
+        assertStanza(stanzas.get(stanzas.size() - 1), null, SUBJECT);
+    }
+
+    public void testSetMaxItems() throws Exception {
+        history.setMaxItems(4);
+        assertStanzas(history.createStanzas(RECEIVER_OCCUPANT, true, null), 4);
+
+        // growing keeps the remaining messages
+        history.setMaxItems(DiscussionHistory.DEFAULT_HISTORY_SIZE);
+        assertStanzas(history.createStanzas(RECEIVER_OCCUPANT, true, null), 4);
+    }
+
+    public void testNoHistory() throws Exception {
+        history.setMaxItems(0);
+        history.append(StanzaBuilder.createMessageStanza(FROM, ROOM_JID, MessageStanzaType.GROUPCHAT, null, BODY)
+                .build(), FROM_OCCUPANT);
+
+        // only the subject is kept
+        List<Stanza> stanzas = history.createStanzas(RECEIVER_OCCUPANT, true, null);
+        assertEquals(1, stanzas.size());
+        assertStanza(stanzas.get(0), null, SUBJECT);
+    }
+
     private void assertStanzas(List<Stanza> stanzas, int expectedSize) throws Exception {
         assertEquals(expectedSize, stanzas.size());
 
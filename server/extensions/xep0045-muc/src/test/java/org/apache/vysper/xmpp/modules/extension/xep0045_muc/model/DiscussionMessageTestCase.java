@@ -24,6 +24,7 @@ import java.util.TimeZone;
 
 import junit.framework.TestCase;
 
+import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.addressing.EntityImpl;
@@ -98,4 +99,17 @@ public class DiscussionMessageTestCase extends TestCase {
                 .getAttributeValue("stamp"));
 
     }
+
+    public void testLength() throws Exception {
+        Stanza inStanza = StanzaBuilder.createMessageStanza(FROM, ROOM_JID, MessageStanzaType.GROUPCHAT, null,
+                BODY).build();
+        DiscussionMessage item = new DiscussionMessage(inStanza, FROM_OCCUPANT, TIMESTAMP);
+
+        Occupant toOccupant = new Occupant(EntityImpl.parseUnchecked("user2@vysper.org/res"), "nick 2", ROOM,
+                Role.Visitor);
+        assertEquals(new Renderer(item.createStanza(toOccupant, true)).getComplete().length(), item.getLength(
+                toOccupant, true));
+        assertEquals(new Renderer(item.createStanza(toOccupant, false)).getComplete().length(), item.getLength(
+                toOccupant, false));
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.model;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ */
+public class OccupantTestCase extends TestCase {
+
+    private static final Entity ROOM_JID = EntityImpl.parseUnchecked("room@vysper.org");
+
+    private static final Entity OCCUPANT_JID = EntityImpl.parseUnchecked("user@vysper.org/res");
+
+    private static final Entity RECEIVER1_JID = EntityImpl.parseUnchecked("receiver1@vysper.org/res");
+
+    private static final Entity RECEIVER2_JID = EntityImpl.parseUnchecked("receiver2@vysper.org/res");
+
+    private Room room = new Room(ROOM_JID, "Room");
+
+    private Occupant occupant;
+
+    @Override
+    protected void setUp() throws Exception {
+        occupant = room.addOccupant(OCCUPANT_JID, "nick");
+    }
+
+    private XMLElement getItem(Stanza presence) throws Exception {
+        return presence.getFirstInnerElement().getFirstInnerElement();
+    }
+
+    public void testCreatePresenceStanza() throws Exception {
+        Stanza presence = occupant.createPresenceStanza(RECEIVER1_JID, false);
+        assertEquals("presence", presence.getName());
+        assertEquals(new EntityImpl(ROOM_JID, "nick"), presence.getFrom());
+        assertEquals(RECEIVER1_JID, presence.getTo());
+        assertNull(getItem(presence).getAttributeValue("jid"));
+        assertEquals("none", getItem(presence).getAttributeValue("affiliation"));
+        assertEquals("participant", getItem(presence).getAttributeValue("role"));
+
+        presence = occupant.createPresenceStanza(RECEIVER1_JID, true);
+        assertEquals(OCCUPANT_JID.getFullQualifiedName(), getItem(presence).getAttributeValue("jid"));
+    }
+
+    public void testPresenceShared() throws Exception {
+        Stanza presence1 = occupant.createPresenceStanza(RECEIVER1_JID, false);
+        Stanza presence2 = occupant.createPresenceStanza(RECEIVER2_JID, false);
+
+        assertEquals(RECEIVER2_JID, presence2.getTo());
+        assertSame(presence1.getFirstInnerElement(), presence2.getFirstInnerElement());
+    }
+
+    public void testPresenceInvalidated() throws Exception {
+        occupant.createPresenceStanza(RECEIVER1_JID, false);
+
+        occupant.setRole(Role.Moderator);
+        Stanza presence = occupant.createPresenceStanza(RECEIVER1_JID, false);
+        assertEquals("moderator", getItem(presence).getAttributeValue("role"));
+
+        room.getAffiliations().add(OCCUPANT_JID, Affiliation.Admin);
+        presence = occupant.createPresenceStanza(RECEIVER1_JID, false);
+        assertEquals("admin", getItem(presence).getAttributeValue("affiliation"));
+
+        room.changeNick(occupant, "other");
+        presence = occupant.createPresenceStanza(RECEIVER1_JID, false);
+        assertEquals(new EntityImpl(ROOM_JID, "other"), presence.getFrom());
+    }
+}
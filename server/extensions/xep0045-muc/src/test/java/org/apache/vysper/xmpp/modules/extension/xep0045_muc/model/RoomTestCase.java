@@ -19,6 +19,7 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0045_muc.model;
 
+import java.util.Collection;
 import java.util.EnumSet;
 
 import junit.framework.TestCase;
@@ -158,4 +159,79 @@ public class RoomTestCase extends TestCase {
 
         assertNull(room.findOccupantByNick("Dummy"));
     }
+
+    public void testChangeNick() {
+        Room room = new Room(roomJid1, "Room 1");
+        Occupant occupant1 = room.addOccupant(occupantJid1, "Nick 1");
+        room.addOccupant(occupantJid2, "Nick 2");
+
+        assertFalse(room.changeNick(occupant1, "Nick 2"));
+        assertEquals("Nick 1", occupant1.getNick());
+
+        assertTrue(room.changeNick(occupant1, "Nick 3"));
+        assertEquals("Nick 3", occupant1.getNick());
+        assertSame(occupant1, room.findOccupantByNick("Nick 3"));
+        assertNull(room.findOccupantByNick("Nick 1"));
+        assertFalse(room.isInRoom("Nick 1"));
+
+        room.removeOccupant(occupantJid1);
+        assertNull(room.findOccupantByNick("Nick 3"));
+    }
+
+    public void testAddOccupantWithUsedNick() {
+        Room room = new Room(roomJid1, "Room 1");
+        Occupant occupant1 = room.addOccupant(occupantJid1, "Nick 1");
+
+        try {
+            room.addOccupant(occupantJid2, "Nick 1");
+            fail("Expects NickConflictException");
+        } catch (NickConflictException e) {
+            // ok
+        }
+        assertSame(occupant1, room.findOccupantByNick("Nick 1"));
+        assertNull(room.findOccupantByJID(occupantJid2));
+        assertEquals(1, room.getOccupantCount());
+
+        // re-entering with the own nick is no conflict
+        room.addOccupant(occupantJid1, "Nick 1");
+        assertEquals(1, room.getOccupantCount());
+    }
+
+    public void testOccupantSnapshot() {
+        Room room = new Room(roomJid1, "Room 1");
+        room.addOccupant(occupantJid1, "Nick 1");
+        Collection<Occupant> snapshot = room.getOccupants();
+        assertSame(snapshot, room.getOccupants());
+
+        room.addOccupant(occupantJid2, "Nick 2");
+        assertEquals(1, snapshot.size());
+        assertEquals(2, room.getOccupants().size());
+
+        try {
+            room.getOccupants().clear();
+            fail("Expects UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // ok
+        }
+    }
+
+    public void testHibernate() {
+        Room room = new Room(roomJid1, "Room 1");
+        room.addOccupant(occupantJid1, "Nick 1");
+        assertFalse(room.hibernate(System.currentTimeMillis()));
+        assertFalse(room.isHibernated());
+
+        room.removeOccupant(occupantJid1);
+        assertFalse(room.hibernate(room.getLastActivity() - 1));
+        assertTrue(room.hibernate(room.getLastActivity()));
+        assertTrue(room.isHibernated());
+
+        try {
+            room.addOccupant(occupantJid1, "Nick 1");
+            fail("Expects RoomHibernatedException");
+        } catch (RoomHibernatedException e) {
+            // ok
+        }
+        assertTrue(room.isEmpty());
+    }
 }
@@ -0,0 +1,309 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0045_muc.storage;
+
+import java.io.File;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.storage.jdbc.JdbcStorage;
+import org.apache.vysper.storage.jdbc.JdbcStorageProviderRegistry;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.MUCModule;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Affiliation;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Conference;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Occupant;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Role;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.Room;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.RoomHibernatedException;
+import org.apache.vysper.xmpp.modules.extension.xep0045_muc.model.RoomType;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.server.DefaultServerRuntimeContext;
+import org.apache.vysper.xmpp.stanza.MessageStanza;
+import org.apache.vysper.xmpp.stanza.MessageStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+
+/**
+ */
+public class JdbcRoomStorageProviderTestCase extends TestCase {
+
+    private static final Entity ROOM_JID = EntityImpl.parseUnchecked("room@chat.vysper.org");
+
+    private static final Entity USER = EntityImpl.parseUnchecked("user@vysper.org/res");
+
+    private static final Entity RECEIVER = EntityImpl.parseUnchecked("receiver@vysper.org/res");
+
+    private File databaseDirectory;
+
+    private JdbcStorage jdbcStorage;
+
+    private JdbcRoomStorageProvider provider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        databaseDirectory = File.createTempFile("jdbc", "");
+        databaseDirectory.delete();
+        databaseDirectory.mkdirs();
+        System.setProperty("derby.stream.error.file", new File(databaseDirectory, "derby.log").getPath());
+        openProvider();
+    }
+
+    private void openProvider() {
+        jdbcStorage = new JdbcStorage(databaseUrl(";create=true"));
+        provider = new JdbcRoomStorageProvider(jdbcStorage);
+        provider.setHibernationIdleTime(0);
+        provider.initialize();
+    }
+
+    /**
+     * simulates a server restart
+     */
+    private void reopenProvider() {
+        provider.close();
+        jdbcStorage.shutdown();
+        openProvider();
+    }
+
+    private String databaseUrl(String attributes) {
+        return "jdbc:derby:" + new File(databaseDirectory, "db").getPath() + attributes;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        provider.close();
+        jdbcStorage.shutdown();
+        try {
+            DriverManager.getConnection(databaseUrl(";shutdown=true"));
+        } catch (SQLException e) {
+            // derby always signals a successful shutdown by an exception
+        }
+        delete(databaseDirectory);
+        super.tearDown();
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private Stanza createMessage(String body) {
+        return StanzaBuilder.createMessageStanza(USER, ROOM_JID, MessageStanzaType.GROUPCHAT, null, body).build();
+    }
+
+    public void testRegisteredAndClosedByModule() throws Exception {
+        JdbcStorageProviderRegistry registry = new JdbcStorageProviderRegistry(jdbcStorage);
+        JdbcRoomStorageProvider registered = (JdbcRoomStorageProvider) registry.retrieve(RoomStorageProvider.class);
+        assertNotNull(registered);
+
+        DefaultServerRuntimeContext serverRuntimeContext = new DefaultServerRuntimeContext(EntityImpl
+                .parse("vysper.org"), null, registry);
+        Conference conference = new Conference("Conference");
+        MUCModule module = new MUCModule("chat", conference);
+        module.initialize(serverRuntimeContext);
+        assertSame(registered, conference.getRoomStorageProvider());
+        assertTrue(registered.isHibernationScheduled());
+
+        module.close();
+        assertFalse(registered.isHibernationScheduled());
+    }
+
+    public void testPersistentRoom() throws Exception {
+        Room room = provider.createRoom(ROOM_JID, "Room", RoomType.Persistent, RoomType.MembersOnly);
+        room.setPassword("secret");
+        room.getAffiliations().add(USER, Affiliation.Owner);
+        room.getAffiliations().add(RECEIVER, Affiliation.Member);
+        room.getAffiliations().add(RECEIVER, Affiliation.Admin);
+        room.getHistory().append(createMessage("Body1"), "nick", Calendar.getInstance());
+        room.getHistory().append(createMessage("Body2"), "nick", Calendar.getInstance());
+
+        reopenProvider();
+
+        assertTrue(provider.roomExists(ROOM_JID));
+        Room loaded = provider.findRoom(ROOM_JID);
+        assertEquals("Room", loaded.getName());
+        assertEquals("secret", loaded.getPassword());
+        assertEquals(room.getRoomTypes(), loaded.getRoomTypes());
+        assertEquals(Affiliation.Owner, loaded.getAffiliations().getAffiliation(USER));
+        assertEquals(Affiliation.Admin, loaded.getAffiliations().getAffiliation(RECEIVER));
+
+        List<Stanza> history = loaded.getHistory().createStanzas(
+                new Occupant(RECEIVER, "receiver", loaded, Role.Participant), false, null);
+        assertEquals(2, history.size());
+        assertEquals("Body1", new MessageStanza(history.get(0)).getBody(null));
+        assertEquals("Body2", new MessageStanza(history.get(1)).getBody(null));
+        assertEquals(new EntityImpl(ROOM_JID, "nick"), history.get(0).getFrom());
+    }
+
+    public void testHistoryTrimmed() throws Exception {
+        Room room = provider.createRoom(ROOM_JID, "Room", RoomType.Persistent);
+        room.getHistory().setMaxItems(3);
+        room.getHistory().append(StanzaBuilder.createMessageStanza(USER, ROOM_JID, MessageStanzaType.GROUPCHAT,
+                null, null).startInnerElement("subject", NamespaceURIs.JABBER_CLIENT).addText("Subject")
+                .endInnerElement().build(), "nick", Calendar.getInstance());
+        for (int i = 0; i < 5; i++) {
+            room.getHistory().append(createMessage("Body" + i), "nick", Calendar.getInstance());
+        }
+
+        reopenProvider();
+
+        Room loaded = provider.findRoom(ROOM_JID);
+        List<Stanza> history = loaded.getHistory().createStanzas(
+                new Occupant(RECEIVER, "receiver", loaded, Role.Participant), false, null);
+        assertEquals(3, history.size());
+        assertEquals("Body3", new MessageStanza(history.get(0)).getBody(null));
+        assertEquals("Body4", new MessageStanza(history.get(1)).getBody(null));
+        assertEquals("Subject", new MessageStanza(history.get(2)).getSubject(null));
+    }
+
+    public void testHistoryWrittenInBackground() throws Exception {
+        Room room = provider.createRoom(ROOM_JID, "Room", RoomType.Persistent);
+        room.getHistory().setMaxItems(5);
+        int batchCount = provider.getHistoryBatchCount();
+
+        synchronized (provider) {
+            // the writer cannot flush meanwhile, appending must not wait for it
+            for (int i = 0; i < 100; i++) {
+                room.getHistory().append(createMessage("Body" + i), "nick", Calendar.getInstance());
+            }
+            assertEquals(batchCount, provider.getHistoryBatchCount());
+        }
+        provider.flushHistory();
+        assertEquals(batchCount + 1, provider.getHistoryBatchCount());
+
+        reopenProvider();
+
+        Room loaded = provider.findRoom(ROOM_JID);
+        List<Stanza> history = loaded.getHistory().createStanzas(
+                new Occupant(RECEIVER, "receiver", loaded, Role.Participant), false, null);
+        assertEquals(5, history.size());
+        assertEquals("Body95", new MessageStanza(history.get(0)).getBody(null));
+        assertEquals("Body99", new MessageStanza(history.get(4)).getBody(null));
+    }
+
+    public void testTemporaryRoomNotStored() throws Exception {
+        provider.createRoom(ROOM_JID, "Room", RoomType.Temporary);
+        assertTrue(provider.roomExists(ROOM_JID));
+
+        reopenProvider();
+
+        assertFalse(provider.roomExists(ROOM_JID));
+    }
+
+    public void testGetAllRooms() throws Exception {
+        provider.createRoom(ROOM_JID, "Room", RoomType.Persistent);
+        provider.createRoom(EntityImpl.parseUnchecked("room2@chat.vysper.org"), "Room 2", RoomType.Persistent);
+
+        reopenProvider();
+
+        assertEquals(2, provider.getAllRooms().size());
+    }
+
+    public void testGetAllRoomNames() throws Exception {
+        Entity room2 = EntityImpl.parseUnchecked("room2@chat.vysper.org");
+        provider.createRoom(ROOM_JID, "Room", RoomType.Persistent);
+        provider.createRoom(room2, "Room 2", RoomType.Persistent);
+
+        reopenProvider();
+        Entity temporaryRoom = EntityImpl.parseUnchecked("temp@chat.vysper.org");
+        provider.createRoom(temporaryRoom, "Temp", RoomType.Temporary);
+
+        Map<Entity, String> names = provider.getAllRoomNames();
+        assertEquals(3, names.size());
+        assertEquals("Room", names.get(ROOM_JID));
+        assertEquals("Room 2", names.get(room2));
+        assertEquals("Temp", names.get(temporaryRoom));
+        // the stored rooms have not been loaded for listing them
+        assertFalse(provider.isLoaded(ROOM_JID));
+        assertFalse(provider.isLoaded(room2));
+    }
+
+    public void testDeleteRoom() throws Exception {
+        provider.createRoom(ROOM_JID, "Room", RoomType.Persistent).getAffiliations().add(USER, Affiliation.Owner);
+        provider.deleteRoom(ROOM_JID);
+        assertFalse(provider.roomExists(ROOM_JID));
+
+        reopenProvider();
+
+        assertFalse(provider.roomExists(ROOM_JID));
+        // affiliations of the deleted room are gone, too
+        Room room = provider.createRoom(ROOM_JID, "Room", RoomType.Persistent);
+        assertNull(room.getAffiliations().getAffiliation(USER));
+    }
+
+    public void testHibernation() throws Exception {
+        Room room = provider.createRoom(ROOM_JID, "Room", RoomType.Persistent);
+        room.getAffiliations().add(USER, Affiliation.Owner);
+        room.getHistory().append(createMessage("Body1"), "nick", Calendar.getInstance());
+        Room temporaryRoom = provider.createRoom(EntityImpl.parseUnchecked("temp@chat.vysper.org"), "Temp",
+                RoomType.Temporary);
+        Room occupiedRoom = provider.createRoom(EntityImpl.parseUnchecked("occupied@chat.vysper.org"), "Occupied",
+                RoomType.Persistent);
+        occupiedRoom.addOccupant(USER, "nick");
+
+        // rooms not idle long enough stay
+        assertEquals(0, provider.hibernateRooms(room.getLastActivity() - 1));
+        // only the empty persistent room is hibernated
+        assertEquals(1, provider.hibernateRooms(System.currentTimeMillis()));
+        assertSame(temporaryRoom, provider.findRoom(temporaryRoom.getJID()));
+        assertSame(occupiedRoom, provider.findRoom(occupiedRoom.getJID()));
+
+        // and rehydrated on the next access
+        Room rehydrated = provider.findRoom(ROOM_JID);
+        assertNotSame(room, rehydrated);
+        assertEquals(Affiliation.Owner, rehydrated.getAffiliations().getAffiliation(USER));
+        assertEquals(1, rehydrated.getHistory().createStanzas(
+                new Occupant(RECEIVER, "receiver", rehydrated, Role.Participant), false, null).size());
+        assertSame(rehydrated, provider.findRoom(ROOM_JID));
+    }
+
+    public void testJoinDuringHibernation() throws Exception {
+        provider.createRoom(ROOM_JID, "Room", RoomType.Persistent);
+        // a join has looked up the room, but not yet entered it
+        Room room = provider.findRoom(ROOM_JID);
+
+        assertEquals(1, provider.hibernateRooms(System.currentTimeMillis()));
+        try {
+            room.addOccupant(USER, "nick");
+            fail("Expects RoomHibernatedException");
+        } catch (RoomHibernatedException e) {
+            // ok
+        }
+
+        // the join retries with the reloaded room, which all later lookups find, too
+        Room reloaded = provider.findRoom(ROOM_JID);
+        assertNotSame(room, reloaded);
+        reloaded.addOccupant(USER, "nick");
+        assertSame(reloaded, provider.findRoom(ROOM_JID));
+        assertTrue(provider.findRoom(ROOM_JID).isInRoom(USER));
+    }
+}
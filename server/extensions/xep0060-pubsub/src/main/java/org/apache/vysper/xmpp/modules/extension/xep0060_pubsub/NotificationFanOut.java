@@ -0,0 +1,338 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.vysper.compliance.SpecCompliant;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.delivery.LocalDeliveryUtils;
+import org.apache.vysper.xmpp.delivery.StanzaRelay;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.delivery.failure.IgnoreFailureStrategy;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBroadcast;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the notifications for a published item to all subscribers of the node, off the publishing thread.
+ * <p>
+ * A single dispatcher thread walks the subscribers of the node and partitions them into chunks, one set of
+ * chunks per lane. Every lane is served by its own thread. A subscriber is always assigned to the same lane,
+ * so its notifications arrive in the order the items were published.
+ * <p>
+ * The notification is built once per item; all subscribers get a copy sharing the payload and its rendering.
+ * Subscribers connected to this server are written to directly, all others are reached through the relay.
+ * <p>
+ * The dispatcher and every lane queue at most a fixed number of tasks. When a queue is full, the submitting
+ * thread waits for space: a publisher outpacing the delivery is slowed down instead of piling up notifications
+ * on the heap, and no notification is dropped or reordered.
+ * <p>
+ * With 0 lanes, all notifications are sent synchronously by the publishing thread.
+ * <p>
+ * Once shut down, the fan-out stays shut down: later notifications are dropped and no threads are started.
+ * 
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+@SpecCompliant(spec = "xep-0060", section = "7.1.2.1", status = SpecCompliant.ComplianceStatus.FINISHED, coverage = SpecCompliant.ComplianceCoverage.COMPLETE)
+public class NotificationFanOut {
+
+    /**
+     * The number of subscribers handed to a lane at once.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * The number of tasks the dispatcher and each lane queue before the submitter has to wait.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    final Logger logger = LoggerFactory.getLogger(NotificationFanOut.class);
+
+    // Ignore all failures during the delivery (fire and forget)
+    private final DeliveryFailureStrategy dfs = new IgnoreFailureStrategy();
+
+    /**
+     * Lets the submitting thread wait until the queue has room for the task. Tasks submitted after shutdown
+     * are rejected.
+     */
+    private static final RejectedExecutionHandler WAIT_FOR_SPACE = new RejectedExecutionHandler() {
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown())
+                throw new RejectedExecutionException("fan-out is shut down");
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("interrupted while waiting for the queue");
+            }
+        }
+    };
+
+    private final int lanes;
+
+    private final int chunkSize;
+
+    private final int queueCapacity;
+
+    private static final int DISPATCHER = -1;
+
+    private ResourceRegistry resourceRegistry;
+
+    // created on first use
+    private ExecutorService dispatcher;
+
+    private ExecutorService[] laneExecutors;
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a fan-out with one lane per available processor.
+     */
+    public NotificationFanOut() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param lanes the number of threads delivering notifications, 0 for delivering on the publishing thread
+     * @param chunkSize the number of subscribers handed to a lane at once
+     */
+    public NotificationFanOut(int lanes, int chunkSize) {
+        this(lanes, chunkSize, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param lanes the number of threads delivering notifications, 0 for delivering on the publishing thread
+     * @param chunkSize the number of subscribers handed to a lane at once
+     * @param queueCapacity the number of tasks the dispatcher and each lane queue
+     */
+    public NotificationFanOut(int lanes, int chunkSize, int queueCapacity) {
+        if (lanes < 0)
+            throw new IllegalArgumentException("number of lanes must not be negative");
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunk size must be positive");
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("queue capacity must be positive");
+        this.lanes = lanes;
+        this.chunkSize = chunkSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets the registry used to find subscribers connected to this server. Without a registry, all
+     * notifications go through the relay.
+     */
+    public void setResourceRegistry(ResourceRegistry resourceRegistry) {
+        this.resourceRegistry = resourceRegistry;
+    }
+
+    /**
+     * Sends every subscriber of the node a notification including the item. Unless running without lanes,
+     * this returns immediately.
+     * 
+     * @param serverJID the sender of the notifications
+     * @param node the node the item was published to
+     * @param stanzaRelay relay for subscribers not connected to this server
+     * @param item the payload of the notification
+     */
+    public void notifySubscribers(Entity serverJID, final LeafNode node, final StanzaRelay stanzaRelay,
+            XMLElement item) {
+        if (shutdown) {
+            logger.warn("pubsub notifications dropped: fan-out is shut down");
+            return;
+        }
+        Stanza event = createMessageEventStanza(serverJID, node.getName(), "en", item); // TODO extract the hardcoded "en"
+        final StanzaBroadcast broadcast = new StanzaBroadcast(event, null);
+
+        if (lanes == 0) {
+            dispatch(node, broadcast, stanzaRelay);
+            return;
+        }
+        execute(DISPATCHER, new Runnable() {
+            public void run() {
+                dispatch(node, broadcast, stanzaRelay);
+            }
+        });
+    }
+
+    /**
+     * Stops the threads for good. Notifications not sent yet may be dropped.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (dispatcher == null)
+            return;
+        dispatcher.shutdown();
+        for (ExecutorService laneExecutor : laneExecutors) {
+            laneExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Walks the subscribers and hands them to their lanes, chunk by chunk.
+     */
+    private void dispatch(LeafNode node, final StanzaBroadcast broadcast, final StanzaRelay stanzaRelay) {
+        final int laneCount = Math.max(lanes, 1);
+        final List<List<Entity>> chunks = new ArrayList<List<Entity>>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            chunks.add(new ArrayList<Entity>(chunkSize));
+        }
+
+        node.acceptSubscribers(new SubscriberVisitor() {
+            public void visit(String nodeName, String subID, Entity subscriber) {
+                int lane = (subscriber.hashCode() & Integer.MAX_VALUE) % laneCount;
+                List<Entity> chunk = chunks.get(lane);
+                chunk.add(subscriber);
+                if (chunk.size() == chunkSize) {
+                    deliverChunk(lane, chunk, broadcast, stanzaRelay);
+                    chunks.set(lane, new ArrayList<Entity>(chunkSize));
+                }
+            }
+        });
+
+        for (int lane = 0; lane < laneCount; lane++) {
+            List<Entity> chunk = chunks.get(lane);
+            if (!chunk.isEmpty())
+                deliverChunk(lane, chunk, broadcast, stanzaRelay);
+        }
+    }
+
+    private void deliverChunk(int lane, final List<Entity> chunk, final StanzaBroadcast broadcast,
+            final StanzaRelay stanzaRelay) {
+        if (lanes == 0) {
+            deliver(chunk, broadcast, stanzaRelay);
+            return;
+        }
+        execute(lane, new Runnable() {
+            public void run() {
+                deliver(chunk, broadcast, stanzaRelay);
+            }
+        });
+    }
+
+    private void deliver(List<Entity> chunk, StanzaBroadcast broadcast, StanzaRelay stanzaRelay) {
+        for (Entity subscriber : chunk) {
+            Stanza notification = broadcast.addressTo(subscriber);
+            if (LocalDeliveryUtils.deliverToLocalSession(resourceRegistry, subscriber, notification))
+                continue;
+            try {
+                stanzaRelay.relay(subscriber, notification, dfs);
+            } catch (DeliveryException e) {
+                if (logger.isTraceEnabled())
+                    logger.trace("Couldn't deliver message to " + subscriber.getFullQualifiedName(), e);
+            }
+        }
+    }
+
+    /**
+     * @param lane the lane to run the task in, or {@link #DISPATCHER}
+     */
+    private void execute(int lane, final Runnable task) {
+        try {
+            ExecutorService executor = lane == DISPATCHER ? getDispatcher() : getLaneExecutor(lane);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.warn("failed to send pubsub notifications", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("pubsub notifications dropped: " + e.getMessage());
+        }
+    }
+
+    private synchronized ExecutorService getDispatcher() {
+        if (shutdown)
+            throw new RejectedExecutionException("fan-out is shut down");
+        if (dispatcher == null) {
+            dispatcher = createExecutor("pubsub-notification-dispatcher");
+            laneExecutors = new ExecutorService[lanes];
+            for (int i = 0; i < lanes; i++) {
+                laneExecutors[i] = createExecutor("pubsub-notification-lane-" + i);
+            }
+        }
+        return dispatcher;
+    }
+
+    private ExecutorService createExecutor(String name) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                queueCapacity), new FanOutThreadFactory(name), WAIT_FOR_SPACE);
+    }
+
+    private synchronized ExecutorService getLaneExecutor(int lane) {
+        getDispatcher();
+        return laneExecutors[lane];
+    }
+
+    /**
+     * Creates the stanza for notifying the subscribers including payload. The receiver is set per subscriber.
+     * 
+     * @param from the JID which sends the notification
+     * @param nodeName the node the item was published to
+     * @param lang the language of the stanza text-content.
+     * @param item the payload as XMLElement
+     * @return the prepared Stanza object.
+     */
+    private Stanza createMessageEventStanza(Entity from, String nodeName, String lang, XMLElement item) {
+        StanzaBuilder stanzaBuilder = new StanzaBuilder("message", NamespaceURIs.JABBER_CLIENT);
+        stanzaBuilder.addAttribute("from", from.getFullQualifiedName());
+        stanzaBuilder.addAttribute(NamespaceURIs.XML, "lang", lang);
+        stanzaBuilder.startInnerElement("event", NamespaceURIs.XEP0060_PUBSUB_EVENT);
+        stanzaBuilder.startInnerElement("items", NamespaceURIs.XEP0060_PUBSUB_EVENT);
+        stanzaBuilder.addAttribute("node", nodeName);
+        stanzaBuilder.addPreparedElement(item);
+        stanzaBuilder.endInnerElement(); // items
+        stanzaBuilder.endInnerElement(); // event
+        return stanzaBuilder.build();
+    }
+
+    private static class FanOutThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        public FanOutThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -30,4 +30,6 @@ public class PubSubPrivilege {
     public static final PubSubAffiliation PUBLISH = PubSubAffiliation.PUBLISHER;
 
     public static final PubSubAffiliation MANAGE_AFFILIATIONS = PubSubAffiliation.OWNER;
+
+    public static final PubSubAffiliation CONFIGURE = PubSubAffiliation.OWNER;
 }
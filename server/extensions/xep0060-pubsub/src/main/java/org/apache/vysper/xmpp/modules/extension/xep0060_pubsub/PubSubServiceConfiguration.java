@@ -32,6 +32,11 @@ import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.L
  * @author The Apache MINA Project (http://mina.apache.org)
  */
 public class PubSubServiceConfiguration {
+    /**
+     * The number of items kept per node, unless configured otherwise for the node.
+     */
+    public static final int DEFAULT_MAX_ITEMS = 1000;
+
     private Entity serverJID;
 
     private CollectionNode rootNode;
@@ -40,6 +45,10 @@ public class PubSubServiceConfiguration {
 
     private LeafNodeStorageProvider leafNodeStorageProvider;
 
+    private int defaultMaxItems = DEFAULT_MAX_ITEMS;
+
+    private NotificationFanOut notificationFanOut = new NotificationFanOut();
+
     /**
      * Creates a new configuration object containing at least the root collection node.
      * 
@@ -107,11 +116,42 @@ public class PubSubServiceConfiguration {
         return collectionNodeStorageProvider;
     }
 
+    /**
+     * Set the number of items kept for new nodes.
+     * @param defaultMaxItems
+     */
+    public void setDefaultMaxItems(int defaultMaxItems) {
+        this.defaultMaxItems = defaultMaxItems;
+    }
+
+    /**
+     * @return the number of items kept for new nodes.
+     */
+    public int getDefaultMaxItems() {
+        return defaultMaxItems;
+    }
+
+    /**
+     * Set the fan-out sending the notifications for published items.
+     * @param notificationFanOut
+     */
+    public void setNotificationFanOut(NotificationFanOut notificationFanOut) {
+        this.notificationFanOut = notificationFanOut;
+    }
+
+    /**
+     * @return the fan-out sending the notifications for published items.
+     */
+    public NotificationFanOut getNotificationFanOut() {
+        return notificationFanOut;
+    }
+
     /**
      * To be called after the storage providers are set or changed.
      */
     public void initialize() {
         rootNode.setCollectionNodeStorageProvider(this.collectionNodeStorageProvider);
+        this.collectionNodeStorageProvider.initialize(this);
     }
 
 }
@@ -139,9 +139,19 @@ public class PublishSubscribeModule extends DefaultDiscoAwareModule implements C
         stanzaProcessor = processor;
 
         this.serviceConfiguration.setServerJID(serverRuntimeContext.getServerEnitity());
+        this.serviceConfiguration.getNotificationFanOut().setResourceRegistry(
+                serverRuntimeContext.getResourceRegistry());
         this.serviceConfiguration.initialize();
     }
 
+    /**
+     * Stops the threads sending the notifications.
+     */
+    @Override
+    public void close() {
+        serviceConfiguration.getNotificationFanOut().shutdown();
+    }
+
     /**
      * Returns the service name
      */
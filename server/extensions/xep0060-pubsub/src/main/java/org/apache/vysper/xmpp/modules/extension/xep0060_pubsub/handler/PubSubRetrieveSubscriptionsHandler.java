@@ -19,16 +19,13 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.handler;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.vysper.compliance.SpecCompliant;
 import org.apache.vysper.xmpp.addressing.Entity;
-import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.NodeSubscriberVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriptionItem;
-import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNode;
-import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.server.SessionContext;
@@ -70,7 +67,6 @@ public class PubSubRetrieveSubscriptionsHandler extends AbstractPubSubGeneralHan
     @Override
     protected Stanza handleGet(IQStanza stanza, ServerRuntimeContext serverRuntimeContext, SessionContext sessionContext) {
         Entity serverJID = serviceConfiguration.getServerJID();
-        CollectionNode root = serviceConfiguration.getRootNode();
 
         Entity sender = extractSenderJID(stanza, sessionContext);
         String iqStanzaID = stanza.getAttributeValue("id");
@@ -79,7 +75,7 @@ public class PubSubRetrieveSubscriptionsHandler extends AbstractPubSubGeneralHan
         sb.startInnerElement("pubsub", NamespaceURIs.XEP0060_PUBSUB);
         String nodeName = extractNodeName(stanza);
 
-        List<SubscriptionItem> subscriptions = collectSubscriptions(root, sender, nodeName);
+        List<SubscriptionItem> subscriptions = collectSubscriptions(sender, nodeName);
 
         buildSuccessStanza(sb, nodeName, subscriptions);
 
@@ -88,26 +84,23 @@ public class PubSubRetrieveSubscriptionsHandler extends AbstractPubSubGeneralHan
     }
 
     /**
-     * Traverses through all nodes or a single node to collect all subscriptions of the user.
+     * Collects all subscriptions of the user, to all nodes or to a single node.
      * @return the list of subscriptions or an empty list.
      */
-    private List<SubscriptionItem> collectSubscriptions(CollectionNode root, Entity sender, String nodeName) {
-        List<SubscriptionItem> subscriptions;
-        if (nodeName == null) { // all subscriptions for all nodes
-            NodeSubscriberVisitor nodeSubscriptionVisitor = new NodeSubscriberVisitor(sender);
-            root.acceptNodes(nodeSubscriptionVisitor);
-            subscriptions = nodeSubscriptionVisitor.getSubscriptions();
-        } else { // only the subscriptions for the requested node
-            LeafNode node = root.find(nodeName);
-
-            if (node == null) {
-                // done - this is only a filter - no error conditions are defined
-                subscriptions = Collections.emptyList();
-            } else {
-                SubscriberSubscriptionVisitor subscriptionVisitor = new SubscriberSubscriptionVisitor(sender);
-                node.acceptSubscribers(subscriptionVisitor);
-                subscriptions = subscriptionVisitor.getSubscriptions();
+    private List<SubscriptionItem> collectSubscriptions(Entity sender, String nodeName) {
+        // the subscriptions of the user are looked up directly, without visiting all nodes
+        SubscriberSubscriptionVisitor subscriptionVisitor = new SubscriberSubscriptionVisitor(sender);
+        serviceConfiguration.getLeafNodeStorageProvider().acceptForEachSubscription(sender, subscriptionVisitor);
+        List<SubscriptionItem> subscriptions = subscriptionVisitor.getSubscriptions();
+
+        if (nodeName != null) { // only the subscriptions for the requested node
+            // this is only a filter - no error conditions are defined
+            List<SubscriptionItem> nodeSubscriptions = new ArrayList<SubscriptionItem>();
+            for (SubscriptionItem subscription : subscriptions) {
+                if (nodeName.equals(subscription.getNodeName()))
+                    nodeSubscriptions.add(subscription);
             }
+            subscriptions = nodeSubscriptions;
         }
         return subscriptions;
     }
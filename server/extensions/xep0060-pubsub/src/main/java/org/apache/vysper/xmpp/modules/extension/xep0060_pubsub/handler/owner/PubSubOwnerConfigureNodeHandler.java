@@ -19,18 +19,43 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.handler.owner;
 
+import java.util.List;
+
+import org.apache.vysper.compliance.SpecCompliance;
 import org.apache.vysper.compliance.SpecCompliant;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubPrivilege;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.server.SessionContext;
+import org.apache.vysper.xmpp.stanza.IQStanza;
+import org.apache.vysper.xmpp.stanza.IQStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.stanza.dataforms.DataForm;
+import org.apache.vysper.xmpp.stanza.dataforms.DataFormEncoder;
+import org.apache.vysper.xmpp.stanza.dataforms.Field;
 
 /**
  * This class handles the configure node part of the XEP-0060 specification. This means
  * all stanzas with "configure" within the pubsub#owner namespace.
  * 
+ * Currently the item retention options pubsub#max_items and pubsub#persist_items can be configured,
+ * all other submitted options are ignored.
+ * 
  * @author The Apache MINA Project (http://mina.apache.org)
  */
-@SpecCompliant(spec = "xep-0060", section = "8.2", status = SpecCompliant.ComplianceStatus.NOT_STARTED, coverage = SpecCompliant.ComplianceCoverage.UNSUPPORTED)
+@SpecCompliant(spec = "xep-0060", section = "8.2", status = SpecCompliant.ComplianceStatus.IN_PROGRESS, coverage = SpecCompliant.ComplianceCoverage.PARTIAL)
 public class PubSubOwnerConfigureNodeHandler extends AbstractPubSubOwnerHandler {
 
+    public static final String FIELD_MAX_ITEMS = "pubsub#max_items";
+
+    public static final String FIELD_PERSIST_ITEMS = "pubsub#persist_items";
+
     /**
      * Create a new configuration handler with the supplied configuration object.
      */
@@ -46,4 +71,157 @@ public class PubSubOwnerConfigureNodeHandler extends AbstractPubSubOwnerHandler
         return "configure";
     }
 
+    /**
+     * Returns the configuration form of the node, filled with the current values.
+     * 
+     * @return the appropriate response stanza (either the form or some error condition).
+     */
+    @Override
+    @SpecCompliance(compliant = {
+            @SpecCompliant(spec = "xep-0060", section = "8.2.1", status = SpecCompliant.ComplianceStatus.IN_PROGRESS, coverage = SpecCompliant.ComplianceCoverage.PARTIAL),
+            @SpecCompliant(spec = "xep-0060", section = "8.2.2", status = SpecCompliant.ComplianceStatus.FINISHED, coverage = SpecCompliant.ComplianceCoverage.PARTIAL) })
+    protected Stanza handleGet(IQStanza stanza, ServerRuntimeContext serverRuntimeContext, SessionContext sessionContext) {
+        Entity serverJID = serviceConfiguration.getServerJID();
+        CollectionNode root = serviceConfiguration.getRootNode();
+
+        Entity sender = extractSenderJID(stanza, sessionContext);
+
+        String nodeName = extractNodeName(stanza);
+        LeafNode node = root.find(nodeName);
+
+        if (node == null) {
+            return errorStanzaGenerator.generateNoNodeErrorStanza(sender, serverJID, stanza);
+        }
+
+        if (!node.isAuthorized(sender, PubSubPrivilege.CONFIGURE)) {
+            return errorStanzaGenerator.generateInsufficientPrivilegesErrorStanza(sender, serverJID, stanza);
+        }
+
+        StanzaBuilder sb = StanzaBuilder.createDirectReply(stanza, false, IQStanzaType.RESULT);
+        sb.startInnerElement("pubsub", NamespaceURIs.XEP0060_PUBSUB_OWNER);
+        sb.startInnerElement("configure", NamespaceURIs.XEP0060_PUBSUB_OWNER);
+        sb.addAttribute("node", nodeName);
+        sb.addPreparedElement(new DataFormEncoder().getXML(createConfigurationForm(node)));
+        sb.endInnerElement(); // configure
+        sb.endInnerElement(); // pubsub
+        return new IQStanza(sb.build());
+    }
+
+    /**
+     * Applies the submitted configuration form to the node.
+     * 
+     * @return the appropriate response stanza (either success or some error condition).
+     */
+    @Override
+    @SpecCompliance(compliant = {
+            @SpecCompliant(spec = "xep-0060", section = "8.2.4", status = SpecCompliant.ComplianceStatus.IN_PROGRESS, coverage = SpecCompliant.ComplianceCoverage.PARTIAL),
+            @SpecCompliant(spec = "xep-0060", section = "8.2.5", status = SpecCompliant.ComplianceStatus.IN_PROGRESS, coverage = SpecCompliant.ComplianceCoverage.PARTIAL) })
+    protected Stanza handleSet(IQStanza stanza, ServerRuntimeContext serverRuntimeContext, SessionContext sessionContext) {
+        Entity serverJID = serviceConfiguration.getServerJID();
+        CollectionNode root = serviceConfiguration.getRootNode();
+
+        Entity sender = extractSenderJID(stanza, sessionContext);
+
+        String nodeName = extractNodeName(stanza);
+        LeafNode node = root.find(nodeName);
+
+        if (node == null) {
+            return errorStanzaGenerator.generateNoNodeErrorStanza(sender, serverJID, stanza);
+        }
+
+        if (!node.isAuthorized(sender, PubSubPrivilege.CONFIGURE)) {
+            return errorStanzaGenerator.generateInsufficientPrivilegesErrorStanza(sender, serverJID, stanza);
+        }
+
+        XMLElement configure = stanza.getFirstInnerElement().getFirstInnerElement();
+        List<XMLElement> forms = configure.getInnerElementsNamed("x", NamespaceURIs.JABBER_X_DATA);
+        if (forms.size() != 1) {
+            return errorStanzaGenerator.generateBadRequestErrorStanza(sender, serverJID, stanza);
+        }
+        XMLElement form = forms.get(0);
+
+        StanzaBuilder sb = StanzaBuilder.createDirectReply(stanza, false, IQStanzaType.RESULT);
+        if (DataForm.Type.cancel.value().equals(form.getAttributeValue("type"))) {
+            // the owner cancelled the configuration, nothing changes
+            return new IQStanza(sb.build());
+        }
+
+        // validate all values before changing anything
+        Integer maxItems = null;
+        Boolean persistItems = null;
+        for (XMLElement field : form.getInnerElementsNamed("field", NamespaceURIs.JABBER_X_DATA)) {
+            String var = field.getAttributeValue("var");
+            String value = getFieldValue(field);
+            if (FIELD_MAX_ITEMS.equals(var)) {
+                maxItems = parseMaxItems(value);
+                if (maxItems == null) {
+                    return errorStanzaGenerator.generateNotAcceptableErrorStanza(sender, serverJID, stanza);
+                }
+            } else if (FIELD_PERSIST_ITEMS.equals(var)) {
+                persistItems = parseBoolean(value);
+                if (persistItems == null) {
+                    return errorStanzaGenerator.generateNotAcceptableErrorStanza(sender, serverJID, stanza);
+                }
+            }
+        }
+
+        if (maxItems != null) {
+            node.setMaxItems(maxItems);
+        }
+        if (persistItems != null) {
+            node.setPersistItems(persistItems);
+        }
+
+        return new IQStanza(sb.build());
+    }
+
+    /**
+     * Builds the node configuration form with the current values of the node.
+     */
+    private DataForm createConfigurationForm(LeafNode node) {
+        DataForm form = new DataForm();
+        form.setType(DataForm.Type.form);
+        form.addField(new Field(null, Field.Type.HIDDEN, "FORM_TYPE", NamespaceURIs.XEP0060_PUBSUB_NODE_CONFIG));
+        form.addField(new Field("Persist items to storage", Field.Type.BOOLEAN, FIELD_PERSIST_ITEMS, node
+                .isPersistItems() ? "1" : "0"));
+        form.addField(new Field("Max # of items to persist", Field.Type.TEXT_SINGLE, FIELD_MAX_ITEMS, Integer
+                .toString(node.getMaxItems())));
+        return form;
+    }
+
+    /**
+     * @return the text of the first value element of the field, or null.
+     */
+    private String getFieldValue(XMLElement field) {
+        List<XMLElement> values = field.getInnerElementsNamed("value", NamespaceURIs.JABBER_X_DATA);
+        if (values.isEmpty() || values.get(0).getInnerText() == null) {
+            return null;
+        }
+        return values.get(0).getInnerText().getText().trim();
+    }
+
+    /**
+     * @return the number of items, or null if the value is not a non-negative number.
+     */
+    private Integer parseMaxItems(String value) {
+        if (value == null)
+            return null;
+        try {
+            int maxItems = Integer.parseInt(value);
+            return maxItems >= 0 ? maxItems : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the boolean value as defined by XEP-0004, or null if the value is invalid.
+     */
+    private Boolean parseBoolean(String value) {
+        if ("1".equals(value) || "true".equals(value))
+            return Boolean.TRUE;
+        if ("0".equals(value) || "false".equals(value))
+            return Boolean.FALSE;
+        return null;
+    }
 }
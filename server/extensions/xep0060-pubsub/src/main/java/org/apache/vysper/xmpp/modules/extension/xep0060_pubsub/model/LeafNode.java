@@ -27,9 +27,9 @@ import org.apache.vysper.xmpp.addressing.Entity;
 import org.apache.vysper.xmpp.delivery.StanzaRelay;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.ItemVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.MemberAffiliationVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.NotificationFanOut;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubAffiliation;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
-import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriberPayloadNotificationVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriberVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.feature.PubsubFeatures;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.LeafNodeStorageProvider;
@@ -59,6 +59,12 @@ public class LeafNode {
     // the service configuration
     protected PubSubServiceConfiguration serviceConfiguration = null;
 
+    // the maximum number of items kept for this node (pubsub#max_items)
+    protected int maxItems;
+
+    // whether published items are kept at all (pubsub#persist_items)
+    protected boolean persistItems = true;
+
     /**
      * Creates a new LeafNode with the specified name and title. The creator will be added as owner.
      */
@@ -73,6 +79,20 @@ public class LeafNode {
         init(serviceConfiguration, name, null, creator);
     }
 
+    /**
+     * Recreates a node which is already known to the storage, e.g. after a restart. Other than the
+     * constructors for new nodes, this leaves everything stored for the node untouched.
+     */
+    public LeafNode(PubSubServiceConfiguration serviceConfiguration, String name, String title, int maxItems,
+            boolean persistItems) {
+        this.serviceConfiguration = serviceConfiguration;
+        this.name = name;
+        this.title = title;
+        this.maxItems = maxItems;
+        this.persistItems = persistItems;
+        this.storage = serviceConfiguration.getLeafNodeStorageProvider();
+    }
+
     /**
      * Method to actually do the initialization process.
      * 
@@ -85,8 +105,10 @@ public class LeafNode {
         this.serviceConfiguration = serviceConfiguration;
         this.name = name;
         this.title = title;
+        this.maxItems = serviceConfiguration.getDefaultMaxItems();
         this.storage = serviceConfiguration.getLeafNodeStorageProvider();
         this.storage.initialize(this);
+        updateItemRetention();
         try {
             this.setAffiliation(creator, PubSubAffiliation.OWNER);
         } catch (LastOwnerResignedException e) {
@@ -178,7 +200,8 @@ public class LeafNode {
     }
 
     /**
-     * Publish an item to this node.
+     * Publish an item to this node. The item is stored before this method returns, the notifications
+     * may still be underway.
      * @param sender the sender of the message (publisher).
      * @param relay the relay for sending the messages.
      * @param itemID the ID of the published message.
@@ -190,14 +213,15 @@ public class LeafNode {
     }
 
     /**
-     * Sends a message to each subscriber of the node.
+     * Sends a message to each subscriber of the node. Depending on the configured {@link NotificationFanOut},
+     * the messages are sent after this method returned.
      * 
      * @param stanzaRelay the relay for sending the notifications.
      * @param item the payload of the message.
      */
     protected void sendMessageToSubscriber(StanzaRelay stanzaRelay, XMLElement item) {
-        storage.acceptForEachSubscriber(name, new SubscriberPayloadNotificationVisitor(serviceConfiguration
-                .getServerJID(), stanzaRelay, item));
+        serviceConfiguration.getNotificationFanOut().notifySubscribers(serviceConfiguration.getServerJID(), this,
+                stanzaRelay, item);
     }
 
     /**
@@ -241,11 +265,12 @@ public class LeafNode {
         infoElements.add(PubsubFeatures.RETRIEVE_SUBSCRIPTIONS.getFeature());
         infoElements.add(PubsubFeatures.RETRIEVE_AFFILIATIONS.getFeature());
         infoElements.add(PubsubFeatures.MODIFY_AFFILIATIONS.getFeature());
+        infoElements.add(PubsubFeatures.CONFIG_NODE.getFeature());
         return infoElements;
     }
 
     /**
-     * Visits each item ever published to this node.
+     * Visits each item stored for this node, oldest first.
      * 
      * @param iv the visitor
      */
@@ -268,6 +293,45 @@ public class LeafNode {
      */
     public void initialize() {
         storage.initialize(this);
+        updateItemRetention();
+    }
+
+    /**
+     * @return the maximum number of items kept for this node.
+     */
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    /**
+     * Changes the maximum number of items kept for this node. If there are more items
+     * stored, the oldest are removed.
+     * @param maxItems the new maximum, must not be negative.
+     */
+    public void setMaxItems(int maxItems) {
+        if (maxItems < 0)
+            throw new IllegalArgumentException("max items must not be negative");
+        this.maxItems = maxItems;
+        updateItemRetention();
+    }
+
+    /**
+     * @return true if published items are stored, false if they are only sent to the subscribers.
+     */
+    public boolean isPersistItems() {
+        return persistItems;
+    }
+
+    /**
+     * Changes whether published items are stored. Disabling removes all stored items.
+     */
+    public void setPersistItems(boolean persistItems) {
+        this.persistItems = persistItems;
+        updateItemRetention();
+    }
+
+    private void updateItemRetention() {
+        storage.setMaxItems(name, persistItems ? maxItems : 0);
     }
 
     /**
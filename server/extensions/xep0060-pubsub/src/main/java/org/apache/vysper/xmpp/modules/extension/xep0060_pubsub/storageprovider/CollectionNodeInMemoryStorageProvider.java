@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.NodeVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
 
 /**
@@ -79,7 +80,7 @@ public class CollectionNodeInMemoryStorageProvider implements CollectionNodeStor
     /**
      * The in-memory storage provider does not need initialization beyond creating the objects.
      */
-    public void initialize() {
+    public void initialize(PubSubServiceConfiguration serviceConfiguration) {
         // empty
     }
 
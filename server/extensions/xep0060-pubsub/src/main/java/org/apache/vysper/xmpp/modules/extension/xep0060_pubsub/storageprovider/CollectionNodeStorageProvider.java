@@ -21,6 +21,7 @@ package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
 
 import org.apache.vysper.storage.StorageProvider;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.NodeVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
 
 /**
@@ -60,9 +61,11 @@ public interface CollectionNodeStorageProvider extends StorageProvider {
     public void acceptNodes(NodeVisitor nv);
 
     /**
-     * Call to do some preliminary tasks after the module has been configured.
+     * Call to do some preliminary tasks after the module has been configured. Storage providers
+     * keeping nodes across restarts recreate them with the given configuration.
+     * @param serviceConfiguration the configuration of the service the nodes belong to.
      */
-    public void initialize();
+    public void initialize(PubSubServiceConfiguration serviceConfiguration);
 
     /**
      * Delete the node with name nodeName.
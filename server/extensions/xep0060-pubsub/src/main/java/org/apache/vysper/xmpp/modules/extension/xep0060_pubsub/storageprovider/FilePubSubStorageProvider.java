@@ -0,0 +1,1223 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.vysper.xml.decoder.XMLElementBatchDecoder;
+import org.apache.vysper.xml.decoder.XMLElementBuilderFactory;
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.ItemVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.MemberAffiliationVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.NodeVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubAffiliation;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriberVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LastOwnerResignedException;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This storage provider keeps nodes, subscriptions, affiliations and items in a log file, so they
+ * survive a restart. It serves as storage provider for the collection node and the leaf nodes alike,
+ * so the same instance has to be configured for both.
+ *
+ * Every change is appended to the log. When the log is opened, it is replayed: nodes, subscriptions
+ * and affiliations are kept in memory (like {@link LeafNodeInMemoryStorageProvider} does), items are
+ * not. For items, an index per node maps the itemIDs to file offsets in the order the items were
+ * published, so looking up an item or reading the newest items only reads the records needed.
+ *
+ * Records are buffered and written in batches. A background thread forces the log to the disk once
+ * per sync interval, so the changes of the last interval may be lost on a crash. With a sync interval
+ * of 0, every change is forced to the disk before returning.
+ *
+ * Records become obsolete when the item or metadata they describe is replaced or removed. Once obsolete
+ * records make up more than half of the log (and exceed the compaction threshold), the log is rewritten
+ * with the current state only. The rewrite runs on the background thread.
+ *
+ * If a change cannot be written to the log, an IllegalStateException is thrown and the change is not
+ * applied.
+ *
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+public class FilePubSubStorageProvider extends LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider,
+        CollectionNodeStorageProvider {
+
+    final Logger logger = LoggerFactory.getLogger(FilePubSubStorageProvider.class);
+
+    public static final String DEFAULT_DIRECTORY = "pubsub";
+
+    public static final long DEFAULT_SYNC_INTERVAL = 1000;
+
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 16 * 1024 * 1024;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String LOG_FILE_NAME = "pubsub.log";
+
+    private static final String COMPACTION_FILE_SUFFIX = ".compact";
+
+    private static final byte RECORD_NODE_INIT = 1;
+
+    private static final byte RECORD_NODE_STORE = 2;
+
+    private static final byte RECORD_NODE_DELETE = 3;
+
+    private static final byte RECORD_SUBSCRIBE = 4;
+
+    private static final byte RECORD_REMOVE_SUBSCRIPTION = 5;
+
+    private static final byte RECORD_REMOVE_SUBSCRIBER = 6;
+
+    private static final byte RECORD_REMOVE_SUBSCRIPTIONS = 7;
+
+    private static final byte RECORD_AFFILIATION = 8;
+
+    private static final byte RECORD_MAX_ITEMS = 9;
+
+    private static final byte RECORD_ITEM = 10;
+
+    private static final byte[] BATCH_OPENING = "<batch>".getBytes(UTF8);
+
+    private static final byte[] BATCH_CLOSING = "</batch>".getBytes(UTF8);
+
+    protected File directory;
+
+    protected long syncInterval = DEFAULT_SYNC_INTERVAL;
+
+    protected long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    // the nodes of the collection, access via name
+    private final ConcurrentMap<String, LeafNode> nodes = new ConcurrentHashMap<String, LeafNode>();
+
+    private Log log = null;
+
+    private ScheduledExecutorService syncer = null;
+
+    // the number of compactions of the log, since the provider was created
+    private volatile int compactionCount = 0;
+
+    public FilePubSubStorageProvider() {
+        this(new File(DEFAULT_DIRECTORY));
+    }
+
+    public FilePubSubStorageProvider(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param syncInterval milliseconds between forcing the log to the disk, 0 for forcing every change.
+     * Takes effect when the log is opened.
+     */
+    public void setSyncInterval(long syncInterval) {
+        if (syncInterval < 0)
+            throw new IllegalArgumentException("sync interval must not be negative");
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * @param compactionThreshold minimum number of bytes occupied by obsolete records
+     * before the log is considered for compaction
+     */
+    public void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Opens the log, if not already open.
+     */
+    public void initialize() {
+        getLog();
+    }
+
+    /**
+     * Opens the log, if not already open, and recreates all stored nodes which are not known yet.
+     */
+    public void initialize(PubSubServiceConfiguration serviceConfiguration) {
+        Log log = getLog();
+        synchronized (log) {
+            for (Map.Entry<String, String> storedNode : log.storedNodes.entrySet()) {
+                String name = storedNode.getKey();
+                if (nodes.containsKey(name))
+                    continue;
+                if (!log.items.containsKey(name)) {
+                    // stored by the collection, but never initialized by this provider
+                    log.appendMetadata(new RecordWriter(RECORD_NODE_INIT, name), 0);
+                    replayNodeInit(log, name);
+                    setMaxItems(name, serviceConfiguration.getDefaultMaxItems());
+                }
+                int maxItems = log.items.get(name).maxItems;
+                boolean persistItems = maxItems > 0;
+                nodes.put(name, new LeafNode(serviceConfiguration, name, storedNode.getValue(),
+                        persistItems ? maxItems : serviceConfiguration.getDefaultMaxItems(), persistItems));
+            }
+        }
+    }
+
+    /**
+     * Writes all pending changes to the disk and releases the log. The provider re-opens it when used again.
+     */
+    public synchronized void close() {
+        if (log == null)
+            return;
+        syncer.shutdown();
+        try {
+            // a compaction in progress is completed
+            syncer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (log) {
+            try {
+                // the records appended while the last compaction was running may be obsolete already
+                if (log.isCompactionNeeded())
+                    log.compact();
+                log.sync();
+            } catch (IOException e) {
+                logger.error("failed to compact or sync pubsub log " + log.file.getAbsolutePath(), e);
+            }
+            log.close();
+        }
+        log = null;
+        syncer = null;
+    }
+
+    /*package*/ int getCompactionCount() {
+        return compactionCount;
+    }
+
+    /**
+     * Forces all changes to the disk.
+     */
+    public void sync() throws IOException {
+        Log log = getLog();
+        synchronized (log) {
+            log.sync();
+        }
+    }
+
+    // collection node
+
+    public LeafNode findNode(String nodeName) {
+        return nodes.get(nodeName);
+    }
+
+    public boolean containsNode(String nodeName) {
+        return nodes.containsKey(nodeName);
+    }
+
+    public void storeNode(LeafNode node) {
+        Log log = getLog();
+        synchronized (log) {
+            RecordWriter record = createNodeStoreRecord(node.getName(), node.getTitle());
+            log.appendMetadata(record, obsoleteByNodeStore(log, node.getName()));
+            log.storedNodes.put(node.getName(), node.getTitle());
+            nodes.put(node.getName(), node);
+        }
+    }
+
+    public void acceptNodes(NodeVisitor nv) {
+        for (LeafNode node : nodes.values()) {
+            nv.visit(node);
+        }
+    }
+
+    public void deleteNode(String nodeName) {
+        LeafNode node = findNode(nodeName);
+        if (node != null)
+            node.delete();
+    }
+
+    // leaf nodes
+
+    public void initialize(LeafNode leafNode) {
+        Log log = getLog();
+        synchronized (log) {
+            log.appendMetadata(new RecordWriter(RECORD_NODE_INIT, leafNode.getName()), obsoleteByNodeInit(log,
+                    leafNode.getName()));
+            replayNodeInit(log, leafNode.getName());
+        }
+    }
+
+    public void delete(String name) {
+        Log log = getLog();
+        synchronized (log) {
+            RecordWriter record = new RecordWriter(RECORD_NODE_DELETE, name);
+            log.appendMetadata(record, record.length() + obsoleteByNodeDelete(log, name));
+            replayNodeDelete(log, name);
+        }
+    }
+
+    public void addSubscriber(String nodeName, String subscriptionID, Entity subscriber) {
+        Log log = getLog();
+        synchronized (log) {
+            RecordWriter record = createSubscriptionRecord(nodeName, subscriptionID, subscriber);
+            log.appendMetadata(record, obsoleteBySubscription(nodeName, subscriptionID));
+            super.addSubscriber(nodeName, subscriptionID, subscriber);
+        }
+    }
+
+    public boolean removeSubscription(String nodeName, String subscriptionId) {
+        Log log = getLog();
+        synchronized (log) {
+            if (!containsSubscriber(nodeName, subscriptionId))
+                return false;
+            RecordWriter record = new RecordWriter(RECORD_REMOVE_SUBSCRIPTION, nodeName);
+            record.writeUTF(subscriptionId);
+            log.appendMetadata(record, record.length() + obsoleteBySubscription(nodeName, subscriptionId));
+            return super.removeSubscription(nodeName, subscriptionId);
+        }
+    }
+
+    public boolean removeSubscriber(String nodeName, Entity subscriber) {
+        Log log = getLog();
+        synchronized (log) {
+            if (!containsSubscriber(nodeName, subscriber))
+                return false;
+            RecordWriter record = new RecordWriter(RECORD_REMOVE_SUBSCRIBER, nodeName);
+            record.writeUTF(subscriber.getFullQualifiedName());
+            log.appendMetadata(record, record.length() + obsoleteBySubscriptionRemoval(nodeName, subscriber));
+            return super.removeSubscriber(nodeName, subscriber);
+        }
+    }
+
+    public int removeSubscriptions(Entity subscriber) {
+        Log log = getLog();
+        synchronized (log) {
+            if (!userSubscriptions.containsKey(subscriber.getBareJID()))
+                return 0;
+            RecordWriter record = new RecordWriter(RECORD_REMOVE_SUBSCRIPTIONS, "");
+            record.writeUTF(subscriber.getFullQualifiedName());
+            log.appendMetadata(record, record.length() + obsoleteBySubscriptionRemoval(null, subscriber));
+            return super.removeSubscriptions(subscriber);
+        }
+    }
+
+    public void setAffiliation(String nodeName, Entity entity, PubSubAffiliation affiliation)
+            throws LastOwnerResignedException {
+        Log log = getLog();
+        synchronized (log) {
+            // the change is checked for the last owner resigning before it is written
+            PubSubAffiliation previous = getAffiliation(nodeName, entity);
+            long obsolete = obsoleteByAffiliation(nodeName, entity, affiliation);
+            super.setAffiliation(nodeName, entity, affiliation);
+            try {
+                log.appendMetadata(createAffiliationRecord(nodeName, entity, affiliation), obsolete);
+            } catch (IllegalStateException e) {
+                super.setAffiliation(nodeName, entity, previous);
+                throw e;
+            }
+        }
+    }
+
+    public void setMaxItems(String nodeName, int maxItems) {
+        if (maxItems < 0)
+            throw new IllegalArgumentException("maximum number of items must not be negative");
+        Log log = getLog();
+        synchronized (log) {
+            RecordWriter record = createMaxItemsRecord(nodeName, maxItems);
+            log.appendMetadata(record, obsoleteByMaxItems(log, nodeName, maxItems));
+            log.items.get(nodeName).setMaxItems(maxItems, log);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the item cannot be written to the log, it is not stored then
+     */
+    public void addMessage(Entity publisher, String nodeName, String itemID, XMLElement payload) {
+        byte[] xml = new Renderer(payload).getComplete().getBytes(UTF8);
+        Log log = getLog();
+        synchronized (log) {
+            ItemIndex index = log.items.get(nodeName);
+            if (index.maxItems == 0)
+                return;
+            ItemEntry entry = new ItemEntry(itemID, publisher, System.currentTimeMillis());
+            RecordWriter record = new RecordWriter(RECORD_ITEM, nodeName);
+            record.writeUTF(itemID);
+            record.writeUTF(publisher.getFullQualifiedName());
+            record.writeLong(entry.timestamp);
+            record.writeInt(xml.length);
+            record.write(xml);
+            byte[] bytes = record.toByteArray();
+            try {
+                entry.recordOffset = log.append(bytes);
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to write item " + itemID + " to pubsub log "
+                        + log.file.getAbsolutePath(), e);
+            }
+            entry.recordLength = bytes.length;
+            entry.xmlLength = xml.length;
+            index.add(entry, log);
+            log.compactIfNeeded();
+        }
+    }
+
+    public void acceptForEachItem(String nodeName, ItemVisitor iv) {
+        acceptForEachItem(nodeName, Integer.MAX_VALUE, iv);
+    }
+
+    public void acceptForEachItem(String nodeName, int maxItems, ItemVisitor iv) {
+        Log log = getLog();
+        List<ItemEntry> entries;
+        IoBuffer batch;
+        synchronized (log) {
+            entries = log.items.get(nodeName).getLatest(maxItems);
+            if (entries.isEmpty())
+                return;
+            batch = readItems(log, entries);
+        }
+        if (batch == null)
+            return;
+        // the visitor is called without holding the lock
+        Iterator<ItemEntry> entryIterator = entries.iterator();
+        for (XMLElement payload : decode(batch)) {
+            ItemEntry entry = entryIterator.next();
+            iv.visit(entry.itemID, new PayloadItem(entry.publisher, payload, entry.itemID, new Date(entry.timestamp)));
+        }
+    }
+
+    public PayloadItem getItem(String nodeName, String itemID) {
+        Log log = getLog();
+        ItemEntry entry;
+        IoBuffer batch;
+        synchronized (log) {
+            entry = log.items.get(nodeName).entries.get(itemID);
+            if (entry == null)
+                return null;
+            batch = readItems(log, Collections.singletonList(entry));
+        }
+        if (batch == null)
+            return null;
+        List<XMLElement> payloads = decode(batch);
+        if (payloads.isEmpty())
+            return null;
+        return new PayloadItem(entry.publisher, payloads.get(0), entry.itemID, new Date(entry.timestamp));
+    }
+
+    private IoBuffer readItems(Log log, List<ItemEntry> entries) {
+        try {
+            return log.readBatch(entries);
+        } catch (IOException e) {
+            logger.error("failed to read pubsub items from " + log.file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    // replaying the log, the caller holds the lock of the log
+
+    private void replay(Log log, byte[] record, long recordOffset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        String nodeName = in.readUTF();
+        if (type == RECORD_ITEM) {
+            ItemEntry entry = new ItemEntry(in.readUTF(), EntityImpl.parseUnchecked(in.readUTF()), in.readLong());
+            entry.xmlLength = in.readInt();
+            entry.recordOffset = recordOffset;
+            entry.recordLength = 4 + record.length;
+            ItemIndex index = log.items.get(nodeName);
+            if (index == null)
+                throw new IOException("item for unknown node " + nodeName + " in " + log.file.getAbsolutePath());
+            index.add(entry, log);
+            return;
+        }
+
+        // all other records are metadata, they are live until replaced or removed like the items
+        int recordLength = 4 + record.length;
+        switch (type) {
+        case RECORD_NODE_INIT:
+            log.garbage += obsoleteByNodeInit(log, nodeName);
+            replayNodeInit(log, nodeName);
+            break;
+        case RECORD_NODE_STORE:
+            boolean hasTitle = in.readBoolean();
+            String title = in.readUTF();
+            log.garbage += obsoleteByNodeStore(log, nodeName);
+            log.storedNodes.put(nodeName, hasTitle ? title : null);
+            break;
+        case RECORD_NODE_DELETE:
+            log.garbage += recordLength + obsoleteByNodeDelete(log, nodeName);
+            replayNodeDelete(log, nodeName);
+            break;
+        case RECORD_SUBSCRIBE:
+            String subscriptionID = in.readUTF();
+            log.garbage += obsoleteBySubscription(nodeName, subscriptionID);
+            super.addSubscriber(nodeName, subscriptionID, EntityImpl.parseUnchecked(in.readUTF()));
+            break;
+        case RECORD_REMOVE_SUBSCRIPTION:
+            String removedSubscriptionID = in.readUTF();
+            log.garbage += recordLength + obsoleteBySubscription(nodeName, removedSubscriptionID);
+            super.removeSubscription(nodeName, removedSubscriptionID);
+            break;
+        case RECORD_REMOVE_SUBSCRIBER:
+            Entity subscriber = EntityImpl.parseUnchecked(in.readUTF());
+            log.garbage += recordLength + obsoleteBySubscriptionRemoval(nodeName, subscriber);
+            super.removeSubscriber(nodeName, subscriber);
+            break;
+        case RECORD_REMOVE_SUBSCRIPTIONS:
+            Entity unsubscribed = EntityImpl.parseUnchecked(in.readUTF());
+            log.garbage += recordLength + obsoleteBySubscriptionRemoval(null, unsubscribed);
+            super.removeSubscriptions(unsubscribed);
+            break;
+        case RECORD_AFFILIATION:
+            Entity entity = EntityImpl.parseUnchecked(in.readUTF());
+            PubSubAffiliation affiliation = PubSubAffiliation.get(in.readUTF());
+            log.garbage += obsoleteByAffiliation(nodeName, entity, affiliation);
+            try {
+                super.setAffiliation(nodeName, entity, affiliation);
+            } catch (LastOwnerResignedException e) {
+                throw new IOException("inconsistent affiliations for node " + nodeName + " in "
+                        + log.file.getAbsolutePath());
+            }
+            break;
+        case RECORD_MAX_ITEMS:
+            int maxItems = in.readInt();
+            log.garbage += obsoleteByMaxItems(log, nodeName, maxItems);
+            log.items.get(nodeName).setMaxItems(maxItems, log);
+            break;
+        default:
+            throw new IOException("unknown record type " + type + " in " + log.file.getAbsolutePath());
+        }
+    }
+
+    private void replayNodeInit(Log log, String nodeName) {
+        super.initializeNode(nodeName);
+        ItemIndex replaced = log.items.put(nodeName, new ItemIndex());
+        if (replaced != null)
+            replaced.clear(log);
+    }
+
+    private void replayNodeDelete(Log log, String nodeName) {
+        super.delete(nodeName);
+        ItemIndex removed = log.items.remove(nodeName);
+        if (removed != null)
+            removed.clear(log);
+        log.storedNodes.remove(nodeName);
+        nodes.remove(nodeName);
+    }
+
+    private RecordWriter createNodeStoreRecord(String nodeName, String title) {
+        RecordWriter record = new RecordWriter(RECORD_NODE_STORE, nodeName);
+        record.writeBoolean(title != null);
+        record.writeUTF(title != null ? title : "");
+        return record;
+    }
+
+    private RecordWriter createSubscriptionRecord(String nodeName, String subscriptionID, Entity subscriber) {
+        RecordWriter record = new RecordWriter(RECORD_SUBSCRIBE, nodeName);
+        record.writeUTF(subscriptionID);
+        record.writeUTF(subscriber.getFullQualifiedName());
+        return record;
+    }
+
+    private RecordWriter createAffiliationRecord(String nodeName, Entity entity, PubSubAffiliation affiliation) {
+        RecordWriter record = new RecordWriter(RECORD_AFFILIATION, nodeName);
+        record.writeUTF(entity.getBareJID().getFullQualifiedName());
+        record.writeUTF(affiliation.toString());
+        return record;
+    }
+
+    private RecordWriter createMaxItemsRecord(String nodeName, int maxItems) {
+        RecordWriter record = new RecordWriter(RECORD_MAX_ITEMS, nodeName);
+        record.writeInt(maxItems);
+        return record;
+    }
+
+    // the bytes of metadata records made obsolete by a change, computed before the change is applied.
+    // the caller holds the lock of the log. obsolete metadata is measured by the records a compaction
+    // would write for it, which is what remains of the metadata after the next compaction.
+
+    private long obsoleteByNodeStore(Log log, String nodeName) {
+        if (!log.storedNodes.containsKey(nodeName))
+            return 0;
+        return createNodeStoreRecord(nodeName, log.storedNodes.get(nodeName)).length();
+    }
+
+    private long obsoleteByNodeInit(Log log, String nodeName) {
+        // the node's metadata is reset, but it stays stored in the collection
+        return obsoleteByNodeDelete(log, nodeName) - obsoleteByNodeStore(log, nodeName);
+    }
+
+    private long obsoleteByNodeDelete(Log log, String nodeName) {
+        ItemIndex index = log.items.get(nodeName);
+        if (index == null)
+            return obsoleteByNodeStore(log, nodeName);
+        return log.createNodeSnapshot(nodeName, index.maxItems).length;
+    }
+
+    private long obsoleteBySubscription(String nodeName, String subscriptionID) {
+        Entity replaced = getSubscriber(nodeName, subscriptionID);
+        return replaced != null ? createSubscriptionRecord(nodeName, subscriptionID, replaced).length() : 0;
+    }
+
+    /**
+     * @param nodeName the node to remove one subscription of the subscriber from, or null for removing
+     * all subscriptions of the subscriber's bare JID
+     */
+    private long obsoleteBySubscriptionRemoval(final String nodeName, final Entity subscriber) {
+        final long[] obsolete = new long[1];
+        acceptForEachSubscription(subscriber, new SubscriberVisitor() {
+            private boolean found = false;
+
+            public void visit(String name, String subscriptionID, Entity jid) {
+                if (nodeName == null) {
+                    obsolete[0] += createSubscriptionRecord(name, subscriptionID, jid).length();
+                } else if (!found && nodeName.equals(name) && subscriber.equals(jid)) {
+                    found = true;
+                    obsolete[0] = createSubscriptionRecord(name, subscriptionID, jid).length();
+                }
+            }
+        });
+        return obsolete[0];
+    }
+
+    private long obsoleteByAffiliation(String nodeName, Entity entity, PubSubAffiliation affiliation) {
+        long obsolete = 0;
+        Map<Entity, PubSubAffiliation> affiliations = nodeAffiliations.get(nodeName);
+        PubSubAffiliation previous = affiliations != null ? affiliations.get(entity.getBareJID()) : null;
+        if (previous != null)
+            obsolete += createAffiliationRecord(nodeName, entity, previous).length();
+        // NONE is not kept, so the record removing the affiliation is not recorded by a compaction
+        if (affiliation.equals(PubSubAffiliation.NONE))
+            obsolete += createAffiliationRecord(nodeName, entity, affiliation).length();
+        return obsolete;
+    }
+
+    private long obsoleteByMaxItems(Log log, String nodeName, int maxItems) {
+        long obsolete = 0;
+        int previous = log.items.get(nodeName).maxItems;
+        if (previous != Integer.MAX_VALUE)
+            obsolete += createMaxItemsRecord(nodeName, previous).length();
+        // the unlimited default is not recorded by a compaction
+        if (maxItems == Integer.MAX_VALUE)
+            obsolete += createMaxItemsRecord(nodeName, maxItems).length();
+        return obsolete;
+    }
+
+    private synchronized Log getLog() {
+        if (log != null)
+            return log;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("cannot create pubsub storage directory " + directory.getAbsolutePath());
+        }
+        // everything known is replayed from the log
+        nodeSubscribers.clear();
+        nodeMessages.clear();
+        nodeAffiliations.clear();
+        userSubscriptions.clear();
+        syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pubsub-log-sync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            log = new Log(new File(directory, LOG_FILE_NAME), syncer);
+        } catch (IOException e) {
+            syncer.shutdown();
+            syncer = null;
+            throw new IllegalStateException("cannot open pubsub storage in " + directory.getAbsolutePath(), e);
+        }
+        if (syncInterval > 0) {
+            final Log syncedLog = log;
+            syncer.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    syncedLog.syncInBackground();
+                }
+            }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+        return log;
+    }
+
+    private List<XMLElement> decode(IoBuffer batch) {
+        List<XMLElement> payloads = new ArrayList<XMLElement>();
+        try {
+            XMLElementBatchDecoder.decode(batch, new XMLElementBuilderFactory(), XMLElement.class, payloads);
+        } catch (Exception e) {
+            logger.error("failed to decode pubsub items, " + payloads.size() + " recovered", e);
+        }
+        return payloads;
+    }
+
+    private static class ItemEntry {
+        final String itemID;
+
+        final Entity publisher;
+
+        final long timestamp;
+
+        long recordOffset;
+
+        int recordLength;
+
+        int xmlLength;
+
+        ItemEntry(String itemID, Entity publisher, long timestamp) {
+            this.itemID = itemID;
+            this.publisher = publisher;
+            this.timestamp = timestamp;
+        }
+
+        long getXmlOffset() {
+            return recordOffset + recordLength - xmlLength;
+        }
+    }
+
+    /**
+     * the items of one node by itemID, oldest first. the caller holds the lock of the log.
+     */
+    private static class ItemIndex {
+        final LinkedHashMap<String, ItemEntry> entries = new LinkedHashMap<String, ItemEntry>();
+
+        int maxItems = Integer.MAX_VALUE;
+
+        void add(ItemEntry entry, Log log) {
+            // remove first, so the replaced item moves to the end
+            ItemEntry replaced = entries.remove(entry.itemID);
+            if (replaced != null)
+                log.garbage += replaced.recordLength;
+            entries.put(entry.itemID, entry);
+            trim(log);
+        }
+
+        void setMaxItems(int maxItems, Log log) {
+            this.maxItems = maxItems;
+            trim(log);
+        }
+
+        List<ItemEntry> getLatest(int count) {
+            List<ItemEntry> latest = new ArrayList<ItemEntry>(Math.min(count, entries.size()));
+            int skip = entries.size() - count;
+            for (ItemEntry entry : entries.values()) {
+                if (skip-- > 0)
+                    continue;
+                latest.add(entry);
+            }
+            return latest;
+        }
+
+        void clear(Log log) {
+            for (ItemEntry entry : entries.values()) {
+                log.garbage += entry.recordLength;
+            }
+            entries.clear();
+        }
+
+        private void trim(Log log) {
+            Iterator<ItemEntry> it = entries.values().iterator();
+            while (entries.size() > maxItems) {
+                log.garbage += it.next().recordLength;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * the log file, its write buffer and the item indexes. callers must hold the log's monitor.
+     * <br/>
+     * record layout: int length (excluding itself), byte type, UTF node name, followed by
+     * NODE_STORE: boolean has title, UTF title
+     * SUBSCRIBE: UTF subid, UTF subscriber
+     * REMOVE_SUBSCRIPTION: UTF subid
+     * REMOVE_SUBSCRIBER, REMOVE_SUBSCRIPTIONS (empty node name): UTF subscriber
+     * AFFILIATION: UTF bare JID, UTF affiliation
+     * MAX_ITEMS: int max items
+     * ITEM: UTF itemid, UTF publisher, long timestamp, int xml length, xml bytes
+     * NODE_INIT, NODE_DELETE: nothing
+     */
+    private class Log {
+
+        private final File file;
+
+        private RandomAccessFile randomAccessFile;
+
+        /**
+         * the length of the log, including the buffered records
+         */
+        private long length = 0;
+
+        private final byte[] writeBuffer = new byte[WRITE_BUFFER_SIZE];
+
+        private int buffered = 0;
+
+        /**
+         * true if records have been written since the log was last forced to the disk
+         */
+        private boolean unsynced = false;
+
+        /**
+         * bytes occupied by obsolete item and metadata records, which a compaction would drop
+         */
+        private long garbage = 0;
+
+        private final Map<String, ItemIndex> items = new HashMap<String, ItemIndex>();
+
+        /**
+         * the names and titles of all nodes stored in the collection
+         */
+        private final Map<String, String> storedNodes = new LinkedHashMap<String, String>();
+
+        /**
+         * runs the compaction
+         */
+        private final ExecutorService compactor;
+
+        /**
+         * true while a compaction is scheduled or running
+         */
+        private boolean compacting = false;
+
+        private boolean closed = false;
+
+        Log(File file, ExecutorService compactor) throws IOException {
+            this.file = file;
+            this.compactor = compactor;
+            File compactionFile = getCompactionFile();
+            if (!file.exists() && compactionFile.exists()) {
+                // crashed while replacing the log with its compacted version
+                if (!compactionFile.renameTo(file))
+                    throw new IOException("cannot recover compacted log " + compactionFile.getAbsolutePath());
+            }
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            load();
+        }
+
+        private File getCompactionFile() {
+            return new File(file.getPath() + COMPACTION_FILE_SUFFIX);
+        }
+
+        private void load() throws IOException {
+            long fileLength = randomAccessFile.length();
+            long position = 0;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (position + 4 <= fileLength) {
+                    int recordLength = in.readInt();
+                    if (recordLength <= 0 || position + 4 + recordLength > fileLength)
+                        break;
+                    byte[] record = new byte[recordLength];
+                    in.readFully(record);
+                    replay(this, record, position);
+                    position += 4 + recordLength;
+                }
+            } catch (EOFException e) {
+                // incomplete last record, handled below
+            } finally {
+                in.close();
+            }
+            if (position < fileLength) {
+                logger.warn("truncating incomplete record at the end of pubsub log {}", file.getAbsolutePath());
+                randomAccessFile.setLength(position);
+            }
+            length = position;
+        }
+
+        /**
+         * @param obsolete the bytes of earlier records made obsolete by the record
+         * @throws IllegalStateException if the record cannot be written, the change must not be applied then
+         */
+        void appendMetadata(RecordWriter record, long obsolete) {
+            byte[] bytes = record.toByteArray();
+            try {
+                append(bytes);
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to write to pubsub log " + file.getAbsolutePath(), e);
+            }
+            garbage += obsolete;
+            compactIfNeeded();
+        }
+
+        /**
+         * @return offset of the first byte written
+         */
+        long append(byte[] bytes) throws IOException {
+            long offset = length;
+            if (buffered + bytes.length > writeBuffer.length)
+                flush();
+            if (bytes.length > writeBuffer.length) {
+                randomAccessFile.seek(offset);
+                randomAccessFile.write(bytes);
+            } else {
+                System.arraycopy(bytes, 0, writeBuffer, buffered, bytes.length);
+                buffered += bytes.length;
+            }
+            length += bytes.length;
+            unsynced = true;
+            if (syncInterval == 0)
+                sync();
+            return offset;
+        }
+
+        /**
+         * writes the buffered records to the file
+         */
+        void flush() throws IOException {
+            if (buffered == 0)
+                return;
+            randomAccessFile.seek(length - buffered);
+            randomAccessFile.write(writeBuffer, 0, buffered);
+            buffered = 0;
+        }
+
+        void sync() throws IOException {
+            flush();
+            if (unsynced) {
+                randomAccessFile.getChannel().force(false);
+                unsynced = false;
+            }
+        }
+
+        /**
+         * writes the buffered records while holding the lock, but forces them to the disk without it,
+         * so publishing is not blocked by the disk
+         */
+        void syncInBackground() {
+            FileChannel channel;
+            synchronized (this) {
+                if (!unsynced)
+                    return;
+                try {
+                    flush();
+                } catch (IOException e) {
+                    logger.error("failed to write pubsub log " + file.getAbsolutePath(), e);
+                    return;
+                }
+                unsynced = false;
+                channel = randomAccessFile.getChannel();
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                // the log has been closed or compacted in the meantime, which forces it anyway
+                if (channel.isOpen())
+                    logger.error("failed to sync pubsub log " + file.getAbsolutePath(), e);
+            }
+        }
+
+        /**
+         * reads the xml of all entries into one buffer, enclosed by the batch element
+         */
+        IoBuffer readBatch(Collection<ItemEntry> entries) throws IOException {
+            flush();
+            int size = BATCH_OPENING.length + BATCH_CLOSING.length;
+            for (ItemEntry entry : entries) {
+                size += entry.xmlLength;
+            }
+            byte[] bytes = new byte[size];
+            System.arraycopy(BATCH_OPENING, 0, bytes, 0, BATCH_OPENING.length);
+            int position = BATCH_OPENING.length;
+            for (ItemEntry entry : entries) {
+                randomAccessFile.seek(entry.getXmlOffset());
+                randomAccessFile.readFully(bytes, position, entry.xmlLength);
+                position += entry.xmlLength;
+            }
+            System.arraycopy(BATCH_CLOSING, 0, bytes, position, BATCH_CLOSING.length);
+            return IoBuffer.wrap(bytes);
+        }
+
+        /**
+         * schedules the compaction on the background thread, if enough of the log is obsolete
+         */
+        void compactIfNeeded() {
+            if (compacting || !isCompactionNeeded())
+                return;
+            compacting = true;
+            try {
+                compactor.execute(new Runnable() {
+                    public void run() {
+                        compactInBackground();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the log is being closed
+                compacting = false;
+            }
+        }
+
+        boolean isCompactionNeeded() {
+            return garbage >= compactionThreshold && garbage * 2 >= length;
+        }
+
+        private void compactInBackground() {
+            try {
+                compact();
+            } catch (IOException e) {
+                logger.error("failed to compact pubsub log " + file.getAbsolutePath(), e);
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                }
+            }
+        }
+
+        /**
+         * rewrites the current state into a fresh log file: the metadata of every node, followed by its items.
+         * the state is taken while holding the lock, but the items are copied without it. the records appended
+         * meanwhile are copied while holding the lock again, right before the fresh file replaces the log.
+         */
+        void compact() throws IOException {
+            List<byte[]> nodeMetadata = new ArrayList<byte[]>();
+            List<List<ItemEntry>> nodeEntries = new ArrayList<List<ItemEntry>>();
+            long snapshotLength;
+            long snapshotGarbage;
+            synchronized (this) {
+                if (closed)
+                    return;
+                flush();
+                for (Map.Entry<String, ItemIndex> node : items.entrySet()) {
+                    nodeMetadata.add(createNodeSnapshot(node.getKey(), node.getValue().maxItems));
+                    nodeEntries.add(new ArrayList<ItemEntry>(node.getValue().entries.values()));
+                }
+                for (Map.Entry<String, String> storedNode : storedNodes.entrySet()) {
+                    if (items.containsKey(storedNode.getKey()))
+                        continue;
+                    // stored by the collection only
+                    nodeMetadata.add(createNodeStoreRecord(storedNode.getKey(), storedNode.getValue())
+                            .toByteArray());
+                    nodeEntries.add(Collections.<ItemEntry> emptyList());
+                }
+                snapshotLength = length;
+                snapshotGarbage = garbage;
+            }
+
+            File compactionFile = getCompactionFile();
+            Map<ItemEntry, Long> newOffsets = new HashMap<ItemEntry, Long>();
+            long position = 0;
+            RandomAccessFile source = new RandomAccessFile(file, "r");
+            RandomAccessFile compacted = new RandomAccessFile(compactionFile, "rw");
+            try {
+                compacted.setLength(0);
+                for (int i = 0; i < nodeMetadata.size(); i++) {
+                    compacted.write(nodeMetadata.get(i));
+                    position += nodeMetadata.get(i).length;
+                    for (ItemEntry entry : nodeEntries.get(i)) {
+                        byte[] record = new byte[entry.recordLength];
+                        source.seek(entry.recordOffset);
+                        source.readFully(record);
+                        compacted.write(record);
+                        newOffsets.put(entry, position);
+                        position += record.length;
+                    }
+                }
+
+                synchronized (this) {
+                    if (closed) {
+                        compacted.close();
+                        compactionFile.delete();
+                        return;
+                    }
+                    // the records appended since the snapshot follow unchanged
+                    flush();
+                    long tailOffset = position;
+                    byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+                    source.seek(snapshotLength);
+                    for (long remaining = length - snapshotLength; remaining > 0;) {
+                        int read = (int) Math.min(buffer.length, remaining);
+                        source.readFully(buffer, 0, read);
+                        compacted.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                    position += length - snapshotLength;
+                    compacted.getChannel().force(true);
+                    compacted.close();
+
+                    randomAccessFile.close();
+                    if (!compactionFile.renameTo(file)) {
+                        // some platforms do not replace existing files on rename
+                        if (!file.delete() || !compactionFile.renameTo(file)) {
+                            randomAccessFile = new RandomAccessFile(file, "rw");
+                            throw new IOException("cannot replace pubsub log " + file.getAbsolutePath());
+                        }
+                    }
+                    randomAccessFile = new RandomAccessFile(file, "rw");
+
+                    for (ItemIndex index : items.values()) {
+                        for (ItemEntry entry : index.entries.values()) {
+                            Long offset = newOffsets.get(entry);
+                            // entries not in the snapshot have been appended since
+                            entry.recordOffset = offset != null ? offset : tailOffset + entry.recordOffset
+                                    - snapshotLength;
+                        }
+                    }
+                    logger.debug("compacted pubsub log {} from {} to {} bytes", new Object[] { file.getName(),
+                            length, position });
+                    length = position;
+                    // the snapshot is all live, only what became obsolete since remains
+                    garbage -= snapshotGarbage;
+                    unsynced = false;
+                    compactionCount++;
+                }
+            } finally {
+                source.close();
+                compacted.close();
+            }
+        }
+
+        /**
+         * the records recreating the node's metadata
+         */
+        private byte[] createNodeSnapshot(final String nodeName, int maxItems) {
+            final ByteArrayOutputStream records = new ByteArrayOutputStream();
+            writeRecord(records, new RecordWriter(RECORD_NODE_INIT, nodeName));
+            if (storedNodes.containsKey(nodeName))
+                writeRecord(records, createNodeStoreRecord(nodeName, storedNodes.get(nodeName)));
+            if (maxItems != Integer.MAX_VALUE)
+                writeRecord(records, createMaxItemsRecord(nodeName, maxItems));
+            acceptForEachMemberAffiliation(nodeName, new MemberAffiliationVisitor() {
+                public void visit(Entity jid, PubSubAffiliation affiliation) {
+                    writeRecord(records, createAffiliationRecord(nodeName, jid, affiliation));
+                }
+            });
+            acceptForEachSubscriber(nodeName, new SubscriberVisitor() {
+                public void visit(String name, String subscriptionID, Entity subscriber) {
+                    writeRecord(records, createSubscriptionRecord(name, subscriptionID, subscriber));
+                }
+            });
+            return records.toByteArray();
+        }
+
+        private void writeRecord(ByteArrayOutputStream records, RecordWriter record) {
+            byte[] bytes = record.toByteArray();
+            records.write(bytes, 0, bytes.length);
+        }
+
+        void close() {
+            closed = true;
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                logger.warn("failed to close pubsub log " + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * serializes one record, reserving space for the length prefix. writing to memory does not fail,
+     * so the IOExceptions of the underlying stream are not passed on.
+     */
+    private static class RecordWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        RecordWriter(byte type, String nodeName) {
+            writeInt(0);
+            try {
+                out.writeByte(type);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            writeUTF(nodeName);
+        }
+
+        void writeUTF(String value) {
+            try {
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void writeBoolean(boolean value) {
+            try {
+                out.writeBoolean(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void write(byte[] value) {
+            try {
+                out.write(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @return the length of the record, including the length prefix
+         */
+        int length() {
+            return bytes.size();
+        }
+
+        byte[] toByteArray() {
+            byte[] record = bytes.toByteArray();
+            int length = record.length - 4;
+            record[0] = (byte) (length >>> 24);
+            record[1] = (byte) (length >>> 16);
+            record[2] = (byte) (length >>> 8);
+            record[3] = (byte) length;
+            return record;
+        }
+    }
+}
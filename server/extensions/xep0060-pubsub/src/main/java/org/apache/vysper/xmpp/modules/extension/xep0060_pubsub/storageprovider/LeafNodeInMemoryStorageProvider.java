@@ -19,9 +19,12 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.vysper.xml.fragment.XMLElement;
 import org.apache.vysper.xmpp.addressing.Entity;
@@ -29,6 +32,7 @@ import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.ItemVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.MemberAffiliationVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubAffiliation;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriberVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriptionItem;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LastOwnerResignedException;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
@@ -37,26 +41,109 @@ import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem
  * This storage provider keeps all objects in memory and looses its content when
  * removed from memory. This is the default storage provider for leaf nodes.
  * 
+ * The provider is safe for use by concurrent threads. Besides the per-node maps, all
+ * subscriptions are indexed by the subscriber's bare JID, so that looking up or removing
+ * the subscriptions of one user does not scan the subscriptions of all other users.
+ * 
  * @author The Apache MINA Project (http://mina.apache.org)
  */
 public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider {
 
     // The node owners
-    protected Map<String, Map<Entity, PubSubAffiliation>> nodeAffiliations;
+    protected ConcurrentMap<String, Map<Entity, PubSubAffiliation>> nodeAffiliations;
 
     // stores subscribers to a node, access via subid
-    protected Map<String, Map<String, Entity>> nodeSubscribers;
+    protected ConcurrentMap<String, ConcurrentMap<String, Entity>> nodeSubscribers;
 
     // stores messages to a node, access via itemid
-    protected Map<String, Map<String, PayloadItem>> nodeMessages;
+    protected ConcurrentMap<String, PayloadItemStore> nodeMessages;
+
+    // all subscriptions of a user to any node, access via the bare JID of the subscriber
+    protected ConcurrentMap<Entity, UserSubscriptions> userSubscriptions;
+
+    /**
+     * The subscriptions of one user (bare JID), by node name and subid. Changes to the subscriptions of
+     * the user are made while holding the lock of this object, for the node maps and the index alike.
+     */
+    protected static class UserSubscriptions {
+
+        private Map<String, Map<String, Entity>> nodes = new HashMap<String, Map<String, Entity>>();
+
+        // set when the user has no subscriptions left and has been removed from the index
+        private boolean discarded = false;
+
+        private void add(String nodeName, String subscriptionID, Entity subscriber) {
+            Map<String, Entity> subscriptions = nodes.get(nodeName);
+            if (subscriptions == null) {
+                subscriptions = new HashMap<String, Entity>();
+                nodes.put(nodeName, subscriptions);
+            }
+            subscriptions.put(subscriptionID, subscriber);
+        }
+
+        private void remove(String nodeName, String subscriptionID) {
+            Map<String, Entity> subscriptions = nodes.get(nodeName);
+            if (subscriptions != null) {
+                subscriptions.remove(subscriptionID);
+                if (subscriptions.isEmpty())
+                    nodes.remove(nodeName);
+            }
+        }
+
+        private Map<String, Entity> get(String nodeName) {
+            Map<String, Entity> subscriptions = nodes.get(nodeName);
+            return subscriptions != null ? subscriptions : new HashMap<String, Entity>();
+        }
+    }
 
     /**
      * Initialize the storage maps.
      */
     public LeafNodeInMemoryStorageProvider() {
-        this.nodeSubscribers = new TreeMap<String, Map<String, Entity>>();
-        this.nodeMessages = new TreeMap<String, Map<String, PayloadItem>>();
-        this.nodeAffiliations = new TreeMap<String, Map<Entity, PubSubAffiliation>>();
+        this.nodeSubscribers = new ConcurrentHashMap<String, ConcurrentMap<String, Entity>>();
+        this.nodeMessages = new ConcurrentHashMap<String, PayloadItemStore>();
+        this.nodeAffiliations = new ConcurrentHashMap<String, Map<Entity, PubSubAffiliation>>();
+        this.userSubscriptions = new ConcurrentHashMap<Entity, UserSubscriptions>();
+    }
+
+    /**
+     * Returns the index entry of the user, the entry is created if it does not exist.
+     * The caller has to check if the entry has been discarded after acquiring its lock.
+     */
+    private UserSubscriptions getOrCreateUserSubscriptions(Entity bareJID) {
+        UserSubscriptions user = userSubscriptions.get(bareJID);
+        if (user == null) {
+            UserSubscriptions newUser = new UserSubscriptions();
+            user = userSubscriptions.putIfAbsent(bareJID, newUser);
+            if (user == null)
+                user = newUser;
+        }
+        return user;
+    }
+
+    /**
+     * Removes the index entry of the user, if the user has no subscriptions left.
+     * Must be called while holding the lock of the entry.
+     */
+    private void discardIfEmpty(Entity bareJID, UserSubscriptions user) {
+        if (user.nodes.isEmpty()) {
+            user.discarded = true;
+            userSubscriptions.remove(bareJID, user);
+        }
+    }
+
+    /**
+     * Removes a single subscription from the index.
+     */
+    private void removeFromIndex(String nodeName, String subscriptionID, Entity subscriber) {
+        Entity bareJID = subscriber.getBareJID();
+        UserSubscriptions user = userSubscriptions.get(bareJID);
+        if (user == null)
+            return;
+        synchronized (user) {
+            user.remove(nodeName, subscriptionID);
+            discardIfEmpty(bareJID, user);
+        }
     }
 
     /**
@@ -64,15 +151,29 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      */
     public void addSubscriber(String nodeName, String subscriptionID, Entity subscriber) {
         Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        subscribers.put(subscriptionID, subscriber);
+        Entity bareJID = subscriber.getBareJID();
+        Entity replaced = null;
+        while (true) {
+            UserSubscriptions user = getOrCreateUserSubscriptions(bareJID);
+            synchronized (user) {
+                if (user.discarded)
+                    continue; // removed concurrently, try again with a new entry
+                replaced = subscribers.put(subscriptionID, subscriber);
+                user.add(nodeName, subscriptionID, subscriber);
+            }
+            break;
+        }
+        if (replaced != null && !replaced.getBareJID().equals(bareJID)) {
+            // the subid was used by another user before
+            removeFromIndex(nodeName, subscriptionID, replaced);
+        }
     }
 
     /**
      * Check if a subscriber is already known.
      */
     public boolean containsSubscriber(String nodeName, Entity subscriber) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        return subscribers.containsValue(subscriber);
+        return countSubscriptions(nodeName, subscriber) > 0;
     }
 
     /**
@@ -95,27 +196,59 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      * Remove a subscriber via its subscriptionId.
      */
     public boolean removeSubscription(String nodeName, String subscriptionId) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        return subscribers.remove(subscriptionId) != null;
+        ConcurrentMap<String, Entity> subscribers = nodeSubscribers.get(nodeName);
+        Entity subscriber = subscribers.get(subscriptionId);
+        if (subscriber == null)
+            return false;
+        Entity bareJID = subscriber.getBareJID();
+        UserSubscriptions user = userSubscriptions.get(bareJID);
+        if (user == null)
+            return false; // removed concurrently
+        synchronized (user) {
+            if (!subscribers.remove(subscriptionId, subscriber))
+                return false;
+            user.remove(nodeName, subscriptionId);
+            discardIfEmpty(bareJID, user);
+        }
+        return true;
     }
 
     /**
-     * Remove a subscriber via its JID. This removes all subscriptions of the JID.
+     * Remove a subscriber via its JID. This removes one subscription of the JID.
      */
     public boolean removeSubscriber(String nodeName, Entity subscriber) {
         Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        return subscribers.values().remove(subscriber);
+        Entity bareJID = subscriber.getBareJID();
+        UserSubscriptions user = userSubscriptions.get(bareJID);
+        if (user == null)
+            return false;
+        synchronized (user) {
+            for (Map.Entry<String, Entity> subscription : user.get(nodeName).entrySet()) {
+                if (subscriber.equals(subscription.getValue())) {
+                    String subscriptionID = subscription.getKey();
+                    subscribers.remove(subscriptionID);
+                    user.remove(nodeName, subscriptionID);
+                    discardIfEmpty(bareJID, user);
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
      * Count how often a given subscriber is subscribed.
      */
     public int countSubscriptions(String nodeName, Entity subscriber) {
-        Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
+        UserSubscriptions user = userSubscriptions.get(subscriber.getBareJID());
+        if (user == null)
+            return 0;
         int count = 0;
-        for (Entity sub : subscribers.values()) {
-            if (subscriber.equals(sub)) {
-                ++count;
+        synchronized (user) {
+            for (Entity sub : user.get(nodeName).values()) {
+                if (subscriber.equals(sub)) {
+                    ++count;
+                }
             }
         }
         return count;
@@ -129,12 +262,65 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
         return subscribers.size();
     }
 
+    /**
+     * Visit all subscriptions of the user (matching bare JID) to any node.
+     */
+    public void acceptForEachSubscription(Entity subscriber, SubscriberVisitor subscriberVisitor) {
+        UserSubscriptions user = userSubscriptions.get(subscriber.getBareJID());
+        if (user == null)
+            return;
+        List<SubscriptionItem> subscriptions = new ArrayList<SubscriptionItem>();
+        synchronized (user) {
+            for (Map.Entry<String, Map<String, Entity>> node : user.nodes.entrySet()) {
+                for (Map.Entry<String, Entity> subscription : node.getValue().entrySet()) {
+                    subscriptions.add(new SubscriptionItem(node.getKey(), subscription.getKey(), subscription
+                            .getValue()));
+                }
+            }
+        }
+        // the visitor is called without holding the lock
+        for (SubscriptionItem subscription : subscriptions) {
+            subscriberVisitor.visit(subscription.getNodeName(), subscription.getSubscriptionID(), subscription
+                    .getSubscriberJID());
+        }
+    }
+
+    /**
+     * Remove all subscriptions of the user (matching bare JID) to any node.
+     */
+    public int removeSubscriptions(Entity subscriber) {
+        Entity bareJID = subscriber.getBareJID();
+        UserSubscriptions user = userSubscriptions.get(bareJID);
+        if (user == null)
+            return 0;
+        int count = 0;
+        synchronized (user) {
+            for (Map.Entry<String, Map<String, Entity>> node : user.nodes.entrySet()) {
+                Map<String, Entity> subscribers = nodeSubscribers.get(node.getKey());
+                for (String subscriptionID : node.getValue().keySet()) {
+                    if (subscribers != null && subscribers.remove(subscriptionID) != null)
+                        ++count;
+                }
+            }
+            user.nodes.clear();
+            discardIfEmpty(bareJID, user);
+        }
+        return count;
+    }
+
     /**
      * Add a message to the storage.
      */
     public void addMessage(Entity publisher, String nodeName, String itemID, XMLElement payload) {
-        Map<String, PayloadItem> messages = nodeMessages.get(nodeName);
-        messages.put(itemID, new PayloadItem(publisher, payload, itemID));
+        PayloadItemStore messages = nodeMessages.get(nodeName);
+        messages.add(new PayloadItem(publisher, payload, itemID));
+    }
+
+    /**
+     * Limit the number of messages kept for the node, the oldest messages are evicted first.
+     */
+    public void setMaxItems(String nodeName, int maxItems) {
+        nodeMessages.get(nodeName).setMaxItems(maxItems);
     }
 
     /**
@@ -142,8 +328,8 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      */
     public void acceptForEachSubscriber(String nodeName, SubscriberVisitor subscriberVisitor) {
         Map<String, Entity> subscribers = nodeSubscribers.get(nodeName);
-        for (String subID : subscribers.keySet()) {
-            subscriberVisitor.visit(nodeName, subID, subscribers.get(subID));
+        for (Map.Entry<String, Entity> subscription : subscribers.entrySet()) {
+            subscriberVisitor.visit(nodeName, subscription.getKey(), subscription.getValue());
         }
     }
 
@@ -158,19 +344,43 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      * Go through each message and call visit of the visitor.
      */
     public void acceptForEachItem(String nodeName, ItemVisitor iv) {
-        Map<String, PayloadItem> messages = nodeMessages.get(nodeName);
-        for (String itemID : messages.keySet()) {
-            iv.visit(itemID, messages.get(itemID));
+        PayloadItemStore messages = nodeMessages.get(nodeName);
+        for (PayloadItem item : messages.getItems()) {
+            iv.visit(item.getItemID(), item);
+        }
+    }
+
+    /**
+     * Go through the newest messages and call visit of the visitor.
+     */
+    public void acceptForEachItem(String nodeName, int maxItems, ItemVisitor iv) {
+        PayloadItemStore messages = nodeMessages.get(nodeName);
+        for (PayloadItem item : messages.getLatestItems(maxItems)) {
+            iv.visit(item.getItemID(), item);
         }
     }
 
+    /**
+     * Look up a message via its itemID.
+     */
+    public PayloadItem getItem(String nodeName, String itemID) {
+        return nodeMessages.get(nodeName).get(itemID);
+    }
+
     /**
      * Initialize the node with the storage.
      */
     public void initialize(LeafNode leafNode) {
-        nodeMessages.put(leafNode.getName(), new TreeMap<String, PayloadItem>());
-        nodeSubscribers.put(leafNode.getName(), new TreeMap<String, Entity>());
-        nodeAffiliations.put(leafNode.getName(), new HashMap<Entity, PubSubAffiliation>());
+        initializeNode(leafNode.getName());
+    }
+
+    /**
+     * Creates empty storage for the node, replacing all that was stored for it before.
+     */
+    protected void initializeNode(String name) {
+        nodeMessages.put(name, new PayloadItemStore(Integer.MAX_VALUE));
+        nodeAffiliations.put(name, new ConcurrentHashMap<Entity, PubSubAffiliation>());
+        removeFromIndex(name, nodeSubscribers.put(name, new ConcurrentHashMap<String, Entity>()));
     }
 
     /**
@@ -178,8 +388,19 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      */
     public void delete(String name) {
         nodeMessages.remove(name);
-        nodeSubscribers.remove(name);
         nodeAffiliations.remove(name);
+        removeFromIndex(name, nodeSubscribers.remove(name));
+    }
+
+    /**
+     * Removes all subscriptions of a node, which is no longer stored, from the index.
+     */
+    private void removeFromIndex(String nodeName, Map<String, Entity> subscribers) {
+        if (subscribers == null)
+            return;
+        for (Map.Entry<String, Entity> subscription : subscribers.entrySet()) {
+            removeFromIndex(nodeName, subscription.getKey(), subscription.getValue());
+        }
     }
 
     /**
@@ -191,16 +412,20 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
         Map<Entity, PubSubAffiliation> affils = this.nodeAffiliations.get(nodeName);
         Entity bareJID = entity.getBareJID();
 
-        if (getAffiliation(nodeName, bareJID).equals(PubSubAffiliation.OWNER)
-                && !affiliation.equals(PubSubAffiliation.OWNER)
-                && countAffiliations(nodeName, PubSubAffiliation.OWNER) == 1) {
-            throw new LastOwnerResignedException(bareJID.getFullQualifiedName() + " tried to resign from " + nodeName);
-        }
+        // the last owner check and the change must not interleave with other changes
+        synchronized (affils) {
+            if (getAffiliation(nodeName, bareJID).equals(PubSubAffiliation.OWNER)
+                    && !affiliation.equals(PubSubAffiliation.OWNER)
+                    && countAffiliations(nodeName, PubSubAffiliation.OWNER) == 1) {
+                throw new LastOwnerResignedException(bareJID.getFullQualifiedName() + " tried to resign from "
+                        + nodeName);
+            }
 
-        if (affiliation.equals(PubSubAffiliation.NONE)) {
-            affils.remove(bareJID); // NONE affiliations are not stored.
-        } else {
-            affils.put(bareJID, affiliation);
+            if (affiliation.equals(PubSubAffiliation.NONE)) {
+                affils.remove(bareJID); // NONE affiliations are not stored.
+            } else {
+                affils.put(bareJID, affiliation);
+            }
         }
     }
 
@@ -233,9 +458,8 @@ public class LeafNodeInMemoryStorageProvider implements LeafNodeStorageProvider
      */
     public void acceptForEachMemberAffiliation(String name, MemberAffiliationVisitor mav) {
         Map<Entity, PubSubAffiliation> affils = this.nodeAffiliations.get(name);
-        for (Entity jid : affils.keySet()) {
-            PubSubAffiliation affil = affils.get(jid);
-            mav.visit(jid, affil);
+        for (Map.Entry<Entity, PubSubAffiliation> affil : affils.entrySet()) {
+            mav.visit(affil.getKey(), affil.getValue());
         }
     }
 }
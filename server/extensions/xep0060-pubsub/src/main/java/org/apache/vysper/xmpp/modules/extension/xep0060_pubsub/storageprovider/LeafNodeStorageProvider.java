@@ -28,6 +28,7 @@ import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubAffiliation
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriberVisitor;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LastOwnerResignedException;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
 
 /**
  * This interface defines all methods a StorageProvider has to offer to be suitable
@@ -100,6 +101,20 @@ public interface LeafNodeStorageProvider extends StorageProvider {
      */
     public int countSubscriptions(String nodeName);
 
+    /**
+     * Call the SubscriberVisitor for each subscription of a user to any node.
+     * @param subscriber the user, all subscriptions matching its bare JID are visited.
+     * @param subscriberVisitor the SubscriberVisitor to call
+     */
+    public void acceptForEachSubscription(Entity subscriber, SubscriberVisitor subscriberVisitor);
+
+    /**
+     * Removes all subscriptions of a user to any node, for example when the user goes offline.
+     * @param subscriber the user, all subscriptions matching its bare JID are removed.
+     * @return the number of removed subscriptions.
+     */
+    public int removeSubscriptions(Entity subscriber);
+
     /**
      * Store a published message to a node.
      * @param publisher who sent the message
@@ -109,6 +124,14 @@ public interface LeafNodeStorageProvider extends StorageProvider {
      */
     public void addMessage(Entity publisher, String nodeName, String messageID, XMLElement item);
 
+    /**
+     * Limit the number of messages stored for a node. When the limit is reached, the oldest
+     * message is evicted for each new one.
+     * @param nodeName the node to limit.
+     * @param maxItems the maximum number of messages, 0 if no messages are to be stored at all.
+     */
+    public void setMaxItems(String nodeName, int maxItems);
+
     /**
      * Call the SubscriberVisitor for each subscription of the given node.
      * @param nodeName the node we want to iterate.
@@ -122,13 +145,30 @@ public interface LeafNodeStorageProvider extends StorageProvider {
     public void initialize();
 
     /**
-     * Visits each item ever published to the node.
+     * Visits each item stored for the node, oldest first.
      *
      * @param nodeName
      * @param iv the Visitor.
      */
     public void acceptForEachItem(String nodeName, ItemVisitor iv);
 
+    /**
+     * Visits the newest items stored for the node, oldest first.
+     *
+     * @param nodeName
+     * @param maxItems the maximum number of items to visit.
+     * @param iv the Visitor.
+     */
+    public void acceptForEachItem(String nodeName, int maxItems, ItemVisitor iv);
+
+    /**
+     * Retrieve a stored item via its itemID.
+     * @param nodeName the node the item was published to.
+     * @param itemID the ID of the item.
+     * @return the item, null if no such item is stored.
+     */
+    public PayloadItem getItem(String nodeName, String itemID);
+
     /**
      * When a new LeafNode is created, initialize will be called with it as a parameter.
      * @param leafNode
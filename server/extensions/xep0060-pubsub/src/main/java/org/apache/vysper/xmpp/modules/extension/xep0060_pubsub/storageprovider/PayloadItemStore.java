@@ -0,0 +1,115 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
+
+/**
+ * The items of one node, bounded to a maximum number of items. When a new item exceeds the
+ * limit, the oldest item is evicted. Adding and evicting an item take constant time.
+ * A limit of 0 disables storing items at all.
+ * 
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+public class PayloadItemStore {
+
+    // the items by itemid, oldest first
+    private final LinkedHashMap<String, PayloadItem> items = new LinkedHashMap<String, PayloadItem>();
+
+    private int maxItems;
+
+    /**
+     * Creates a store keeping at most maxItems items.
+     */
+    public PayloadItemStore(int maxItems) {
+        setMaxItems(maxItems);
+    }
+
+    /**
+     * Adds an item as the newest item. An item with the same itemid is replaced.
+     */
+    public synchronized void add(PayloadItem item) {
+        if (maxItems == 0)
+            return;
+        // remove first, so the replaced item moves to the end
+        items.remove(item.getItemID());
+        items.put(item.getItemID(), item);
+        trim();
+    }
+
+    /**
+     * Changes the maximum number of items, surplus items are evicted oldest first.
+     */
+    public synchronized void setMaxItems(int maxItems) {
+        if (maxItems < 0)
+            throw new IllegalArgumentException("maximum number of items must not be negative");
+        this.maxItems = maxItems;
+        trim();
+    }
+
+    public synchronized int getMaxItems() {
+        return maxItems;
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    /**
+     * @return the item with the given itemid, or null.
+     */
+    public synchronized PayloadItem get(String itemID) {
+        return items.get(itemID);
+    }
+
+    /**
+     * @return a copy of all items, oldest first.
+     */
+    public synchronized List<PayloadItem> getItems() {
+        return new ArrayList<PayloadItem>(items.values());
+    }
+
+    /**
+     * @return a copy of the newest maxItems items, oldest first.
+     */
+    public synchronized List<PayloadItem> getLatestItems(int maxItems) {
+        List<PayloadItem> latest = new ArrayList<PayloadItem>(Math.min(maxItems, items.size()));
+        int skip = items.size() - maxItems;
+        for (PayloadItem item : items.values()) {
+            if (skip-- > 0)
+                continue;
+            latest.add(item);
+        }
+        return latest;
+    }
+
+    private void trim() {
+        Iterator<PayloadItem> it = items.values().iterator();
+        while (items.size() > maxItems) {
+            it.next();
+            it.remove();
+        }
+    }
+}
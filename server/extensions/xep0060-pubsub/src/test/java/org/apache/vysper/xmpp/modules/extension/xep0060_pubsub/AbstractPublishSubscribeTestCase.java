@@ -81,6 +81,8 @@ public abstract class AbstractPublishSubscribeTestCase extends TestCase {
 
         root = new CollectionNode();
         serviceConfiguration = new PubSubServiceConfiguration(root);
+        // send notifications synchronously, so they can be checked right after publishing
+        serviceConfiguration.setNotificationFanOut(new NotificationFanOut(0, NotificationFanOut.DEFAULT_CHUNK_SIZE));
         configurePubsubModule(sessionContext, serviceConfiguration);
 
         clientBare = new EntityImpl("tester", "vysper.org", null);
@@ -0,0 +1,225 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLFragment;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.delivery.StanzaRelay;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryException;
+import org.apache.vysper.xmpp.delivery.failure.DeliveryFailureStrategy;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.stanza.Stanza;
+
+/**
+ * @author The Apache MINA Project (http://mina.apache.org)
+ *
+ */
+public class NotificationFanOutTestCase extends TestCase {
+
+    private static final int SUBSCRIBERS = 1000;
+
+    private static final int ITEMS = 5;
+
+    private Entity serverJID = new EntityImpl(null, "pubsub.vysper.org", null);
+
+    private Entity publisher = new EntityImpl("publisher", "vysper.org", null);
+
+    private PubSubServiceConfiguration serviceConfig;
+
+    private NotificationFanOut fanOut;
+
+    private LeafNode node;
+
+    /**
+     * records the ids of the items notified to each receiver, in order of arrival
+     */
+    private static class RecordingRelay implements StanzaRelay {
+
+        private final Map<Entity, List<String>> received = new ConcurrentHashMap<Entity, List<String>>();
+
+        private final CountDownLatch done;
+
+        private final CountDownLatch blocker;
+
+        public RecordingRelay(int expected, CountDownLatch blocker) {
+            this.done = new CountDownLatch(expected);
+            this.blocker = blocker;
+        }
+
+        public void relay(Entity receiver, Stanza stanza, DeliveryFailureStrategy deliveryFailureStrategy)
+                throws DeliveryException {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                throw new DeliveryException(e);
+            }
+            assertEquals(receiver, stanza.getTo());
+            XMLElement items = stanza.getFirstInnerElement().getFirstInnerElement(); // event/items
+            List<String> ids = received.get(receiver);
+            if (ids == null) {
+                ids = new ArrayList<String>();
+                received.put(receiver, ids);
+            }
+            ids.add(items.getFirstInnerElement().getAttributeValue("id"));
+            done.countDown();
+        }
+
+        public boolean await() throws InterruptedException {
+            return done.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fanOut = new NotificationFanOut(4, 10);
+        serviceConfig = new PubSubServiceConfiguration(new CollectionNode());
+        serviceConfig.setServerJID(serverJID);
+        serviceConfig.setNotificationFanOut(fanOut);
+        node = new LeafNode(serviceConfig, "news", publisher);
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            node.subscribe("id" + i, new EntityImpl("user" + i, "vysper.org", null));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        fanOut.shutdown();
+        super.tearDown();
+    }
+
+    private XMLElement item(String id) {
+        return new XMLElement(NamespaceURIs.XEP0060_PUBSUB_EVENT, "item", null, new Attribute[] { new Attribute(
+                "id", id) }, (XMLFragment[]) null);
+    }
+
+    public void testPublishReturnsBeforeDelivery() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(1);
+        RecordingRelay relay = new RecordingRelay(SUBSCRIBERS, blocker);
+
+        node.publish(publisher, relay, "item1", item("item1"));
+        // the relay still blocks all deliveries
+        assertTrue(relay.received.isEmpty());
+
+        blocker.countDown();
+        assertTrue(relay.await());
+        assertEquals(SUBSCRIBERS, relay.received.size());
+    }
+
+    public void testEverySubscriberNotifiedInOrder() throws Exception {
+        CountDownLatch blocker = new CountDownLatch(0);
+        RecordingRelay relay = new RecordingRelay(SUBSCRIBERS * ITEMS, blocker);
+
+        for (int i = 0; i < ITEMS; i++) {
+            node.publish(publisher, relay, "item" + i, item("item" + i));
+        }
+        assertTrue(relay.await());
+
+        assertEquals(SUBSCRIBERS, relay.received.size());
+        for (List<String> ids : relay.received.values()) {
+            assertEquals(ITEMS, ids.size());
+            for (int i = 0; i < ITEMS; i++) {
+                assertEquals("item" + i, ids.get(i));
+            }
+        }
+    }
+
+    public void testPublisherWaitsForFullQueues() throws Exception {
+        fanOut.shutdown();
+        fanOut = new NotificationFanOut(1, 10, 1);
+        serviceConfig.setNotificationFanOut(fanOut);
+        CountDownLatch blocker = new CountDownLatch(1);
+        final RecordingRelay relay = new RecordingRelay(SUBSCRIBERS * ITEMS, blocker);
+
+        Thread publishing = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITEMS; i++) {
+                    node.publish(publisher, relay, "item" + i, item("item" + i));
+                }
+            }
+        };
+        publishing.start();
+        // the lane and the dispatcher are full, the publisher waits
+        publishing.join(200);
+        assertTrue(publishing.isAlive());
+
+        blocker.countDown();
+        publishing.join(10000);
+        assertFalse(publishing.isAlive());
+        assertTrue(relay.await());
+        for (List<String> ids : relay.received.values()) {
+            assertEquals(ITEMS, ids.size());
+            for (int i = 0; i < ITEMS; i++) {
+                assertEquals("item" + i, ids.get(i));
+            }
+        }
+    }
+
+    private Set<Thread> fanOutThreads() {
+        Set<Thread> threads = new HashSet<Thread>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("pubsub-notification-"))
+                threads.add(thread);
+        }
+        return threads;
+    }
+
+    public void testPublishAfterShutdown() throws Exception {
+        RecordingRelay relay = new RecordingRelay(SUBSCRIBERS, new CountDownLatch(0));
+        node.publish(publisher, relay, "item1", item("item1"));
+        assertTrue(relay.await());
+
+        fanOut.shutdown();
+        Set<Thread> threadsBefore = fanOutThreads();
+        RecordingRelay lateRelay = new RecordingRelay(SUBSCRIBERS, new CountDownLatch(0));
+        node.publish(publisher, lateRelay, "item2", item("item2"));
+        Thread.sleep(100);
+
+        Set<Thread> started = fanOutThreads();
+        started.removeAll(threadsBefore);
+        assertTrue("no thread started after shutdown", started.isEmpty());
+        assertTrue(lateRelay.received.isEmpty());
+    }
+
+    public void testSynchronous() throws Exception {
+        serviceConfig.setNotificationFanOut(new NotificationFanOut(0, 10));
+        RecordingRelay relay = new RecordingRelay(SUBSCRIBERS, new CountDownLatch(0));
+
+        node.publish(publisher, relay, "item1", item("item1"));
+        assertEquals(SUBSCRIBERS, relay.received.size());
+    }
+}
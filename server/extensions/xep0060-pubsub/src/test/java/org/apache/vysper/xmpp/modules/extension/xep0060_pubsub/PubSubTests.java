@@ -35,6 +35,9 @@ import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.handler.owner.Pub
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.handler.owner.PubSubOwnerRetrieveAffiliationsTestCase;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNodeTestCase;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNodeTestCase;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.FilePubSubStorageProviderTestCase;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.LeafNodeInMemoryStorageProviderTestCase;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider.PayloadItemStoreTestCase;
 
 /**
  * 
@@ -59,6 +62,10 @@ public class PubSubTests {
 
         suite.addTestSuite(CollectionNodeTestCase.class);
         suite.addTestSuite(LeafNodeTestCase.class);
+        suite.addTestSuite(LeafNodeInMemoryStorageProviderTestCase.class);
+        suite.addTestSuite(PayloadItemStoreTestCase.class);
+        suite.addTestSuite(FilePubSubStorageProviderTestCase.class);
+        suite.addTestSuite(NotificationFanOutTestCase.class);
 
         suite.addTestSuite(PubSubDiscoInfoTestCase.class);
         suite.addTestSuite(PubSubDiscoItemsTestCase.class);
@@ -131,7 +131,8 @@ public class PubSubDiscoInfoTestCase extends AbstractPublishSubscribeTestCase {
                 PubsubFeatures.ITEM_IDS.toString(), PubsubFeatures.PERSISTENT_ITEMS.toString(),
                 PubsubFeatures.MULTI_SUBSCRIBE.toString(), PubsubFeatures.PUBLISH.toString(),
                 PubsubFeatures.SUBSCRIBE.toString(), PubsubFeatures.RETRIEVE_SUBSCRIPTIONS.toString(),
-                PubsubFeatures.RETRIEVE_AFFILIATIONS.toString(), PubsubFeatures.MODIFY_AFFILIATIONS.toString() };
+                PubsubFeatures.RETRIEVE_AFFILIATIONS.toString(), PubsubFeatures.MODIFY_AFFILIATIONS.toString(),
+                PubsubFeatures.CONFIG_NODE.toString() };
         XMLElement[] elementList = collectFeatures(inner, featuresList);
 
         for (int idx = 0; idx < elementList.length; ++idx) {
@@ -31,6 +31,7 @@ import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.protocol.ResponseStanzaContainer;
 import org.apache.vysper.xmpp.stanza.IQStanza;
 import org.apache.vysper.xmpp.stanza.IQStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
 import org.apache.vysper.xmpp.state.resourcebinding.BindException;
 
@@ -118,7 +119,12 @@ public class PubSubPublishTestCase extends AbstractPublishSubscribeTestCase {
         assertNotNull(item.getAttributeValue("id")); // value unknown
 
         // verify that each subscriber received the message
-        assertEquals(3, relay.getCountRelayed()); // three subscribers
+        // all subscribers are bound to the local session, so the messages bypass the relay
+        assertEquals(0, relay.getCountRelayed());
+        assertEquals(3, sessionContext.getRecordedResponsesTotal()); // three subscribers
+        Stanza notification = sessionContext.getNextRecordedResponseForResource(client.getResource());
+        assertNotNull(notification);
+        assertEquals("message", notification.getName());
     }
 
     public void testPublishNoSuchNode() throws Exception {
@@ -19,12 +19,23 @@
  */
 package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.handler.owner;
 
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLFragment;
 import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
 import org.apache.vysper.xmpp.modules.core.base.handler.IQHandler;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.AbstractPublishSubscribeTestCase;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.ItemVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
 import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.handler.AbstractStanzaGenerator;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
 import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.protocol.ResponseStanzaContainer;
+import org.apache.vysper.xmpp.stanza.IQStanza;
 import org.apache.vysper.xmpp.stanza.IQStanzaType;
+import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
 
 /**
@@ -62,4 +73,162 @@ public class PubSubConfigureNodeTestCase extends AbstractPublishSubscribeTestCas
         return new PubSubOwnerConfigureNodeHandler(serviceConfiguration);
     }
 
+    class SubmitConfigureNodeStanzaGenerator extends AbstractStanzaGenerator {
+        private String maxItems;
+
+        private String persistItems;
+
+        public SubmitConfigureNodeStanzaGenerator(String maxItems, String persistItems) {
+            this.maxItems = maxItems;
+            this.persistItems = persistItems;
+        }
+
+        @Override
+        protected StanzaBuilder buildInnerElement(Entity client, Entity pubsub, StanzaBuilder sb, String node) {
+            sb.startInnerElement("configure", NamespaceURIs.XEP0060_PUBSUB_OWNER);
+            sb.addAttribute("node", node);
+            sb.startInnerElement("x", NamespaceURIs.JABBER_X_DATA);
+            sb.addAttribute("type", "submit");
+            addField(sb, "FORM_TYPE", NamespaceURIs.XEP0060_PUBSUB_NODE_CONFIG);
+            if (maxItems != null)
+                addField(sb, PubSubOwnerConfigureNodeHandler.FIELD_MAX_ITEMS, maxItems);
+            if (persistItems != null)
+                addField(sb, PubSubOwnerConfigureNodeHandler.FIELD_PERSIST_ITEMS, persistItems);
+            sb.endInnerElement();
+            sb.endInnerElement();
+            return sb;
+        }
+
+        private void addField(StanzaBuilder sb, String var, String value) {
+            sb.startInnerElement("field", NamespaceURIs.JABBER_X_DATA);
+            sb.addAttribute("var", var);
+            sb.startInnerElement("value", NamespaceURIs.JABBER_X_DATA).addText(value).endInnerElement();
+            sb.endInnerElement();
+        }
+
+        @Override
+        protected String getNamespace() {
+            return NamespaceURIs.XEP0060_PUBSUB_OWNER;
+        }
+
+        @Override
+        protected IQStanzaType getStanzaType() {
+            return IQStanzaType.SET;
+        }
+    }
+
+    private LeafNode createNode(String nodeName) {
+        LeafNode node = new LeafNode(serviceConfiguration, nodeName, client);
+        root.add(node);
+        return node;
+    }
+
+    private IQStanza send(AbstractStanzaGenerator sg, Entity sender, String nodeName) {
+        Stanza stanza = sg.getStanza(sender, pubsubService, "id123", nodeName);
+        ResponseStanzaContainer result = sendStanza(stanza, true);
+        assertTrue(result.hasResponse());
+        IQStanza response = new IQStanza(result.getResponseStanza());
+        assertEquals("id123", response.getAttributeValue("id"));
+        return response;
+    }
+
+    private String getErrorCondition(IQStanza response) {
+        assertEquals(IQStanzaType.ERROR.value(), response.getType());
+        XMLElement error = response.getInnerElementsNamed("error").get(0);
+        return error.getInnerElements().get(0).getName();
+    }
+
+    private int countItems(LeafNode node) {
+        final int[] count = new int[1];
+        node.acceptItems(new ItemVisitor() {
+            public void visit(String itemID, PayloadItem payload) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    private void publish(LeafNode node, int items) {
+        for (int i = 0; i < items; i++) {
+            node.publish(client, relay, "item" + i, new XMLElement("namespace1", "entry", null, (Attribute[]) null,
+                    (XMLFragment[]) null));
+        }
+    }
+
+    public void testGetConfiguration() throws Exception {
+        createNode("node");
+
+        IQStanza response = send(getDefaultStanzaGenerator(), client, "node");
+        assertEquals(IQStanzaType.RESULT.value(), response.getType());
+
+        XMLElement configure = response.getFirstInnerElement().getFirstInnerElement();
+        assertEquals("configure", configure.getName());
+        assertEquals("node", configure.getAttributeValue("node"));
+        XMLElement form = configure.getInnerElementsNamed("x", NamespaceURIs.JABBER_X_DATA).get(0);
+        boolean found = false;
+        for (XMLElement field : form.getInnerElementsNamed("field", NamespaceURIs.JABBER_X_DATA)) {
+            if (PubSubOwnerConfigureNodeHandler.FIELD_MAX_ITEMS.equals(field.getAttributeValue("var"))) {
+                assertEquals(Integer.toString(PubSubServiceConfiguration.DEFAULT_MAX_ITEMS), field
+                        .getFirstInnerElement().getInnerText().getText());
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    public void testSetMaxItems() throws Exception {
+        LeafNode node = createNode("node");
+        publish(node, 10);
+        assertEquals(10, countItems(node));
+
+        IQStanza response = send(new SubmitConfigureNodeStanzaGenerator("3", null), client, "node");
+        assertEquals(IQStanzaType.RESULT.value(), response.getType());
+
+        assertEquals(3, node.getMaxItems());
+        assertEquals(3, countItems(node));
+        publish(node, 10);
+        assertEquals(3, countItems(node));
+    }
+
+    public void testSetPersistItems() throws Exception {
+        LeafNode node = createNode("node");
+        publish(node, 10);
+
+        IQStanza response = send(new SubmitConfigureNodeStanzaGenerator(null, "0"), client, "node");
+        assertEquals(IQStanzaType.RESULT.value(), response.getType());
+
+        assertFalse(node.isPersistItems());
+        assertEquals(0, countItems(node));
+        publish(node, 10);
+        assertEquals(0, countItems(node));
+
+        send(new SubmitConfigureNodeStanzaGenerator(null, "true"), client, "node");
+        publish(node, 10);
+        assertEquals(10, countItems(node));
+    }
+
+    public void testSetInvalidMaxItems() throws Exception {
+        LeafNode node = createNode("node");
+
+        IQStanza response = send(new SubmitConfigureNodeStanzaGenerator("-1", null), client, "node");
+        assertEquals("not-acceptable", getErrorCondition(response));
+        assertEquals(PubSubServiceConfiguration.DEFAULT_MAX_ITEMS, node.getMaxItems());
+    }
+
+    public void testConfigureNotAuth() throws Exception {
+        LeafNode node = createNode("node");
+        Entity clientNotAuthorized = new EntityImpl("darthvader", "deathstar.tld", null);
+
+        IQStanza response = send(new SubmitConfigureNodeStanzaGenerator("3", null), clientNotAuthorized, "node");
+        assertEquals("forbidden", getErrorCondition(response));
+        assertEquals(PubSubServiceConfiguration.DEFAULT_MAX_ITEMS, node.getMaxItems());
+
+        response = send(getDefaultStanzaGenerator(), clientNotAuthorized, "node");
+        assertEquals("forbidden", getErrorCondition(response));
+    }
+
+    public void testConfigureNoSuchNode() throws Exception {
+        IQStanza response = send(new SubmitConfigureNodeStanzaGenerator("3", null), client, "node");
+        assertEquals("item-not-found", getErrorCondition(response));
+    }
 }
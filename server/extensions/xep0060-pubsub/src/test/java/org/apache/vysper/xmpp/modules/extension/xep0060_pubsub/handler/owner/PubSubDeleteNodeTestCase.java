@@ -97,7 +97,8 @@ public class PubSubDeleteNodeTestCase extends AbstractPublishSubscribeTestCase {
         assertNull(n);
 
         // check that the subscribers got a notification
-        assertEquals(4, relay.getCountRelayed());
+        assertEquals(3, relay.getCountRelayed()); // the remote subscribers
+        assertEquals(1, sessionContext.getRecordedResponsesTotal()); // the owner, connected locally
     }
 
     public void testDeleteNotAuth() throws Exception {
@@ -0,0 +1,374 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLFragment;
+import org.apache.vysper.xml.fragment.XMLText;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.CollectingMemberAffiliationVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.ItemVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubAffiliation;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
+
+/**
+ * @author The Apache MINA Project (http://mina.apache.org)
+ *
+ */
+public class FilePubSubStorageProviderTestCase extends TestCase {
+
+    private static final Entity OWNER = EntityImpl.parseUnchecked("owner@vysper.org");
+
+    private static final Entity SUBSCRIBER = EntityImpl.parseUnchecked("subscriber@vysper.org/home");
+
+    private File directory;
+
+    private FilePubSubStorageProvider provider;
+
+    private CollectionNode root;
+
+    private PubSubServiceConfiguration serviceConfiguration;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("pubsub", "");
+        directory.delete();
+        open(new FilePubSubStorageProvider(directory));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        provider.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    /**
+     * opens the storage like after a restart
+     */
+    private void open(FilePubSubStorageProvider storageProvider) {
+        provider = storageProvider;
+        root = new CollectionNode();
+        serviceConfiguration = new PubSubServiceConfiguration(root);
+        serviceConfiguration.setLeafNodeStorageProvider(provider);
+        serviceConfiguration.setCollectionNodeStorageProvider(provider);
+        serviceConfiguration.initialize();
+    }
+
+    private void restart() {
+        provider.close();
+        open(new FilePubSubStorageProvider(directory));
+    }
+
+    private LeafNode createNode(String name) {
+        LeafNode node = new LeafNode(serviceConfiguration, name, "title of " + name, OWNER);
+        root.add(node);
+        return node;
+    }
+
+    private XMLElement payload(String text) {
+        return new XMLElement("namespace1", "entry", null, (Attribute[]) null,
+                new XMLFragment[] { new XMLText(text) });
+    }
+
+    private List<PayloadItem> items(String nodeName, int maxItems) {
+        final List<PayloadItem> items = new ArrayList<PayloadItem>();
+        provider.acceptForEachItem(nodeName, maxItems, new ItemVisitor() {
+            public void visit(String itemID, PayloadItem payload) {
+                items.add(payload);
+            }
+        });
+        return items;
+    }
+
+    private void assertItems(String nodeName, String... itemIDs) throws Exception {
+        List<PayloadItem> items = items(nodeName, Integer.MAX_VALUE);
+        assertEquals(itemIDs.length, items.size());
+        for (int i = 0; i < itemIDs.length; i++) {
+            assertEquals(itemIDs[i], items.get(i).getItemID());
+            assertEquals("text " + itemIDs[i], items.get(i).getPayload().getSingleInnerText().getText());
+        }
+    }
+
+    private void publish(String nodeName, String itemID) {
+        provider.addMessage(OWNER, nodeName, itemID, payload("text " + itemID));
+    }
+
+    public void testRestoresNodes() throws Exception {
+        LeafNode node = createNode("news");
+        node.subscribe("sub1", SUBSCRIBER);
+        node.setAffiliation(SUBSCRIBER, PubSubAffiliation.PUBLISHER);
+        node.setMaxItems(5);
+        createNode("weather");
+
+        restart();
+
+        LeafNode restored = root.find("news");
+        assertNotNull(restored);
+        assertEquals("title of news", restored.getTitle());
+        assertEquals(5, restored.getMaxItems());
+        assertTrue(restored.isPersistItems());
+        assertTrue(restored.isSubscribed("sub1"));
+        assertTrue(restored.isSubscribed(SUBSCRIBER));
+        assertEquals(PubSubAffiliation.OWNER, restored.getAffiliation(OWNER));
+        assertEquals(PubSubAffiliation.PUBLISHER, restored.getAffiliation(SUBSCRIBER));
+        assertNotNull(root.find("weather"));
+
+        CollectingMemberAffiliationVisitor affiliations = new CollectingMemberAffiliationVisitor("news");
+        restored.acceptMemberAffiliations(affiliations);
+        assertEquals(2, affiliations.getAffiliations().size());
+    }
+
+    public void testRestoresItems() throws Exception {
+        createNode("news");
+        publish("news", "1");
+        publish("news", "2");
+        provider.addMessage(SUBSCRIBER, "news", "3", payload("three & <four>"));
+
+        restart();
+
+        List<PayloadItem> items = items("news", Integer.MAX_VALUE);
+        assertEquals(3, items.size());
+        assertEquals("1", items.get(0).getItemID());
+        assertEquals("2", items.get(1).getItemID());
+        assertEquals("three & <four>", items.get(2).getPayload().getSingleInnerText().getText());
+        assertEquals("namespace1", items.get(2).getPayload().getNamespaceURI());
+        assertEquals(SUBSCRIBER, items.get(2).getPublisher());
+        assertNotNull(items.get(2).getPublishedDate());
+    }
+
+    public void testGetItem() throws Exception {
+        createNode("news");
+        publish("news", "1");
+        publish("news", "2");
+
+        assertEquals("text 1", provider.getItem("news", "1").getPayload().getSingleInnerText().getText());
+        assertNull(provider.getItem("news", "3"));
+    }
+
+    public void testLatestItems() throws Exception {
+        createNode("news");
+        for (int i = 1; i <= 5; i++) {
+            publish("news", Integer.toString(i));
+        }
+
+        List<PayloadItem> latest = items("news", 2);
+        assertEquals(2, latest.size());
+        assertEquals("4", latest.get(0).getItemID());
+        assertEquals("5", latest.get(1).getItemID());
+    }
+
+    public void testRetention() throws Exception {
+        LeafNode node = createNode("news");
+        node.setMaxItems(2);
+        publish("news", "1");
+        publish("news", "2");
+        publish("news", "3");
+        publish("news", "2");
+        assertItems("news", "3", "2");
+
+        restart();
+        assertItems("news", "3", "2");
+        publish("news", "4");
+        assertItems("news", "2", "4");
+    }
+
+    public void testPersistItemsDisabled() throws Exception {
+        LeafNode node = createNode("news");
+        publish("news", "1");
+        node.setPersistItems(false);
+        publish("news", "2");
+        assertItems("news");
+
+        restart();
+        assertItems("news");
+        assertFalse(root.find("news").isPersistItems());
+    }
+
+    public void testUnsubscribe() throws Exception {
+        LeafNode node = createNode("news");
+        node.subscribe("sub1", SUBSCRIBER);
+        node.subscribe("sub2", SUBSCRIBER);
+        node.subscribe("sub3", OWNER);
+        assertTrue(node.unsubscribe("sub1", SUBSCRIBER));
+        assertEquals(1, provider.removeSubscriptions(OWNER));
+
+        restart();
+
+        LeafNode restored = root.find("news");
+        assertFalse(restored.isSubscribed("sub1"));
+        assertTrue(restored.isSubscribed("sub2"));
+        assertFalse(restored.isSubscribed(OWNER));
+    }
+
+    public void testDeleteNode() throws Exception {
+        createNode("news");
+        publish("news", "1");
+        createNode("weather");
+        root.deleteNode("news");
+        assertNull(root.find("news"));
+
+        restart();
+
+        assertNull(root.find("news"));
+        assertNotNull(root.find("weather"));
+
+        // recreating the node starts from scratch
+        createNode("news");
+        assertItems("news");
+    }
+
+    public void testCompaction() throws Exception {
+        provider.setCompactionThreshold(1024);
+        LeafNode node = createNode("news");
+        node.subscribe("sub1", SUBSCRIBER);
+        node.setMaxItems(3);
+        for (int i = 0; i < 1000; i++) {
+            publish("news", Integer.toString(i));
+        }
+        assertItems("news", "997", "998", "999");
+
+        // the compaction runs in the background, closing waits for it
+        restart();
+        assertTrue(new File(directory, "pubsub.log").length() < 4096);
+
+        assertItems("news", "997", "998", "999");
+        assertTrue(root.find("news").isSubscribed("sub1"));
+        assertEquals(3, root.find("news").getMaxItems());
+        assertEquals(PubSubAffiliation.OWNER, root.find("news").getAffiliation(OWNER));
+    }
+
+    public void testLiveMetadataIsNotCompacted() throws Exception {
+        provider.setCompactionThreshold(1024);
+        LeafNode node = createNode("news");
+        for (int i = 0; i < 200; i++) {
+            node.subscribe("sub" + i, EntityImpl.parseUnchecked("subscriber" + i + "@vysper.org/home"));
+        }
+        node.setMaxItems(1);
+        // the subscriptions take more than the threshold, the replaced items exceed them once
+        for (int i = 0; i < 150; i++) {
+            publish("news", Integer.toString(i));
+        }
+        FilePubSubStorageProvider closedProvider = provider;
+        restart();
+
+        assertEquals(1, closedProvider.getCompactionCount());
+        assertItems("news", "149");
+        assertEquals(200, provider.countSubscriptions("news"));
+    }
+
+    public void testFailedWriteIsNotStored() throws Exception {
+        provider.close();
+        FilePubSubStorageProvider syncingProvider = new FilePubSubStorageProvider(directory);
+        syncingProvider.setSyncInterval(0);
+        open(syncingProvider);
+        createNode("news");
+        publish("news", "1");
+
+        // the log file fails like a full disk
+        Field logField = FilePubSubStorageProvider.class.getDeclaredField("log");
+        logField.setAccessible(true);
+        Object log = logField.get(provider);
+        Field fileField = log.getClass().getDeclaredField("randomAccessFile");
+        fileField.setAccessible(true);
+        ((RandomAccessFile) fileField.get(log)).close();
+
+        try {
+            publish("news", "2");
+            fail("write failure not reported");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertNull(provider.getItem("news", "2"));
+    }
+
+    public void testNodeStoredByCollectionOnly() throws Exception {
+        // the node is kept by another leaf node storage, this provider only stores it in the collection
+        serviceConfiguration.setLeafNodeStorageProvider(new LeafNodeInMemoryStorageProvider());
+        root.add(new LeafNode(serviceConfiguration, "news", "title of news", OWNER));
+
+        restart();
+
+        LeafNode restored = root.find("news");
+        assertNotNull(restored);
+        assertEquals(serviceConfiguration.getDefaultMaxItems(), restored.getMaxItems());
+        publish("news", "1");
+        restart();
+        assertItems("news", "1");
+    }
+
+    public void testTruncatedRecord() throws Exception {
+        createNode("news");
+        publish("news", "1");
+        provider.close();
+
+        // a record which was only partially written when the server went down
+        RandomAccessFile file = new RandomAccessFile(new File(directory, "pubsub.log"), "rw");
+        long length = file.length();
+        file.seek(length);
+        file.writeInt(100);
+        file.write(new byte[] { 10, 0, 4 });
+        file.close();
+
+        open(new FilePubSubStorageProvider(directory));
+        assertItems("news", "1");
+        assertEquals(length, new File(directory, "pubsub.log").length());
+
+        publish("news", "2");
+        restart();
+        assertItems("news", "1", "2");
+    }
+
+    public void testSyncEveryChange() throws Exception {
+        provider.close();
+        FilePubSubStorageProvider syncingProvider = new FilePubSubStorageProvider(directory);
+        syncingProvider.setSyncInterval(0);
+        open(syncingProvider);
+        createNode("news");
+        publish("news", "1");
+
+        // the record is on the disk without closing the provider
+        assertTrue(new File(directory, "pubsub.log").length() > 0);
+        FilePubSubStorageProvider reader = new FilePubSubStorageProvider(directory);
+        reader.initialize();
+        assertEquals("text 1", reader.getItem("news", "1").getPayload().getSingleInnerText().getText());
+        reader.close();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLFragment;
+import org.apache.vysper.xml.fragment.XMLText;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+
+/**
+ * publishes a steady stream of uniquely identified items into a few nodes of the in-memory storage
+ * and periodically prints the used heap. with item retention bounded by pubsub#max_items, the heap
+ * stays flat no matter how many items have been published.
+ * 
+ * usage: ItemRetentionSoak [items] [nodes] [max items per node]
+ *
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+public class ItemRetentionSoak {
+
+    private static final String TEXT = "Lorem ipsum dolor sit amet, consectetur adipisicing elit, sed do eiusmod "
+            + "tempor incididunt ut labore et dolore magna aliqua.";
+
+    public static void main(String[] args) {
+        long items = args.length > 0 ? Long.parseLong(args[0]) : 5000000;
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int maxItems = args.length > 2 ? Integer.parseInt(args[2]) : PubSubServiceConfiguration.DEFAULT_MAX_ITEMS;
+
+        Entity publisher = new EntityImpl("publisher", "vysper.org", null);
+        PubSubServiceConfiguration serviceConfig = new PubSubServiceConfiguration(new CollectionNode());
+        LeafNodeInMemoryStorageProvider storage = new LeafNodeInMemoryStorageProvider();
+        serviceConfig.setLeafNodeStorageProvider(storage);
+        serviceConfig.setDefaultMaxItems(maxItems);
+
+        String[] nodeNames = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+            nodeNames[i] = "node" + i;
+            new LeafNode(serviceConfig, nodeNames[i], publisher);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long start = System.currentTimeMillis();
+        for (long i = 1; i <= items; i++) {
+            XMLElement payload = new XMLElement("namespace1", "entry", null, (Attribute[]) null,
+                    new XMLFragment[] { new XMLText(TEXT + i) });
+            String nodeName = nodeNames[(int) (i % nodes)];
+            storage.addMessage(publisher, nodeName, Long.toString(i), payload);
+
+            if (i % (items / 20) == 0) {
+                System.gc();
+                long usedKb = (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+                System.out.println(i + " items published, " + usedKb + " kB heap used, "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriberVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.SubscriptionItem;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.handler.SubscriberSubscriptionVisitor;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+
+/**
+ * @author The Apache MINA Project (http://mina.apache.org)
+ *
+ */
+public class LeafNodeInMemoryStorageProviderTestCase extends TestCase {
+
+    private static final int NODES = 5;
+
+    private static final int USERS = 20;
+
+    private LeafNodeInMemoryStorageProvider storage;
+
+    private PubSubServiceConfiguration serviceConfig;
+
+    private Entity creator = new EntityImpl("creator", "vysper.org", null);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        storage = new LeafNodeInMemoryStorageProvider();
+        serviceConfig = new PubSubServiceConfiguration(new CollectionNode());
+        serviceConfig.setServerJID(new EntityImpl(null, "pubsub.vysper.org", null));
+        serviceConfig.setLeafNodeStorageProvider(storage);
+        for (int i = 0; i < NODES; i++) {
+            new LeafNode(serviceConfig, "node" + i, creator);
+        }
+    }
+
+    private static Entity user(int i, String resource) {
+        return new EntityImpl("user" + i, "vysper.org", resource);
+    }
+
+    private List<SubscriptionItem> getSubscriptions(Entity user) {
+        SubscriberSubscriptionVisitor visitor = new SubscriberSubscriptionVisitor(user);
+        storage.acceptForEachSubscription(user, visitor);
+        return visitor.getSubscriptions();
+    }
+
+    public void testSubscriptionsOfUser() throws Exception {
+        storage.addSubscriber("node0", "id1", user(1, "home"));
+        storage.addSubscriber("node1", "id2", user(1, "work"));
+        storage.addSubscriber("node1", "id3", user(2, null));
+
+        List<SubscriptionItem> subscriptions = getSubscriptions(user(1, null));
+        assertEquals(2, subscriptions.size());
+        assertEquals(1, getSubscriptions(user(2, "other")).size());
+        assertEquals(0, getSubscriptions(user(3, null)).size());
+
+        assertTrue(storage.containsSubscriber("node1", user(1, "work")));
+        assertFalse(storage.containsSubscriber("node1", user(1, "home")));
+        assertEquals(1, storage.countSubscriptions("node1", user(1, "work")));
+    }
+
+    public void testRemoveSubscriptions() throws Exception {
+        storage.addSubscriber("node0", "id1", user(1, "home"));
+        storage.addSubscriber("node1", "id2", user(1, "work"));
+        storage.addSubscriber("node1", "id3", user(2, null));
+
+        assertEquals(2, storage.removeSubscriptions(user(1, null)));
+
+        assertEquals(0, getSubscriptions(user(1, null)).size());
+        assertEquals(0, storage.countSubscriptions("node0"));
+        assertEquals(1, storage.countSubscriptions("node1"));
+        assertEquals(0, storage.removeSubscriptions(user(1, null)));
+    }
+
+    public void testDeleteNode() throws Exception {
+        storage.addSubscriber("node0", "id1", user(1, null));
+        storage.addSubscriber("node1", "id2", user(1, null));
+
+        storage.delete("node0");
+
+        List<SubscriptionItem> subscriptions = getSubscriptions(user(1, null));
+        assertEquals(1, subscriptions.size());
+        assertEquals("node1", subscriptions.get(0).getNodeName());
+    }
+
+    public void testRemoveSubscription() throws Exception {
+        storage.addSubscriber("node0", "id1", user(1, null));
+        storage.addSubscriber("node0", "id2", user(1, null));
+
+        assertTrue(storage.removeSubscription("node0", "id1"));
+        assertFalse(storage.removeSubscription("node0", "id1"));
+        assertEquals(1, getSubscriptions(user(1, null)).size());
+
+        assertTrue(storage.removeSubscriber("node0", user(1, null)));
+        assertFalse(storage.removeSubscriber("node0", user(1, null)));
+        assertEquals(0, getSubscriptions(user(1, null)).size());
+    }
+
+    /**
+     * many threads subscribe and unsubscribe the same users concurrently. afterwards, the per-node maps
+     * and the per-user index must contain exactly the same subscriptions.
+     */
+    public void testConcurrentSubscriptions() throws Exception {
+        final int threads = 8;
+        final int operations = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            executor.execute(new Runnable() {
+                public void run() {
+                    Random random = new Random(thread);
+                    try {
+                        start.await();
+                        for (int i = 0; i < operations; i++) {
+                            String node = "node" + random.nextInt(NODES);
+                            Entity user = user(random.nextInt(USERS), "r" + random.nextInt(2));
+                            switch (random.nextInt(5)) {
+                            case 0:
+                            case 1:
+                                storage.addSubscriber(node, thread + "-" + i, user);
+                                break;
+                            case 2:
+                                storage.removeSubscriber(node, user);
+                                break;
+                            case 3:
+                                storage.countSubscriptions(node, user);
+                                storage.acceptForEachSubscription(user, new SubscriberSubscriptionVisitor(user));
+                                break;
+                            default:
+                                if (random.nextInt(50) == 0) {
+                                    storage.removeSubscriptions(user);
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        // collect the subscriptions as stored with the nodes
+        final Map<String, String> byNode = new HashMap<String, String>();
+        int total = 0;
+        for (int i = 0; i < NODES; i++) {
+            storage.acceptForEachSubscriber("node" + i, new SubscriberVisitor() {
+                public void visit(String nodeName, String subID, Entity sub) {
+                    byNode.put(nodeName + "/" + subID, sub.getFullQualifiedName());
+                }
+            });
+            total += storage.countSubscriptions("node" + i);
+        }
+        assertEquals(total, byNode.size());
+
+        // and as indexed per user
+        Map<String, String> byUser = new HashMap<String, String>();
+        for (int i = 0; i < USERS; i++) {
+            for (SubscriptionItem subscription : getSubscriptions(user(i, null))) {
+                byUser.put(subscription.getNodeName() + "/" + subscription.getSubscriptionID(), subscription
+                        .getSubscriberJID().getFullQualifiedName());
+            }
+        }
+        assertEquals(byNode, byUser);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLFragment;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.PayloadItem;
+
+/**
+ * @author The Apache MINA Project (http://mina.apache.org)
+ *
+ */
+public class PayloadItemStoreTestCase extends TestCase {
+
+    private Entity publisher = new EntityImpl("publisher", "vysper.org", null);
+
+    private XMLElement payload = new XMLElement("namespace1", "entry", null, (Attribute[]) null, (XMLFragment[]) null);
+
+    private PayloadItem item(String itemID) {
+        return new PayloadItem(publisher, payload, itemID);
+    }
+
+    private void assertItems(PayloadItemStore store, String... itemIDs) {
+        List<PayloadItem> items = store.getItems();
+        assertEquals(itemIDs.length, items.size());
+        for (int i = 0; i < itemIDs.length; i++) {
+            assertEquals(itemIDs[i], items.get(i).getItemID());
+        }
+    }
+
+    public void testEvictsOldest() {
+        PayloadItemStore store = new PayloadItemStore(3);
+        store.add(item("1"));
+        store.add(item("2"));
+        store.add(item("3"));
+        assertItems(store, "1", "2", "3");
+
+        store.add(item("4"));
+        assertItems(store, "2", "3", "4");
+        assertNull(store.get("1"));
+        assertNotNull(store.get("4"));
+    }
+
+    public void testReplaceMovesToNewest() {
+        PayloadItemStore store = new PayloadItemStore(3);
+        store.add(item("1"));
+        store.add(item("2"));
+        store.add(item("3"));
+
+        PayloadItem replacement = item("1");
+        store.add(replacement);
+        assertItems(store, "2", "3", "1");
+        assertSame(replacement, store.get("1"));
+
+        store.add(item("4"));
+        assertItems(store, "3", "1", "4");
+    }
+
+    public void testShrink() {
+        PayloadItemStore store = new PayloadItemStore(10);
+        for (int i = 0; i < 10; i++) {
+            store.add(item(Integer.toString(i)));
+        }
+        assertEquals(10, store.size());
+
+        store.setMaxItems(2);
+        assertEquals(2, store.getMaxItems());
+        assertItems(store, "8", "9");
+    }
+
+    public void testMaxItemsZero() {
+        PayloadItemStore store = new PayloadItemStore(0);
+        store.add(item("1"));
+        assertEquals(0, store.size());
+        assertNull(store.get("1"));
+    }
+
+    public void testNegativeMaxItems() {
+        try {
+            new PayloadItemStore(-1);
+            fail("negative maximum must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testBoundedSize() {
+        PayloadItemStore store = new PayloadItemStore(100);
+        for (int i = 0; i < 100000; i++) {
+            store.add(item(Integer.toString(i)));
+            assertTrue(store.size() <= 100);
+        }
+        assertEquals(100, store.size());
+        assertEquals("99900", store.getItems().get(0).getItemID());
+    }
+}
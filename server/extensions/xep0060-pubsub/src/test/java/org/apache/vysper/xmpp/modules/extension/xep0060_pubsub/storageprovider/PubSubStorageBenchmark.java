@@ -0,0 +1,99 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.storageprovider;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.vysper.xml.fragment.Attribute;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xml.fragment.XMLFragment;
+import org.apache.vysper.xml.fragment.XMLText;
+import org.apache.vysper.xmpp.addressing.Entity;
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.PubSubServiceConfiguration;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.CollectionNode;
+import org.apache.vysper.xmpp.modules.extension.xep0060_pubsub.model.LeafNode;
+
+/**
+ * compares the publish throughput of the in-memory storage and the file storage. for the file
+ * storage, the time to force all items to the disk is included.
+ *
+ * usage: PubSubStorageBenchmark [items] [nodes] [directory]
+ *
+ * @author The Apache MINA Project (http://mina.apache.org)
+ */
+public class PubSubStorageBenchmark {
+
+    private static final String TEXT = "Lorem ipsum dolor sit amet, consectetur adipisicing elit, sed do eiusmod "
+            + "tempor incididunt ut labore et dolore magna aliqua.";
+
+    private static final Entity PUBLISHER = new EntityImpl("publisher", "vysper.org", null);
+
+    public static void main(String[] args) throws IOException {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        File directory;
+        if (args.length > 2) {
+            directory = new File(args[2]);
+        } else {
+            directory = File.createTempFile("pubsub", "");
+            directory.delete();
+        }
+
+        // warm up both, then measure
+        publish(new LeafNodeInMemoryStorageProvider(), items / 10, nodes);
+        FilePubSubStorageProvider warmUp = new FilePubSubStorageProvider(new File(directory, "warmup"));
+        publish(warmUp, items / 10, nodes);
+        warmUp.close();
+
+        long inMemory = publish(new LeafNodeInMemoryStorageProvider(), items, nodes);
+        System.out.println("in-memory: " + items + " items in " + inMemory + " ms, " + (items * 1000L / inMemory)
+                + " items/s");
+
+        FilePubSubStorageProvider storage = new FilePubSubStorageProvider(directory);
+        long start = System.currentTimeMillis();
+        publish(storage, items, nodes);
+        storage.sync();
+        long file = System.currentTimeMillis() - start;
+        storage.close();
+        System.out.println("file:      " + items + " items in " + file + " ms, " + (items * 1000L / file)
+                + " items/s, " + new File(directory, "pubsub.log").length() / 1024 + " kB log");
+    }
+
+    private static long publish(LeafNodeInMemoryStorageProvider storage, int items, int nodes) {
+        PubSubServiceConfiguration serviceConfig = new PubSubServiceConfiguration(new CollectionNode());
+        serviceConfig.setLeafNodeStorageProvider(storage);
+
+        String[] nodeNames = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+            nodeNames[i] = "node" + i;
+            new LeafNode(serviceConfig, nodeNames[i], PUBLISHER);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 1; i <= items; i++) {
+            XMLElement payload = new XMLElement("namespace1", "entry", null, (Attribute[]) null,
+                    new XMLFragment[] { new XMLText(TEXT + i) });
+            storage.addMessage(PUBLISHER, nodeNames[i % nodes], Integer.toString(i), payload);
+        }
+        return Math.max(1, System.currentTimeMillis() - start);
+    }
+}
@@ -19,15 +19,16 @@
  */
 package org.apache.vysper.xmpp.extension.xep0124;
 
-import java.util.LinkedList;
+import java.nio.charset.Charset;
 import java.util.Queue;
 import java.util.SortedMap;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.extension.xep0124.BoshResponseBuffer.RenderedStanza;
 import org.apache.vysper.xmpp.protocol.SessionStateHolder;
 import org.apache.vysper.xmpp.server.AbstractSessionContext;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
@@ -49,21 +50,33 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
 
     private final static Logger LOGGER = LoggerFactory.getLogger(BoshBackedSessionContext.class);
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     private final BoshHandler boshHandler;
+
+    private final BoshSessionConfiguration configuration;
     
-    private final int maxpause = 120;
+    private final int maxpause;
 
-    private final int inactivity = 60;
+    private final int inactivity;
 
-    private final int polling = 15;
+    private final int polling;
     
-    private final int maximumSentResponses = 10;
+    private final int maximumSentResponses;
+
+    private final int maxHold;
     
     /*
      * The number of milliseconds that will have to pass for a response to be reported missing to the client by
      * responding with a report and time attributes. See Response Acknowledgements in XEP-0124.
      */
     private final int brokenConnectionReportTimeout = 1000;
+
+    /*
+     * The held requests expire by the session timer after 'wait' seconds. The continuation of the request
+     * gets this many milliseconds more, so its timeout only fires if the timer could not keep up.
+     */
+    private static final long CONTINUATION_TIMEOUT_GRACE = 5000;
     
     /*
      * Keeps the suspended HTTP requests (does not respond to them) until the server has an asynchronous message
@@ -75,9 +88,21 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
 
     /*
      * Keeps the asynchronous messages sent from server that cannot be delivered to the client because there are
-     * no available HTTP requests to respond to (requestsWindow is empty).
+     * no available HTTP requests to respond to (requestsWindow is empty). They are all sent in one <body/> element
+     * to the next available request.
      */
-    private final Queue<Stanza> delayedResponseQueue;
+    private final BoshResponseBuffer responseBuffer = new BoshResponseBuffer();
+
+    /*
+     * The stanzas written by the server, already rendered, before they are handed over to the responseBuffer.
+     * This queue is not guarded by the session lock.
+     */
+    private final Queue<RenderedStanza> pendingResponses = new ConcurrentLinkedQueue<RenderedStanza>();
+
+    /*
+     * Set while a writing thread is draining the pendingResponses
+     */
+    private final AtomicBoolean draining = new AtomicBoolean(false);
     
     /*
      * A cache of sent responses to the BOSH client, kept in the event of delivery failure and retransmission requests.
@@ -91,11 +116,11 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
 
     private String contentType = BoshServlet.XML_CONTENT_TYPE;
 
-    private int wait = 60;
+    private int wait;
 
-    private int hold = 1;
+    private int hold;
     
-    private int currentInactivity = inactivity;
+    private int currentInactivity;
     
     /*
      * The highest RID that can be read and processed, this is the highest (rightmost) contiguous RID.
@@ -120,42 +145,144 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
      */
     private long latestWriteTimestamp = System.currentTimeMillis();
     
-    private Timer inactivityChecker = new Timer(true);
+    /*
+     * The timer is shared by all the sessions, it serves the inactivity and the 'wait' timeouts. The timeout tasks
+     * synchronize on the session, so the timer must hand them to its task executor instead of running them itself.
+     */
+    private final HashedWheelTimer timer;
+
+    private HashedWheelTimer.Timeout inactivityTimeout;
+
+    private final Runnable inactivityCheck = new Runnable() {
+        public void run() {
+            checkInactivity();
+        }
+    };
 
     /**
-     * Creates a new context for a session
+     * Creates a new context for a session with the default parameters, using the timer shared by all the BOSH
+     * sessions in this JVM
      * @param boshHandler
      * @param serverRuntimeContext
      */
     public BoshBackedSessionContext(BoshHandler boshHandler, ServerRuntimeContext serverRuntimeContext) {
+        this(boshHandler, serverRuntimeContext, HashedWheelTimer.getSharedInstance());
+    }
+
+    /**
+     * Creates a new context for a session with the default parameters
+     * @param boshHandler
+     * @param serverRuntimeContext
+     * @param timer the timer for the session timeouts, see {@link HashedWheelTimer#HashedWheelTimer()}
+     */
+    public BoshBackedSessionContext(BoshHandler boshHandler, ServerRuntimeContext serverRuntimeContext,
+            HashedWheelTimer timer) {
+        this(boshHandler, serverRuntimeContext, new BoshSessionConfiguration(), timer);
+    }
+
+    /**
+     * Creates a new context for a session
+     * @param boshHandler
+     * @param serverRuntimeContext
+     * @param configuration the parameters offered to the client, the session keeps the values at creation time
+     * @param timer the timer for the session timeouts
+     */
+    public BoshBackedSessionContext(BoshHandler boshHandler, ServerRuntimeContext serverRuntimeContext,
+            BoshSessionConfiguration configuration, HashedWheelTimer timer) {
         super(serverRuntimeContext, new SessionStateHolder());
+        this.timer = timer;
+        this.configuration = configuration;
+        maxpause = configuration.getMaxPause();
+        inactivity = configuration.getInactivity();
+        polling = configuration.getPolling();
+        maximumSentResponses = configuration.getMaximumSentResponses();
+        maxHold = configuration.getMaxHold();
+        wait = configuration.getMaxWait();
+        currentInactivity = inactivity;
+        setHold(configuration.getHold());
 
         // in BOSH we jump directly to the encrypted state
         sessionStateHolder.setState(SessionState.ENCRYPTED);
 
         this.boshHandler = boshHandler;
         requestsWindow = new TreeMap<Long, BoshRequest>();
-        delayedResponseQueue = new LinkedList<Stanza>();
         sentResponses = new TreeMap<Long, BoshResponse>();
     }
     
     /**
-     * Periodically checks if the session reached the maximum inactivity period.
+     * Starts checking if the session reached the maximum inactivity period.
+     * <p>
+     * The session is inactive while the client holds no requests, so the inactivity timeout is scheduled when the
+     * last held request gets its response and cancelled when a new request arrives.
      */
-    public void startInactivityChecker() {
-        inactivityChecker.schedule(new TimerTask() {
-            
-            @Override
-            public void run() {
-                synchronized (BoshBackedSessionContext.this) {
-                    if (System.currentTimeMillis() - latestWriteTimestamp >= currentInactivity * 1000 && requestsWindow.isEmpty()) {
-                        LOGGER.info("BOSH session reached maximum inactivity period, closing session...");
-                        close();
-                    }
-                }
-            }
-            
-        }, 1000, 1000);
+    synchronized public void startInactivityChecker() {
+        scheduleInactivityCheck();
+    }
+
+    private void scheduleInactivityCheck() {
+        if (sessionStateHolder.getState() == SessionState.CLOSED) {
+            return;
+        }
+        long remaining = latestWriteTimestamp + currentInactivity * 1000L - System.currentTimeMillis();
+        inactivityTimeout = timer.reschedule(inactivityTimeout, inactivityCheck, remaining);
+    }
+
+    private void cancelInactivityCheck() {
+        timer.cancel(inactivityTimeout);
+        inactivityTimeout = null;
+    }
+
+    synchronized private void checkInactivity() {
+        inactivityTimeout = null;
+        if (sessionStateHolder.getState() == SessionState.CLOSED || !requestsWindow.isEmpty()) {
+            return;
+        }
+        if (System.currentTimeMillis() - latestWriteTimestamp >= currentInactivity * 1000L) {
+            LOGGER.info("BOSH session reached maximum inactivity period, closing session...");
+            close();
+        } else {
+            // the inactivity period changed since the check was scheduled
+            scheduleInactivityCheck();
+        }
+    }
+
+    /*
+     * Adds the request to the window and counts it as held. A request already held with the same RID is
+     * replaced and released, so that every held request is released exactly once.
+     */
+    private void holdRequest(BoshRequest br) {
+        BoshRequest replaced = requestsWindow.put(br.getRid(), br);
+        if (replaced != null) {
+            release(replaced);
+        }
+        configuration.requestHeld();
+    }
+
+    /*
+     * Removes the request with the lowest RID from the window, it will not expire anymore
+     */
+    private BoshRequest removeFirstRequest() {
+        BoshRequest req = requestsWindow.remove(requestsWindow.firstKey());
+        release(req);
+        return req;
+    }
+
+    private void release(BoshRequest req) {
+        configuration.requestReleased();
+        timer.cancel(req.getWaitTimeout());
+        req.setWaitTimeout(null);
+    }
+
+    /*
+     * Responds to the request, the session becomes inactive if this was the last request held.
+     */
+    private void resume(Continuation continuation, BoshResponse boshResponse) {
+        continuation.setAttribute("response", boshResponse);
+        continuation.resume();
+        latestWriteTimestamp = System.currentTimeMillis();
+        if (requestsWindow.isEmpty()) {
+            scheduleInactivityCheck();
+        }
     }
     
     /**
@@ -181,10 +308,29 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
     }
 
     /*
-     * This method is synchronized on the session object to prevent concurrent writes to the same BOSH client
+     * Stanzas are rendered and enqueued without locking, so that any number of threads can write to the session
+     * without contending with each other or with the client's requests. One of the writing threads drains the queue
+     * holding the session lock, which prevents concurrent writes to the same BOSH client, the others return
+     * immediately.
      */
-    synchronized public void write(Stanza stanza) {
-        write0(boshHandler.wrapStanza(stanza));
+    public void write(Stanza stanza) {
+        pendingResponses.offer(new RenderedStanza(stanza));
+        drainPendingResponses();
+    }
+
+    private void drainPendingResponses() {
+        // re-checking after releasing the drainer role makes sure no response is left behind by a writer
+        // that enqueued just before the role was released
+        while (!pendingResponses.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                synchronized (this) {
+                    bufferPendingResponses();
+                    flushResponseBuffer();
+                }
+            } finally {
+                draining.set(false);
+            }
+        }
     }
 
     /**
@@ -196,19 +342,52 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
      * @param response The BOSH response to write
      */
     void write0(Stanza response) {
-        BoshRequest req;
-        if (requestsWindow.isEmpty() || requestsWindow.firstKey() > highestReadRid) {
-            delayedResponseQueue.offer(response);
+        if (!isRequestAvailable()) {
+            // the attributes of the body are lost, like when merging it with other responses
+            for (XMLElement element : response.getInnerElements()) {
+                responseBuffer.add(new RenderedStanza(element));
+            }
+            return;
+        }
+        BoshRequest req = removeFirstRequest();
+        BoshResponse boshResponse = getBoshResponse(response, getAck(req));
+        respond(req, boshResponse, isResponseSavable(req, RenderedStanza.containsBindingError(response)));
+    }
+
+    private void bufferPendingResponses() {
+        RenderedStanza stanza;
+        while ((stanza = pendingResponses.poll()) != null) {
+            responseBuffer.add(stanza);
+        }
+    }
+
+    /*
+     * Sends all the buffered stanzas wrapped in one <body/> element, if there is a request to respond to
+     */
+    private void flushResponseBuffer() {
+        if (responseBuffer.isEmpty() || !isRequestAvailable()) {
             return;
-        } else {
-            req = requestsWindow.remove(requestsWindow.firstKey());
         }
-        BoshResponse boshResponse = getBoshResponse(response, req.getRid().equals(highestReadRid) ? null : highestReadRid);
+        BoshRequest req = removeFirstRequest();
+        boolean savable = isResponseSavable(req, responseBuffer.containsBindingError());
+        BoshResponse boshResponse = new BoshResponse(contentType, responseBuffer.flush(getAck(req)));
+        respond(req, boshResponse, savable);
+    }
+
+    private boolean isRequestAvailable() {
+        return !requestsWindow.isEmpty() && requestsWindow.firstKey() <= highestReadRid;
+    }
+
+    private Long getAck(BoshRequest req) {
+        return req.getRid().equals(highestReadRid) ? null : highestReadRid;
+    }
+
+    private void respond(BoshRequest req, BoshResponse boshResponse, boolean savable) {
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("BOSH writing response: {}", new String(boshResponse.getContent()));
+            LOGGER.debug("BOSH writing response: {}", new String(boshResponse.getContent(), UTF8));
         }
         
-        if (isResponseSavable(req, response)) {
+        if (savable) {
             sentResponses.put(req.getRid(), boshResponse);
             // The number of responses to non-pause requests kept in the buffer SHOULD be either the same as the maximum
             // number of simultaneous requests allowed or, if Acknowledgements are being used, the number of responses
@@ -220,27 +399,16 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
         }
         
         Continuation continuation = ContinuationSupport.getContinuation(req.getHttpServletRequest());
-        continuation.setAttribute("response", boshResponse);
-        continuation.resume();
-        latestWriteTimestamp = System.currentTimeMillis();
+        resume(continuation, boshResponse);
     }
     
-    private boolean isResponseSavable(BoshRequest req, Stanza response) {
+    private boolean isResponseSavable(BoshRequest req, boolean bindingError) {
         // responses to pause requests are not saved
         if (req.getBody().getAttributeValue("pause") != null) {
             return false;
         }
         // responses with binding error are not saved
-        for (XMLElement element : response.getInnerElements()) {
-            if ("iq".equals(element.getName()) && "error".equals(element.getAttributeValue("type"))) {
-                for (XMLElement subelement : element.getInnerElements()) {
-                    if ("bind".equals(subelement.getName())) {
-                        return false;
-                    }
-                }
-            }
-        }
-        return true;
+        return !bindingError;
     }
     
     /**
@@ -249,13 +417,13 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
      * @param condition the error condition
      */
     private void error(BoshRequest br, String condition) {
-        requestsWindow.put(br.getRid(), br);
-        BoshRequest req = requestsWindow.remove(requestsWindow.firstKey());
+        holdRequest(br);
+        BoshRequest req = removeFirstRequest();
         Stanza body = boshHandler.getTerminateResponse();
         body = boshHandler.addAttribute(body, "condition", condition);
         BoshResponse boshResponse = getBoshResponse(body, null);
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("BOSH writing response: {}", new String(boshResponse.getContent()));
+            LOGGER.debug("BOSH writing response: {}", new String(boshResponse.getContent(), UTF8));
         }
         Continuation continuation = ContinuationSupport.getContinuation(req.getHttpServletRequest());
         continuation.setAttribute("response", boshResponse);
@@ -269,7 +437,7 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
     synchronized public void close() {
         // respond to all the queued HTTP requests with termination responses
         while (!requestsWindow.isEmpty()) {
-            BoshRequest req = requestsWindow.remove(requestsWindow.firstKey());
+            BoshRequest req = removeFirstRequest();
             Stanza body = boshHandler.getTerminateResponse();
             BoshResponse boshResponse = getBoshResponse(body, null);
             if (LOGGER.isDebugEnabled()) {
@@ -283,7 +451,7 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
         serverRuntimeContext.getResourceRegistry().unbindSession(this);
         sessionStateHolder.setState(SessionState.CLOSED);
         
-        inactivityChecker.cancel();
+        cancelInactivityCheck();
         
         LOGGER.info("BOSH session {} closed", getSessionId());
     }
@@ -342,9 +510,9 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
      * @param hold
      */
     public void setHold(int hold) {
-        this.hold = hold;
-        if (hold >= 2) {
-            requests = hold + 1;
+        this.hold = Math.min(hold, maxHold);
+        if (this.hold >= 2) {
+            requests = this.hold + 1;
         }
     }
 
@@ -426,16 +594,23 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
     }
 
     /*
-     * A request expires when it stays enqueued in the requestsWindow longer than the allowed 'wait' time.
-     * The synchronization on the session object ensures that there will be no concurrent writes or other concurrent
-     * expirations for the BOSH client while the current request expires.
+     * The continuation timeout is only a safety net, the requests normally expire by the session timer.
      */
-    synchronized private void requestExpired(Continuation continuation) {
+    private void requestExpired(Continuation continuation) {
         BoshRequest req = (BoshRequest) continuation.getAttribute("request");
         if (req == null) {
             LOGGER.warn("Continuation expired without having an associated request!");
             return;
         }
+        requestExpired(req);
+    }
+
+    /*
+     * A request expires when it stays enqueued in the requestsWindow longer than the allowed 'wait' time.
+     * The synchronization on the session object ensures that there will be no concurrent writes or other concurrent
+     * expirations for the BOSH client while the current request expires.
+     */
+    synchronized private void requestExpired(BoshRequest req) {
         while (!requestsWindow.isEmpty() && requestsWindow.firstKey() <= req.getRid()) {
             write0(boshHandler.getEmptyResponse());
         }
@@ -450,10 +625,11 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
     public void insertRequest(BoshRequest br) {
         // reset the inactivity
         currentInactivity = inactivity;
+        cancelInactivityCheck();
         
         Continuation continuation = ContinuationSupport.getContinuation(br.getHttpServletRequest());
         addContinuationExpirationListener(continuation);
-        continuation.setTimeout(wait * 1000);
+        continuation.setTimeout(wait * 1000L + CONTINUATION_TIMEOUT_GRACE);
         continuation.setAttribute("request", br);
         continuation.suspend();
         
@@ -496,7 +672,8 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
             latestEmptyPollingRequest = br;
         }
         
-        requestsWindow.put(br.getRid(), br);
+        scheduleRequestExpiration(br);
+        holdRequest(br);
         if (highestReadRid == null) {
             highestReadRid = br.getRid();
         }
@@ -548,13 +725,10 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
         
         // If there are delayed responses waiting to be sent to the BOSH client, then we wrap them all in
         // a <body/> element and send them as a HTTP response to the current HTTP request.
-        Stanza delayedResponse;
-        Stanza mergedResponse = null;
-        while ((delayedResponse = delayedResponseQueue.poll()) != null) {
-            mergedResponse = boshHandler.mergeResponses(mergedResponse, delayedResponse);
-        }
-        if (mergedResponse != null) {
-            write0(mergedResponse);
+        // This includes the responses a concurrently writing thread did not yet drain.
+        bufferPendingResponses();
+        if (!responseBuffer.isEmpty()) {
+            flushResponseBuffer();
             return;
         }
 
@@ -565,6 +739,14 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
         }
     }
     
+    private void scheduleRequestExpiration(final BoshRequest br) {
+        br.setWaitTimeout(timer.schedule(new Runnable() {
+            public void run() {
+                requestExpired(br);
+            }
+        }, configuration.getEffectiveWait(wait) * 1000L));
+    }
+
     private void respondToPause(int pause) {
         LOGGER.debug("Setting inactivity period to {}", pause);
         currentInactivity = pause;
@@ -602,19 +784,17 @@ public class BoshBackedSessionContext extends AbstractSessionContext implements
     private void resendResponse(BoshRequest br) {
         BoshResponse boshResponse = sentResponses.get(br.getRid());
         if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("BOSH writing response: {}", new String(boshResponse.getContent()));
+            LOGGER.debug("BOSH writing response: {}", new String(boshResponse.getContent(), UTF8));
         }
         Continuation continuation = ContinuationSupport.getContinuation(br.getHttpServletRequest());
-        continuation.setAttribute("response", boshResponse);
-        continuation.resume();
-        latestWriteTimestamp = System.currentTimeMillis();
+        resume(continuation, boshResponse);
     }
 
     private BoshResponse getBoshResponse(Stanza stanza, Long ack) {
         if (ack != null) {
             stanza = boshHandler.addAttribute(stanza, "ack", ack.toString());
         }
-        byte[] content = new Renderer(stanza).getComplete().getBytes();
+        byte[] content = new Renderer(stanza).getComplete().getBytes(UTF8);
         return new BoshResponse(contentType, content);
     }
 
@@ -21,30 +21,71 @@ package org.apache.vysper.xmpp.extension.xep0124;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.mina.core.buffer.IoBuffer;
-import org.apache.vysper.charset.CharsetUtil;
-import org.apache.vysper.xml.sax.NonBlockingXMLReader;
+import org.apache.vysper.xml.fragment.Renderer;
 import org.apache.vysper.xml.sax.impl.DefaultNonBlockingXMLReader;
-import org.xml.sax.ContentHandler;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
 /**
  * Decodes bytes into BOSH requests
  * <p>
- * Uses nbxml for XML processing.
- * For every HTTP request there is a BoshDecoder instance
- * to ensure that parsing errors (e.g. malformed XML) do not affect other requests.
+ * Uses nbxml for XML processing. The bytes are fed into the XML reader as they are read from the HTTP request,
+ * and empty bodies (as sent by polling clients) are decoded without the XML reader at all.
+ * <p>
+ * A decoder is not thread safe, but it can be reused for many HTTP requests one after another, see
+ * {@link #decode(HttpServletRequest)}. A failing request does not affect the following ones, because the
+ * decoder is reset after each request.
  * 
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public class BoshDecoder {
 
-    private final NonBlockingXMLReader reader;
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoshDecoder.class);
+
+    private static final int CHUNK_SIZE = 1024;
+
+    /*
+     * A buffer grown bigger than this by an unusually large request is not kept for the following requests
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private final BoshHandler boshHandler;
+
+    private final DefaultNonBlockingXMLReader reader;
+
+    private final BoshSaxContentHandler contentHandler;
+
+    private final CharsetDecoder charsetDecoder = Charset.forName("UTF-8").newDecoder();
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
 
-    private final HttpServletRequest request;
+    private IoBuffer buffer;
+
+    private HttpServletRequest request;
+
+    private boolean endOfStream;
+
+    /**
+     * Creates a new decoder that can be reused for many HTTP requests
+     * @param boshHandler
+     */
+    public BoshDecoder(BoshHandler boshHandler) {
+        this.boshHandler = boshHandler;
+        reader = new DefaultNonBlockingXMLReader();
+        contentHandler = new BoshSaxContentHandler(boshHandler, null);
+        reader.setContentHandler(contentHandler);
+        buffer = newBuffer();
+    }
 
     /**
      * Creates a new decoder to parse an HTTP request
@@ -52,33 +93,205 @@ public class BoshDecoder {
      * @param req
      */
     public BoshDecoder(BoshHandler boshHandler, HttpServletRequest req) {
+        this(boshHandler);
         request = req;
-        reader = new DefaultNonBlockingXMLReader();
-        ContentHandler contentHandler = new BoshSaxContentHandler(boshHandler, req);
-        reader.setContentHandler(contentHandler);
     }
 
     /**
-     * Decodes the bytes from the {@link InputStream} provided by the current {@link HttpServletRequest} of
-     * the request context into a BOSH requests.
+     * Decodes the bytes from the {@link InputStream} provided by the {@link HttpServletRequest} this decoder
+     * was created for into a BOSH request.
      * @throws IOException
      * @throws SAXException
      */
     public void decode() throws IOException, SAXException {
-        IoBuffer ioBuf = IoBuffer.allocate(1024);
-        ioBuf.setAutoExpand(true);
-        byte[] buf = new byte[1024];
-        InputStream in = request.getInputStream();
+        decode(request);
+    }
+
+    /**
+     * Decodes the bytes from the {@link InputStream} provided by the {@link HttpServletRequest} into a BOSH
+     * request, which is passed on to the {@link BoshHandler}.
+     * @param req the HTTP request
+     * @throws IOException
+     * @throws SAXException
+     */
+    public void decode(HttpServletRequest req) throws IOException, SAXException {
+        try {
+            InputStream in = req.getInputStream();
+            endOfStream = false;
+            int length = readChunk(in);
+            if (endOfStream) {
+                // the complete request fits into one chunk, it might be an empty body
+                Stanza body = decodeEmptyBody(chunk, length);
+                if (body != null) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("BOSH decoding request: {}", new Renderer(body).getComplete());
+                    }
+                    boshHandler.process(req, body);
+                    return;
+                }
+            }
+
+            contentHandler.reset(req);
+            feed(length);
+            while (!endOfStream && !contentHandler.isBodyPayloadDecoded()) {
+                // the reader does not accept anything after the body
+                feed(readChunk(in));
+            }
+        } finally {
+            reset();
+        }
+    }
+
+    private void reset() {
+        contentHandler.reset(null);
+        reader.reset();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = newBuffer();
+        } else {
+            buffer.clear();
+        }
+    }
+
+    private IoBuffer newBuffer() {
+        IoBuffer ioBuffer = IoBuffer.allocate(CHUNK_SIZE);
+        ioBuffer.setAutoExpand(true);
+        return ioBuffer;
+    }
+
+    /*
+     * Reads until the chunk is full or the stream ends
+     */
+    private int readChunk(InputStream in) throws IOException {
+        int length = 0;
+        while (length < chunk.length) {
+            int read = in.read(chunk, length, chunk.length - length);
+            if (read == -1) {
+                endOfStream = true;
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    /*
+     * Passes the bytes on to the XML reader. Bytes of incomplete tokens are kept in the buffer until the next chunk
+     * arrives.
+     */
+    private void feed(int length) throws IOException, SAXException {
+        if (length == 0) {
+            return;
+        }
+        buffer.put(chunk, 0, length);
+        buffer.flip();
+        reader.parse(buffer, charsetDecoder);
+        buffer.compact();
+    }
 
+    /**
+     * Decodes a BOSH body without payload, like
+     * <code>&lt;body rid='1' sid='abc' xmlns='http://jabber.org/protocol/httpbind'/&gt;</code>, without XML
+     * parsing. Only plain ASCII bodies with unprefixed attributes and no entities are decoded, everything else is
+     * left to the XML reader.
+     * <p>
+     * (package access)
+     * 
+     * @return the body, or null if the bytes are not such a simple body
+     */
+    static Stanza decodeEmptyBody(byte[] bytes, int length) {
+        int end = length;
+        while (end > 0 && isWhitespace(bytes[end - 1])) {
+            end--;
+        }
+        int pos = 0;
+        while (pos < end && isWhitespace(bytes[pos])) {
+            pos++;
+        }
+        if (end - pos < 7 || bytes[end - 2] != '/' || bytes[end - 1] != '>' || bytes[pos] != '<'
+                || bytes[pos + 1] != 'b' || bytes[pos + 2] != 'o' || bytes[pos + 3] != 'd' || bytes[pos + 4] != 'y') {
+            return null;
+        }
+        pos += 5;
+        end -= 2;
+
+        StanzaBuilder body = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH);
+        boolean hasNamespace = false;
         for (;;) {
-            int i = in.read(buf);
-            if (i == -1) {
+            int attributeStart = pos;
+            while (pos < end && isWhitespace(bytes[pos])) {
+                pos++;
+            }
+            if (pos == end) {
                 break;
             }
-            ioBuf.put(buf, 0, i);
+            if (pos == attributeStart) {
+                // attributes must be separated by whitespace
+                return null;
+            }
+            int nameStart = pos;
+            while (pos < end && isNameChar(bytes[pos])) {
+                pos++;
+            }
+            int nameEnd = pos;
+            while (pos < end && isWhitespace(bytes[pos])) {
+                pos++;
+            }
+            if (nameEnd == nameStart || pos == end || bytes[pos] != '=') {
+                return null;
+            }
+            pos++;
+            while (pos < end && isWhitespace(bytes[pos])) {
+                pos++;
+            }
+            if (pos == end || (bytes[pos] != '\'' && bytes[pos] != '"')) {
+                return null;
+            }
+            byte quote = bytes[pos++];
+            int valueStart = pos;
+            while (pos < end && bytes[pos] != quote) {
+                byte b = bytes[pos];
+                if (b == '&' || b == '<' || b < 0x20) {
+                    // entities, markup, non-ASCII (negative bytes) or control characters 
+                    return null;
+                }
+                pos++;
+            }
+            if (pos == end) {
+                return null;
+            }
+            String name = ascii(bytes, nameStart, nameEnd);
+            String value = ascii(bytes, valueStart, pos);
+            pos++;
+            if ("xmlns".equals(name)) {
+                if (!NamespaceURIs.XEP0124_BOSH.equals(value)) {
+                    return null;
+                }
+                hasNamespace = true;
+            } else {
+                body.addAttribute(name, value);
+            }
+        }
+        return hasNamespace ? body.build() : null;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /*
+     * Name characters without ':', prefixed attributes need namespace resolution
+     */
+    private static boolean isNameChar(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '-'
+                || b == '.';
+    }
+
+    private static String ascii(byte[] bytes, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = (char) bytes[i];
         }
-        ioBuf.flip();
-        reader.parse(ioBuf, CharsetUtil.UTF8_DECODER);
+        return new String(chars);
     }
 
-}
\ No newline at end of file
+}
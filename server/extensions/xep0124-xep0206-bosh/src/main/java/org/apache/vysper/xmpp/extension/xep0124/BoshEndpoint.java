@@ -59,6 +59,8 @@ public class BoshEndpoint implements Endpoint {
 
     private List<String> accessControlAllowOrigin;
 
+    private BoshSessionConfiguration sessionConfiguration = new BoshSessionConfiguration();
+
     public void setServerRuntimeContext(ServerRuntimeContext serverRuntimeContext) {
         this.serverRuntimeContext = serverRuntimeContext;
     }
@@ -115,6 +117,22 @@ public class BoshEndpoint implements Endpoint {
         this.accessControlAllowOrigin = accessControlAllowOrigin;
     }
 
+    /**
+     * Get the parameters (hold, wait, inactivity, ...) offered to the BOSH clients
+     * @return The session configuration
+     */
+    public BoshSessionConfiguration getSessionConfiguration() {
+        return sessionConfiguration;
+    }
+
+    /**
+     * Set the parameters (hold, wait, inactivity, ...) offered to the BOSH clients
+     * @param sessionConfiguration The session configuration
+     */
+    public void setSessionConfiguration(BoshSessionConfiguration sessionConfiguration) {
+        this.sessionConfiguration = sessionConfiguration;
+    }
+
     /**
      * @throws IOException 
      * @throws RuntimeException a wrapper of the possible
@@ -143,6 +161,7 @@ public class BoshEndpoint implements Endpoint {
         BoshServlet boshServlet = new BoshServlet();
         boshServlet.setServerRuntimeContext(serverRuntimeContext);
         boshServlet.setAccessControlAllowOrigin(accessControlAllowOrigin);
+        boshServlet.setSessionConfiguration(sessionConfiguration);
         context.addServlet(new ServletHolder(boshServlet), "/");
 
         try {
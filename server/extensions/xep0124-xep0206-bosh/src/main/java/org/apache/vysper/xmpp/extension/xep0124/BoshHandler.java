@@ -51,6 +51,8 @@ public class BoshHandler {
 
     private Map<String, BoshBackedSessionContext> sessions;
 
+    private BoshSessionConfiguration sessionConfiguration = new BoshSessionConfiguration();
+
     public BoshHandler() {
         // The sessions are stored in a ConcurrentHashMap to maintain the "happens before relationship" memory consistency.
         // Although the operations on specific sessions are synchronized, the session creation and retrieval need the memory
@@ -75,6 +77,22 @@ public class BoshHandler {
         this.serverRuntimeContext = serverRuntimeContext;
     }
 
+    /**
+     * Getter for the parameters used by the new sessions
+     * @return the session configuration
+     */
+    public BoshSessionConfiguration getSessionConfiguration() {
+        return sessionConfiguration;
+    }
+
+    /**
+     * Setter for the parameters used by the new sessions
+     * @param sessionConfiguration
+     */
+    public void setSessionConfiguration(BoshSessionConfiguration sessionConfiguration) {
+        this.sessionConfiguration = sessionConfiguration;
+    }
+
     /**
      * Processes BOSH requests
      * @param httpRequest the HTTP request
@@ -173,7 +191,8 @@ public class BoshHandler {
     }
 
     private void createSession(BoshRequest br) throws IOException {
-        BoshBackedSessionContext session = new BoshBackedSessionContext(this, serverRuntimeContext);
+        BoshBackedSessionContext session = new BoshBackedSessionContext(this, serverRuntimeContext, sessionConfiguration,
+                HashedWheelTimer.getSharedInstance());
         if (br.getBody().getAttribute("content") != null) {
             session.setContentType(br.getBody().getAttributeValue("content"));
         }
@@ -248,33 +267,6 @@ public class BoshHandler {
         return body.build();
     }
     
-    /**
-     * Creates a BOSH response by merging 2 other BOSH responses, this is useful when sending more than one message as
-     * a response to a HTTP request.
-     * @param response1 the first BOSH response to merge
-     * @param response2 the second BOSH response to merge
-     * @return the merged BOSH response
-     */
-    public Stanza mergeResponses(Stanza response1, Stanza response2) {
-        if (response1 == null && response2 == null) {
-            return null;
-        }
-        if (response1 == null) {
-            return response2;
-        }
-        if (response2 == null) {
-            return response1;
-        }
-        StanzaBuilder body = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH);
-        for (XMLElement element : response1.getInnerElements()) {
-            body.addPreparedElement(element);
-        }
-        for (XMLElement element : response2.getInnerElements()) {
-            body.addPreparedElement(element);
-        }
-        return body.build();
-    }
-    
     private Stanza getRestartResponse() {
         Stanza features = new ServerResponses().getFeaturesForSession();
         return wrapStanza(features);
@@ -38,6 +38,11 @@ public class BoshRequest implements Comparable<BoshRequest> {
     
     private final long timestamp;
 
+    /*
+     * Expires the request when it is held longer than the BOSH 'wait' period
+     */
+    private HashedWheelTimer.Timeout waitTimeout;
+
     public BoshRequest(HttpServletRequest httpServletRequest, Stanza body, Long rid) {
         this.httpServletRequest = httpServletRequest;
         this.body = body;
@@ -87,4 +92,12 @@ public class BoshRequest implements Comparable<BoshRequest> {
         return timestamp;
     }
 
+    HashedWheelTimer.Timeout getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    void setWaitTimeout(HashedWheelTimer.Timeout waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.extension.xep0124;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xml.fragment.XMLElement;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+
+/**
+ * Collects the stanzas waiting to be sent to a BOSH client. Every stanza is rendered only once, when it is
+ * written, and all the collected stanzas are wrapped in a single &lt;body/&gt; element when a HTTP request
+ * is available to respond to.
+ * <p>
+ * The buffer is not thread safe, the session guards it with its lock.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+class BoshResponseBuffer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte[] BODY_OPENING = ("<body xmlns=\"" + NamespaceURIs.XEP0124_BOSH + "\"").getBytes(UTF8);
+
+    private static final byte[] BODY_CLOSING = "</body>".getBytes(UTF8);
+
+    /**
+     * A stanza rendered to the bytes sent to the client
+     */
+    static final class RenderedStanza {
+
+        private final byte[] content;
+
+        private final boolean bindingError;
+
+        RenderedStanza(XMLElement stanza) {
+            String xml = new Renderer(stanza).getComplete();
+            if (stanza.getNamespaceURI().length() == 0
+                    && (stanza.getNamespacePrefix() == null || stanza.getNamespacePrefix().length() == 0)) {
+                // inside the <body/> the default namespace would be the BOSH namespace, reset it like the
+                // renderer does for nested elements
+                int nameEnd = stanza.getName().length() + 1;
+                xml = xml.substring(0, nameEnd) + " xmlns=\"\"" + xml.substring(nameEnd);
+            }
+            content = xml.getBytes(UTF8);
+            bindingError = isBindingError(stanza);
+        }
+
+        byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * @return true if the stanza is an error response to a resource binding
+         */
+        boolean isBindingError() {
+            return bindingError;
+        }
+
+        /**
+         * @param body a BOSH &lt;body/&gt; element
+         * @return true if the body contains an error response to a resource binding
+         */
+        static boolean containsBindingError(XMLElement body) {
+            for (XMLElement stanza : body.getInnerElements()) {
+                if (isBindingError(stanza)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isBindingError(XMLElement stanza) {
+            if (!"iq".equals(stanza.getName()) || !"error".equals(stanza.getAttributeValue("type"))) {
+                return false;
+            }
+            for (XMLElement element : stanza.getInnerElements()) {
+                if ("bind".equals(element.getName())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final List<RenderedStanza> stanzas = new ArrayList<RenderedStanza>();
+
+    private int contentLength = 0;
+
+    private boolean bindingError = false;
+
+    public void add(RenderedStanza stanza) {
+        stanzas.add(stanza);
+        contentLength += stanza.getContent().length;
+        bindingError |= stanza.isBindingError();
+    }
+
+    public boolean isEmpty() {
+        return stanzas.isEmpty();
+    }
+
+    /**
+     * @return true if one of the collected stanzas is an error response to a resource binding
+     */
+    public boolean containsBindingError() {
+        return bindingError;
+    }
+
+    /**
+     * Wraps all the collected stanzas in a &lt;body/&gt; element and empties the buffer.
+     * @param ack the value of the 'ack' attribute, null if the attribute is not needed
+     * @return the rendered &lt;body/&gt; element
+     */
+    public byte[] flush(Long ack) {
+        byte[] attributes = (ack == null ? ">" : " ack=\"" + ack + "\">").getBytes(UTF8);
+        byte[] body = new byte[BODY_OPENING.length + attributes.length + contentLength + BODY_CLOSING.length];
+        int position = append(body, 0, BODY_OPENING);
+        position = append(body, position, attributes);
+        for (RenderedStanza stanza : stanzas) {
+            position = append(body, position, stanza.getContent());
+        }
+        append(body, position, BODY_CLOSING);
+
+        stanzas.clear();
+        contentLength = 0;
+        bindingError = false;
+        return body;
+    }
+
+    private static int append(byte[] destination, int position, byte[] source) {
+        System.arraycopy(source, 0, destination, position, source.length);
+        return position + source.length;
+    }
+}
@@ -48,7 +48,7 @@ public class BoshSaxContentHandler implements ContentHandler {
 
     private final BoshHandler boshHandler;
 
-    private final HttpServletRequest request;
+    private HttpServletRequest request;
 
     private final StanzaBuilderFactory builderFactory;
 
@@ -64,6 +64,24 @@ public class BoshSaxContentHandler implements ContentHandler {
         builderFactory = new StanzaBuilderFactory();
     }
 
+    /**
+     * Prepares the handler for the next HTTP request, when it is reused by a pooled {@link BoshDecoder}
+     * @param req the HTTP request whose body is parsed next, or null to release the previous one
+     */
+    public void reset(HttpServletRequest req) {
+        request = req;
+        builder = null;
+        depth = 0;
+        isBodyPayloadDecoded = false;
+    }
+
+    /**
+     * @return true if the complete body has been decoded and passed on to the {@link BoshHandler}
+     */
+    public boolean isBodyPayloadDecoded() {
+        return isBodyPayloadDecoded;
+    }
+
     public void characters(char[] ch, int start, int length) throws SAXException {
         // TODO handle start and length
         if (builder != null) {
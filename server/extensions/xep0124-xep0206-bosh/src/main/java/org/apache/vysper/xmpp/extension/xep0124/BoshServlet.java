@@ -22,6 +22,8 @@ package org.apache.vysper.xmpp.extension.xep0124;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -54,10 +56,17 @@ public class BoshServlet extends HttpServlet {
 
     private static final String SERVER_IDENTIFICATION = "Vysper/0.5";
 
+    /*
+     * Decoders are reused across requests, this limits the number of idle decoders kept for that
+     */
+    private static final int MAX_IDLE_DECODERS = 64;
+
     private final Logger logger = LoggerFactory.getLogger(BoshServlet.class);
 
     private final BoshHandler boshHandler = new BoshHandler();
 
+    private final BlockingQueue<BoshDecoder> decoders = new ArrayBlockingQueue<BoshDecoder>(MAX_IDLE_DECODERS);
+
     private List<String> accessControlAllowOrigin;
 
     private String accessControlMaxAge = "86400"; // one day in seconds
@@ -71,6 +80,14 @@ public class BoshServlet extends HttpServlet {
     public void setServerRuntimeContext(ServerRuntimeContext serverRuntimeContext) {
         boshHandler.setServerRuntimeContext(serverRuntimeContext);
     }
+
+    /**
+     * Setter for the parameters of the sessions created by this servlet
+     * @param sessionConfiguration
+     */
+    public void setSessionConfiguration(BoshSessionConfiguration sessionConfiguration) {
+        boshHandler.setSessionConfiguration(sessionConfiguration);
+    }
     
     
     
@@ -162,11 +179,17 @@ public class BoshServlet extends HttpServlet {
             return;
         }
 
-        BoshDecoder decoder = new BoshDecoder(boshHandler, req);
+        BoshDecoder decoder = decoders.poll();
+        if (decoder == null) {
+            decoder = new BoshDecoder(boshHandler);
+        }
         try {
-            decoder.decode();
+            decoder.decode(req);
         } catch (SAXException e) {
             logger.error("Exception thrown while decoding XML", e);
+        } finally {
+            // the decoder is reset, even after failures, and can be used for the next request
+            decoders.offer(decoder);
         }
     }
     
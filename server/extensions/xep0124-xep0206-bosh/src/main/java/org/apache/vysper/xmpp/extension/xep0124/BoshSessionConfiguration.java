@@ -0,0 +1,243 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.extension.xep0124;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The BOSH session parameters offered by the connection manager, shared by all the sessions of a
+ * {@link BoshEndpoint}. See XEP-0124 for the meaning of the parameters.
+ * <p>
+ * In the adaptive wait mode, held requests are answered earlier when many requests are held across all sessions,
+ * down to {@link #getMinimumWait()} when the high watermark is reached. This caps the number of open
+ * continuations (connections) at the cost of more round trips. When the load drops, the requests are held for the
+ * negotiated 'wait' period again.
+ * 
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class BoshSessionConfiguration {
+
+    private int maxPause = 120;
+
+    private int inactivity = 60;
+
+    private int polling = 15;
+
+    private int maxWait = 60;
+
+    private int hold = 1;
+
+    private int maxHold = 5;
+
+    private int maximumSentResponses = 10;
+
+    private boolean adaptiveWait = false;
+
+    private int minimumWait = 5;
+
+    private int heldRequestsLowWatermark = 1000;
+
+    private int heldRequestsHighWatermark = 10000;
+
+    /*
+     * The number of requests currently held by all the sessions using this configuration
+     */
+    private final AtomicInteger heldRequests = new AtomicInteger();
+
+    /**
+     * Getter for the longest temporary session pause (in seconds) a client can request
+     * @return the BOSH 'maxpause' parameter
+     */
+    public int getMaxPause() {
+        return maxPause;
+    }
+
+    public void setMaxPause(int maxPause) {
+        this.maxPause = requireNotNegative(maxPause, "maxPause");
+    }
+
+    /**
+     * Getter for the longest allowable inactivity period (in seconds)
+     * @return the BOSH 'inactivity' parameter
+     */
+    public int getInactivity() {
+        return inactivity;
+    }
+
+    public void setInactivity(int inactivity) {
+        this.inactivity = requireNotNegative(inactivity, "inactivity");
+    }
+
+    /**
+     * Getter for the shortest allowable polling interval (in seconds)
+     * @return the BOSH 'polling' parameter
+     */
+    public int getPolling() {
+        return polling;
+    }
+
+    public void setPolling(int polling) {
+        this.polling = requireNotNegative(polling, "polling");
+    }
+
+    /**
+     * Getter for the longest time (in seconds) a request is held, clients can only ask for shorter periods
+     * @return the maximum BOSH 'wait' parameter
+     */
+    public int getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(int maxWait) {
+        this.maxWait = requireNotNegative(maxWait, "maxWait");
+    }
+
+    /**
+     * Getter for the number of requests held per session if the client does not ask for a different number
+     * @return the default BOSH 'hold' parameter
+     */
+    public int getHold() {
+        return hold;
+    }
+
+    public void setHold(int hold) {
+        this.hold = requireNotNegative(hold, "hold");
+    }
+
+    /**
+     * Getter for the highest number of requests held per session, clients asking for more get this number
+     * @return the maximum BOSH 'hold' parameter
+     */
+    public int getMaxHold() {
+        return maxHold;
+    }
+
+    public void setMaxHold(int maxHold) {
+        this.maxHold = requireNotNegative(maxHold, "maxHold");
+    }
+
+    /**
+     * Getter for the number of responses kept per session for retransmission, see Broken Connections in
+     * XEP-0124
+     * @return the maximum number of responses kept
+     */
+    public int getMaximumSentResponses() {
+        return maximumSentResponses;
+    }
+
+    public void setMaximumSentResponses(int maximumSentResponses) {
+        this.maximumSentResponses = requireNotNegative(maximumSentResponses, "maximumSentResponses");
+    }
+
+    public boolean isAdaptiveWait() {
+        return adaptiveWait;
+    }
+
+    /**
+     * Enables/disables the adaptive wait mode
+     * @param adaptiveWait
+     */
+    public void setAdaptiveWait(boolean adaptiveWait) {
+        this.adaptiveWait = adaptiveWait;
+    }
+
+    /**
+     * Getter for the shortest time (in seconds) a request is held in the adaptive wait mode
+     * @return the minimum wait
+     */
+    public int getMinimumWait() {
+        return minimumWait;
+    }
+
+    public void setMinimumWait(int minimumWait) {
+        this.minimumWait = requireNotNegative(minimumWait, "minimumWait");
+    }
+
+    /**
+     * Getter for the number of held requests (across all sessions) up to which the adaptive wait mode holds
+     * requests for the negotiated 'wait' period
+     * @return the low watermark
+     */
+    public int getHeldRequestsLowWatermark() {
+        return heldRequestsLowWatermark;
+    }
+
+    public void setHeldRequestsLowWatermark(int heldRequestsLowWatermark) {
+        this.heldRequestsLowWatermark = requireNotNegative(heldRequestsLowWatermark, "heldRequestsLowWatermark");
+    }
+
+    /**
+     * Getter for the number of held requests (across all sessions) from which the adaptive wait mode holds
+     * requests only for the minimum wait period
+     * @return the high watermark
+     */
+    public int getHeldRequestsHighWatermark() {
+        return heldRequestsHighWatermark;
+    }
+
+    public void setHeldRequestsHighWatermark(int heldRequestsHighWatermark) {
+        this.heldRequestsHighWatermark = requireNotNegative(heldRequestsHighWatermark, "heldRequestsHighWatermark");
+    }
+
+    /**
+     * Getter for the number of requests currently held by all the sessions
+     * @return the number of held requests
+     */
+    public int getHeldRequests() {
+        return heldRequests.get();
+    }
+
+    void requestHeld() {
+        heldRequests.incrementAndGet();
+    }
+
+    void requestReleased() {
+        heldRequests.decrementAndGet();
+    }
+
+    /**
+     * Computes how long a request is held, depending on the current load if the adaptive wait mode is enabled.
+     * Between the low and the high watermark, the wait shrinks linearly from the negotiated wait to the minimum.
+     * @param sessionWait the 'wait' negotiated with the client, in seconds
+     * @return the time to hold the request, in seconds, never longer than the negotiated wait
+     */
+    public int getEffectiveWait(int sessionWait) {
+        if (!adaptiveWait || sessionWait <= minimumWait) {
+            return sessionWait;
+        }
+        int held = heldRequests.get();
+        if (held <= heldRequestsLowWatermark) {
+            return sessionWait;
+        }
+        if (held >= heldRequestsHighWatermark) {
+            return minimumWait;
+        }
+        long range = heldRequestsHighWatermark - heldRequestsLowWatermark;
+        long reduction = (long) (sessionWait - minimumWait) * (held - heldRequestsLowWatermark) / range;
+        return (int) (sessionWait - reduction);
+    }
+
+    private static int requireNotNegative(int value, String name) {
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " must not be negative");
+        }
+        return value;
+    }
+}
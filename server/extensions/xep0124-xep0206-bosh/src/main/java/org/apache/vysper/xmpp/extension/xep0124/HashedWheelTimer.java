@@ -0,0 +1,368 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.extension.xep0124;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A timer that serves all the timeouts of all BOSH sessions (inactivity, maxpause and the 'wait' expiry of held
+ * requests) with a single thread.
+ * <p>
+ * The timeouts are kept in a wheel of buckets, each bucket covering one tick. Scheduling and cancelling a timeout
+ * are O(1) operations, which is important because the timeouts are rescheduled on almost every request. The price
+ * is the precision: timeouts expire up to one tick later than requested.
+ * <p>
+ * Without a task executor the timeout tasks are executed on the timer thread, they must be short and must not
+ * block. The BOSH sessions synchronize their timeout tasks with the processing of their requests, so the default
+ * timer hands the expired tasks to a pool of threads instead. A slow session then delays only its own timeouts.
+ * 
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class HashedWheelTimer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    public static final long DEFAULT_TICK_DURATION = 100;
+
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    private static HashedWheelTimer sharedInstance;
+
+    /**
+     * A scheduled task, which can be cancelled until it expired.
+     */
+    public static final class Timeout {
+
+        private final Runnable task;
+
+        private final long deadline;
+
+        private long remainingRounds;
+
+        // the bucket list, guarded by the timer
+        private Timeout previous;
+
+        private Timeout next;
+
+        private boolean scheduled;
+
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Getter for the time (in milliseconds, see {@link System#currentTimeMillis()}) when the timeout will expire
+         * @return the deadline
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * @return true if the timeout was cancelled before it expired
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void unlink() {
+            previous.next = next;
+            next.previous = previous;
+            previous = null;
+            next = null;
+            scheduled = false;
+        }
+    }
+
+    private final long tickDuration;
+
+    private final Timeout[] wheel;
+
+    private final int mask;
+
+    private final Thread workerThread;
+
+    private final Executor taskExecutor;
+
+    // the executor created by the timer, it is shut down with the timer
+    private final ExecutorService ownedTaskExecutor;
+
+    private long startTime;
+
+    private long tick;
+
+    private int pendingTimeouts;
+
+    private boolean started;
+
+    private volatile boolean stopped;
+
+    /**
+     * Returns the timer shared by all the BOSH sessions in this JVM, creating it if needed.
+     * @return the shared timer
+     */
+    public static synchronized HashedWheelTimer getSharedInstance() {
+        if (sharedInstance == null || sharedInstance.stopped) {
+            sharedInstance = new HashedWheelTimer();
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * Creates a new timer with the default precision, which executes the tasks on its own pool of threads
+     */
+    public HashedWheelTimer() {
+        this(DEFAULT_TICK_DURATION, DEFAULT_TICKS_PER_WHEEL, null, true);
+    }
+
+    /**
+     * Creates a new timer
+     * @param tickDuration the duration of a tick in milliseconds, which is the precision of the timer
+     * @param ticksPerWheel the number of buckets, rounded up to a power of two. Timeouts longer than one turn of the
+     * wheel are supported, they are just visited once per turn. 
+     */
+    public HashedWheelTimer(long tickDuration, int ticksPerWheel) {
+        this(tickDuration, ticksPerWheel, null, false);
+    }
+
+    /**
+     * Creates a new timer
+     * @param tickDuration the duration of a tick in milliseconds, which is the precision of the timer
+     * @param ticksPerWheel the number of buckets, rounded up to a power of two
+     * @param taskExecutor executes the expired tasks, so that they can block without delaying the other timeouts.
+     * If null, the tasks are executed on the timer thread.
+     */
+    public HashedWheelTimer(long tickDuration, int ticksPerWheel, Executor taskExecutor) {
+        this(tickDuration, ticksPerWheel, taskExecutor, false);
+    }
+
+    private HashedWheelTimer(long tickDuration, int ticksPerWheel, Executor taskExecutor, boolean ownTaskExecutor) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be positive");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30");
+        }
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.tickDuration = tickDuration;
+        this.mask = size - 1;
+        this.wheel = new Timeout[size];
+        for (int i = 0; i < size; i++) {
+            // sentinel of the circular list of each bucket
+            Timeout head = new Timeout(null, 0);
+            head.previous = head;
+            head.next = head;
+            wheel[i] = head;
+        }
+        workerThread = new Thread(new Worker(), "bosh-timer");
+        workerThread.setDaemon(true);
+        if (ownTaskExecutor) {
+            ownedTaskExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "bosh-timeout");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.taskExecutor = ownedTaskExecutor;
+        } else {
+            ownedTaskExecutor = null;
+            this.taskExecutor = taskExecutor;
+        }
+    }
+
+    /**
+     * Schedules a task to be executed once after the delay
+     * @param task the task to execute on expiry
+     * @param delay the delay in milliseconds
+     * @return the handle to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        if (task == null) {
+            throw new IllegalArgumentException("task must not be null");
+        }
+        long now = System.currentTimeMillis();
+        Timeout timeout = new Timeout(task, now + Math.max(0, delay));
+        synchronized (this) {
+            if (stopped) {
+                throw new IllegalStateException("the timer has been stopped");
+            }
+            if (!started) {
+                started = true;
+                startTime = now;
+                workerThread.start();
+            }
+            // the tick k is processed at startTime + (k + 1) * tickDuration
+            long expiringTick = (timeout.deadline - startTime + tickDuration - 1) / tickDuration - 1;
+            expiringTick = Math.max(expiringTick, tick);
+            timeout.remainingRounds = (expiringTick - tick) / wheel.length;
+
+            Timeout head = wheel[(int) (expiringTick & mask)];
+            timeout.previous = head.previous;
+            timeout.next = head;
+            head.previous.next = timeout;
+            head.previous = timeout;
+            timeout.scheduled = true;
+            pendingTimeouts++;
+        }
+        return timeout;
+    }
+
+    /**
+     * Cancels a timeout, if it did not yet expire
+     * @param timeout the timeout to cancel, can be null
+     * @return true if the timeout was cancelled, false if it was already expired or cancelled
+     */
+    public boolean cancel(Timeout timeout) {
+        if (timeout == null) {
+            return false;
+        }
+        synchronized (this) {
+            if (!timeout.scheduled) {
+                return false;
+            }
+            timeout.unlink();
+            timeout.cancelled = true;
+            pendingTimeouts--;
+            return true;
+        }
+    }
+
+    /**
+     * Cancels the timeout, if any, and schedules a new one
+     * @return the new timeout
+     */
+    public Timeout reschedule(Timeout timeout, Runnable task, long delay) {
+        cancel(timeout);
+        return schedule(task, delay);
+    }
+
+    /**
+     * Getter for the number of the timeouts that are neither expired nor cancelled
+     * @return the number of pending timeouts
+     */
+    public synchronized int getPendingTimeouts() {
+        return pendingTimeouts;
+    }
+
+    /**
+     * Stops the timer thread, the pending timeouts are discarded
+     */
+    public void stop() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+        }
+        workerThread.interrupt();
+        if (ownedTaskExecutor != null) {
+            ownedTaskExecutor.shutdown();
+        }
+    }
+
+    private List<Timeout> expireBucket() {
+        List<Timeout> expired = null;
+        synchronized (this) {
+            Timeout head = wheel[(int) (tick & mask)];
+            Timeout timeout = head.next;
+            while (timeout != head) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    timeout.unlink();
+                    pendingTimeouts--;
+                    if (expired == null) {
+                        expired = new ArrayList<Timeout>();
+                    }
+                    expired.add(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+            tick++;
+        }
+        return expired;
+    }
+
+    private class Worker implements Runnable {
+
+        public void run() {
+            while (!stopped) {
+                long deadline;
+                synchronized (HashedWheelTimer.this) {
+                    deadline = startTime + (tick + 1) * tickDuration;
+                }
+                long sleep = deadline - System.currentTimeMillis();
+                if (sleep > 0) {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        continue;
+                    }
+                }
+                List<Timeout> expired = expireBucket();
+                if (expired == null) {
+                    continue;
+                }
+                for (Timeout timeout : expired) {
+                    if (taskExecutor == null) {
+                        runTask(timeout.task);
+                        continue;
+                    }
+                    final Runnable task = timeout.task;
+                    try {
+                        taskExecutor.execute(new Runnable() {
+                            public void run() {
+                                runTask(task);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        LOGGER.warn("BOSH timeout task rejected by the task executor", e);
+                    }
+                }
+            }
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOGGER.warn("BOSH timeout task threw an exception", t);
+            }
+        }
+    }
+}
@@ -21,10 +21,12 @@ package org.apache.vysper.xmpp.extension.xep0124;
 
 import static org.easymock.EasyMock.anyLong;
 import static org.easymock.EasyMock.createControl;
+import static org.easymock.EasyMock.createNiceControl;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -34,6 +36,7 @@ import org.apache.vysper.xmpp.protocol.NamespaceURIs;
 import org.apache.vysper.xmpp.server.ServerRuntimeContext;
 import org.apache.vysper.xmpp.stanza.Stanza;
 import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.apache.vysper.xmpp.state.resourcebinding.ResourceRegistry;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
@@ -208,14 +211,14 @@ public class BoshBackedSessionContextTest {
 
         continuation.addContinuationListener(EasyMock.<ContinuationListener> anyObject());
 
-        Stanza body1 = mocksControl.createMock(Stanza.class);
-        Stanza body2 = mocksControl.createMock(Stanza.class);
+        Stanza body1 = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH).startInnerElement("message",
+                NamespaceURIs.JABBER_CLIENT).addAttribute("id", "1").endInnerElement().build();
+        Stanza body2 = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH).startInnerElement("message")
+                .addAttribute("id", "2").endInnerElement().build();
         Stanza body = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH).build();
-        expect(boshHandler.mergeResponses(EasyMock.<Stanza> anyObject(), EasyMock.<Stanza> anyObject()))
-                .andReturn(body);
-        expectLastCall().times(2);
 
-        continuation.setAttribute(eq("response"), EasyMock.<BoshResponse> anyObject());
+        Capture<BoshResponse> captured = new Capture<BoshResponse>();
+        continuation.setAttribute(eq("response"), EasyMock.<BoshResponse> capture(captured));
         continuation.resume();
 
         mocksControl.replay();
@@ -226,6 +229,151 @@ public class BoshBackedSessionContextTest {
         boshBackedSessionContext.write0(body2);
         boshBackedSessionContext.insertRequest(new BoshRequest(httpServletRequest, body, 1L));
         mocksControl.verify();
+
+        // both delayed responses are sent in one body, the second message stays in the empty namespace
+        assertEquals("<body xmlns=\"http://jabber.org/protocol/httpbind\"><message xmlns=\"jabber:client\" id=\"1\">"
+                + "</message><message xmlns=\"\" id=\"2\"></message></body>", new String(captured.getValue()
+                .getContent()));
+    }
+
+
+    @Test
+    public void testBlockedSessionDoesNotDelayOtherExpiries() throws Exception {
+        IMocksControl control = createNiceControl();
+        ServerRuntimeContext context = control.createMock(ServerRuntimeContext.class);
+        expect(context.getServerEnitity()).andReturn(new EntityImpl(null, "vysper.org", null)).anyTimes();
+        HttpServletRequest httpServletRequest = control.createMock(HttpServletRequest.class);
+        expect(httpServletRequest.getAttribute(Continuation.ATTRIBUTE)).andReturn(
+                control.createMock(Continuation.class)).anyTimes();
+        control.replay();
+
+        int sessions = 10000;
+        BoshSessionConfiguration configuration = new BoshSessionConfiguration();
+        configuration.setMaxWait(1);
+        BoshHandler handler = new BoshHandler();
+        Stanza body = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH).build();
+        HashedWheelTimer timer = new HashedWheelTimer();
+        try {
+            BoshBackedSessionContext blocked = new BoshBackedSessionContext(handler, context, configuration, timer);
+            // like BoshHandler processing a slow request of the blocked session
+            synchronized (blocked) {
+                blocked.insertRequest(new BoshRequest(httpServletRequest, body, 1L));
+                for (int i = 1; i < sessions; i++) {
+                    new BoshBackedSessionContext(handler, context, configuration, timer).insertRequest(new BoshRequest(
+                            httpServletRequest, body, 1L));
+                }
+                assertEquals(sessions, configuration.getHeldRequests());
+
+                // the requests of all the other sessions expire meanwhile
+                awaitHeldRequests(configuration, 1);
+                assertEquals(1, configuration.getHeldRequests());
+            }
+            awaitHeldRequests(configuration, 0);
+            assertEquals(0, configuration.getHeldRequests());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private void awaitHeldRequests(BoshSessionConfiguration configuration, int heldRequests)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (configuration.getHeldRequests() > heldRequests && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testConfiguredParameters() {
+        mocksControl.replay();
+        BoshSessionConfiguration configuration = new BoshSessionConfiguration();
+        configuration.setMaxWait(30);
+        configuration.setInactivity(20);
+        configuration.setMaxHold(2);
+        BoshBackedSessionContext boshBackedSessionContext = new BoshBackedSessionContext(boshHandler,
+                serverRuntimeContext, configuration, HashedWheelTimer.getSharedInstance());
+        assertEquals(30, boshBackedSessionContext.getWait());
+        assertEquals(20, boshBackedSessionContext.getInactivity());
+        boshBackedSessionContext.setWait(45);
+        assertEquals(30, boshBackedSessionContext.getWait());
+        boshBackedSessionContext.setHold(4);
+        assertEquals(2, boshBackedSessionContext.getHold());
+        mocksControl.verify();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testHeldRequestsAreReleasedAfterError() {
+        IMocksControl control = createNiceControl();
+        ServerRuntimeContext context = control.createMock(ServerRuntimeContext.class);
+        expect(context.getServerEnitity()).andReturn(new EntityImpl(null, "vysper.org", null)).anyTimes();
+        expect(context.getResourceRegistry()).andReturn(control.createMock(ResourceRegistry.class)).anyTimes();
+        HttpServletRequest httpServletRequest = control.createMock(HttpServletRequest.class);
+        expect(httpServletRequest.getAttribute(Continuation.ATTRIBUTE)).andReturn(
+                control.createMock(Continuation.class)).anyTimes();
+        control.replay();
+
+        BoshSessionConfiguration configuration = new BoshSessionConfiguration();
+        BoshBackedSessionContext session = new BoshBackedSessionContext(new BoshHandler(), context, configuration,
+                HashedWheelTimer.getSharedInstance());
+        session.setHold(2);
+        Stanza body = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH).build();
+        session.insertRequest(new BoshRequest(httpServletRequest, body, 1L));
+        session.insertRequest(new BoshRequest(httpServletRequest, body, 2L));
+        assertEquals(2, configuration.getHeldRequests());
+
+        // a repeated RID without a buffered response terminates the session, the error is written to RID 1
+        session.insertRequest(new BoshRequest(httpServletRequest, body, 2L));
+        assertEquals(0, configuration.getHeldRequests());
+    }
+
+    @Test
+    public void testConcurrentWritesAreAllDelivered() throws Exception {
+        final int threads = 8;
+        final int stanzasPerThread = 500;
+        IMocksControl control = createControl();
+        ServerRuntimeContext context = control.createMock(ServerRuntimeContext.class);
+        expect(context.getNextSessionId()).andReturn("123");
+        expect(context.getServerEnitity()).andReturn(new EntityImpl(null, "vysper.org", null));
+        expect(context.getDefaultXMLLang()).andReturn("en");
+        HttpServletRequest httpServletRequest = control.createMock(HttpServletRequest.class);
+        Continuation continuation = control.createMock(Continuation.class);
+        expect(httpServletRequest.getAttribute(Continuation.ATTRIBUTE)).andReturn(continuation).anyTimes();
+        continuation.setTimeout(anyLong());
+        continuation.suspend();
+        continuation.setAttribute(eq("request"), EasyMock.<BoshRequest> notNull());
+        continuation.addContinuationListener(EasyMock.<ContinuationListener> anyObject());
+        Capture<BoshResponse> captured = new Capture<BoshResponse>();
+        continuation.setAttribute(eq("response"), EasyMock.<BoshResponse> capture(captured));
+        continuation.resume();
+        control.replay();
+
+        // the real handler wraps and merges the stanzas
+        final BoshBackedSessionContext session = new BoshBackedSessionContext(new BoshHandler(), context);
+        final Stanza stanza = new StanzaBuilder("message", NamespaceURIs.JABBER_CLIENT).build();
+        Thread[] writers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < stanzasPerThread; j++) {
+                        session.write(stanza);
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        // no request was held, all the stanzas are delivered with the next request
+        Stanza body = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH).build();
+        synchronized (session) {
+            session.insertRequest(new BoshRequest(httpServletRequest, body, 1L));
+        }
+        control.verify();
+
+        String content = new String(captured.getValue().getContent());
+        assertEquals(threads * stanzasPerThread, content.split("<message").length - 1);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.extension.xep0124;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.vysper.xmpp.addressing.EntityImpl;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.server.ServerRuntimeContext;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.eclipse.jetty.continuation.Continuation;
+
+/**
+ * Measures the throughput of many threads writing stanzas to a single BOSH session, while the client keeps
+ * sending requests. Not run as part of the unit tests, start it manually:
+ * <pre>
+ * BoshContentionBenchmark [stanzasPerThread]
+ * </pre>
+ */
+public class BoshContentionBenchmark {
+
+    private static final Continuation CONTINUATION = stub(Continuation.class, null);
+
+    private static final HttpServletRequest HTTP_REQUEST = stub(HttpServletRequest.class, CONTINUATION);
+
+    private static final ServerRuntimeContext SERVER_RUNTIME_CONTEXT = stub(ServerRuntimeContext.class, null);
+
+    public static void main(String[] args) throws Exception {
+        int stanzasPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        for (int round = 0; round < 2; round++) { // first round warms up
+            System.out.println(round == 0 ? "warm up" : "measure");
+            for (int threads = 1; threads <= 32; threads *= 2) {
+                run(threads, stanzasPerThread);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(int threads, final int stanzasPerThread) throws InterruptedException {
+        final BoshBackedSessionContext session = new BoshBackedSessionContext(new BoshHandler(),
+                SERVER_RUNTIME_CONTEXT);
+        final Stanza stanza = new StanzaBuilder("message", NamespaceURIs.JABBER_CLIENT).build();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        // the client, each request carries a payload to not be treated as polling
+        Thread client = new Thread() {
+            @Override
+            public void run() {
+                Stanza body = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH).addPreparedElement(stanza)
+                        .build();
+                long rid = 1;
+                while (running.get()) {
+                    synchronized (session) {
+                        session.insertRequest(new BoshRequest(HTTP_REQUEST, body, rid++));
+                    }
+                    Thread.yield();
+                }
+            }
+        };
+        client.start();
+
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < stanzasPerThread; j++) {
+                        session.write(stanza);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long micros = (System.nanoTime() - begin) / 1000;
+        running.set(false);
+        client.join();
+
+        long writes = (long) threads * stanzasPerThread;
+        System.out.println(String.format("%2d writers: %9d writes in %6d ms, %10.0f writes/s", threads, writes,
+                micros / 1000, writes * 1000000.0 / micros));
+    }
+
+    /*
+     * Minimal stubs, the benchmark does not need mocks verifying calls
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, final Continuation continuation) {
+        return (T) Proxy.newProxyInstance(BoshContentionBenchmark.class.getClassLoader(), new Class[] { type },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getAttribute") && Continuation.ATTRIBUTE.equals(args[0])) {
+                            return continuation;
+                        } else if (name.equals("getNextSessionId")) {
+                            return "123";
+                        } else if (name.equals("getServerEnitity")) {
+                            return new EntityImpl(null, "vysper.org", null);
+                        } else if (name.equals("getDefaultXMLLang")) {
+                            return "en";
+                        } else if (method.getReturnType() == boolean.class) {
+                            return false;
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -21,6 +21,8 @@ package org.apache.vysper.xmpp.extension.xep0124;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 import static org.easymock.EasyMock.createStrictControl;
 import static org.easymock.EasyMock.expect;
 
@@ -81,4 +83,64 @@ public class BoshDecoderTest {
         assertEquals("en", request.getAttributeValue(NamespaceURIs.XML, "lang"));
     }
 
+    @Test
+    public void testDecodeEmptyBodyWithoutParsing() {
+        byte[] bytes = " <body rid=\"3549788616\" sid='123'\n xmlns='http://jabber.org/protocol/httpbind' />\r\n"
+                .getBytes();
+        Stanza body = BoshDecoder.decodeEmptyBody(bytes, bytes.length);
+        assertNotNull(body);
+        assertEquals("body", body.getName());
+        assertEquals(NamespaceURIs.XEP0124_BOSH, body.getNamespaceURI());
+        assertEquals("3549788616", body.getAttributeValue("rid"));
+        assertEquals("123", body.getAttributeValue("sid"));
+        assertEquals(2, body.getAttributes().size());
+        assertTrue(body.getInnerElements().isEmpty());
+    }
+
+    @Test
+    public void testDecodeEmptyBodyFallsBackToParser() {
+        assertNull(decodeEmptyBody("<body rid='1' xmlns='http://jabber.org/protocol/httpbind'><iq/></body>"));
+        assertNull(decodeEmptyBody("<body rid='1' xmlns='http://jabber.org/protocol/httpbind' xml:lang='en'/>"));
+        assertNull(decodeEmptyBody("<body rid='1&amp;' xmlns='http://jabber.org/protocol/httpbind'/>"));
+        assertNull(decodeEmptyBody("<body rid='1' xmlns='urn:other'/>"));
+        assertNull(decodeEmptyBody("<body rid='1'/>"));
+        assertNull(decodeEmptyBody("<body rid='1'xmlns='http://jabber.org/protocol/httpbind'/>"));
+        assertNull(decodeEmptyBody("<bodyx rid='1' xmlns='http://jabber.org/protocol/httpbind'/>"));
+    }
+
+    @Test
+    public void testDecoderReuse() throws IOException, SAXException {
+        // a body spanning several chunks, followed by an empty body
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            payload.append("<message xmlns='jabber:client' to='user@vysper.org'><body>message " + i
+                    + "</body></message>");
+        }
+        HttpServletRequest request2 = mocksControl.createMock(HttpServletRequest.class);
+        expect(request.getInputStream()).andReturn(new ServletInputStreamMock(
+                "<body rid='1' sid='123' xmlns='http://jabber.org/protocol/httpbind'>" + payload + "</body>\n"));
+        Capture<Stanza> captured1 = new Capture<Stanza>();
+        boshHandler.process(EasyMock.eq(request), EasyMock.<Stanza> capture(captured1));
+        expect(request2.getInputStream()).andReturn(new ServletInputStreamMock(
+                "<body rid='2' sid='123' xmlns='http://jabber.org/protocol/httpbind'/>"));
+        Capture<Stanza> captured2 = new Capture<Stanza>();
+        boshHandler.process(EasyMock.eq(request2), EasyMock.<Stanza> capture(captured2));
+        mocksControl.replay();
+
+        BoshDecoder decoder = new BoshDecoder(boshHandler);
+        decoder.decode(request);
+        decoder.decode(request2);
+        mocksControl.verify();
+
+        assertEquals("1", captured1.getValue().getAttributeValue("rid"));
+        assertEquals(100, captured1.getValue().getInnerElements().size());
+        assertEquals("2", captured2.getValue().getAttributeValue("rid"));
+        assertTrue(captured2.getValue().getInnerElements().isEmpty());
+    }
+
+    private Stanza decodeEmptyBody(String body) {
+        byte[] bytes = body.getBytes();
+        return BoshDecoder.decodeEmptyBody(bytes, bytes.length);
+    }
+
 }
@@ -174,21 +174,6 @@ public class BoshHandlerTest {
         assertEquals(NamespaceURIs.JABBER_CLIENT, body.getInnerElements().get(0).getNamespaceURI());
     }
 
-    @Test
-    public void testMergeResponses() {
-        Stanza response1 = createPingStanzaResponse("vysper.org", "user1@vysper.org/resource", "100");
-        Stanza response2 = createPingStanzaResponse("vysper.org", "user1@vysper.org/resource", "101");
-        assertEquals(response1, boshHandler.mergeResponses(response1, null));
-        assertEquals(response1, boshHandler.mergeResponses(null, response1));
-        Stanza merged = boshHandler.mergeResponses(response1, response2);
-        assertNotNull(merged);
-        assertEquals("body", merged.getName());
-        assertEquals(NamespaceURIs.XEP0124_BOSH, merged.getNamespaceURI());
-        assertEquals(2, merged.getInnerElements().size());
-        assertEquals(response1.getInnerElements().get(0), merged.getInnerElements().get(0));
-        assertEquals(response2.getInnerElements().get(0), merged.getInnerElements().get(1));
-    }
-
     private Stanza createSessionRequest() {
         StanzaBuilder body = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH);
         body.addAttribute("rid", "100");
@@ -210,12 +195,4 @@ public class BoshHandlerTest {
         return body.build();
     }
 
-    private static Stanza createPingStanzaResponse(String from, String to, String id) {
-        StanzaBuilder body = new StanzaBuilder("body", NamespaceURIs.XEP0124_BOSH);
-        body.startInnerElement("iq", NamespaceURIs.JABBER_CLIENT).addAttribute("from", from)
-                .addAttribute("type", "result").addAttribute("to", to).addAttribute("id", id);
-        body.endInnerElement();
-        return body.build();
-    }
-
 }
\ No newline at end of file
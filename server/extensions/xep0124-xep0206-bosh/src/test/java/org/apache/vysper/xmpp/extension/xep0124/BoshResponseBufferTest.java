@@ -0,0 +1,80 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.extension.xep0124;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.vysper.xml.fragment.Renderer;
+import org.apache.vysper.xmpp.extension.xep0124.BoshResponseBuffer.RenderedStanza;
+import org.apache.vysper.xmpp.protocol.NamespaceURIs;
+import org.apache.vysper.xmpp.stanza.Stanza;
+import org.apache.vysper.xmpp.stanza.StanzaBuilder;
+import org.junit.Test;
+
+public class BoshResponseBufferTest {
+
+    private final BoshHandler boshHandler = new BoshHandler();
+
+    @Test
+    public void testSameAsWrappedStanza() throws Exception {
+        Stanza[] stanzas = {
+                new StanzaBuilder("message", NamespaceURIs.JABBER_CLIENT).addAttribute("to", "juliet@vysper.org")
+                        .startInnerElement("body", NamespaceURIs.JABBER_CLIENT).addText("héllo & <bye>")
+                        .endInnerElement().build(),
+                new StanzaBuilder("presence").addAttribute("type", "unavailable").build(),
+                new StanzaBuilder("features", NamespaceURIs.HTTP_ETHERX_JABBER_ORG_STREAMS, "stream").build() };
+        for (Stanza stanza : stanzas) {
+            BoshResponseBuffer buffer = new BoshResponseBuffer();
+            buffer.add(new RenderedStanza(stanza));
+            String expected = new Renderer(boshHandler.wrapStanza(stanza)).getComplete();
+            assertEquals(expected, new String(buffer.flush(null), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        BoshResponseBuffer buffer = new BoshResponseBuffer();
+        assertTrue(buffer.isEmpty());
+        buffer.add(new RenderedStanza(new StanzaBuilder("message", NamespaceURIs.JABBER_CLIENT).build()));
+        buffer.add(new RenderedStanza(new StanzaBuilder("iq", NamespaceURIs.JABBER_CLIENT).build()));
+        assertFalse(buffer.isEmpty());
+        assertEquals("<body xmlns=\"http://jabber.org/protocol/httpbind\" ack=\"3\"><message xmlns=\"jabber:client\">"
+                + "</message><iq xmlns=\"jabber:client\"></iq></body>", new String(buffer.flush(3L), "UTF-8"));
+        assertTrue(buffer.isEmpty());
+        assertEquals("<body xmlns=\"http://jabber.org/protocol/httpbind\"></body>", new String(buffer.flush(null),
+                "UTF-8"));
+    }
+
+    @Test
+    public void testBindingError() {
+        Stanza bindingError = new StanzaBuilder("iq", NamespaceURIs.JABBER_CLIENT).addAttribute("type", "error")
+                .startInnerElement("bind", NamespaceURIs.URN_IETF_PARAMS_XML_NS_XMPP_BIND).endInnerElement().build();
+        BoshResponseBuffer buffer = new BoshResponseBuffer();
+        buffer.add(new RenderedStanza(new StanzaBuilder("message", NamespaceURIs.JABBER_CLIENT).build()));
+        assertFalse(buffer.containsBindingError());
+        buffer.add(new RenderedStanza(bindingError));
+        assertTrue(buffer.containsBindingError());
+        buffer.flush(null);
+        assertFalse(buffer.containsBindingError());
+        assertTrue(RenderedStanza.containsBindingError(boshHandler.wrapStanza(bindingError)));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.extension.xep0124;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoshSessionConfigurationTest {
+
+    private BoshSessionConfiguration configuration;
+
+    @Before
+    public void setUp() throws Exception {
+        configuration = new BoshSessionConfiguration();
+        configuration.setMinimumWait(10);
+        configuration.setHeldRequestsLowWatermark(100);
+        configuration.setHeldRequestsHighWatermark(200);
+    }
+
+    private void holdRequests(int count) {
+        for (int i = 0; i < count; i++) {
+            configuration.requestHeld();
+        }
+    }
+
+    @Test
+    public void testWaitUnchangedWhenNotAdaptive() {
+        holdRequests(500);
+        assertEquals(60, configuration.getEffectiveWait(60));
+    }
+
+    @Test
+    public void testAdaptiveWait() {
+        configuration.setAdaptiveWait(true);
+        holdRequests(100);
+        assertEquals(60, configuration.getEffectiveWait(60));
+        holdRequests(50);
+        assertEquals(35, configuration.getEffectiveWait(60));
+        holdRequests(50);
+        assertEquals(10, configuration.getEffectiveWait(60));
+        holdRequests(1000);
+        assertEquals(10, configuration.getEffectiveWait(60));
+        // never longer than what the client asked for
+        assertEquals(5, configuration.getEffectiveWait(5));
+    }
+
+    @Test
+    public void testHeldRequestsCount() {
+        holdRequests(3);
+        configuration.requestReleased();
+        assertEquals(2, configuration.getHeldRequests());
+    }
+
+    @Test
+    public void testNegativeValuesRejected() {
+        try {
+            configuration.setMaxWait(-1);
+            fail("negative wait accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(60, configuration.getMaxWait());
+    }
+}
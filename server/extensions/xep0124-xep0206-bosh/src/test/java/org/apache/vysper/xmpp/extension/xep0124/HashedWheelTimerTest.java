@@ -0,0 +1,131 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.extension.xep0124;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp() throws Exception {
+        // a small wheel, so that the tests cover timeouts spanning several turns
+        timer = new HashedWheelTimer(10, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        timer.stop();
+    }
+
+    @Test
+    public void testExpiresNotBeforeDeadline() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long[] expiredAt = new long[1];
+        HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+            public void run() {
+                expiredAt[0] = System.currentTimeMillis();
+                latch.countDown();
+            }
+        }, 150);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(expiredAt[0] >= timeout.getDeadline());
+        assertFalse(timeout.isCancelled());
+        assertEquals(0, timer.getPendingTimeouts());
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        final AtomicInteger counter = new AtomicInteger();
+        Runnable task = new Runnable() {
+            public void run() {
+                counter.incrementAndGet();
+            }
+        };
+        HashedWheelTimer.Timeout cancelled = timer.schedule(task, 50);
+        timer.schedule(task, 50);
+        assertEquals(2, timer.getPendingTimeouts());
+
+        assertTrue(timer.cancel(cancelled));
+        assertFalse(timer.cancel(cancelled));
+        assertTrue(cancelled.isCancelled());
+        assertEquals(1, timer.getPendingTimeouts());
+
+        Thread.sleep(300);
+        assertEquals(1, counter.get());
+        assertEquals(0, timer.getPendingTimeouts());
+    }
+
+    @Test
+    public void testReschedule() throws InterruptedException {
+        final AtomicInteger counter = new AtomicInteger();
+        Runnable task = new Runnable() {
+            public void run() {
+                counter.incrementAndGet();
+            }
+        };
+        HashedWheelTimer.Timeout timeout = null;
+        for (int i = 0; i < 100; i++) {
+            timeout = timer.reschedule(timeout, task, 100);
+        }
+        assertEquals(1, timer.getPendingTimeouts());
+        Thread.sleep(400);
+        assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void testManyTimeoutsOneThread() throws InterruptedException {
+        int count = 20000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        Runnable task = new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        };
+        int threadsBefore = Thread.activeCount();
+        for (int i = 0; i < count; i++) {
+            timer.schedule(task, i % 200);
+        }
+        assertTrue(Thread.activeCount() <= threadsBefore + 1);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, timer.getPendingTimeouts());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testScheduleAfterStop() {
+        timer.stop();
+        timer.schedule(new Runnable() {
+            public void run() {
+            }
+        }, 10);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.vysper.xmpp.extension.xep0124;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.vysper.mina.websocket.WebSocketEndpoint;
+import org.apache.vysper.storage.StorageProviderRegistry;
+import org.apache.vysper.storage.inmemory.MemoryStorageProviderRegistry;
+import org.apache.vysper.xmpp.authorization.AccountManagement;
+import org.apache.vysper.xmpp.server.XMPPServer;
+
+/**
+ * Compares the per-message latency and the server CPU time of XMPP over BOSH and over WebSocket. Every client
+ * logs in, then sends messages to itself, waiting for each message to come back before sending the next one.
+ * Not run as part of the unit tests, start it manually from the module directory:
+ * <pre>
+ * WebSocketBoshBenchmark [clients] [messagesPerClient]
+ * </pre>
+ * The server CPU time is the CPU time of the process minus the CPU time of the client threads.
+ */
+public class WebSocketBoshBenchmark {
+
+    private static final String DOMAIN = "vysper.org";
+
+    private static final String PASSWORD = "password1";
+
+    private interface Client {
+
+        /**
+         * @return the full JID bound to the session
+         */
+        String login(String username) throws IOException;
+
+        /**
+         * sends a message to the client itself and waits for it
+         */
+        void roundTrip(String jid, int id) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    private interface ClientFactory {
+        Client create() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        StorageProviderRegistry providerRegistry = new MemoryStorageProviderRegistry();
+        AccountManagement accountManagement = (AccountManagement) providerRegistry.retrieve(AccountManagement.class);
+        for (int i = 0; i < clients; i++) {
+            accountManagement.addUser("user" + i + "@" + DOMAIN, PASSWORD);
+        }
+
+        XMPPServer server = new XMPPServer(DOMAIN);
+        server.setStorageProviderRegistry(providerRegistry);
+        server.setTLSCertificateInfo(new File("src/test/resources/bogus_mina_tls.cert"), "boguspw");
+        final int boshPort = findFreePort();
+        BoshEndpoint boshEndpoint = new BoshEndpoint();
+        boshEndpoint.setPort(boshPort);
+        server.addEndpoint(boshEndpoint);
+        final int webSocketPort = findFreePort();
+        WebSocketEndpoint webSocketEndpoint = new WebSocketEndpoint();
+        webSocketEndpoint.setPort(webSocketPort);
+        webSocketEndpoint.setInsecureAllowed(true);
+        server.addEndpoint(webSocketEndpoint);
+        server.start();
+
+        ClientFactory bosh = new ClientFactory() {
+            public Client create() {
+                return new BoshClient(boshPort);
+            }
+        };
+        ClientFactory webSocket = new ClientFactory() {
+            public Client create() throws IOException {
+                return new WebSocketClient(webSocketPort);
+            }
+        };
+        for (int round = 0; round < 2; round++) { // first round warms up
+            System.out.println(round == 0 ? "warm up" : "measure");
+            run("BOSH", bosh, clients, messages);
+            run("WebSocket", webSocket, clients, messages);
+        }
+        server.stop();
+        System.exit(0);
+    }
+
+    private static void run(String transport, ClientFactory factory, int clientCount, final int messages)
+            throws Exception {
+        final List<Client> clients = new ArrayList<Client>();
+        final List<String> jids = new ArrayList<String>();
+        for (int i = 0; i < clientCount; i++) {
+            Client client = factory.create();
+            jids.add(client.login("user" + i));
+            clients.add(client);
+        }
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final long[][] latencies = new long[clientCount][messages];
+        final AtomicLong clientCpu = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(clientCount);
+        for (int i = 0; i < clientCount; i++) {
+            final int index = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long cpu = threadBean.getCurrentThreadCpuTime();
+                        for (int j = 0; j < messages; j++) {
+                            long sent = System.nanoTime();
+                            clients.get(index).roundTrip(jids.get(index), j);
+                            latencies[index][j] = System.nanoTime() - sent;
+                        }
+                        clientCpu.addAndGet(threadBean.getCurrentThreadCpuTime() - cpu);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long cpu = processCpuTime();
+        long started = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - started;
+        long serverCpu = processCpuTime() - cpu - clientCpu.get();
+
+        for (Client client : clients) {
+            client.close();
+        }
+
+        long[] all = new long[clientCount * messages];
+        for (int i = 0; i < clientCount; i++) {
+            System.arraycopy(latencies[i], 0, all, i * messages, messages);
+        }
+        Arrays.sort(all);
+        long sum = 0;
+        for (long latency : all) {
+            sum += latency;
+        }
+        System.out.println(String.format(
+                "%-9s %4d clients: %6d msg/s, latency avg %6d us, p99 %6d us, server CPU %5d us/msg", transport,
+                clientCount, all.length * 1000000000L / elapsed, sum / all.length / 1000,
+                all[(int) (all.length * 0.99)] / 1000, serverCpu / all.length / 1000));
+    }
+
+    private static long processCpuTime() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private static int findFreePort() throws IOException {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            return ss.getLocalPort();
+        } finally {
+            ss.close();
+        }
+    }
+
+    private static String plainCredentials(String username) {
+        return new String(Base64.encodeBase64(("\u0000" + username + "\u0000" + PASSWORD).getBytes()));
+    }
+
+    private static String message(String jid, int id) {
+        return "<message xmlns='jabber:client' type='chat' to='" + jid + "' id='m" + id + "'><body>ping " + id
+                + "</body></message>";
+    }
+
+    private static boolean containsMessage(String response, int id) {
+        return response.contains("id=\"m" + id + "\"");
+    }
+
+    private static String extract(String response, String start, String end) {
+        int from = response.indexOf(start);
+        if (from < 0) {
+            throw new IllegalStateException("unexpected response " + response);
+        }
+        from += start.length();
+        return response.substring(from, response.indexOf(end, from));
+    }
+
+    private static class BoshClient implements Client {
+
+        private final DefaultHttpClient httpClient = new DefaultHttpClient();
+
+        private final String url;
+
+        private long rid = 1000;
+
+        private String sid;
+
+        public BoshClient(int port) {
+            url = "http://localhost:" + port + "/";
+        }
+
+        private String post(String body) throws IOException {
+            HttpPost post = new HttpPost(url);
+            post.setEntity(new StringEntity(body, "UTF-8"));
+            return EntityUtils.toString(httpClient.execute(post).getEntity());
+        }
+
+        private String body(String payload) throws IOException {
+            return post("<body rid='" + rid++ + "' sid='" + sid + "' xmlns='http://jabber.org/protocol/httpbind'>"
+                    + payload + "</body>");
+        }
+
+        public String login(String username) throws IOException {
+            String response = post("<body rid='" + rid++ + "' xmlns='http://jabber.org/protocol/httpbind' to='"
+                    + DOMAIN + "' xml:lang='en' wait='60' hold='1' ver='1.9' xmpp:version='1.0' "
+                    + "xmlns:xmpp='urn:xmpp:xbosh'/>");
+            sid = extract(response, "sid=\"", "\"");
+            body("<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='PLAIN'>" + plainCredentials(username)
+                    + "</auth>");
+            post("<body rid='" + rid++ + "' sid='" + sid + "' xmlns='http://jabber.org/protocol/httpbind' to='"
+                    + DOMAIN + "' xml:lang='en' xmpp:restart='true' xmlns:xmpp='urn:xmpp:xbosh'/>");
+            response = body("<iq type='set' id='bind' xmlns='jabber:client'>"
+                    + "<bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></iq>");
+            return extract(response, "<jid>", "</jid>");
+        }
+
+        public void roundTrip(String jid, int id) throws IOException {
+            String response = body(message(jid, id));
+            while (!containsMessage(response, id)) {
+                response = body("");
+            }
+        }
+
+        public void close() throws IOException {
+            post("<body rid='" + rid++ + "' sid='" + sid + "' type='terminate' "
+                    + "xmlns='http://jabber.org/protocol/httpbind'/>");
+            httpClient.getConnectionManager().shutdown();
+        }
+    }
+
+    private static class WebSocketClient implements Client {
+
+        private static final byte[] MASK = { 0x12, 0x34, 0x56, 0x78 };
+
+        private final Socket socket;
+
+        private final DataInputStream in;
+
+        private final OutputStream out;
+
+        public WebSocketClient(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        private void send(String element) throws IOException {
+            byte[] data = element.getBytes("UTF-8");
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(data.length + 8);
+            frame.write(0x81);
+            if (data.length < 126) {
+                frame.write(0x80 | data.length);
+            } else {
+                frame.write(0x80 | 126);
+                frame.write(data.length >> 8);
+                frame.write(data.length & 0xFF);
+            }
+            frame.write(MASK);
+            for (int i = 0; i < data.length; i++) {
+                frame.write(data[i] ^ MASK[i & 3]);
+            }
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+
+        private String receive() throws IOException {
+            in.readUnsignedByte();
+            int length = in.readUnsignedByte();
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            } else if (length == 127) {
+                length = (int) in.readLong();
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            return new String(payload, "UTF-8");
+        }
+
+        private void open() throws IOException {
+            send("<open xmlns='urn:ietf:params:xml:ns:xmpp-framing' to='" + DOMAIN + "' version='1.0'/>");
+            receive(); // <open/>
+            receive(); // <stream:features/>
+        }
+
+        public String login(String username) throws IOException {
+            out.write(("GET / HTTP/1.1\r\nHost: " + DOMAIN + "\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n"
+                    + "Sec-WebSocket-Protocol: xmpp\r\n\r\n").getBytes("US-ASCII"));
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            while (!response.toString("US-ASCII").endsWith("\r\n\r\n")) {
+                response.write(in.readUnsignedByte());
+            }
+            open();
+            send("<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='PLAIN'>" + plainCredentials(username)
+                    + "</auth>");
+            receive(); // <success/>
+            open();
+            send("<iq type='set' id='bind' xmlns='jabber:client'><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></iq>");
+            return extract(receive(), "<jid>", "</jid>");
+        }
+
+        public void roundTrip(String jid, int id) throws IOException {
+            send(message(jid, id));
+            while (!containsMessage(receive(), id)) {
+                // skip other stanzas
+            }
+        }
+
+        public void close() throws IOException {
+            send("<close xmlns='urn:ietf:params:xml:ns:xmpp-framing'/>");
+            socket.close();
+        }
+    }
+}